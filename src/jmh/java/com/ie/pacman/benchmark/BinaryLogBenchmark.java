@@ -0,0 +1,86 @@
+package com.ie.pacman.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ie.pacman.engine.BinaryLog;
+import com.ie.pacman.engine.PacmanBatchRunner;
+import com.ie.pacman.engine.PacmanEngine;
+
+/**
+ * Throughput of {@link PacmanBatchRunner} over the same generated script, as
+ * text lines and as a {@link BinaryLog}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BinaryLogBenchmark {
+
+	@Param({ "1000000" })
+	public int length;
+
+	private byte[] text;
+	private byte[] binary;
+	private PacmanEngine engine;
+	private PacmanBatchRunner runner;
+	private final WritableByteChannel sink = new WritableByteChannel() {
+		@Override
+		public int write(ByteBuffer src) {
+			int n = src.remaining();
+			src.position(src.limit());
+			return n;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public void close() {
+		}
+	};
+
+	@Setup
+	public void setUp() throws IOException {
+		text = (String.join("\n", Scripts.generate(length, 0.0, 5, 5)) + "\n").getBytes(StandardCharsets.US_ASCII);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryLog.toBinary(Channels.newChannel(new ByteArrayInputStream(text)), Channels.newChannel(out));
+		binary = out.toByteArray();
+		engine = new PacmanEngine();
+		runner = new PacmanBatchRunner(engine);
+	}
+
+	@Benchmark
+	public long text() throws IOException {
+		engine.reset();
+		return runner.run(Channels.newChannel(new ByteArrayInputStream(text)), sink);
+	}
+
+	@Benchmark
+	public long binary() throws IOException {
+		engine.reset();
+		return runner.runBinary(Channels.newChannel(new ByteArrayInputStream(binary)), sink);
+	}
+}
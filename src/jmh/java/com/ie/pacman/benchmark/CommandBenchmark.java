@@ -0,0 +1,48 @@
+package com.ie.pacman.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ie.pacman.engine.PacmanEngine;
+import com.ie.pacman.model.Pacman.Direction;
+
+/**
+ * Cost of {@link PacmanEngine#processInstruction(String)} per command type,
+ * including malformed lines.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandBenchmark {
+
+	@Param({ "PLACE 2,3,EAST", " place 1 , 2 , north ", "MOVE", "LEFT", "RIGHT", "GOTO 4,1", "REPORT", "BLAH", "PLACE 1,2,UP" })
+	public String command;
+
+	private PacmanEngine engine;
+
+	@Setup(Level.Iteration)
+	public void setUp() {
+		engine = new PacmanEngine();
+		engine.place(2, 2, Direction.NORTH);
+	}
+
+	@Benchmark
+	public String processInstruction() {
+		return engine.processInstruction(command);
+	}
+}
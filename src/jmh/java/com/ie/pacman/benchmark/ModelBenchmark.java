@@ -0,0 +1,96 @@
+package com.ie.pacman.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ie.pacman.model.Grid;
+import com.ie.pacman.model.Pacman;
+import com.ie.pacman.model.Pacman.Direction;
+import com.ie.pacman.model.ReportEncoder;
+
+/**
+ * Cost of the {@link Pacman}, {@link Grid} and {@link ReportEncoder} model
+ * operations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelBenchmark {
+
+	private static final int COORDINATES = 1024;
+
+	private Pacman pacman;
+	private Grid grid;
+	private ReportEncoder encoder;
+	private ByteBuffer out;
+	private int[] xs;
+	private int[] ys;
+	private int next;
+
+	@Setup
+	public void setUp() {
+		pacman = new Pacman(2, 2, Direction.EAST);
+		grid = new Grid(5, 5);
+		encoder = ReportEncoder.of(5, 5);
+		out = ByteBuffer.allocate(ReportEncoder.MAX_LENGTH);
+		// a mix of valid and invalid coordinates defeats branch prediction
+		Random random = new Random(42);
+		xs = new int[COORDINATES];
+		ys = new int[COORDINATES];
+		for (int i = 0; i < COORDINATES; i++) {
+			xs[i] = random.nextInt(7) - 1;
+			ys[i] = random.nextInt(7) - 1;
+		}
+	}
+
+	@Benchmark
+	public Pacman move() {
+		pacman.move();
+		return pacman;
+	}
+
+	@Benchmark
+	public Pacman turnLeft() {
+		pacman.turnLeft();
+		return pacman;
+	}
+
+	@Benchmark
+	public Pacman turnRight() {
+		pacman.turnRight();
+		return pacman;
+	}
+
+	@Benchmark
+	public boolean isValidXY() {
+		int i = next++ & (COORDINATES - 1);
+		return grid.isValidXY(xs[i], ys[i]);
+	}
+
+	@Benchmark
+	public String report() {
+		return pacman.report();
+	}
+
+	@Benchmark
+	public ByteBuffer reportEncoded() {
+		out.clear();
+		encoder.encode(pacman, out);
+		return out;
+	}
+}
@@ -0,0 +1,51 @@
+package com.ie.pacman.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ie.pacman.engine.PacmanEngine;
+
+/**
+ * Throughput of {@link PacmanEngine#processInstructions(String[])} over large
+ * generated scripts with a realistic command mix.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScriptBenchmark {
+
+	@Param({ "10000", "1000000" })
+	public int length;
+
+	@Param({ "0.0", "0.05" })
+	public double malformedRatio;
+
+	private String[] script;
+	private PacmanEngine engine;
+
+	@Setup
+	public void setUp() {
+		script = Scripts.generate(length, malformedRatio, 5, 5);
+		engine = new PacmanEngine();
+	}
+
+	@Benchmark
+	public String processInstructions() {
+		engine.reset();
+		return engine.processInstructions(script);
+	}
+}
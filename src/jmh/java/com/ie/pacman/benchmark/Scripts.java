@@ -0,0 +1,51 @@
+package com.ie.pacman.benchmark;
+
+import java.util.Random;
+
+/**
+ * Generates reproducible command scripts for the benchmarks.
+ */
+final class Scripts {
+
+	private static final String[] DIRECTIONS = { "NORTH", "EAST", "SOUTH", "WEST" };
+	private static final String[] MALFORMED = { "", "BLAH", "PLACE", "PLACE 1,2", "PLACE 1,2,UP", "MOVE 2",
+			"REPORTS", "quit " };
+
+	private Scripts() {
+	}
+
+	/**
+	 * Creates a script mixing commands the way generated client scripts do: a
+	 * PLACE roughly every 100 lines, mostly MOVEs, some turns and a few REPORTs.
+	 *
+	 * @param length         number of lines
+	 * @param malformedRatio share of malformed lines, between 0 and 1
+	 * @param unitsX         width of the grid PLACE coordinates are drawn from
+	 * @param unitsY         height of the grid PLACE coordinates are drawn from
+	 * @return the script, starting with a PLACE
+	 */
+	static String[] generate(int length, double malformedRatio, int unitsX, int unitsY) {
+		Random random = new Random(42);
+		String[] script = new String[length];
+		for (int i = 0; i < length; i++) {
+			if (i == 0 || random.nextInt(100) == 0) {
+				script[i] = "PLACE " + random.nextInt(unitsX) + "," + random.nextInt(unitsY) + ","
+						+ DIRECTIONS[random.nextInt(DIRECTIONS.length)];
+			} else if (random.nextDouble() < malformedRatio) {
+				script[i] = MALFORMED[random.nextInt(MALFORMED.length)];
+			} else {
+				int r = random.nextInt(100);
+				if (r < 60) {
+					script[i] = "MOVE";
+				} else if (r < 77) {
+					script[i] = "LEFT";
+				} else if (r < 94) {
+					script[i] = "RIGHT";
+				} else {
+					script[i] = "REPORT";
+				}
+			}
+		}
+		return script;
+	}
+}
@@ -1,17 +1,175 @@
 package com.ie.pacman;
 
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ie.pacman.cluster.HashRing;
+import com.ie.pacman.cluster.PacmanCoordinator;
+import com.ie.pacman.cluster.PacmanWorker;
+import com.ie.pacman.engine.OutputRing;
+import com.ie.pacman.engine.PacmanBatchRunner;
 import com.ie.pacman.engine.PacmanEngine;
+import com.ie.pacman.engine.PacmanSessionRegistry;
+import com.ie.pacman.metrics.PacmanMetrics;
+import com.ie.pacman.model.Grid;
+import com.ie.pacman.model.Pellets;
+import com.ie.pacman.server.PacmanServer;
 
 public class PacmanApp {
 
+	private static final String ARG_STDIN = "-";
+	private static final String ARG_MAP = "--map";
+	private static final String ARG_SERVE = "--serve";
+	private static final String ARG_PELLETS = "--pellets";
+	private static final String ARG_WORKER = "--worker";
+	private static final String ARG_WORKERS = "--workers";
+	private static final String WORKER_PREFIX = "worker-";
+	private static final String METRICS_NAME = "server";
+	private static final String USAGE = "Usage: [--map map-file] [--pellets] [--serve port [--workers count]"
+			+ " | --worker port | command-file]";
+
 	/**
-	 * Runs the Pacman simulation
-	 * 
-	 * @param args
+	 * Runs the Pacman simulation. <br>
+	 * With no command file and an interactive console, commands are read from the
+	 * console. Otherwise commands are streamed in batch mode from the command
+	 * file, or from the standard input when there is no file or the file is "-",
+	 * the results being written by a thread of their own.
+	 * With --serve, the simulation is served over TCP instead, with one session
+	 * per connection. With --pellets, every open cell starts with a pellet. <br>
+	 * With --workers as well, the sessions are spread over that many worker
+	 * processes on this host, started with --worker; --workers without --serve
+	 * is a usage error. <br>
+	 * Usage: [--map map-file] [--pellets] [--serve port [--workers count] |
+	 * --worker port | command-file]
+	 *
+	 * @param args optional map of the grid, pellets, server port, number of
+	 *             workers, worker port or path of a command file
 	 */
 	public static void main(String[] args) {
-		PacmanEngine.getInstance().run();
+		try {
+			Grid grid = null;
+			Integer port = null;
+			Integer workerPort = null;
+			int workers = 0;
+			boolean pellets = false;
+			String commands = null;
+			// passed on to the worker processes
+			List<String> workerArgs = new ArrayList<>();
+			for (int i = 0; i < args.length; i++) {
+				if (ARG_MAP.equals(args[i]) && i + 1 < args.length) {
+					workerArgs.add(args[i]);
+					workerArgs.add(args[i + 1]);
+					grid = Grid.load(Paths.get(args[++i]));
+				} else if (ARG_PELLETS.equals(args[i])) {
+					workerArgs.add(args[i]);
+					pellets = true;
+				} else if (ARG_SERVE.equals(args[i]) && i + 1 < args.length) {
+					port = Integer.valueOf(args[++i]);
+				} else if (ARG_WORKERS.equals(args[i]) && i + 1 < args.length) {
+					workers = Integer.parseInt(args[++i]);
+				} else if (ARG_WORKER.equals(args[i]) && i + 1 < args.length) {
+					workerPort = Integer.valueOf(args[++i]);
+				} else {
+					commands = args[i];
+				}
+			}
+
+			if (workers != 0 && (port == null || workers < 0)) {
+				System.err.println(USAGE);
+				System.exit(1);
+			}
+			if (workerPort != null) {
+				work(grid == null ? new Grid(5, 5) : grid, workerPort, pellets);
+				return;
+			}
+			if (port != null && workers > 0) {
+				coordinate(port, workers, workerArgs);
+				return;
+			}
+			if (port != null) {
+				serve(grid == null ? new Grid(5, 5) : grid, port, pellets);
+				return;
+			}
+
+			PacmanEngine engine = grid == null ? PacmanEngine.getInstance() : new PacmanEngine(grid);
+			if (pellets) {
+				engine.setPellets(Pellets.of(engine.getGrid()));
+			}
+			if (commands == null && System.console() != null) {
+				engine.run();
+				System.exit(0);
+			}
+
+			PacmanBatchRunner runner = new PacmanBatchRunner(engine);
+			try (FileChannel stdout = new FileOutputStream(FileDescriptor.out).getChannel();
+					OutputRing out = new OutputRing(stdout)) {
+				if (commands == null || ARG_STDIN.equals(commands)) {
+					runner.run(new FileInputStream(FileDescriptor.in).getChannel(), out);
+				} else {
+					runner.run(Paths.get(commands), out);
+				}
+			}
+		} catch (IOException | NumberFormatException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
 		System.exit(0);
 	}
 
+	/**
+	 * Serves the simulation until the process is stopped, with the metrics of
+	 * all the connections published through JMX
+	 */
+	private static void serve(Grid grid, int port, boolean pellets) throws IOException {
+		PacmanMetrics metrics = new PacmanMetrics();
+		metrics.register(METRICS_NAME);
+		PacmanSessionRegistry registry = new PacmanSessionRegistry();
+		registry.setMetrics(metrics);
+		registry.setPellets(pellets);
+		PacmanServer server = new PacmanServer(registry, grid);
+		server.start(new InetSocketAddress(port));
+		System.out.println("Pacman server listening on port " + server.getPort());
+	}
+
+	/**
+	 * Runs a worker of a coordinator until the process is stopped, listening on
+	 * the loopback interface only
+	 */
+	private static void work(Grid grid, int port, boolean pellets) throws IOException {
+		PacmanSessionRegistry registry = new PacmanSessionRegistry();
+		registry.setPellets(pellets);
+		PacmanWorker worker = new PacmanWorker(registry, grid);
+		worker.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+		System.out.println("Pacman worker listening on port " + worker.getPort());
+	}
+
+	/**
+	 * Serves the simulation until the process is stopped, spreading the sessions
+	 * over worker processes that are stopped with it
+	 */
+	private static void coordinate(int port, int workers, List<String> workerArgs) throws IOException {
+		PacmanCoordinator coordinator = new PacmanCoordinator(HashRing.DEFAULT_VIRTUAL_NODES, workerArgs);
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			try {
+				coordinator.close();
+			} catch (IOException e) {
+				System.err.println(e.getMessage());
+			}
+		}));
+		for (int i = 0; i < workers; i++) {
+			coordinator.spawnWorker(WORKER_PREFIX + i);
+		}
+		coordinator.start(new InetSocketAddress(port));
+		System.out.println("Pacman coordinator listening on port " + coordinator.getPort() + " with " + workers
+				+ " workers");
+	}
+
 }
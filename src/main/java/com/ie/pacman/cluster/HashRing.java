@@ -0,0 +1,139 @@
+package com.ie.pacman.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable consistent hash ring mapping session identifiers to workers.
+ * <br>
+ * Every worker is hashed to {@code virtualNodes} points of a 64 bit ring, and
+ * a session belongs to the worker of the first point at or after its own hash,
+ * found by a binary search in a sorted array. Adding or removing a worker
+ * therefore only moves the sessions between its points and the points before
+ * them, about 1/N of the sessions, and the virtual nodes spread the load
+ * evenly.
+ *
+ * @see #with(String)
+ * @see #without(String)
+ */
+public final class HashRing {
+
+	/** Default number of points per worker */
+	public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+	private final int virtualNodes;
+	private final List<String> workers;
+	// sorted hashes of the points, and the worker of each of them
+	private final long[] points;
+	private final String[] owners;
+
+	/**
+	 * Create a ring without worker
+	 *
+	 * @param virtualNodes number of points per worker
+	 */
+	public HashRing(int virtualNodes) {
+		this(virtualNodes, Collections.emptyList());
+	}
+
+	private HashRing(int virtualNodes, List<String> workers) {
+		if (virtualNodes <= 0) {
+			throw new IllegalArgumentException("virtualNodes must be positive: " + virtualNodes);
+		}
+		this.virtualNodes = virtualNodes;
+		this.workers = Collections.unmodifiableList(workers);
+		int n = workers.size() * virtualNodes;
+		long[] keys = new long[n];
+		int i = 0;
+		for (String worker : workers) {
+			for (int v = 0; v < virtualNodes; v++) {
+				keys[i++] = hash(worker + '#' + v);
+			}
+		}
+		// sort the points with their owner, ties broken by worker order
+		Integer[] order = new Integer[n];
+		for (i = 0; i < n; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> keys[a] != keys[b] ? Long.compare(keys[a], keys[b]) : Integer.compare(a, b));
+		this.points = new long[n];
+		this.owners = new String[n];
+		for (i = 0; i < n; i++) {
+			points[i] = keys[order[i]];
+			owners[i] = workers.get(order[i] / virtualNodes);
+		}
+	}
+
+	/**
+	 * @param worker name of the worker to add
+	 * @return a ring with the given worker too
+	 * @throws IllegalArgumentException if the worker is already in the ring
+	 */
+	public HashRing with(String worker) {
+		if (workers.contains(worker)) {
+			throw new IllegalArgumentException("worker already in the ring: " + worker);
+		}
+		List<String> list = new ArrayList<>(workers);
+		list.add(worker);
+		return new HashRing(virtualNodes, list);
+	}
+
+	/**
+	 * @param worker name of the worker to remove
+	 * @return a ring without the given worker
+	 * @throws IllegalArgumentException if the worker is not in the ring
+	 */
+	public HashRing without(String worker) {
+		List<String> list = new ArrayList<>(workers);
+		if (!list.remove(worker)) {
+			throw new IllegalArgumentException("worker not in the ring: " + worker);
+		}
+		return new HashRing(virtualNodes, list);
+	}
+
+	/**
+	 * @return the workers of the ring, in the order they were added
+	 */
+	public List<String> getWorkers() {
+		return workers;
+	}
+
+	/**
+	 * @param session identifier of a session
+	 * @return the worker of the session, or null if the ring has no worker
+	 */
+	public String ownerOf(String session) {
+		if (points.length == 0) {
+			return null;
+		}
+		int i = Arrays.binarySearch(points, hash(session));
+		if (i < 0) {
+			i = -i - 1;
+			if (i == points.length) {
+				i = 0; // wraps around
+			}
+		} else {
+			while (i > 0 && points[i - 1] == points[i]) {
+				i--; // first of equal points
+			}
+		}
+		return owners[i];
+	}
+
+	/**
+	 * 64 bit FNV-1a of the UTF-8 bytes, with a final mix so that close keys
+	 * spread over the whole ring
+	 */
+	static long hash(String key) {
+		long h = 0xcbf29ce484222325L;
+		for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+			h = (h ^ (b & 0xff)) * 0x100000001b3L;
+		}
+		h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+		h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		return h ^ (h >>> 33);
+	}
+}
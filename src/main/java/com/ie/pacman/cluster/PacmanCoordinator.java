@@ -0,0 +1,555 @@
+package com.ie.pacman.cluster;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.ie.pacman.engine.Command;
+import com.ie.pacman.engine.CommandParser;
+import com.ie.pacman.engine.LineScanner;
+
+/**
+ * Spreads sessions over worker processes on the same host. <br>
+ * Every session belongs to the worker given by a consistent {@link HashRing},
+ * and its commands are forwarded to that worker over a local socket, see
+ * {@link PacmanWorker}. The commands of concurrent sessions bound to the same
+ * worker are sent together as one frame, so a worker costs one round trip per
+ * batch rather than one per command. The output of a REPEAT is drained from
+ * its worker a chunk at a time, as fast as the client of the session reads
+ * it. <br>
+ * When a worker is added or removed, only the sessions whose owner changes are
+ * moved, with the state of their engine: the position of Pacman, the pellets
+ * eaten, the macros defined and the output of a REPEAT left to drain. A
+ * session is copied to its new worker and only then removed from the previous
+ * one, so that a worker failing to take it leaves it in place. Commands wait
+ * while sessions move. A worker whose connection fails, or that does not
+ * answer within the response timeout, see {@link #setResponseTimeout(long)},
+ * is removed in the same way, its sessions starting again from scratch on the
+ * other workers. <br>
+ * The coordinator can also serve the engine line protocol over TCP, see
+ * {@link #start(InetSocketAddress)}, so that the clients of a
+ * {@link com.ie.pacman.server.PacmanServer} can use it unchanged. It drops the
+ * lines longer than {@link LineScanner#DEFAULT_MAX_LINE_LENGTH} bytes as well.
+ *
+ * @see #addWorker(String, InetSocketAddress)
+ * @see #spawnWorker(String)
+ */
+public class PacmanCoordinator implements Closeable {
+
+	private static final int READ_BUFFER_SIZE = 1 << 16;
+	private static final String SESSION_PREFIX = "conn-";
+
+	private final List<String> workerArgs;
+	private final Map<String, WorkerClient> workers = new ConcurrentHashMap<>();
+	private final Set<String> sessions = ConcurrentHashMap.newKeySet();
+	// commands hold the read lock, moving sessions holds the write lock
+	private final ReadWriteLock lock = new ReentrantReadWriteLock(true);
+	private final Set<SocketChannel> connections = ConcurrentHashMap.newKeySet();
+	private final AtomicLong connectionIds = new AtomicLong();
+	private final AtomicLong lostSessions = new AtomicLong();
+	private volatile HashRing ring;
+	private volatile long responseTimeout = WorkerClient.DEFAULT_RESPONSE_TIMEOUT_MILLIS;
+
+	private ServerSocketChannel server;
+	private Thread acceptor;
+	private volatile boolean running;
+
+	/**
+	 * Create a coordinator without worker
+	 */
+	public PacmanCoordinator() {
+		this(HashRing.DEFAULT_VIRTUAL_NODES, Collections.emptyList());
+	}
+
+	/**
+	 * Create a coordinator without worker
+	 *
+	 * @param virtualNodes number of points per worker on the hash ring
+	 * @param workerArgs   extra arguments of the worker processes, such as
+	 *                     --map map-file or --pellets
+	 */
+	public PacmanCoordinator(int virtualNodes, List<String> workerArgs) {
+		if (workerArgs == null) {
+			throw new IllegalArgumentException("workerArgs must not be null");
+		}
+		this.ring = new HashRing(virtualNodes);
+		this.workerArgs = new ArrayList<>(workerArgs);
+	}
+
+	/**
+	 * Sets how long to wait for a worker to answer a request before its
+	 * connection is failed and the worker dropped, for the workers added after
+	 *
+	 * @param millis response timeout in milliseconds, 30 seconds by default
+	 */
+	public void setResponseTimeout(long millis) {
+		if (millis <= 0) {
+			throw new IllegalArgumentException("millis must be positive: " + millis);
+		}
+		this.responseTimeout = millis;
+	}
+
+	/**
+	 * Adds a running worker, moving to it the sessions it now owns
+	 *
+	 * @param name    of the worker, unique in the coordinator
+	 * @param address of the worker
+	 * @throws IOException if the worker cannot be reached
+	 */
+	public void addWorker(String name, InetSocketAddress address) throws IOException {
+		add(name, WorkerClient.connect(name, address, responseTimeout));
+	}
+
+	/**
+	 * Starts a worker process on this host, running this application with the
+	 * class path of this JVM, and adds it. The process is stopped when the
+	 * worker is removed or the coordinator closed.
+	 *
+	 * @param name of the worker, unique in the coordinator
+	 * @throws IOException if the process cannot be started
+	 */
+	public void spawnWorker(String name) throws IOException {
+		List<String> args = new ArrayList<>();
+		args.add("--worker");
+		args.add("0");
+		args.addAll(workerArgs);
+		add(name, WorkerClient.spawn(name, args, responseTimeout));
+	}
+
+	private void add(String name, WorkerClient client) throws IOException {
+		lock.writeLock().lock();
+		try {
+			if (workers.containsKey(name)) {
+				throw new IllegalArgumentException("worker already added: " + name);
+			}
+			HashRing next = ring.with(name);
+			workers.put(name, client);
+			rebalance(next);
+		} catch (IOException | RuntimeException e) {
+			workers.remove(name, client);
+			client.close();
+			throw e;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes a worker, moving its sessions to the other workers, and stops it if
+	 * it was spawned. The sessions of a worker that cannot be reached start
+	 * again with Pacman not placed, see {@link #getLostSessionCount()}.
+	 *
+	 * @param name of the worker
+	 * @throws IOException if a session cannot be moved
+	 * @throws IllegalStateException if it is the last worker and sessions are
+	 *                               open
+	 */
+	public void removeWorker(String name) throws IOException {
+		lock.writeLock().lock();
+		try {
+			WorkerClient client = workers.get(name);
+			if (client == null) {
+				throw new IllegalArgumentException("unknown worker: " + name);
+			}
+			if (workers.size() == 1 && !sessions.isEmpty()) {
+				throw new IllegalStateException("cannot remove the last worker of " + sessions.size() + " sessions");
+			}
+			rebalance(ring.without(name));
+			workers.remove(name);
+			client.close();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Moves the sessions whose owner differs on the given ring, then switches to
+	 * it. A session is copied to its new owner, and only removed from its
+	 * previous owner once every copy is imported, so that a failed import leaves
+	 * the sessions where they were. The exports are sent at once so that they
+	 * share frames, as are the imports and the removals.
+	 */
+	private void rebalance(HashRing next) throws IOException {
+		HashRing current = ring;
+		Map<String, CompletableFuture<byte[]>> exports = new LinkedHashMap<>();
+		Map<String, String> sources = new LinkedHashMap<>();
+		for (String session : sessions) {
+			String from = current.ownerOf(session);
+			String to = next.ownerOf(session);
+			if (from != null && !from.equals(to)) {
+				exports.put(session, workers.get(from).submit(request(WorkerProtocol.OP_EXPORT, session)));
+			}
+		}
+		Map<String, String> targets = new LinkedHashMap<>();
+		Map<String, CompletableFuture<byte[]>> imports = new LinkedHashMap<>();
+		for (Map.Entry<String, CompletableFuture<byte[]>> export : exports.entrySet()) {
+			String session = export.getKey();
+			byte[] state;
+			try {
+				state = workers.get(current.ownerOf(session)).await(export.getValue());
+			} catch (IOException e) {
+				lostSessions.incrementAndGet();
+				state = null; // imported as a new session
+			}
+			if (state != null && state.length == 1) {
+				continue; // not created by its worker yet
+			}
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(body);
+			out.writeByte(WorkerProtocol.OP_IMPORT);
+			out.writeUTF(session);
+			if (state == null) {
+				out.writeInt(0);
+			} else {
+				out.writeInt(state.length - 1);
+				out.write(state, 1, state.length - 1);
+			}
+			sources.put(session, current.ownerOf(session));
+			targets.put(session, next.ownerOf(session));
+			imports.put(session, workers.get(next.ownerOf(session)).submit(body.toByteArray()));
+		}
+		IOException failure = null;
+		for (Map.Entry<String, CompletableFuture<byte[]>> response : imports.entrySet()) {
+			try {
+				workers.get(targets.get(response.getKey())).await(response.getValue());
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+		if (failure != null) {
+			// the sessions stay with their owner, the copies are dropped
+			remove(targets);
+			throw failure;
+		}
+		ring = next;
+		remove(sources);
+	}
+
+	/**
+	 * Removes sessions from the given workers. A worker that cannot be reached
+	 * is skipped, its copy of the session being lost with it.
+	 */
+	private void remove(Map<String, String> owners) throws IOException {
+		Map<String, CompletableFuture<byte[]>> closes = new LinkedHashMap<>();
+		for (Map.Entry<String, String> owner : owners.entrySet()) {
+			closes.put(owner.getKey(),
+					workers.get(owner.getValue()).submit(request(WorkerProtocol.OP_CLOSE, owner.getKey())));
+		}
+		for (Map.Entry<String, CompletableFuture<byte[]>> response : closes.entrySet()) {
+			try {
+				workers.get(owners.get(response.getKey())).await(response.getValue());
+			} catch (IOException e) {
+				// removed with its worker
+			}
+		}
+	}
+
+	/**
+	 * @return the names of the workers, in the order they were added
+	 */
+	public List<String> getWorkers() {
+		return ring.getWorkers();
+	}
+
+	/**
+	 * @param session identifier of a session
+	 * @return the name of the worker of the session, or null if there is no
+	 *         worker
+	 */
+	public String getWorkerOf(String session) {
+		return ring.ownerOf(session);
+	}
+
+	/**
+	 * @return the number of open sessions
+	 */
+	public int getSessionCount() {
+		return sessions.size();
+	}
+
+	/**
+	 * @return the number of sessions moved from a worker that could not be
+	 *         reached, which started again with Pacman not placed
+	 */
+	public long getLostSessionCount() {
+		return lostSessions.get();
+	}
+
+	/**
+	 * Runs command lines on a session, created on its first command, by its
+	 * worker
+	 *
+	 * @param session      identifier of the session
+	 * @param instructions command lines
+	 * @return the REPORT and SCORE results, one per line
+	 * @throws IOException           if the worker cannot be reached or fails the
+	 *                               commands
+	 * @throws IllegalStateException if there is no worker
+	 */
+	public String processInstructions(String session, String[] instructions) throws IOException {
+		byte[][] lines = new byte[instructions.length][];
+		for (int i = 0; i < lines.length; i++) {
+			lines[i] = instructions[i].getBytes(StandardCharsets.US_ASCII);
+		}
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		process(session, lines, lines.length, Channels.newChannel(output));
+		return new String(output.toByteArray(), StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Runs command lines on a session and writes their output to the given
+	 * channel a chunk at a time, as the worker answers it: the output left by a
+	 * REPEAT is drained from the worker one chunk after the other, once the
+	 * previous one is written, and the lines after it are sent once it is all
+	 * drained.
+	 */
+	private void process(String session, byte[][] lines, int count, WritableByteChannel output)
+			throws IOException {
+		int from = 0;
+		boolean more = false;
+		do {
+			byte[] body = more ? request(WorkerProtocol.OP_DRAIN, session) : commands(session, lines, from, count);
+			ByteBuffer response = ByteBuffer.wrap(call(session, body));
+			more = response.get() == WorkerProtocol.MORE;
+			from += response.getInt();
+			while (response.hasRemaining()) {
+				output.write(response);
+			}
+		} while (more || from < count);
+	}
+
+	private static byte[] commands(String session, byte[][] lines, int from, int count) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(body);
+		out.writeByte(WorkerProtocol.OP_COMMANDS);
+		out.writeUTF(session);
+		out.writeInt(count - from);
+		for (int i = from; i < count; i++) {
+			out.writeInt(lines[i].length);
+			out.write(lines[i]);
+		}
+		return body.toByteArray();
+	}
+
+	/**
+	 * Sends a request of a session to its worker. A worker whose connection
+	 * failed is dropped, see {@link #drop(String, WorkerClient)}, once the
+	 * request failed.
+	 */
+	private byte[] call(String session, byte[] body) throws IOException {
+		String owner;
+		WorkerClient client;
+		IOException failure;
+		lock.readLock().lock();
+		try {
+			owner = ring.ownerOf(session);
+			if (owner == null) {
+				throw new IllegalStateException("no worker");
+			}
+			sessions.add(session);
+			client = workers.get(owner);
+			try {
+				return client.call(body);
+			} catch (IOException e) {
+				if (!client.isFailed()) {
+					throw e; // only this request failed
+				}
+				failure = e;
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		drop(owner, client);
+		throw failure;
+	}
+
+	/**
+	 * Removes a worker whose connection failed, so that its sessions start again
+	 * on the other workers, with Pacman not placed, rather than failing with it.
+	 * The last worker is kept, there being nowhere to move its sessions to.
+	 */
+	private void drop(String name, WorkerClient client) {
+		lock.writeLock().lock();
+		try {
+			if (workers.get(name) != client || workers.size() == 1) {
+				return; // already dropped, or the last one
+			}
+			rebalance(ring.without(name));
+			workers.remove(name);
+		} catch (IOException e) {
+			return; // another worker failed too, kept until its own commands fail
+		} finally {
+			lock.writeLock().unlock();
+		}
+		try {
+			client.close();
+		} catch (IOException e) {
+			// already failed
+		}
+	}
+
+	/**
+	 * Closes a session on its worker
+	 *
+	 * @param session identifier of the session
+	 * @throws IOException if the worker cannot be reached
+	 */
+	public void closeSession(String session) throws IOException {
+		lock.readLock().lock();
+		try {
+			if (sessions.remove(session)) {
+				workers.get(ring.ownerOf(session)).call(request(WorkerProtocol.OP_CLOSE, session));
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private static byte[] request(byte op, String session) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(body);
+		out.writeByte(op);
+		out.writeUTF(session);
+		return body.toByteArray();
+	}
+
+	/**
+	 * Serves the engine line protocol over TCP: every connection gets its own
+	 * session, closed with the connection, and only the REPORT and SCORE results
+	 * are sent back. The lines of every read are forwarded as one batch. QUIT
+	 * sends the pending results and closes the connection. Every connection is
+	 * served by a thread of its own.
+	 *
+	 * @param address to listen to, with port 0 for any free port
+	 * @throws IOException
+	 */
+	public synchronized void start(InetSocketAddress address) throws IOException {
+		if (running) {
+			throw new IllegalStateException("coordinator already started");
+		}
+		server = ServerSocketChannel.open();
+		server.bind(address);
+		running = true;
+		acceptor = new Thread(this::accept, "pacman-coordinator-accept");
+		acceptor.start();
+	}
+
+	/**
+	 * @return the port the coordinator listens to
+	 * @throws IOException
+	 */
+	public int getPort() throws IOException {
+		return ((InetSocketAddress) server.getLocalAddress()).getPort();
+	}
+
+	/**
+	 * Stops serving, closes the connections to the workers and stops the
+	 * spawned workers
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (running) {
+			running = false;
+			server.close();
+			for (SocketChannel channel : connections) {
+				channel.close();
+			}
+			try {
+				acceptor.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		lock.writeLock().lock();
+		try {
+			for (WorkerClient client : workers.values()) {
+				client.close();
+			}
+			workers.clear();
+			sessions.clear();
+			ring = new HashRing(HashRing.DEFAULT_VIRTUAL_NODES);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void accept() {
+		try {
+			while (running) {
+				SocketChannel channel = server.accept();
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				connections.add(channel);
+				String session = SESSION_PREFIX + connectionIds.incrementAndGet();
+				Thread thread = new Thread(() -> serve(channel, session), "pacman-coordinator-" + session);
+				thread.setDaemon(true);
+				thread.start();
+			}
+		} catch (IOException e) {
+			if (running) {
+				System.err.println(e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Forwards the lines of a connection until QUIT or until it is closed
+	 */
+	private void serve(SocketChannel channel, String session) {
+		LineScanner scanner = new LineScanner(1, LineScanner.DEFAULT_MAX_LINE_LENGTH);
+		CommandParser parser = new CommandParser();
+		List<byte[]> batch = new ArrayList<>();
+		LineScanner.LineHandler handler = (buf, offset, length) -> {
+			batch.add(Arrays.copyOfRange(buf, offset, offset + length));
+			// QUIT ends the session, the rest of the input is then discarded
+			return parser.parse(buf, offset, length) != Command.QUIT;
+		};
+		ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		try {
+			boolean quit = false;
+			while (!quit) {
+				in.clear();
+				int n = channel.read(in);
+				if (n < 0) {
+					break;
+				}
+				quit = !scanner.feed(in.array(), 0, n, handler);
+				if (!batch.isEmpty()) {
+					process(session, batch.toArray(new byte[0][]), batch.size(), channel);
+					batch.clear();
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			// the connection or the worker of the session failed, the client sees
+			// the connection closed
+		} finally {
+			connections.remove(channel);
+			try {
+				channel.close();
+				closeSession(session);
+			} catch (IOException | RuntimeException e) {
+				// the worker is gone
+			}
+		}
+	}
+}
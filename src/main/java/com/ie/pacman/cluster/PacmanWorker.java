@@ -0,0 +1,309 @@
+package com.ie.pacman.cluster;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ie.pacman.engine.PacmanSession;
+import com.ie.pacman.engine.PacmanSessionRegistry;
+import com.ie.pacman.model.Grid;
+import com.ie.pacman.model.ReportEncoder;
+
+/**
+ * A worker process of a {@link PacmanCoordinator}: it holds a share of the
+ * sessions in its own {@link PacmanSessionRegistry}, and runs the batches of
+ * commands the coordinator forwards to it over a local socket, see
+ * {@link WorkerProtocol}. <br>
+ * Sessions are created on their first command, on the grid of the worker, and
+ * moved to or from another worker with the state of their engine, see
+ * {@link com.ie.pacman.engine.PacmanEngine#writeState(java.io.DataOutput)},
+ * when the coordinator adds or removes a worker. The output of a request is
+ * bounded by {@link WorkerProtocol#CHUNK_SIZE}: the output left by a REPEAT
+ * stays in its session, drained a chunk per request as the coordinator asks
+ * for it, or moved with it. A
+ * request that fails is answered as failed, without closing the connection.
+ * Every connection is served by a thread of its own.
+ *
+ * @see #start(InetSocketAddress)
+ */
+public class PacmanWorker implements Closeable {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+	// longest message of a failed request
+	private static final int MAX_MESSAGE = 1024;
+
+	private final PacmanSessionRegistry registry;
+	private final Grid grid;
+	private final Set<SocketChannel> connections = ConcurrentHashMap.newKeySet();
+	private final AtomicInteger connectionIds = new AtomicInteger();
+
+	private ServerSocketChannel server;
+	private Thread acceptor;
+	private volatile boolean running;
+
+	/**
+	 * Create a worker
+	 *
+	 * @param registry where the sessions are created
+	 * @param grid     shared by the sessions
+	 */
+	public PacmanWorker(PacmanSessionRegistry registry, Grid grid) {
+		if (registry == null || grid == null) {
+			throw new IllegalArgumentException("registry and grid must not be null");
+		}
+		this.registry = registry;
+		this.grid = grid;
+	}
+
+	/**
+	 * Binds the worker and starts accepting connections
+	 *
+	 * @param address to listen to, with port 0 for any free port
+	 * @throws IOException
+	 */
+	public synchronized void start(InetSocketAddress address) throws IOException {
+		if (running) {
+			throw new IllegalStateException("worker already started");
+		}
+		server = ServerSocketChannel.open();
+		server.bind(address);
+		running = true;
+		acceptor = new Thread(this::accept, "pacman-worker-accept");
+		acceptor.start();
+	}
+
+	/**
+	 * @return the port the worker listens to
+	 * @throws IOException
+	 */
+	public int getPort() throws IOException {
+		return ((InetSocketAddress) server.getLocalAddress()).getPort();
+	}
+
+	/**
+	 * @return the registry of the sessions of the worker
+	 */
+	public PacmanSessionRegistry getRegistry() {
+		return registry;
+	}
+
+	/**
+	 * Stops the worker and closes all its connections
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (!running) {
+			return;
+		}
+		running = false;
+		server.close();
+		for (SocketChannel channel : connections) {
+			channel.close();
+		}
+		try {
+			acceptor.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void accept() {
+		try {
+			while (running) {
+				SocketChannel channel = server.accept();
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				connections.add(channel);
+				Thread thread = new Thread(() -> serve(channel), "pacman-worker-" + connectionIds.incrementAndGet());
+				thread.setDaemon(true);
+				thread.start();
+			}
+		} catch (IOException e) {
+			if (running) {
+				System.err.println(e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Answers the frames of a connection until it is closed
+	 */
+	private void serve(SocketChannel channel) {
+		try (DataInputStream in = new DataInputStream(
+				new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE));
+				DataOutputStream out = new DataOutputStream(
+						new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE))) {
+			Frame frame = new Frame();
+			while (true) {
+				int requests;
+				try {
+					requests = in.readInt();
+				} catch (EOFException e) {
+					break; // closed by the coordinator
+				}
+				for (int i = 0; i < requests; i++) {
+					frame.answer(in, out);
+				}
+				out.flush();
+			}
+		} catch (IOException e) {
+			if (running) {
+				System.err.println(e.getMessage());
+			}
+		} finally {
+			connections.remove(channel);
+		}
+	}
+
+	/**
+	 * The buffers of a connection
+	 */
+	private final class Frame {
+		// the command lines of a request, one after the other, and where each ends
+		byte[] lines = new byte[256];
+		int[] ends = new int[16];
+		final ByteBuffer reports = ByteBuffer.allocate(WorkerProtocol.CHUNK_SIZE);
+		final ByteArrayOutputStream response = new ByteArrayOutputStream();
+		final DataOutputStream body = new DataOutputStream(response);
+
+		/**
+		 * Reads a request, then runs it, so that a request failing does not
+		 * leave its arguments unread
+		 */
+		void answer(DataInputStream in, DataOutputStream out) throws IOException {
+			byte op = in.readByte();
+			String id = in.readUTF();
+			int count = 0;
+			byte[] state = null;
+			switch (op) {
+			case WorkerProtocol.OP_COMMANDS:
+				count = readLines(in);
+				break;
+			case WorkerProtocol.OP_IMPORT:
+				state = new byte[WorkerProtocol.readLength(in)];
+				in.readFully(state);
+				break;
+			case WorkerProtocol.OP_DRAIN:
+			case WorkerProtocol.OP_EXPORT:
+			case WorkerProtocol.OP_CLOSE:
+				break;
+			default:
+				throw new IOException("corrupted frame, unknown op: " + op);
+			}
+			response.reset();
+			try {
+				run(op, id, count, state);
+			} catch (IOException | RuntimeException e) {
+				// only this request fails
+				String message = String.valueOf(e);
+				response.reset();
+				body.writeByte(WorkerProtocol.FAILED);
+				body.writeUTF(message.length() > MAX_MESSAGE ? message.substring(0, MAX_MESSAGE) : message);
+			}
+			out.writeInt(response.size());
+			response.writeTo(out);
+		}
+
+		private int readLines(DataInputStream in) throws IOException {
+			int count = WorkerProtocol.readLength(in);
+			if (count > ends.length) {
+				ends = new int[Math.max(count, ends.length * 2)];
+			}
+			int end = 0;
+			for (int i = 0; i < count; i++) {
+				int length = WorkerProtocol.readLength(in);
+				if (end + length > lines.length) {
+					lines = Arrays.copyOf(lines, Math.max(end + length, lines.length * 2));
+				}
+				in.readFully(lines, end, length);
+				end += length;
+				ends[i] = end;
+			}
+			return count;
+		}
+
+		private void run(byte op, String id, int count, byte[] state) throws IOException {
+			switch (op) {
+			case WorkerProtocol.OP_COMMANDS:
+				commands(id, count);
+				break;
+			case WorkerProtocol.OP_DRAIN:
+				PacmanSession draining = registry.get(id);
+				reports.clear();
+				boolean more = draining != null && draining.drainOutput(reports);
+				output(more, 0);
+				break;
+			case WorkerProtocol.OP_EXPORT:
+				export(id);
+				break;
+			case WorkerProtocol.OP_IMPORT:
+				registry.remove(id);
+				PacmanSession session = registry.create(id, grid);
+				if (state.length > 0) {
+					synchronized (session) {
+						session.getEngine().readState(new DataInputStream(new ByteArrayInputStream(state)));
+					}
+				}
+				body.writeByte(WorkerProtocol.OK);
+				break;
+			default:
+				registry.remove(id);
+				body.writeByte(WorkerProtocol.OK);
+				break;
+			}
+		}
+
+		/**
+		 * Runs the lines until their output fills a chunk, or until a DEFINE or
+		 * REPEAT leaves output to drain
+		 */
+		private void commands(String id, int count) throws IOException {
+			PacmanSession session = registry.get(id);
+			if (session == null) {
+				session = registry.create(id, grid);
+			}
+			reports.clear();
+			int run = 0;
+			boolean more = false;
+			while (run < count && !more && reports.remaining() >= ReportEncoder.MAX_LENGTH) {
+				int start = run == 0 ? 0 : ends[run - 1];
+				// QUIT is handled by the coordinator
+				session.processInstruction(lines, start, ends[run] - start, reports);
+				run++;
+				more = session.drainOutput(reports);
+			}
+			output(more, run);
+		}
+
+		private void output(boolean more, int run) throws IOException {
+			body.writeByte(more ? WorkerProtocol.MORE : WorkerProtocol.OK);
+			body.writeInt(run);
+			body.write(reports.array(), 0, reports.position());
+		}
+
+		private void export(String id) throws IOException {
+			body.writeByte(WorkerProtocol.OK);
+			PacmanSession session = registry.get(id);
+			if (session != null) {
+				synchronized (session) {
+					session.getEngine().writeState(body);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,304 @@
+package com.ie.pacman.cluster;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The connection of a {@link PacmanCoordinator} to one of its workers. <br>
+ * Requests are queued by any number of threads and sent by a thread of the
+ * connection, which takes all the requests queued while the previous frame
+ * was answered and sends them as a single frame, see {@link WorkerProtocol}:
+ * the more sessions wait on the worker, the larger the batches. A request the
+ * worker fails to run fails alone. Once the connection fails, every pending
+ * and later request fails. A worker that does not answer a request within the
+ * response timeout fails its connection, so that a stuck worker is dropped
+ * rather than holding up its callers forever. <br>
+ * A connection to a worker process started by {@link #spawn(String, List)}
+ * stops the process when it is closed.
+ */
+final class WorkerClient implements Closeable {
+
+	/** Printed by a worker process once it listens, followed by its port */
+	static final String READY = "Pacman worker listening on port ";
+	/** Default time to wait for the response of a request */
+	static final long DEFAULT_RESPONSE_TIMEOUT_MILLIS = 30_000;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final int MAX_BATCH = 1024;
+	private static final long STOP_TIMEOUT_SECONDS = 10;
+
+	/**
+	 * An encoded request and its response
+	 */
+	private static final class Request {
+		final byte[] body;
+		final CompletableFuture<byte[]> response = new CompletableFuture<>();
+
+		Request(byte[] body) {
+			this.body = body;
+		}
+	}
+
+	private final String name;
+	private final SocketChannel channel;
+	private final Process process;
+	private final DataInputStream in;
+	private final DataOutputStream out;
+	private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+	private final Thread sender;
+	private final long responseTimeout;
+	private volatile IOException failure;
+
+	private WorkerClient(String name, SocketChannel channel, Process process, long responseTimeout) {
+		this.name = name;
+		this.channel = channel;
+		this.process = process;
+		this.responseTimeout = responseTimeout;
+		this.in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE));
+		this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE));
+		this.sender = new Thread(this::send, "pacman-coordinator-" + name);
+		sender.setDaemon(true);
+		sender.start();
+	}
+
+	/**
+	 * Connects to a running worker
+	 *
+	 * @param name            of the worker
+	 * @param address         of the worker
+	 * @param responseTimeout milliseconds to wait for a response
+	 * @return the connection
+	 * @throws IOException
+	 */
+	static WorkerClient connect(String name, InetSocketAddress address, long responseTimeout) throws IOException {
+		return new WorkerClient(name, open(address), null, responseTimeout);
+	}
+
+	/**
+	 * Starts a worker process on this host, running the application with the
+	 * class path of this JVM, and connects to it
+	 *
+	 * @param name            of the worker
+	 * @param args            of the worker process, e.g. --worker 0 --map
+	 *                        warehouse.map
+	 * @param responseTimeout milliseconds to wait for a response
+	 * @return the connection
+	 * @throws IOException if the process cannot be started or does not listen
+	 */
+	static WorkerClient spawn(String name, List<String> args, long responseTimeout) throws IOException {
+		List<String> command = new ArrayList<>();
+		command.add(System.getProperty("java.home") + "/bin/java");
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add("com.ie.pacman.PacmanApp");
+		command.addAll(args);
+		Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+		try {
+			BufferedReader reader = new BufferedReader(
+					new InputStreamReader(process.getInputStream(), StandardCharsets.US_ASCII));
+			String line;
+			while ((line = reader.readLine()) != null && !line.startsWith(READY)) {
+				// skip anything printed before
+			}
+			if (line == null) {
+				throw new IOException("worker " + name + " exited before listening");
+			}
+			int port = Integer.parseInt(line.substring(READY.length()).trim());
+			return new WorkerClient(name, open(new InetSocketAddress(InetAddress.getLoopbackAddress(), port)),
+					process, responseTimeout);
+		} catch (IOException | RuntimeException e) {
+			process.destroyForcibly();
+			throw e instanceof IOException ? (IOException) e : new IOException(e);
+		}
+	}
+
+	private static SocketChannel open(InetSocketAddress address) throws IOException {
+		SocketChannel channel = SocketChannel.open(address);
+		channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		return channel;
+	}
+
+	/**
+	 * @return the name of the worker
+	 */
+	String getName() {
+		return name;
+	}
+
+	/**
+	 * @return whether the connection failed or was closed
+	 */
+	boolean isFailed() {
+		return failure != null;
+	}
+
+	/**
+	 * Queues a request
+	 *
+	 * @param body of the request, its op code and arguments
+	 * @return the response, starting with its status, failed with an
+	 *         IOException if the connection fails or the worker fails the
+	 *         request
+	 */
+	CompletableFuture<byte[]> submit(byte[] body) {
+		Request request = new Request(body);
+		queue.add(request);
+		if (failure != null) {
+			failPending(); // the sender is gone
+		}
+		return request.response;
+	}
+
+	/**
+	 * Sends a request and waits for its response
+	 *
+	 * @param body of the request
+	 * @return the response, starting with its status
+	 * @throws IOException if the connection fails or the worker fails the
+	 *                     request
+	 */
+	byte[] call(byte[] body) throws IOException {
+		return await(submit(body));
+	}
+
+	/**
+	 * Waits for the response of a request submitted to this connection, failing
+	 * the connection if it does not come within the response timeout
+	 *
+	 * @return the response of a request
+	 * @throws IOException if the connection failed or the worker failed the
+	 *                     request
+	 */
+	byte[] await(CompletableFuture<byte[]> response) throws IOException {
+		try {
+			return response.get(responseTimeout, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			fail(new IOException("worker " + name + " did not answer within " + responseTimeout + " ms"));
+			throw failure;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while waiting for a worker", e);
+		} catch (ExecutionException e) {
+			throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Fails the connection, and with it the pending requests, without stopping
+	 * the worker process
+	 */
+	private void fail(IOException cause) {
+		if (failure == null) {
+			failure = cause;
+		}
+		try {
+			channel.close(); // the sender fails the pending requests
+		} catch (IOException e) {
+			// already closed
+		}
+	}
+
+	/**
+	 * Closes the connection, failing the pending requests, and stops the worker
+	 * process if it was spawned
+	 */
+	@Override
+	public void close() throws IOException {
+		if (failure == null) {
+			failure = new IOException("connection to worker " + name + " closed");
+		}
+		sender.interrupt();
+		channel.close();
+		try {
+			sender.join();
+			if (process != null) {
+				process.destroy();
+				if (!process.waitFor(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+					process.destroyForcibly();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		failPending();
+	}
+
+	/**
+	 * Sends the queued requests a frame at a time until the connection fails or
+	 * is closed
+	 */
+	private void send() {
+		List<Request> batch = new ArrayList<>();
+		try {
+			while (true) {
+				batch.add(queue.take());
+				queue.drainTo(batch, MAX_BATCH - 1);
+				out.writeInt(batch.size());
+				for (Request request : batch) {
+					out.write(request.body);
+				}
+				out.flush();
+				for (Request request : batch) {
+					byte[] response = new byte[WorkerProtocol.readLength(in)];
+					in.readFully(response);
+					if (response.length > 0 && response[0] == WorkerProtocol.FAILED) {
+						String message = new DataInputStream(new ByteArrayInputStream(response, 1, response.length - 1))
+								.readUTF();
+						request.response.completeExceptionally(
+								new IOException("worker " + name + " failed a request: " + message));
+					} else {
+						request.response.complete(response);
+					}
+				}
+				batch.clear();
+			}
+		} catch (InterruptedException e) {
+			// closed
+		} catch (EOFException e) {
+			if (failure == null) {
+				failure = new IOException("worker " + name + " closed the connection", e);
+			}
+		} catch (IOException e) {
+			if (failure == null) {
+				failure = new IOException("connection to worker " + name + " failed: " + e.getMessage(), e);
+			}
+		} finally {
+			if (failure == null) {
+				failure = new IOException("connection to worker " + name + " closed");
+			}
+			for (Request request : batch) {
+				request.response.completeExceptionally(failure);
+			}
+			failPending();
+		}
+	}
+
+	private void failPending() {
+		Request request;
+		while ((request = queue.poll()) != null) {
+			request.response.completeExceptionally(failure);
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package com.ie.pacman.cluster;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+
+/**
+ * The binary protocol between a {@link PacmanCoordinator} and its
+ * {@link PacmanWorker}s, over a local socket. <br>
+ * The coordinator sends frames of requests: the number of requests, then every
+ * request as its op code and its arguments. The worker answers a frame with
+ * one response per request, in order, each of them an int length and as many
+ * bytes, the first one being the status of the request, {@link #OK},
+ * {@link #MORE} or {@link #FAILED}:
+ * <ul>
+ * <li>{@link #OP_COMMANDS} session, count, lines - runs the command lines of a
+ * session, created if needed, and answers the number of lines run and their
+ * output, the REPORT and SCORE results. The lines are run until their output
+ * fills {@link #CHUNK_SIZE} bytes, the lines left being sent again by the
+ * coordinator, or until a DEFINE or REPEAT leaves output to drain, answered
+ * with the MORE status
+ * <li>{@link #OP_DRAIN} session - answers 0 and the next chunk of the output
+ * left by a DEFINE or REPEAT, with the MORE status while some is left
+ * <li>{@link #OP_EXPORT} session - answers the state of the engine of a
+ * session, as written by
+ * {@link com.ie.pacman.engine.PacmanEngine#writeState(java.io.DataOutput)},
+ * or nothing if there is no such session. The session is kept until it is
+ * closed
+ * <li>{@link #OP_IMPORT} session, length, state - creates a session, or
+ * replaces it, with the given state of its engine, none for a new engine, and
+ * answers nothing
+ * <li>{@link #OP_CLOSE} session - removes a session and answers nothing
+ * </ul>
+ * A request the worker fails to run is answered with the FAILED status and a
+ * message, and the following requests are run as usual. <br>
+ * Strings are written as by {@link java.io.DataOutput#writeUTF(String)}, and
+ * command lines as an int length and their ASCII bytes.
+ */
+final class WorkerProtocol {
+
+	static final byte OP_COMMANDS = 1;
+	static final byte OP_EXPORT = 2;
+	static final byte OP_IMPORT = 3;
+	static final byte OP_CLOSE = 4;
+	static final byte OP_DRAIN = 5;
+
+	/** Status of a request run */
+	static final byte OK = 0;
+	/** Status of commands leaving output to drain */
+	static final byte MORE = 1;
+	/** Status of a request that failed, followed by a message */
+	static final byte FAILED = 2;
+
+	/** Maximum length of a command line or of a response */
+	static final int MAX_LENGTH = 1 << 30;
+	/** Maximum length of the output answered to a request */
+	static final int CHUNK_SIZE = 1 << 16;
+
+	private WorkerProtocol() {
+	}
+
+	/**
+	 * Reads a length, checked against {@link #MAX_LENGTH}
+	 *
+	 * @throws IOException if the length is out of range
+	 */
+	static int readLength(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0 || length > MAX_LENGTH) {
+			throw new IOException("corrupted frame, bad length: " + length);
+		}
+		return length;
+	}
+}
@@ -0,0 +1,50 @@
+package com.ie.pacman.engine;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A reusable {@link CharSequence} view over a range of a byte array, decoding
+ * each byte as one ISO-8859-1 character. Lets byte oriented input be parsed
+ * without creating a String per line.
+ */
+final class AsciiSequence implements CharSequence {
+
+	private byte[] buf;
+	private int offset;
+	private int length;
+
+	/**
+	 * Points this view to the given range
+	 *
+	 * @param buf
+	 * @param offset
+	 * @param length
+	 * @return this view
+	 */
+	AsciiSequence wrap(byte[] buf, int offset, int length) {
+		this.buf = buf;
+		this.offset = offset;
+		this.length = length;
+		return this;
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		return (char) (buf[offset + index] & 0xFF);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		return new String(buf, offset + start, end - start, StandardCharsets.ISO_8859_1);
+	}
+
+	@Override
+	public String toString() {
+		return new String(buf, offset, length, StandardCharsets.ISO_8859_1);
+	}
+}
@@ -0,0 +1,480 @@
+package com.ie.pacman.engine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+import com.ie.pacman.model.Pacman.Direction;
+
+/**
+ * A compact binary format for command logs, and its conversion from and to
+ * text lines. <br>
+ * A log starts with the 4 bytes "PACB" and a version byte, followed by
+ * records. Every record starts with an unsigned LEB128 varint tag:
+ * <ul>
+ * <li>an even tag is a run of {@code tag >>> 1} commands among MOVE, LEFT,
+ * RIGHT and REPORT, at most {@link #MAX_RUN}, packed 4 per byte in the
+ * following bytes, 2 bits each from the low bits up: 0 MOVE, 1 LEFT, 2 RIGHT,
+ * 3 REPORT.
+ * <li>an odd tag is an escaped command, {@code tag >>> 1} being its kind:
+ * 0 PLACE followed by the varints X and Y and a direction byte (the ordinal of
+ * NORTH, EAST, SOUTH or WEST), 1 GOTO followed by the varints X and Y, 2 QUIT,
+ * 3 SCORE.
+ * </ul>
+ * A MOVE line of 6 bytes thus takes 2 bits. Malformed lines are dropped by the
+ * conversion, as they have no effect on Pacman. Lines with agent names are
+ * malformed for this format.
+ *
+ * @see Writer
+ * @see Reader
+ * @see PacmanBatchRunner#runBinary(ReadableByteChannel, WritableByteChannel)
+ */
+public final class BinaryLog {
+
+	/** Maximum number of commands of a run record */
+	public static final int MAX_RUN = 1 << 12;
+	/** Version of the format written */
+	public static final int VERSION = 1;
+
+	private static final byte[] MAGIC = { 'P', 'A', 'C', 'B' };
+	private static final int HEADER_LENGTH = MAGIC.length + 1;
+	// a run tag and its packed commands, larger than any escaped record
+	private static final int MAX_RECORD = 5 + MAX_RUN / 4;
+	private static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+	private static final Command[] RUN_OPS = { Command.MOVE, Command.LEFT, Command.RIGHT, Command.REPORT };
+	private static final Direction[] DIRECTIONS = Direction.values();
+	private static final int KIND_PLACE = 0;
+	private static final int KIND_GOTO = 1;
+	private static final int KIND_QUIT = 2;
+	private static final int KIND_SCORE = 3;
+
+	private BinaryLog() {
+	}
+
+	/**
+	 * Receives the commands of a binary log
+	 */
+	public interface CommandHandler {
+		/**
+		 * @param command   MOVE, LEFT, RIGHT, REPORT, SCORE, PLACE, GOTO or QUIT
+		 * @param x         of a PLACE or GOTO, 0 otherwise
+		 * @param y         of a PLACE or GOTO, 0 otherwise
+		 * @param direction of a PLACE, null otherwise
+		 * @return false to stop reading
+		 * @throws IOException
+		 */
+		boolean onCommand(Command command, int x, int y, Direction direction) throws IOException;
+	}
+
+	/**
+	 * Converts a text log, one command per line, to a binary log. The channels
+	 * are not closed.
+	 *
+	 * @param text   channel of commands, one per line
+	 * @param binary where the binary log is written to
+	 * @return the number of commands written, malformed lines being dropped
+	 * @throws IOException
+	 */
+	public static long toBinary(ReadableByteChannel text, WritableByteChannel binary) throws IOException {
+		Writer writer = new Writer(binary);
+		new LineScanner(DEFAULT_BUFFER_SIZE).scan(text, (buf, offset, length) -> {
+			writer.writeLine(buf, offset, length);
+			return true;
+		});
+		writer.flush();
+		return writer.getCount();
+	}
+
+	/**
+	 * Converts a binary log to a text log, one command per line in upper case.
+	 * The channels are not closed.
+	 *
+	 * @param binary channel of the binary log
+	 * @param text   where the commands are written to, one per line
+	 * @return the number of commands converted
+	 * @throws IOException if the binary log is corrupted
+	 */
+	public static long toText(ReadableByteChannel binary, WritableByteChannel text) throws IOException {
+		ByteBuffer out = ByteBuffer.allocate(DEFAULT_BUFFER_SIZE);
+		long count = new Reader(DEFAULT_BUFFER_SIZE).read(binary, (command, x, y, direction) -> {
+			if (out.remaining() < 64) {
+				drain(out, text);
+			}
+			out.put(command.name().getBytes(StandardCharsets.US_ASCII));
+			if (command == Command.PLACE || command == Command.GOTO) {
+				out.put((byte) ' ').put(Integer.toString(x).getBytes(StandardCharsets.US_ASCII)).put((byte) ',')
+						.put(Integer.toString(y).getBytes(StandardCharsets.US_ASCII));
+				if (direction != null) {
+					out.put((byte) ',').put(direction.name().getBytes(StandardCharsets.US_ASCII));
+				}
+			}
+			out.put((byte) '\n');
+			return true;
+		});
+		drain(out, text);
+		return count;
+	}
+
+	private static void drain(ByteBuffer buffer, WritableByteChannel channel) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Encodes commands into a binary log, through a buffer flushed to a
+	 * channel when full. The header is written first. A writer is not thread
+	 * safe.
+	 */
+	public static final class Writer {
+
+		private final WritableByteChannel channel;
+		private final ByteBuffer out;
+		private final CommandParser parser = new CommandParser();
+		// commands of the current run, packed
+		private final byte[] run = new byte[MAX_RUN / 4];
+		private int runLength;
+		private long count;
+
+		/**
+		 * Create a writer with a default buffer size
+		 *
+		 * @param channel where the binary log is written to, not closed by the
+		 *                writer
+		 */
+		public Writer(WritableByteChannel channel) {
+			this(channel, DEFAULT_BUFFER_SIZE);
+		}
+
+		/**
+		 * Create a writer
+		 *
+		 * @param channel    where the binary log is written to, not closed by
+		 *                   the writer
+		 * @param bufferSize size of the output buffer in bytes
+		 */
+		public Writer(WritableByteChannel channel, int bufferSize) {
+			if (channel == null) {
+				throw new IllegalArgumentException("channel must not be null");
+			}
+			this.channel = channel;
+			this.out = ByteBuffer.allocate(Math.max(bufferSize, MAX_RECORD));
+			out.put(MAGIC).put((byte) VERSION);
+		}
+
+		/**
+		 * Parses a text command and writes it
+		 *
+		 * @param buf    holding the line of instruction
+		 * @param offset of the line in the buffer
+		 * @param length of the line, without the line terminator
+		 * @return the parsed command, not written if {@link Command#UNKNOWN}
+		 * @throws IOException on a DEFINE or REPEAT, or if the log cannot be
+		 *                     written
+		 */
+		public Command writeLine(byte[] buf, int offset, int length) throws IOException {
+			Command command = parser.parse(buf, offset, length);
+			switch (command) {
+			case PLACE:
+				writePlace(parser.getX(), parser.getY(), parser.getDirection());
+				break;
+			case GOTO:
+				writeGoto(parser.getX(), parser.getY());
+				break;
+			case UNKNOWN:
+				break;
+			case DEFINE:
+			case REPEAT:
+				// macros are run by name, which would be dropped as malformed
+				throw new IOException(command + " is not supported by the binary format");
+			default:
+				write(command);
+				break;
+			}
+			return command;
+		}
+
+		/**
+		 * Writes a command without arguments
+		 *
+		 * @param command MOVE, LEFT, RIGHT, REPORT, SCORE or QUIT
+		 * @throws IOException
+		 */
+		public void write(Command command) throws IOException {
+			int op;
+			switch (command) {
+			case MOVE:
+				op = 0;
+				break;
+			case LEFT:
+				op = 1;
+				break;
+			case RIGHT:
+				op = 2;
+				break;
+			case REPORT:
+				op = 3;
+				break;
+			case SCORE:
+				writeEscape(KIND_SCORE);
+				return;
+			case QUIT:
+				writeEscape(KIND_QUIT);
+				return;
+			default:
+				throw new IllegalArgumentException("command has arguments or is malformed: " + command);
+			}
+			if (runLength == MAX_RUN) {
+				flushRun();
+			}
+			int shift = (runLength & 3) << 1;
+			if (shift == 0) {
+				run[runLength >>> 2] = 0;
+			}
+			run[runLength >>> 2] |= op << shift;
+			runLength++;
+			count++;
+		}
+
+		/**
+		 * Writes a PLACE command
+		 *
+		 * @param x         non negative
+		 * @param y         non negative
+		 * @param direction
+		 * @throws IOException
+		 */
+		public void writePlace(int x, int y, Direction direction) throws IOException {
+			if (x < 0 || y < 0 || direction == null) {
+				throw new IllegalArgumentException("bad PLACE arguments: " + x + "," + y + "," + direction);
+			}
+			writeEscape(KIND_PLACE);
+			putVarint(x);
+			putVarint(y);
+			out.put((byte) direction.ordinal());
+		}
+
+		/**
+		 * Writes a GOTO command
+		 *
+		 * @param x non negative
+		 * @param y non negative
+		 * @throws IOException
+		 */
+		public void writeGoto(int x, int y) throws IOException {
+			if (x < 0 || y < 0) {
+				throw new IllegalArgumentException("bad GOTO arguments: " + x + "," + y);
+			}
+			writeEscape(KIND_GOTO);
+			putVarint(x);
+			putVarint(y);
+		}
+
+		/**
+		 * @return the number of commands written
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * Writes the buffered commands to the channel
+		 *
+		 * @throws IOException
+		 */
+		public void flush() throws IOException {
+			flushRun();
+			drain(out, channel);
+		}
+
+		private void writeEscape(int kind) throws IOException {
+			flushRun();
+			reserve();
+			putVarint((kind << 1) | 1);
+			count++;
+		}
+
+		private void flushRun() throws IOException {
+			if (runLength == 0) {
+				return;
+			}
+			reserve();
+			putVarint(runLength << 1);
+			out.put(run, 0, (runLength + 3) >>> 2);
+			runLength = 0;
+		}
+
+		private void reserve() throws IOException {
+			if (out.remaining() < MAX_RECORD) {
+				drain(out, channel);
+			}
+		}
+
+		private void putVarint(int value) {
+			while ((value & ~0x7F) != 0) {
+				out.put((byte) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			out.put((byte) value);
+		}
+	}
+
+	/**
+	 * Decodes a binary log through a reusable buffer, allocated on the first
+	 * read. A reader is not thread safe.
+	 */
+	public static final class Reader {
+
+		private final int bufferSize;
+		private ByteBuffer buffer;
+		private ReadableByteChannel channel;
+		private boolean eof;
+
+		/**
+		 * @param bufferSize size of the read buffer in bytes
+		 */
+		public Reader(int bufferSize) {
+			if (bufferSize <= 0) {
+				throw new IllegalArgumentException("bufferSize must be positive: " + bufferSize);
+			}
+			this.bufferSize = Math.max(bufferSize, 2 * MAX_RECORD);
+		}
+
+		/**
+		 * Reads the channel until its end, or until the handler stops the read.
+		 * The channel is not closed.
+		 *
+		 * @return the number of commands handed to the handler
+		 * @throws IOException if the log is not a binary log or is corrupted
+		 */
+		public long read(ReadableByteChannel in, CommandHandler handler) throws IOException {
+			if (buffer == null) {
+				buffer = ByteBuffer.allocate(bufferSize);
+			}
+			buffer.clear().flip();
+			channel = in;
+			eof = false;
+			try {
+				fill(HEADER_LENGTH);
+				if (buffer.remaining() < HEADER_LENGTH) {
+					throw new IOException("not a binary command log: too short");
+				}
+				for (byte b : MAGIC) {
+					if (buffer.get() != b) {
+						throw new IOException("not a binary command log: bad magic");
+					}
+				}
+				int version = buffer.get();
+				if (version != VERSION) {
+					throw new IOException("unsupported binary command log version: " + version);
+				}
+				return readRecords(handler);
+			} finally {
+				channel = null;
+			}
+		}
+
+		private long readRecords(CommandHandler handler) throws IOException {
+			long count = 0;
+			while (true) {
+				fill(MAX_RECORD);
+				if (!buffer.hasRemaining()) {
+					return count;
+				}
+				int tag = getVarint();
+				if ((tag & 1) == 0) {
+					int length = tag >>> 1;
+					if (length == 0 || length > MAX_RUN) {
+						throw new IOException("corrupted binary command log: run of " + length);
+					}
+					int bytes = (length + 3) >>> 2;
+					require(bytes);
+					int start = buffer.position();
+					buffer.position(start + bytes);
+					for (int i = 0; i < length; i++) {
+						int op = (buffer.get(start + (i >>> 2)) >>> ((i & 3) << 1)) & 3;
+						count++;
+						if (!handler.onCommand(RUN_OPS[op], 0, 0, null)) {
+							return count;
+						}
+					}
+					continue;
+				}
+				boolean more;
+				switch (tag >>> 1) {
+				case KIND_PLACE: {
+					int x = getVarint();
+					int y = getVarint();
+					require(1);
+					int d = buffer.get();
+					if (d < 0 || d >= DIRECTIONS.length) {
+						throw new IOException("corrupted binary command log: direction " + d);
+					}
+					more = handler.onCommand(Command.PLACE, x, y, DIRECTIONS[d]);
+					break;
+				}
+				case KIND_GOTO: {
+					int x = getVarint();
+					int y = getVarint();
+					more = handler.onCommand(Command.GOTO, x, y, null);
+					break;
+				}
+				case KIND_QUIT:
+					more = handler.onCommand(Command.QUIT, 0, 0, null);
+					break;
+				case KIND_SCORE:
+					more = handler.onCommand(Command.SCORE, 0, 0, null);
+					break;
+				default:
+					throw new IOException("corrupted binary command log: record kind " + (tag >>> 1));
+				}
+				count++;
+				if (!more) {
+					return count;
+				}
+			}
+		}
+
+		/**
+		 * Reads until at least the given number of bytes are buffered, or the end
+		 * of the channel
+		 */
+		private void fill(int bytes) throws IOException {
+			if (buffer.remaining() >= bytes || eof) {
+				return;
+			}
+			buffer.compact();
+			while (buffer.position() < bytes) {
+				if (channel.read(buffer) < 0) {
+					eof = true;
+					break;
+				}
+			}
+			buffer.flip();
+		}
+
+		private void require(int bytes) throws IOException {
+			if (buffer.remaining() < bytes) {
+				throw new IOException("truncated binary command log");
+			}
+		}
+
+		private int getVarint() throws IOException {
+			int value = 0;
+			for (int shift = 0; shift < 35; shift += 7) {
+				require(1);
+				byte b = buffer.get();
+				value |= (b & 0x7F) << shift;
+				if (b >= 0) {
+					return value;
+				}
+			}
+			throw new IOException("corrupted binary command log: varint too long");
+		}
+	}
+}
@@ -0,0 +1,12 @@
+package com.ie.pacman.engine;
+
+/**
+ * The commands understood by the {@link PacmanEngine}.
+ *
+ * @see CommandParser
+ */
+public enum Command {
+	PLACE, MOVE, LEFT, RIGHT, GOTO, REPORT, SCORE, DEFINE, REPEAT, QUIT,
+	/** Any malformed or unsupported line, which is ignored by the engine */
+	UNKNOWN;
+}
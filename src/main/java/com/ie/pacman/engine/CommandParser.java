@@ -0,0 +1,373 @@
+package com.ie.pacman.engine;
+
+import com.ie.pacman.model.Pacman.Direction;
+
+/**
+ * A hand written, case insensitive parser of the engine commands that does not
+ * create any garbage. <br>
+ * The parser accepts the same lines as the original regular expression based
+ * implementation:
+ * <ul>
+ * <li>PLACE X,Y,F - with optional whitespace around every token, e.g.
+ * " place 1 , 2 ,east "
+ * <li>GOTO X,Y - with optional whitespace around every token, as PLACE
+ * <li>MOVE, LEFT, RIGHT, REPORT, SCORE - with optional leading and trailing
+ * whitespace
+ * <li>QUIT - exactly, with no surrounding whitespace
+ * <li>DEFINE, REPEAT - the keyword only, followed by a whitespace or '{', the
+ * rest of the line being parsed by the engine
+ * </ul>
+ * Everything else is reported as {@link Command#UNKNOWN}, including PLACE
+ * coordinates that do not fit in an int. <br>
+ * A parser created with agent names also accepts commands addressed to a named
+ * Pacman, e.g. "PLACE 1,2,EAST AS p7", "MOVE p7" or "REPORT p7". Names are made
+ * of ASCII letters, digits, '_' and '-', and are available from
+ * {@link #getAgent()}. <br>
+ * The arguments of the last parsed PLACE are available from {@link #getX()},
+ * {@link #getY()} and {@link #getDirection()}, and those of the last GOTO from
+ * {@link #getX()} and {@link #getY()}. A parser instance is therefore
+ * not thread safe and is meant to be reused by a single engine.
+ */
+public final class CommandParser {
+
+	private static final Direction[] DIRECTIONS = Direction.values();
+
+	private final AsciiSequence bytes = new AsciiSequence();
+	private final boolean agentNames;
+
+	// cursor over the line being parsed
+	private CharSequence line;
+	private int pos;
+	private int end;
+
+	// arguments of the last PLACE
+	private int x;
+	private int y;
+	private Direction direction;
+	// name of the agent of the last command, if any
+	private String agent;
+
+	/**
+	 * Create a parser of the commands without agent names
+	 */
+	public CommandParser() {
+		this(false);
+	}
+
+	/**
+	 * Create a parser
+	 *
+	 * @param agentNames whether commands may be addressed to a named Pacman
+	 */
+	public CommandParser(boolean agentNames) {
+		this.agentNames = agentNames;
+	}
+
+	/**
+	 * Parses one line of instruction
+	 *
+	 * @param line
+	 * @return the parsed command, {@link Command#UNKNOWN} if the line is
+	 *         malformed
+	 */
+	public Command parse(CharSequence line) {
+		this.line = line;
+		this.pos = 0;
+		this.end = line.length();
+		this.agent = null;
+		try {
+			return parseLine();
+		} finally {
+			this.line = null;
+		}
+	}
+
+	/**
+	 * Parses one line of instruction encoded as ASCII bytes
+	 *
+	 * @param buf
+	 * @param offset
+	 * @param length
+	 * @return the parsed command, {@link Command#UNKNOWN} if the line is
+	 *         malformed
+	 */
+	public Command parse(byte[] buf, int offset, int length) {
+		return parse(bytes.wrap(buf, offset, length));
+	}
+
+	/**
+	 * @return the X coordinate of the last parsed PLACE or GOTO
+	 */
+	public int getX() {
+		return x;
+	}
+
+	/**
+	 * @return the Y coordinate of the last parsed PLACE or GOTO
+	 */
+	public int getY() {
+		return y;
+	}
+
+	/**
+	 * @return the direction of the last parsed PLACE
+	 */
+	public Direction getDirection() {
+		return direction;
+	}
+
+	/**
+	 * @return the name of the Pacman the last parsed command is addressed to, or
+	 *         null if it has none
+	 */
+	public String getAgent() {
+		return agent;
+	}
+
+	private Command parseLine() {
+		if (end == 4 && matchWord("QUIT")) {
+			return Command.QUIT;
+		}
+		if (parsePlace()) {
+			return Command.PLACE;
+		}
+		if (parseGoto()) {
+			return Command.GOTO;
+		}
+		agent = null;
+
+		// the other commands tolerate any leading or trailing control characters
+		pos = 0;
+		while (pos < end && line.charAt(pos) <= ' ') {
+			pos++;
+		}
+		while (end > pos && line.charAt(end - 1) <= ' ') {
+			end--;
+		}
+		if (!agentNames) {
+			if (startsBlock("DEFINE")) {
+				return Command.DEFINE;
+			}
+			if (startsBlock("REPEAT")) {
+				return Command.REPEAT;
+			}
+		}
+		if (agentNames && !splitAgent()) {
+			agent = null;
+			return Command.UNKNOWN;
+		}
+		switch (end - pos) {
+		case 4:
+			if (matchWord("MOVE")) {
+				return Command.MOVE;
+			}
+			if (matchWord("LEFT")) {
+				return Command.LEFT;
+			}
+			break;
+		case 5:
+			if (matchWord("RIGHT")) {
+				return Command.RIGHT;
+			}
+			if (matchWord("SCORE")) {
+				return Command.SCORE;
+			}
+			break;
+		case 6:
+			if (matchWord("REPORT")) {
+				return Command.REPORT;
+			}
+			break;
+		}
+		return Command.UNKNOWN;
+	}
+
+	private boolean parsePlace() {
+		skipSpaces();
+		if (!matchWord("PLACE")) {
+			return false;
+		}
+		skipSpaces();
+		long px = parseNumber();
+		if (px < 0 || !skipComma()) {
+			return false;
+		}
+		long py = parseNumber();
+		if (py < 0 || !skipComma()) {
+			return false;
+		}
+		Direction d = parseDirection();
+		if (d == null) {
+			return false;
+		}
+		int directionEnd = pos;
+		skipSpaces();
+		if (agentNames && pos != end && pos > directionEnd && matchWord("AS")) {
+			int asEnd = pos;
+			skipSpaces();
+			if (pos == asEnd || !parseAgent()) {
+				return false;
+			}
+			skipSpaces();
+		}
+		if (pos != end) {
+			return false;
+		}
+		this.x = (int) px;
+		this.y = (int) py;
+		this.direction = d;
+		return true;
+	}
+
+	private boolean parseGoto() {
+		pos = 0;
+		skipSpaces();
+		if (!matchWord("GOTO")) {
+			return false;
+		}
+		skipSpaces();
+		long px = parseNumber();
+		if (px < 0 || !skipComma()) {
+			return false;
+		}
+		long py = parseNumber();
+		if (py < 0) {
+			return false;
+		}
+		skipSpaces();
+		if (pos != end) {
+			return false;
+		}
+		this.x = (int) px;
+		this.y = (int) py;
+		return true;
+	}
+
+	/**
+	 * @return the non negative number at the cursor, or -1 if there is no digit
+	 *         or the number overflows an int
+	 */
+	private long parseNumber() {
+		int start = pos;
+		long value = 0;
+		while (pos < end) {
+			char c = line.charAt(pos);
+			if (c < '0' || c > '9') {
+				break;
+			}
+			value = value * 10 + (c - '0');
+			if (value > Integer.MAX_VALUE) {
+				return -1;
+			}
+			pos++;
+		}
+		return pos == start ? -1 : value;
+	}
+
+	/**
+	 * Splits a trimmed "VERB name" line, leaving the cursor over the verb
+	 *
+	 * @return false if the name is malformed
+	 */
+	private boolean splitAgent() {
+		int verbEnd = pos;
+		while (verbEnd < end && !isSpace(line.charAt(verbEnd))) {
+			verbEnd++;
+		}
+		if (verbEnd == end) {
+			return true; // no name
+		}
+		int verbStart = pos;
+		int lineEnd = end;
+		pos = verbEnd;
+		skipSpaces();
+		if (!parseAgent() || pos != lineEnd) {
+			return false;
+		}
+		pos = verbStart;
+		end = verbEnd;
+		return true;
+	}
+
+	/**
+	 * Parses the name of an agent at the cursor
+	 *
+	 * @return false if there is no name
+	 */
+	private boolean parseAgent() {
+		int start = pos;
+		while (pos < end) {
+			char c = line.charAt(pos);
+			if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_' || c == '-')) {
+				break;
+			}
+			pos++;
+		}
+		if (pos == start) {
+			return false;
+		}
+		agent = line.subSequence(start, pos).toString();
+		return true;
+	}
+
+	private boolean skipComma() {
+		skipSpaces();
+		if (pos == end || line.charAt(pos) != ',') {
+			return false;
+		}
+		pos++;
+		skipSpaces();
+		return true;
+	}
+
+	private Direction parseDirection() {
+		for (Direction d : DIRECTIONS) {
+			if (matchWord(d.name())) {
+				return d;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return whether the given upper case keyword at the cursor, ignoring case,
+	 *         is followed by a whitespace or a block, leaving the cursor as is
+	 */
+	private boolean startsBlock(String keyword) {
+		int start = pos;
+		boolean matched = end - pos > keyword.length() && matchWord(keyword)
+				&& (isSpace(line.charAt(pos)) || line.charAt(pos) == '{');
+		pos = start;
+		return matched;
+	}
+
+	/**
+	 * Matches the given upper case word at the cursor, ignoring case, and
+	 * advances the cursor past it on success.
+	 */
+	private boolean matchWord(String word) {
+		int n = word.length();
+		if (end - pos < n) {
+			return false;
+		}
+		for (int i = 0; i < n; i++) {
+			// folds ASCII letters only, as the original regular expression did
+			if ((line.charAt(pos + i) | 0x20) != (word.charAt(i) | 0x20)) {
+				return false;
+			}
+		}
+		pos += n;
+		return true;
+	}
+
+	/** skips the characters matched by \s in a regular expression */
+	private void skipSpaces() {
+		while (pos < end && isSpace(line.charAt(pos))) {
+			pos++;
+		}
+	}
+
+	private static boolean isSpace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+	}
+}
@@ -0,0 +1,129 @@
+package com.ie.pacman.engine;
+
+/**
+ * Executes scripts on a {@link PacmanEngine} with the same results as
+ * {@link PacmanEngine#processInstructions(String[])}, but collapses runs of
+ * commands algebraically:
+ * <ul>
+ * <li>a run of LEFT and RIGHT is reduced to its net turn, modulo 4
+ * <li>a run of n MOVE is one jump of min(n, free units) towards the bounds of
+ * the grid
+ * </ul>
+ * so that a run costs O(1) instead of O(n). Runs are flushed whenever the
+ * result depends on the intermediate state: at a PLACE, a REPORT or a switch
+ * between turning and moving. Malformed lines and QUIT are ignored and do not
+ * break a run. DEFINE, REPEAT and macros are run by the engine, which skips
+ * the cycles of a REPEAT on its own.
+ *
+ * @see #processInstructions(String[])
+ */
+public class FastForwardExecutor {
+
+	private final PacmanEngine engine;
+	private final CommandParser parser = new CommandParser();
+
+	// the pending run, only one of them is non zero at a time
+	private int pendingTurns; // net right turns
+	private int pendingMoves;
+
+	/**
+	 * Create an executor driving the given engine
+	 *
+	 * @param engine
+	 */
+	public FastForwardExecutor(PacmanEngine engine) {
+		if (engine == null) {
+			throw new IllegalArgumentException("engine must not be null");
+		}
+		this.engine = engine;
+	}
+
+	/**
+	 * Process a set of instructions and return the results
+	 *
+	 * @param instructions
+	 * @return the results of executing the given instructions, or an empty string
+	 *         if no valid report commands were issued.
+	 * @see PacmanEngine#processInstructions(String[])
+	 */
+	public String processInstructions(String[] instructions) {
+		StringBuilder results = new StringBuilder();
+		for (String instruction : instructions) {
+			if (instruction == null) {
+				continue;
+			}
+			switch (parser.parse(instruction)) {
+			case MOVE:
+				flushTurns();
+				pendingMoves++;
+				break;
+			case LEFT:
+				flushMoves();
+				pendingTurns--;
+				break;
+			case RIGHT:
+				flushMoves();
+				pendingTurns++;
+				break;
+			case PLACE:
+				flush();
+				engine.place(parser.getX(), parser.getY(), parser.getDirection());
+				break;
+			case GOTO:
+				flush();
+				engine.goTo(parser.getX(), parser.getY());
+				break;
+			case REPORT:
+				flush();
+				results.append(engine.report()).append('\n');
+				break;
+			case SCORE:
+				if (engine.getPellets() != null) {
+					flush();
+					results.append(engine.score()).append('\n');
+				}
+				break;
+			case DEFINE:
+			case REPEAT:
+				flush();
+				results.append(engine.processInstruction(instruction));
+				break;
+			case UNKNOWN:
+				if (engine.hasMacros()) {
+					// possibly the name of a macro
+					flush();
+					results.append(engine.processInstruction(instruction));
+				}
+				break;
+			default:
+				break; // no effect on Pacman
+			}
+		}
+		flush();
+		return PacmanEngine.trim(results);
+	}
+
+	private void flush() {
+		flushMoves();
+		flushTurns();
+	}
+
+	private void flushMoves() {
+		if (pendingMoves > 0) {
+			engine.move(pendingMoves);
+			pendingMoves = 0;
+		}
+	}
+
+	private void flushTurns() {
+		int turns = pendingTurns & 3;
+		pendingTurns = 0;
+		if (turns == 3) {
+			engine.turnLeft();
+			return;
+		}
+		for (int i = 0; i < turns; i++) {
+			engine.turnRight();
+		}
+	}
+}
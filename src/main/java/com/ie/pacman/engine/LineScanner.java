@@ -0,0 +1,220 @@
+package com.ie.pacman.engine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Splits a byte stream into lines through a reusable buffer, allocated on the
+ * first scan. Lines are terminated by a line feed, a trailing carriage return
+ * is dropped, and the last line does not need a terminator. A line spanning
+ * two reads is gathered into a separate, growing buffer, released once it has
+ * grown past a few kilobytes. A line longer than the maximum line length is
+ * dropped, along with the rest of it up to its line feed, so that the buffer
+ * is bounded whatever the input. <br>
+ * A scanner is not thread safe.
+ */
+public final class LineScanner {
+
+	/**
+	 * Receives the lines of a scan. The buffer is only valid during the call.
+	 */
+	public interface LineHandler {
+		/**
+		 * @param buf    holding the line
+		 * @param offset of the line in the buffer
+		 * @param length of the line, without its terminator
+		 * @return false to stop the scan
+		 * @throws IOException
+		 */
+		boolean onLine(byte[] buf, int offset, int length) throws IOException;
+	}
+
+	/** Default maximum length of a line read from a connection */
+	public static final int DEFAULT_MAX_LINE_LENGTH = 1 << 16;
+
+	private static final int CARRY_SIZE = 256;
+	private static final int MAX_RETAINED_CARRY_SIZE = 1 << 12;
+
+	private final int bufferSize;
+	private final int maxLineLength;
+	private ByteBuffer buffer;
+
+	// holds a line that is split across two reads
+	private byte[] carry = new byte[CARRY_SIZE];
+	private int carryLength;
+	// discarding the rest of a line too long to keep
+	private boolean dropping;
+	private long lines;
+	private long droppedLines;
+
+	/**
+	 * Create a scanner without limit on the length of a line
+	 *
+	 * @param bufferSize size of the read buffer in bytes
+	 */
+	public LineScanner(int bufferSize) {
+		this(bufferSize, Integer.MAX_VALUE - 1);
+	}
+
+	/**
+	 * @param bufferSize    size of the read buffer in bytes
+	 * @param maxLineLength length of the longest line handed to the handler,
+	 *                      without its terminator
+	 */
+	public LineScanner(int bufferSize, int maxLineLength) {
+		if (bufferSize <= 0) {
+			throw new IllegalArgumentException("bufferSize must be positive: " + bufferSize);
+		}
+		if (maxLineLength <= 0 || maxLineLength == Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("maxLineLength must be positive and bounded: " + maxLineLength);
+		}
+		this.bufferSize = bufferSize;
+		this.maxLineLength = maxLineLength;
+	}
+
+	/**
+	 * @return the number of lines dropped for being longer than the maximum
+	 *         line length, since the scanner was created
+	 */
+	public long getDroppedLineCount() {
+		return droppedLines;
+	}
+
+	/**
+	 * Reads the channel until its end, or until the handler stops the scan. The
+	 * channel is not closed.
+	 *
+	 * @return the number of lines handed to the handler
+	 */
+	public long scan(ReadableByteChannel in, LineHandler handler) throws IOException {
+		start();
+		while (in.read(buffer) >= 0) {
+			buffer.flip();
+			if (!consume(handler)) {
+				return lines;
+			}
+			buffer.clear();
+		}
+		finish(handler);
+		return lines;
+	}
+
+	/**
+	 * Reads the remaining bytes of the given buffer, or until the handler stops
+	 * the scan.
+	 *
+	 * @return the number of lines handed to the handler
+	 */
+	public long scan(ByteBuffer in, LineHandler handler) throws IOException {
+		start();
+		while (in.hasRemaining()) {
+			buffer.clear();
+			int n = Math.min(buffer.remaining(), in.remaining());
+			in.get(buffer.array(), 0, n);
+			buffer.limit(n);
+			if (!consume(handler)) {
+				return lines;
+			}
+		}
+		finish(handler);
+		return lines;
+	}
+
+	/**
+	 * Hands the complete lines of the given chunk to the handler, keeping an
+	 * incomplete last line until the next chunk. Lets a caller that does its
+	 * own reads, such as a non blocking server, split its input into lines.
+	 *
+	 * @return false if the handler stopped the scan
+	 */
+	public boolean feed(byte[] buf, int offset, int length, LineHandler handler) throws IOException {
+		int start = offset;
+		int limit = offset + length;
+		for (int i = offset; i < limit; i++) {
+			if (buf[i] != '\n') {
+				continue;
+			}
+			boolean more = true;
+			if (dropping) {
+				dropping = false;
+			} else if (carryLength > 0) {
+				appendCarry(buf, start, i - start);
+				if (!dropping) {
+					more = handle(handler, carry, 0, carryLength);
+				}
+				dropping = false;
+				releaseCarry();
+			} else {
+				more = handle(handler, buf, start, i - start);
+			}
+			start = i + 1;
+			if (!more) {
+				return false;
+			}
+		}
+		appendCarry(buf, start, limit - start);
+		return true;
+	}
+
+	private void start() {
+		if (buffer == null) {
+			buffer = ByteBuffer.allocate(bufferSize);
+		}
+		buffer.clear();
+		releaseCarry();
+		dropping = false;
+		lines = 0;
+	}
+
+	private boolean consume(LineHandler handler) throws IOException {
+		return feed(buffer.array(), 0, buffer.limit(), handler);
+	}
+
+	private void finish(LineHandler handler) throws IOException {
+		if (carryLength > 0) {
+			// last line without a line feed
+			handle(handler, carry, 0, carryLength);
+		}
+		dropping = false;
+		releaseCarry();
+	}
+
+	private boolean handle(LineHandler handler, byte[] buf, int offset, int length) throws IOException {
+		if (length > 0 && buf[offset + length - 1] == '\r') {
+			length--;
+		}
+		if (length > maxLineLength) {
+			droppedLines++;
+			return true;
+		}
+		lines++;
+		return handler.onLine(buf, offset, length);
+	}
+
+	private void appendCarry(byte[] buf, int offset, int length) {
+		if (dropping) {
+			return;
+		}
+		// one more byte for a carriage return
+		if (length > maxLineLength + 1 - carryLength) {
+			droppedLines++;
+			dropping = true;
+			releaseCarry();
+			return;
+		}
+		if (carryLength + length > carry.length) {
+			carry = Arrays.copyOf(carry, Math.max(carry.length * 2, carryLength + length));
+		}
+		System.arraycopy(buf, offset, carry, carryLength, length);
+		carryLength += length;
+	}
+
+	private void releaseCarry() {
+		carryLength = 0;
+		if (carry.length > MAX_RETAINED_CARRY_SIZE) {
+			carry = new byte[CARRY_SIZE];
+		}
+	}
+}
@@ -0,0 +1,327 @@
+package com.ie.pacman.engine;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The output of REPEAT commands, kept as a sequence of byte chunks and of
+ * repeated sub sequences, so that the output of the cycles skipped by a
+ * REPEAT takes the space of a single cycle. It is expanded as it is drained.
+ * <br>
+ * Built by {@link Macros} and drained by the engine, by a single thread. What
+ * is left to drain can be written and read back, with the sub sequences shared
+ * by several repeats written once.
+ */
+final class MacroOutput {
+
+	private static final int TEXT_CHUNK = 1 << 13;
+	private static final byte NODE_BYTES = 0;
+	private static final byte NODE_REPEAT = 1;
+
+	/**
+	 * A sub sequence repeated a number of times
+	 */
+	private static final class Repeat {
+		final Object[] nodes;
+		final long times;
+
+		Repeat(Object[] nodes, long times) {
+			this.nodes = nodes;
+			this.times = times;
+		}
+	}
+
+	/**
+	 * Position of the drain in a repeated sub sequence
+	 */
+	private static final class Frame {
+		final Object[] nodes;
+		long left;
+		int index;
+
+		Frame(Repeat repeat) {
+			this.nodes = repeat.nodes;
+			this.left = repeat.times;
+		}
+	}
+
+	// byte[] chunks, never empty, and repeats of them
+	private final List<Object> nodes = new ArrayList<>();
+	// the chunk being appended to
+	private byte[] literal = new byte[64];
+	private int literalLength;
+
+	// position of the drain
+	private int rootIndex;
+	private final Deque<Frame> frames = new ArrayDeque<>();
+	private byte[] current;
+	private int currentPos;
+
+	void append(byte[] buf, int offset, int length) {
+		if (literalLength + length > literal.length) {
+			literal = Arrays.copyOf(literal, Math.max(literal.length * 2, literalLength + length));
+		}
+		System.arraycopy(buf, offset, literal, literalLength, length);
+		literalLength += length;
+	}
+
+	void append(byte b) {
+		if (literalLength == literal.length) {
+			literal = Arrays.copyOf(literal, literal.length * 2);
+		}
+		literal[literalLength++] = b;
+	}
+
+	/**
+	 * @return the position of the output appended so far, to repeat what comes
+	 *         after it
+	 */
+	int mark() {
+		closeLiteral();
+		return nodes.size();
+	}
+
+	/**
+	 * Repeats the output appended since the given mark the given number of
+	 * times more
+	 */
+	void repeat(int mark, long times) {
+		closeLiteral();
+		if (times <= 0 || mark == nodes.size()) {
+			return;
+		}
+		nodes.add(new Repeat(nodes.subList(mark, nodes.size()).toArray(), times));
+	}
+
+	/**
+	 * Appends again the output appended between two marks
+	 */
+	void copy(int from, int to) {
+		closeLiteral();
+		if (from < to) {
+			nodes.add(new Repeat(nodes.subList(from, to).toArray(), 1));
+		}
+	}
+
+	/**
+	 * @return whether everything has been drained
+	 */
+	boolean isEmpty() {
+		return current == null && frames.isEmpty() && rootIndex == nodes.size() && literalLength == 0;
+	}
+
+	/**
+	 * Writes as much of the output as fits in the buffer
+	 *
+	 * @return true if some output is left
+	 */
+	boolean drainTo(ByteBuffer out) {
+		closeLiteral();
+		while (true) {
+			if (current != null) {
+				int n = Math.min(out.remaining(), current.length - currentPos);
+				out.put(current, currentPos, n);
+				currentPos += n;
+				if (currentPos < current.length) {
+					return true;
+				}
+				current = null;
+			}
+			byte[] next = next();
+			if (next == null) {
+				return false;
+			}
+			current = next;
+			currentPos = 0;
+			if (!out.hasRemaining()) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Drains the whole output
+	 *
+	 * @return the output as a String
+	 */
+	String drainToString() {
+		StringBuilder text = new StringBuilder();
+		ByteBuffer chunk = ByteBuffer.allocate(TEXT_CHUNK);
+		boolean more;
+		do {
+			chunk.clear();
+			more = drainTo(chunk);
+			text.append(new String(chunk.array(), 0, chunk.position(), StandardCharsets.US_ASCII));
+		} while (more);
+		return text.toString();
+	}
+
+	/**
+	 * Writes what is left to drain, without draining it
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	void writeTo(DataOutput out) throws IOException {
+		closeLiteral();
+		// the drain position, as the nodes left from it
+		List<Object> left = new ArrayList<>();
+		if (current != null && currentPos < current.length) {
+			left.add(Arrays.copyOfRange(current, currentPos, current.length));
+		}
+		// innermost first
+		for (Frame frame : frames) {
+			left.addAll(Arrays.asList(frame.nodes).subList(frame.index, frame.nodes.length));
+			if (frame.left > 1) {
+				left.add(new Repeat(frame.nodes, frame.left - 1));
+			}
+		}
+		left.addAll(nodes.subList(rootIndex, nodes.size()));
+
+		Map<Object, Integer> ids = new IdentityHashMap<>();
+		List<Object> table = new ArrayList<>();
+		for (Object node : left) {
+			number(node, ids, table);
+		}
+		out.writeInt(table.size());
+		for (Object node : table) {
+			if (node instanceof byte[]) {
+				byte[] bytes = (byte[]) node;
+				out.writeByte(NODE_BYTES);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			} else {
+				Repeat repeat = (Repeat) node;
+				out.writeByte(NODE_REPEAT);
+				out.writeLong(repeat.times);
+				writeIds(repeat.nodes, ids, out);
+			}
+		}
+		writeIds(left.toArray(), ids, out);
+	}
+
+	/**
+	 * Reads output written by {@link #writeTo(DataOutput)}
+	 *
+	 * @param in
+	 * @return the output, to be drained
+	 * @throws IOException if the output is corrupted
+	 */
+	static MacroOutput readFrom(DataInput in) throws IOException {
+		int size = in.readInt();
+		if (size < 0) {
+			throw new IOException("corrupted output, bad size: " + size);
+		}
+		List<Object> table = new ArrayList<>();
+		for (int i = 0; i < size; i++) {
+			byte kind = in.readByte();
+			if (kind == NODE_BYTES) {
+				int length = in.readInt();
+				if (length <= 0) {
+					throw new IOException("corrupted output, bad length: " + length);
+				}
+				byte[] bytes = new byte[length];
+				in.readFully(bytes);
+				table.add(bytes);
+			} else if (kind == NODE_REPEAT) {
+				long times = in.readLong();
+				if (times <= 0) {
+					throw new IOException("corrupted output, bad repeat: " + times);
+				}
+				table.add(new Repeat(readIds(in, table), times));
+			} else {
+				throw new IOException("corrupted output, bad node: " + kind);
+			}
+		}
+		MacroOutput output = new MacroOutput();
+		output.nodes.addAll(Arrays.asList(readIds(in, table)));
+		return output;
+	}
+
+	/**
+	 * Numbers a node after the nodes it repeats, so that they are read first
+	 */
+	private static void number(Object node, Map<Object, Integer> ids, List<Object> table) {
+		if (ids.containsKey(node)) {
+			return;
+		}
+		if (node instanceof Repeat) {
+			for (Object child : ((Repeat) node).nodes) {
+				number(child, ids, table);
+			}
+		}
+		ids.put(node, table.size());
+		table.add(node);
+	}
+
+	private static void writeIds(Object[] nodes, Map<Object, Integer> ids, DataOutput out) throws IOException {
+		out.writeInt(nodes.length);
+		for (Object node : nodes) {
+			out.writeInt(ids.get(node));
+		}
+	}
+
+	private static Object[] readIds(DataInput in, List<Object> table) throws IOException {
+		int count = in.readInt();
+		if (count < 0) {
+			throw new IOException("corrupted output, bad count: " + count);
+		}
+		Object[] nodes = new Object[count];
+		for (int i = 0; i < count; i++) {
+			int id = in.readInt();
+			if (id < 0 || id >= table.size()) {
+				throw new IOException("corrupted output, bad node: " + id);
+			}
+			nodes[i] = table.get(id);
+		}
+		return nodes;
+	}
+
+	/**
+	 * @return the next chunk to drain, or null if there is none
+	 */
+	private byte[] next() {
+		while (true) {
+			Object node;
+			Frame frame = frames.peek();
+			if (frame == null) {
+				if (rootIndex == nodes.size()) {
+					nodes.clear();
+					rootIndex = 0;
+					return null;
+				}
+				node = nodes.get(rootIndex++);
+			} else if (frame.index < frame.nodes.length) {
+				node = frame.nodes[frame.index++];
+			} else {
+				if (--frame.left > 0) {
+					frame.index = 0;
+				} else {
+					frames.pop();
+				}
+				continue;
+			}
+			if (node instanceof byte[]) {
+				return (byte[]) node;
+			}
+			frames.push(new Frame((Repeat) node));
+		}
+	}
+
+	private void closeLiteral() {
+		if (literalLength > 0) {
+			nodes.add(Arrays.copyOf(literal, literalLength));
+			literalLength = 0;
+		}
+	}
+}
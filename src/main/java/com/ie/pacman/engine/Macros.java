@@ -0,0 +1,656 @@
+package com.ie.pacman.engine;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.ie.pacman.model.Pacman;
+import com.ie.pacman.model.Pacman.Direction;
+import com.ie.pacman.model.Pellets;
+import com.ie.pacman.model.ReportEncoder;
+
+/**
+ * The macros of an engine, and the DEFINE and REPEAT commands building and
+ * running them:
+ * <ul>
+ * <li>DEFINE name { command; command; ... } - compiles the commands once into
+ * a program, run when a line is the name of the macro
+ * <li>REPEAT n { command; command; ... } - runs the commands n times
+ * </ul>
+ * The commands of a block are MOVE, LEFT, RIGHT, REPORT, SCORE, PLACE, GOTO,
+ * a nested REPEAT, or the name of a macro defined before, separated by ';'.
+ * A block with any other command is malformed and ignored, as a malformed
+ * command is. Names are made of ASCII letters, digits, '_' and '-', and cannot
+ * be a command. Successive MOVEs of a program are run as a single multi unit
+ * move, and successive turns the same way as a single turn, unless a listener
+ * has to see every one of them. <br>
+ * The state of Pacman on a grid is finite, so the iterations of a REPEAT end
+ * up cycling. The state before some iterations is kept, as in Brent's cycle
+ * detection, and once it recurs, the whole cycles left are skipped, their
+ * output being repeated as a whole by the {@link MacroOutput}. Cycles are only
+ * skipped when every step does not have to be observed, i.e. without a
+ * listener nor a heatmap, and with pellets when no pellet was eaten during the
+ * cycle. With a listener or a heatmap, every iteration of a REPEAT is run.
+ * <br>
+ * In the same conditions, the effect of every program run by a line, a REPEAT
+ * body or a macro called, is kept by the state it started from: the state it
+ * ends in and its output. Running it again from that state only sets the end
+ * state and repeats the output, so that macros calling macros run in the
+ * number of distinct states they go through, not in the number of their
+ * expanded steps. A bounded number of effects is kept by a line.
+ * <br>
+ * A line is stopped once it runs {@link #MAX_STEPS} steps, a skipped cycle or
+ * a reused effect counting as one: the steps run so far are kept, and the line
+ * is rejected. With a listener or a heatmap, a line of more than MAX_STEPS
+ * commands written out flat is rejected before it runs. <br>
+ * The listener of the engine is told of every DEFINE, see
+ * {@link #getDefinitions()} to define the same macros again.
+ */
+final class Macros {
+
+	// maximum nesting of blocks and macros
+	private static final int MAX_DEPTH = 64;
+	/** Maximum number of steps run by a line */
+	static final long MAX_STEPS = 1 << 20;
+	// maximum number of program effects kept by a line
+	private static final int MAX_EFFECTS = 1 << 12;
+	private static final Direction[] DIRECTIONS = Direction.values();
+
+	private static final int OP_MOVE = 0;
+	private static final int OP_TURN = 1;
+	private static final int OP_REPORT = 2;
+	private static final int OP_SCORE = 3;
+	private static final int OP_PLACE = 4;
+	private static final int OP_GOTO = 5;
+	private static final int OP_REPEAT = 6;
+
+	private final Map<String, Program> definitions = new HashMap<>();
+	// the DEFINE lines whose programs are still defined or called, in order
+	private final List<Definition> history = new ArrayList<>();
+	private final CommandParser parser = new CommandParser();
+	private final ByteBuffer scratch = ByteBuffer.allocate(ReportEncoder.MAX_LENGTH);
+	// effects of the programs run by the line being executed, by start state
+	private final Map<Program, Map<Long, Effect>> effects = new IdentityHashMap<>();
+	private int effectCount;
+	// steps the line being executed may still run
+	private long budget;
+
+	// cursor over the line being compiled
+	private String line;
+	private int pos;
+
+	/**
+	 * A compiled block: op codes and their arguments, and the repeated blocks
+	 */
+	static final class Program {
+		final int[] code;
+		final Program[] bodies;
+		final long[] counts;
+		final int depth;
+		// commands of the program written out flat, at most Long.MAX_VALUE
+		final long steps;
+
+		Program(int[] code, Program[] bodies, long[] counts, int depth, long steps) {
+			this.code = code;
+			this.bodies = bodies;
+			this.counts = counts;
+			this.depth = depth;
+			this.steps = steps;
+		}
+	}
+
+	/**
+	 * A DEFINE line and the program it compiled to
+	 */
+	private static final class Definition {
+		final String line;
+		final Program body;
+
+		Definition(String line, Program body) {
+			this.line = line;
+			this.body = body;
+		}
+	}
+
+	/**
+	 * The effect of a program run from a state: the state it ended in, and the
+	 * marks of its output. Only kept when no pellet was eaten.
+	 */
+	private static final class Effect {
+		final long eaten;
+		final long end;
+		final int from;
+		final int to;
+
+		Effect(long eaten, long end, int from, int to) {
+			this.eaten = eaten;
+			this.end = end;
+			this.from = from;
+			this.to = to;
+		}
+	}
+
+	/**
+	 * Thrown once a line has run {@link Macros#MAX_STEPS} steps
+	 */
+	private static final class BudgetExceeded extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		BudgetExceeded() {
+			super(null, null, false, false);
+		}
+	}
+
+	/**
+	 * @return the number of defined macros
+	 */
+	int size() {
+		return definitions.size();
+	}
+
+	/**
+	 * @return the DEFINE lines that define the same macros again when run in
+	 *         order, a macro redefined since being kept while another one calls
+	 *         it
+	 */
+	List<String> getDefinitions() {
+		List<String> lines = new ArrayList<>(history.size());
+		for (Definition definition : history) {
+			lines.add(definition.line);
+		}
+		return lines;
+	}
+
+	/**
+	 * Runs a DEFINE or REPEAT line, or the macro a line is the name of
+	 *
+	 * @param line   of instruction
+	 * @param engine running the commands
+	 * @param output where the results are appended to
+	 * @param text   whether a REPORT while Pacman is not placed outputs an empty
+	 *               line, as {@link PacmanEngine#processInstruction(String)}
+	 *               does
+	 * @return DEFINE or REPEAT, a macro call being a REPEAT, or UNKNOWN if the
+	 *         line is malformed and was ignored, or was stopped after
+	 *         {@link #MAX_STEPS} steps
+	 */
+	Command execute(String line, PacmanEngine engine, MacroOutput output, boolean text) {
+		this.line = line;
+		this.pos = 0;
+		try {
+			skipSpaces();
+			if (matchKeyword("DEFINE")) {
+				skipSpaces();
+				String name = parseName();
+				if (name == null) {
+					return Command.UNKNOWN;
+				}
+				Program body = parseBlock(1);
+				if (body == null || !atEnd()) {
+					return Command.UNKNOWN;
+				}
+				definitions.put(name, body);
+				history.add(new Definition(line, body));
+				forgetUnused();
+				PacmanListener listener = engine.getListener();
+				if (listener != null) {
+					listener.onDefine(line);
+				}
+				return Command.DEFINE;
+			}
+			Program body;
+			long count;
+			if (matchKeyword("REPEAT")) {
+				skipSpaces();
+				count = parseCount();
+				body = count < 0 ? null : parseBlock(1);
+				if (body == null || !atEnd()) {
+					return Command.UNKNOWN;
+				}
+			} else {
+				count = 1;
+				body = definitions.get(line.trim());
+				if (body == null) {
+					return Command.UNKNOWN;
+				}
+			}
+			if ((engine.getListener() != null || engine.getHeatmap() != null)
+					&& (count != 0 && body.steps > MAX_STEPS / count)) {
+				return Command.UNKNOWN; // every step would be observed
+			}
+			budget = MAX_STEPS;
+			repeat(body, count, engine, output, text);
+			return Command.REPEAT;
+		} catch (BudgetExceeded e) {
+			return Command.UNKNOWN;
+		} finally {
+			this.line = null;
+			effects.clear();
+			effectCount = 0;
+		}
+	}
+
+	/**
+	 * Drops the DEFINE lines of the programs that are neither defined nor
+	 * called by a defined one
+	 */
+	private void forgetUnused() {
+		Set<Program> used = Collections.newSetFromMap(new IdentityHashMap<>());
+		Deque<Program> pending = new ArrayDeque<>(definitions.values());
+		while (!pending.isEmpty()) {
+			Program program = pending.pop();
+			if (used.add(program)) {
+				pending.addAll(Arrays.asList(program.bodies));
+			}
+		}
+		history.removeIf(definition -> !used.contains(definition.body));
+	}
+
+	// compilation
+
+	/**
+	 * Parses a block at the cursor, up to its closing brace
+	 *
+	 * @return the program, or null if the block is malformed
+	 */
+	private Program parseBlock(int depth) {
+		if (depth > MAX_DEPTH || pos == line.length() || line.charAt(pos) != '{') {
+			return null;
+		}
+		pos++;
+		ProgramBuilder program = new ProgramBuilder();
+		while (true) {
+			skipSpaces();
+			if (pos == line.length()) {
+				return null; // not closed
+			}
+			char c = line.charAt(pos);
+			if (c == '}') {
+				pos++;
+				return program.build();
+			}
+			if (c == ';') {
+				pos++;
+				continue;
+			}
+			if (matchKeyword("REPEAT")) {
+				skipSpaces();
+				long count = parseCount();
+				skipSpaces();
+				Program body = count < 0 ? null : parseBlock(depth + 1);
+				if (body == null) {
+					return null;
+				}
+				program.repeat(body, count);
+				skipSpaces();
+				if (pos < line.length() && line.charAt(pos) != ';' && line.charAt(pos) != '}') {
+					return null;
+				}
+				continue;
+			}
+			int start = pos;
+			while (pos < line.length() && (c = line.charAt(pos)) != ';' && c != '}') {
+				if (c == '{') {
+					return null;
+				}
+				pos++;
+			}
+			String item = line.substring(start, pos).trim();
+			Program macro = definitions.get(item);
+			if (macro != null) {
+				if (macro.depth + depth > MAX_DEPTH) {
+					return null;
+				}
+				program.repeat(macro, 1);
+				continue;
+			}
+			switch (parser.parse(item)) {
+			case MOVE:
+				program.move();
+				break;
+			case LEFT:
+				program.turn(-1);
+				break;
+			case RIGHT:
+				program.turn(1);
+				break;
+			case REPORT:
+				program.command(OP_REPORT);
+				break;
+			case SCORE:
+				program.command(OP_SCORE);
+				break;
+			case PLACE:
+				program.command(OP_PLACE, parser.getX(), parser.getY(), parser.getDirection().ordinal());
+				break;
+			case GOTO:
+				program.command(OP_GOTO, parser.getX(), parser.getY());
+				break;
+			default:
+				return null; // malformed, QUIT or DEFINE
+			}
+		}
+	}
+
+	/**
+	 * Accumulates the op codes of a block, merging successive moves and turns
+	 */
+	private static final class ProgramBuilder {
+		private int[] code = new int[16];
+		private int length;
+		private Program[] bodies = new Program[0];
+		private long[] counts = new long[0];
+		private int depth;
+		private long steps;
+		// start of the last op, -1 if none
+		private int last = -1;
+
+		void move() {
+			steps = add(steps, 1);
+			if (last >= 0 && code[last] == OP_MOVE && code[last + 1] < Integer.MAX_VALUE) {
+				code[last + 1]++;
+			} else {
+				op(OP_MOVE, 1);
+			}
+		}
+
+		/**
+		 * @param rights 1 for a RIGHT, -1 for a LEFT
+		 */
+		void turn(int rights) {
+			steps = add(steps, 1);
+			// LEFT; RIGHT is kept as two turns, so that a listener sees both
+			if (last >= 0 && code[last] == OP_TURN && Integer.signum(code[last + 1]) == rights
+					&& Math.abs(code[last + 1]) < Integer.MAX_VALUE) {
+				code[last + 1] += rights;
+			} else {
+				op(OP_TURN, rights);
+			}
+		}
+
+		void repeat(Program body, long count) {
+			int k = bodies.length;
+			bodies = Arrays.copyOf(bodies, k + 1);
+			counts = Arrays.copyOf(counts, k + 1);
+			bodies[k] = body;
+			counts[k] = count;
+			depth = Math.max(depth, body.depth);
+			steps = add(steps, count == 0 || body.steps <= Long.MAX_VALUE / count ? body.steps * count
+					: Long.MAX_VALUE);
+			op(OP_REPEAT, k);
+		}
+
+		void command(int... op) {
+			steps = add(steps, 1);
+			op(op);
+		}
+
+		private static long add(long a, long b) {
+			return a > Long.MAX_VALUE - b ? Long.MAX_VALUE : a + b;
+		}
+
+		void op(int... op) {
+			if (length + op.length > code.length) {
+				code = Arrays.copyOf(code, Math.max(code.length * 2, length + op.length));
+			}
+			last = length;
+			System.arraycopy(op, 0, code, length, op.length);
+			length += op.length;
+		}
+
+		Program build() {
+			return new Program(Arrays.copyOf(code, length), bodies, counts, depth + 1, steps);
+		}
+	}
+
+	private boolean matchKeyword(String keyword) {
+		int n = keyword.length();
+		if (!line.regionMatches(true, pos, keyword, 0, n)
+				|| (pos + n < line.length() && !isSpace(line.charAt(pos + n)) && line.charAt(pos + n) != '{')) {
+			return false;
+		}
+		pos += n;
+		return true;
+	}
+
+	private String parseName() {
+		int start = pos;
+		while (pos < line.length()) {
+			char c = line.charAt(pos);
+			if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_' || c == '-')) {
+				break;
+			}
+			pos++;
+		}
+		if (pos == start) {
+			return null;
+		}
+		String name = line.substring(start, pos);
+		if (parser.parse(name) != Command.UNKNOWN || name.equalsIgnoreCase("DEFINE")
+				|| name.equalsIgnoreCase("REPEAT")) {
+			return null; // a command
+		}
+		skipSpaces();
+		return name;
+	}
+
+	/**
+	 * @return the non negative count at the cursor, or -1 if there is none or
+	 *         it overflows a long
+	 */
+	private long parseCount() {
+		int start = pos;
+		long value = 0;
+		while (pos < line.length()) {
+			char c = line.charAt(pos);
+			if (c < '0' || c > '9') {
+				break;
+			}
+			if (value > (Long.MAX_VALUE - (c - '0')) / 10) {
+				return -1;
+			}
+			value = value * 10 + (c - '0');
+			pos++;
+		}
+		skipSpaces();
+		return pos == start ? -1 : value;
+	}
+
+	private boolean atEnd() {
+		skipSpaces();
+		return pos == line.length();
+	}
+
+	private void skipSpaces() {
+		while (pos < line.length() && isSpace(line.charAt(pos))) {
+			pos++;
+		}
+	}
+
+	private static boolean isSpace(char c) {
+		return c <= ' ';
+	}
+
+	// execution
+
+	/**
+	 * Turns a number of times to the right if positive, to the left if not.
+	 * Without a listener, only the quarter turns left after whole turns are
+	 * run.
+	 */
+	private static void turn(PacmanEngine engine, int rights) {
+		int n = Math.abs(rights);
+		if (engine.getListener() == null) {
+			n &= 3;
+			if (n == 3) {
+				n = 1;
+				rights = -rights;
+			}
+		}
+		for (int t = 0; t < n; t++) {
+			if (rights > 0) {
+				engine.turnRight();
+			} else {
+				engine.turnLeft();
+			}
+		}
+	}
+
+	private void run(Program program, PacmanEngine engine, MacroOutput output, boolean text) {
+		int[] code = program.code;
+		int i = 0;
+		while (i < code.length) {
+			spend();
+			switch (code[i]) {
+			case OP_MOVE:
+				engine.move(code[i + 1]);
+				i += 2;
+				break;
+			case OP_TURN:
+				turn(engine, code[i + 1]);
+				i += 2;
+				break;
+			case OP_REPORT:
+				scratch.clear();
+				if (engine.report(scratch)) {
+					output.append(scratch.array(), 0, scratch.position());
+				} else if (text) {
+					output.append((byte) '\n');
+				}
+				i++;
+				break;
+			case OP_SCORE:
+				scratch.clear();
+				if (engine.score(scratch)) {
+					output.append(scratch.array(), 0, scratch.position());
+				}
+				i++;
+				break;
+			case OP_PLACE:
+				engine.place(code[i + 1], code[i + 2], DIRECTIONS[code[i + 3]]);
+				i += 4;
+				break;
+			case OP_GOTO:
+				engine.goTo(code[i + 1], code[i + 2]);
+				i += 3;
+				break;
+			default:
+				repeat(program.bodies[code[i + 1]], program.counts[code[i + 1]], engine, output, text);
+				i += 2;
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Runs a program count times, skipping its cycles if possible
+	 */
+	private void repeat(Program body, long count, PacmanEngine engine, MacroOutput output, boolean text) {
+		if (engine.getListener() != null || engine.getHeatmap() != null) {
+			for (long i = 0; i < count; i++) {
+				run(body, engine, output, text);
+			}
+			return;
+		}
+		if (count < 2) {
+			if (count == 1) {
+				runOnce(body, engine, output, text);
+			}
+			return;
+		}
+		// Brent's cycle detection: the state before a checkpoint iteration, moved
+		// forward whenever the distance to it reaches a power of two, so that a
+		// cycle starting at any iteration is found in a few times its start and
+		// length, in constant memory
+		long checkpoint = 0;
+		long checkpointState = stateOf(engine);
+		long checkpointEaten = eatenBy(engine);
+		int checkpointMark = output.mark();
+		long power = 1;
+		for (long i = 0; i < count; i++) {
+			if (i > checkpoint) {
+				long state = stateOf(engine);
+				long ate = eatenBy(engine);
+				if (state == checkpointState && ate == checkpointEaten) {
+					// same state and nothing eaten since: the iterations from the
+					// checkpoint on repeat with the same output
+					long cycle = i - checkpoint;
+					long left = count - i;
+					spend();
+					output.repeat(checkpointMark, left / cycle);
+					for (long r = left % cycle; r > 0; r--) {
+						runOnce(body, engine, output, text);
+					}
+					return;
+				}
+				if (i - checkpoint == power) {
+					checkpoint = i;
+					checkpointState = state;
+					checkpointEaten = ate;
+					checkpointMark = output.mark();
+					power <<= 1;
+				}
+			}
+			runOnce(body, engine, output, text);
+		}
+	}
+
+	/**
+	 * Runs a program, or reuses its effect from the current state if it was
+	 * run from it before by the same line, without a listener nor a heatmap
+	 */
+	private void runOnce(Program program, PacmanEngine engine, MacroOutput output, boolean text) {
+		long state = stateOf(engine);
+		long eaten = eatenBy(engine);
+		Map<Long, Effect> byState = effects.computeIfAbsent(program, p -> new HashMap<>());
+		Effect effect = byState.get(state);
+		if (effect != null && effect.eaten == eaten) {
+			spend();
+			output.copy(effect.from, effect.to);
+			if (effect.end != state) {
+				long cell = (effect.end - 1) >> 2;
+				int unitsX = engine.getGrid().getUnitsX();
+				engine.place((int) (cell % unitsX), (int) (cell / unitsX), DIRECTIONS[(int) ((effect.end - 1) & 3)]);
+			}
+			return;
+		}
+		int from = output.mark();
+		run(program, engine, output, text);
+		// without eating, the same state leads to the same steps again
+		if (eatenBy(engine) == eaten && effectCount < MAX_EFFECTS) {
+			byState.put(state, new Effect(eaten, stateOf(engine), from, output.mark()));
+			effectCount++;
+		}
+	}
+
+	private void spend() {
+		if (--budget < 0) {
+			throw new BudgetExceeded();
+		}
+	}
+
+	private static long eatenBy(PacmanEngine engine) {
+		Pellets pellets = engine.getPellets();
+		return pellets == null ? 0 : pellets.getEaten();
+	}
+
+	/**
+	 * @return 0 when Pacman is not placed, 1 + (cell * 4 + direction) otherwise
+	 */
+	private static long stateOf(PacmanEngine engine) {
+		Pacman p = engine.getPacman();
+		if (p == null) {
+			return 0;
+		}
+		long cell = (long) p.getY() * engine.getGrid().getUnitsX() + p.getX();
+		return 1 + ((cell << 2) | p.getDirection().ordinal());
+	}
+}
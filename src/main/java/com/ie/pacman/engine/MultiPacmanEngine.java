@@ -0,0 +1,311 @@
+package com.ie.pacman.engine;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ie.pacman.model.Grid;
+import com.ie.pacman.model.OccupancyIndex;
+import com.ie.pacman.model.Pacman;
+import com.ie.pacman.model.Pacman.Direction;
+
+/**
+ * An engine moving several named Pacmen on a shared grid, where no two Pacmen
+ * can be on the same cell. <br>
+ * Supports the commands of {@link PacmanEngine} addressed to a Pacman by name:
+ * <ul>
+ * <li>PLACE X,Y,F AS name - places, or places again, the named Pacman.<br>
+ * E.g.: PLACE 2,3,EAST AS p7
+ * <li>MOVE name, LEFT name, RIGHT name, REPORT name
+ * </ul>
+ * Commands without a name are addressed to the Pacman named
+ * {@link #DEFAULT_AGENT}. A PLACE or MOVE onto a cell occupied by another
+ * Pacman is ignored, as a move off the grid is. GOTO, SCORE, DEFINE and
+ * REPEAT are not supported and are ignored. <br>
+ * An engine is thread safe. Every Pacman has its own lock, and the cells are
+ * claimed in a concurrent {@link OccupancyIndex}, so that different Pacmen can
+ * be moved from different threads without a global lock. The commands of a
+ * single Pacman are processed one at a time.
+ *
+ * @see #processInstruction(String)
+ */
+public class MultiPacmanEngine {
+
+	/** Name of the Pacman the commands without a name are addressed to */
+	public static final String DEFAULT_AGENT = "";
+
+	private final Grid grid;
+	private final OccupancyIndex occupancy;
+	private final ConcurrentMap<String, Agent> agents = new ConcurrentHashMap<>();
+	private final AtomicInteger agentIds = new AtomicInteger();
+	private final ThreadLocal<CommandParser> parsers = ThreadLocal.withInitial(() -> new CommandParser(true));
+
+	/**
+	 * A named Pacman, guarded by its own lock
+	 */
+	private static final class Agent {
+		final int id;
+		Pacman pacman;
+		boolean removed;
+
+		Agent(int id) {
+			this.id = id;
+		}
+	}
+
+	/**
+	 * Create an engine moving Pacmen on the given grid
+	 *
+	 * @param grid
+	 */
+	public MultiPacmanEngine(Grid grid) {
+		if (grid == null) {
+			throw new IllegalArgumentException("grid must not be null");
+		}
+		this.grid = grid;
+		this.occupancy = new OccupancyIndex(grid);
+	}
+
+	/**
+	 * @return the grid the Pacmen move on
+	 */
+	public Grid getGrid() {
+		return grid;
+	}
+
+	/**
+	 * @return the cells occupied by the Pacmen
+	 */
+	public OccupancyIndex getOccupancy() {
+		return occupancy;
+	}
+
+	/**
+	 * Process an instruction and return the result.
+	 *
+	 * @param cmd line of instruction
+	 * @return result of the command or null if no more commands are to be accepted
+	 */
+	public String processInstruction(String cmd) {
+		if (cmd == null) {
+			return null;
+		}
+		CommandParser parser = parsers.get();
+		Command command = parser.parse(cmd);
+		String name = parser.getAgent() == null ? DEFAULT_AGENT : parser.getAgent();
+		switch (command) {
+		case QUIT:
+			return null;
+		case PLACE:
+			place(name, parser.getX(), parser.getY(), parser.getDirection());
+			break;
+		case MOVE:
+			move(name);
+			break;
+		case LEFT:
+			turnLeft(name);
+			break;
+		case RIGHT:
+			turnRight(name);
+			break;
+		case REPORT:
+			return report(name) + "\n";
+		default:
+			break; // malformed commands are ignored
+		}
+		return "";
+	}
+
+	/**
+	 * Process a set of instructions and return the results
+	 *
+	 * @param instructions
+	 * @return the results of executing the given instructions, or an empty string
+	 *         if no valid report commands were issued.
+	 * @see PacmanEngine#processInstructions(String[])
+	 */
+	public String processInstructions(String[] instructions) {
+		StringBuilder results = new StringBuilder();
+		for (String instruction : instructions) {
+			String result = processInstruction(instruction);
+			if (result != null) {
+				results.append(result);
+			}
+		}
+		return PacmanEngine.trim(results);
+	}
+
+	/**
+	 * Places a Pacman on a free cell, creating it if needed
+	 *
+	 * @param name      of the Pacman
+	 * @param x
+	 * @param y
+	 * @param direction
+	 * @return true if the placement was successful, false if the coordinates are
+	 *         not valid or the cell is occupied by another Pacman
+	 */
+	public boolean place(String name, int x, int y, Direction direction) {
+		if (direction == null || !grid.isValidXY(x, y)) {
+			return false; // bad inputs
+		}
+		while (true) {
+			Agent agent = agents.computeIfAbsent(name, n -> new Agent(agentIds.incrementAndGet()));
+			synchronized (agent) {
+				if (agent.removed) {
+					continue; // removed meanwhile, a new one is created
+				}
+				Pacman pacman = agent.pacman;
+				if (pacman == null) {
+					if (!occupancy.occupy(x, y, agent.id)) {
+						// not placed, no entry is left behind
+						agent.removed = true;
+						agents.remove(name, agent);
+						return false;
+					}
+					agent.pacman = new Pacman(x, y, direction);
+				} else {
+					if (!occupancy.move(pacman.getX(), pacman.getY(), x, y, agent.id)) {
+						return false;
+					}
+					pacman.place(x, y, direction);
+				}
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * @param name of the Pacman
+	 * @return whether the Pacman is placed
+	 */
+	public boolean isPlaced(String name) {
+		Agent agent = agents.get(name);
+		if (agent == null) {
+			return false;
+		}
+		synchronized (agent) {
+			return agent.pacman != null;
+		}
+	}
+
+	/**
+	 * moves a Pacman one unit in its current direction if it stays on the grid
+	 * and the cell is free.
+	 *
+	 * @param name of the Pacman
+	 * @return true if the move was successful, false otherwise
+	 */
+	public boolean move(String name) {
+		Agent agent = agents.get(name);
+		if (agent == null) {
+			return false;
+		}
+		synchronized (agent) {
+			Pacman pacman = agent.pacman;
+			if (pacman == null) {
+				return false;
+			}
+			int x = pacman.getX();
+			int y = pacman.getY();
+			int toX = x;
+			int toY = y;
+			switch (pacman.getDirection()) {
+			case NORTH:
+				toY++;
+				break;
+			case EAST:
+				toX++;
+				break;
+			case SOUTH:
+				toY--;
+				break;
+			case WEST:
+				toX--;
+				break;
+			}
+			if (!grid.isValidXY(toX, toY) || !occupancy.move(x, y, toX, toY, agent.id)) {
+				return false;
+			}
+			pacman.move();
+			return true;
+		}
+	}
+
+	/**
+	 * if the Pacman is placed, turns its direction to the left of the current
+	 * one, does nothing otherwise.
+	 *
+	 * @param name of the Pacman
+	 */
+	public void turnLeft(String name) {
+		Agent agent = agents.get(name);
+		if (agent != null) {
+			synchronized (agent) {
+				if (agent.pacman != null) {
+					agent.pacman.turnLeft();
+				}
+			}
+		}
+	}
+
+	/**
+	 * if the Pacman is placed, turns its direction to the right of the current
+	 * one, does nothing otherwise.
+	 *
+	 * @param name of the Pacman
+	 */
+	public void turnRight(String name) {
+		Agent agent = agents.get(name);
+		if (agent != null) {
+			synchronized (agent) {
+				if (agent.pacman != null) {
+					agent.pacman.turnRight();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param name of the Pacman
+	 * @return the current position and direction of the Pacman X,Y,Direction, or
+	 *         empty string "" if it is not yet placed.
+	 */
+	public String report(String name) {
+		Agent agent = agents.get(name);
+		if (agent == null) {
+			return "";
+		}
+		synchronized (agent) {
+			return agent.pacman == null ? "" : agent.pacman.report();
+		}
+	}
+
+	/**
+	 * Removes a Pacman from the grid, freeing its cell
+	 *
+	 * @param name of the Pacman
+	 * @return false if there was no such Pacman
+	 */
+	public boolean remove(String name) {
+		Agent agent = agents.remove(name);
+		if (agent == null) {
+			return false;
+		}
+		synchronized (agent) {
+			agent.removed = true;
+			if (agent.pacman != null) {
+				occupancy.release(agent.pacman.getX(), agent.pacman.getY(), agent.id);
+				agent.pacman = null;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the number of Pacmen
+	 */
+	public int size() {
+		return agents.size();
+	}
+}
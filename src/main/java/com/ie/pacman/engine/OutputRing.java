@@ -0,0 +1,386 @@
+package com.ie.pacman.engine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A channel handing the results of a single producer thread to a writer
+ * thread of its own, through a ring buffer, so that the producer does not
+ * wait for a slow sink. <br>
+ * The writer thread writes everything the ring holds in one go, so a slow
+ * sink receives larger and fewer writes. When the ring is full, the
+ * {@link OverflowPolicy} decides: the producer waits for space, the write is
+ * dropped, or it is appended to a spill file on disk, read back by the writer
+ * thread once the ring is empty. Every write is a unit: it is written,
+ * dropped or spilled as a whole, and the order of the writes that are not
+ * dropped is kept. <br>
+ * Only one thread may write at a time, in the manner of a single producer
+ * single consumer queue. The sink is not closed by the ring.
+ *
+ * @see #write(ByteBuffer)
+ */
+public class OutputRing implements WritableByteChannel {
+
+	/** What a write does when the ring is full */
+	public enum OverflowPolicy {
+		/** waits for the writer thread to make space */
+		BLOCK,
+		/** drops the write, counted by {@link OutputRing#getDroppedCount()} */
+		DROP,
+		/** appends the write to a spill file */
+		SPILL
+	}
+
+	/** Default size of the ring in bytes */
+	public static final int DEFAULT_CAPACITY = 1 << 20;
+
+	// longest wait before checking again, in case of a missed wake up
+	private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	private final WritableByteChannel sink;
+	private final OverflowPolicy policy;
+	private final Path spillDirectory;
+	private final byte[] ring;
+	private final int mask;
+	private final Thread writer;
+
+	// written by the producer only
+	private volatile long tail;
+	private long cachedHead;
+	private volatile Thread waitingProducer;
+	private volatile long dropped;
+	// written by the writer thread only
+	private volatile long head;
+	private volatile boolean writerWaiting;
+	private volatile IOException failure;
+
+	private volatile boolean closed;
+
+	// the spill file, guarded by spillLock. While spilling, the producer writes
+	// to the file only, and the writer thread drains the ring then the file.
+	private final Object spillLock = new Object();
+	private volatile boolean spilling;
+	private FileChannel spill;
+	private long spillWritten;
+	private long spillRead;
+	private volatile long spilled;
+
+	/**
+	 * Create a ring waiting for space when full
+	 *
+	 * @param sink where the writes are written to by the writer thread
+	 */
+	public OutputRing(WritableByteChannel sink) {
+		this(sink, DEFAULT_CAPACITY, OverflowPolicy.BLOCK, null);
+	}
+
+	/**
+	 * Create a ring and start its writer thread
+	 *
+	 * @param sink           where the writes are written to by the writer
+	 *                       thread
+	 * @param capacity       minimum size of the ring in bytes, rounded up to a
+	 *                       power of two
+	 * @param policy         when the ring is full
+	 * @param spillDirectory where the spill file is created with the SPILL
+	 *                       policy, the default temporary directory if null
+	 */
+	public OutputRing(WritableByteChannel sink, int capacity, OverflowPolicy policy, Path spillDirectory) {
+		if (sink == null || policy == null) {
+			throw new IllegalArgumentException("sink and policy must not be null");
+		}
+		if (capacity <= 0 || capacity > 1 << 30) {
+			throw new IllegalArgumentException("capacity out of range: " + capacity);
+		}
+		int n = Integer.highestOneBit(capacity);
+		if (n < capacity) {
+			n <<= 1;
+		}
+		this.sink = sink;
+		this.policy = policy;
+		this.spillDirectory = spillDirectory;
+		this.ring = new byte[n];
+		this.mask = n - 1;
+		this.writer = new Thread(this::drain, "pacman-output");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Writes the remaining bytes of the buffer as a unit, or drops them with
+	 * the DROP policy if the ring is full
+	 *
+	 * @return the number of bytes taken from the buffer, all of them
+	 * @throws IOException if the writer thread failed to write to the sink,
+	 *                     or the spill file cannot be written to
+	 */
+	@Override
+	public int write(ByteBuffer src) throws IOException {
+		if (closed) {
+			throw new ClosedChannelException();
+		}
+		checkFailure();
+		int length = src.remaining();
+		if (spilling) {
+			synchronized (spillLock) {
+				if (spilling) {
+					spill(src);
+					return length;
+				}
+			}
+		}
+		if (hasSpace(length)) {
+			put(src, length);
+			return length;
+		}
+		switch (policy) {
+		case DROP:
+			src.position(src.limit());
+			dropped++;
+			break;
+		case SPILL:
+			synchronized (spillLock) {
+				spilling = true;
+				spill(src);
+			}
+			wakeWriter();
+			break;
+		default:
+			while (src.hasRemaining()) {
+				int n = Math.min(src.remaining(), ring.length);
+				awaitSpace(n);
+				put(src, n);
+			}
+			break;
+		}
+		return length;
+	}
+
+	/**
+	 * Writes the given bytes as a unit
+	 *
+	 * @see #write(ByteBuffer)
+	 */
+	public void write(byte[] buf, int offset, int length) throws IOException {
+		write(ByteBuffer.wrap(buf, offset, length));
+	}
+
+	/**
+	 * Waits until everything written so far has been written to the sink
+	 *
+	 * @throws IOException if the writer thread failed to write to the sink
+	 */
+	public void flush() throws IOException {
+		waitingProducer = Thread.currentThread();
+		try {
+			while (head != tail || spilling) {
+				checkFailure();
+				if (!writer.isAlive()) {
+					throw new IOException("output writer stopped");
+				}
+				wakeWriter();
+				LockSupport.parkNanos(this, MAX_PARK_NANOS);
+			}
+		} finally {
+			waitingProducer = null;
+		}
+		checkFailure();
+	}
+
+	/**
+	 * @return the number of writes dropped because the ring was full
+	 */
+	public long getDroppedCount() {
+		return dropped;
+	}
+
+	/**
+	 * @return the number of bytes spilled to disk because the ring was full
+	 */
+	public long getSpilledBytes() {
+		return spilled;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return !closed;
+	}
+
+	/**
+	 * Writes everything written so far to the sink, then stops the writer
+	 * thread and deletes the spill file
+	 *
+	 * @throws IOException if the writer thread failed to write to the sink
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		wakeWriter();
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while closing", e);
+		} finally {
+			synchronized (spillLock) {
+				if (spill != null) {
+					spill.close();
+				}
+			}
+		}
+		checkFailure();
+	}
+
+	/**
+	 * @return whether the ring has room for the given number of bytes, reading
+	 *         the position of the writer thread only when the last one read is
+	 *         not enough
+	 */
+	private boolean hasSpace(int length) {
+		if (ring.length - (tail - cachedHead) >= length) {
+			return true;
+		}
+		cachedHead = head;
+		return ring.length - (tail - cachedHead) >= length;
+	}
+
+	private void put(ByteBuffer src, int length) {
+		int pos = (int) (tail & mask);
+		int first = Math.min(length, ring.length - pos);
+		src.get(ring, pos, first);
+		src.get(ring, 0, length - first);
+		tail += length; // publishes the bytes
+		wakeWriter();
+	}
+
+	private void awaitSpace(int length) throws IOException {
+		waitingProducer = Thread.currentThread();
+		try {
+			while (!hasSpace(length)) {
+				checkFailure();
+				if (!writer.isAlive()) {
+					throw new IOException("output writer stopped");
+				}
+				wakeWriter();
+				LockSupport.parkNanos(this, MAX_PARK_NANOS);
+			}
+		} finally {
+			waitingProducer = null;
+		}
+	}
+
+	private void spill(ByteBuffer src) throws IOException {
+		if (spill == null) {
+			Path file = spillDirectory == null ? Files.createTempFile("pacman-spill", ".out")
+					: Files.createTempFile(spillDirectory, "pacman-spill", ".out");
+			spill = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+					StandardOpenOption.DELETE_ON_CLOSE);
+		}
+		int length = src.remaining();
+		while (src.hasRemaining()) {
+			spillWritten += spill.write(src, spillWritten);
+		}
+		spilled += length;
+	}
+
+	private void wakeWriter() {
+		if (writerWaiting) {
+			LockSupport.unpark(writer);
+		}
+	}
+
+	private void checkFailure() throws IOException {
+		IOException e = failure;
+		if (e != null) {
+			throw new IOException("output failed: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * The loop of the writer thread
+	 */
+	private void drain() {
+		try {
+			while (true) {
+				long h = head;
+				long t = tail;
+				if (h != t) {
+					int pos = (int) (h & mask);
+					int length = (int) (t - h);
+					int first = Math.min(length, ring.length - pos);
+					writeFully(ByteBuffer.wrap(ring, pos, first));
+					writeFully(ByteBuffer.wrap(ring, 0, length - first));
+					head = t; // frees the space
+					Thread producer = waitingProducer;
+					if (producer != null) {
+						LockSupport.unpark(producer);
+					}
+					continue;
+				}
+				if (spilling) {
+					drainSpill();
+					continue;
+				}
+				if (closed) {
+					return;
+				}
+				writerWaiting = true;
+				if (head == tail && !spilling && !closed) {
+					LockSupport.parkNanos(this, MAX_PARK_NANOS);
+				}
+				writerWaiting = false;
+			}
+		} catch (IOException | RuntimeException e) {
+			// a failure of the sink, reported to the producer rather than lost with
+			// the thread
+			failure = e instanceof IOException ? (IOException) e : new IOException(e.toString(), e);
+			Thread producer = waitingProducer;
+			if (producer != null) {
+				LockSupport.unpark(producer);
+			}
+		}
+	}
+
+	/**
+	 * Writes the spill file to the sink once the ring is empty, and stops
+	 * spilling once it is all written
+	 */
+	private void drainSpill() throws IOException {
+		long end;
+		synchronized (spillLock) {
+			end = spillWritten;
+		}
+		while (spillRead < end) {
+			spillRead += spill.transferTo(spillRead, end - spillRead, sink);
+		}
+		synchronized (spillLock) {
+			if (spillRead == spillWritten) {
+				spill.truncate(0);
+				spillRead = 0;
+				spillWritten = 0;
+				spilling = false;
+			}
+		}
+		Thread producer = waitingProducer;
+		if (producer != null) {
+			LockSupport.unpark(producer);
+		}
+	}
+
+	private void writeFully(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			sink.write(buffer);
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package com.ie.pacman.engine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.ie.pacman.model.ReportEncoder;
+
+/**
+ * Headless runner that streams commands from a file, a pipe or any
+ * {@link ReadableByteChannel} into a {@link PacmanEngine} without a console.
+ * <br>
+ * Input is read through a large buffer and split on line feeds (a trailing
+ * carriage return is ignored). Each line is parsed straight from the buffer,
+ * without creating a String per line. The output of every REPORT of a placed
+ * Pacman, and of every SCORE with pellets, is encoded straight into a single
+ * buffered sink, which is flushed when full and at the end of the run.
+ * Processing stops at the end of the input or at the first QUIT command. The
+ * output of a REPEAT, which can be much larger than the buffer, is written a
+ * buffer at a time. <br>
+ * Commands converted to a {@link BinaryLog} are run without any text parsing.
+ *
+ * @see #run(ReadableByteChannel, WritableByteChannel)
+ * @see #runBinary(ReadableByteChannel, WritableByteChannel)
+ */
+public class PacmanBatchRunner {
+
+	/** Default size of the input and output buffers */
+	public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+	private final PacmanEngine engine;
+	private final LineScanner scanner;
+	private final BinaryLog.Reader reader;
+	private final ByteBuffer out;
+
+	/**
+	 * Create a runner feeding the given engine, with default buffer sizes
+	 *
+	 * @param engine
+	 */
+	public PacmanBatchRunner(PacmanEngine engine) {
+		this(engine, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Create a runner feeding the given engine
+	 *
+	 * @param engine
+	 * @param bufferSize size in bytes of each of the input and output buffers
+	 */
+	public PacmanBatchRunner(PacmanEngine engine, int bufferSize) {
+		if (engine == null) {
+			throw new IllegalArgumentException("engine must not be null");
+		}
+		this.engine = engine;
+		this.scanner = new LineScanner(bufferSize);
+		this.reader = new BinaryLog.Reader(bufferSize);
+		this.out = ByteBuffer.allocate(Math.max(bufferSize, ReportEncoder.MAX_LENGTH));
+	}
+
+	/**
+	 * Runs all the commands of the given file.
+	 *
+	 * @param commands path of the command file
+	 * @param sink     where the results are written to
+	 * @return the number of lines processed
+	 * @throws IOException
+	 */
+	public long run(Path commands, WritableByteChannel sink) throws IOException {
+		try (FileChannel channel = FileChannel.open(commands, StandardOpenOption.READ)) {
+			return run(channel, sink);
+		}
+	}
+
+	/**
+	 * Runs all the commands read from the given stream.
+	 *
+	 * @param commands stream of commands, one per line
+	 * @param sink     where the results are written to
+	 * @return the number of lines processed
+	 * @throws IOException
+	 */
+	public long run(InputStream commands, OutputStream sink) throws IOException {
+		WritableByteChannel channel = Channels.newChannel(sink);
+		long lines = run(Channels.newChannel(commands), channel);
+		sink.flush();
+		return lines;
+	}
+
+	/**
+	 * Runs all the commands read from the given channel. The channels are not
+	 * closed.
+	 *
+	 * @param commands channel of commands, one per line
+	 * @param sink     where the results are written to
+	 * @return the number of lines processed
+	 * @throws IOException
+	 */
+	public long run(ReadableByteChannel commands, WritableByteChannel sink) throws IOException {
+		out.clear();
+		long lines = scanner.scan(commands, (buf, offset, length) -> processLine(buf, offset, length, sink));
+		flush(sink);
+		return lines;
+	}
+
+	/**
+	 * Runs all the commands of the given binary log.
+	 *
+	 * @param commands path of the binary log
+	 * @param sink     where the results are written to
+	 * @return the number of commands processed
+	 * @throws IOException if the log is not a binary log or is corrupted
+	 */
+	public long runBinary(Path commands, WritableByteChannel sink) throws IOException {
+		try (FileChannel channel = FileChannel.open(commands, StandardOpenOption.READ)) {
+			return runBinary(channel, sink);
+		}
+	}
+
+	/**
+	 * Runs all the commands read from the given binary log channel. The
+	 * channels are not closed.
+	 *
+	 * @param commands channel of a binary log
+	 * @param sink     where the results are written to
+	 * @return the number of commands processed
+	 * @throws IOException if the log is not a binary log or is corrupted
+	 */
+	public long runBinary(ReadableByteChannel commands, WritableByteChannel sink) throws IOException {
+		out.clear();
+		long count = reader.read(commands, (command, x, y, direction) -> {
+			if (out.remaining() < ReportEncoder.MAX_LENGTH) {
+				flush(sink);
+			}
+			return drain(engine.processCommand(command, x, y, direction, out), sink);
+		});
+		flush(sink);
+		return count;
+	}
+
+	/**
+	 * @return false if no more commands are to be accepted
+	 */
+	private boolean processLine(byte[] buf, int offset, int length, WritableByteChannel sink) throws IOException {
+		if (out.remaining() < ReportEncoder.MAX_LENGTH) {
+			flush(sink);
+		}
+		return drain(engine.processInstruction(buf, offset, length, out), sink);
+	}
+
+	/**
+	 * Writes the output left by a DEFINE or REPEAT, a buffer at a time
+	 *
+	 * @param more result of the command, returned as is
+	 */
+	private boolean drain(boolean more, WritableByteChannel sink) throws IOException {
+		while (engine.drainOutput(out)) {
+			flush(sink);
+		}
+		return more;
+	}
+
+	private void flush(WritableByteChannel sink) throws IOException {
+		out.flip();
+		while (out.hasRemaining()) {
+			sink.write(out);
+		}
+		out.clear();
+	}
+}
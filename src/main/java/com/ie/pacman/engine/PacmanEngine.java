@@ -1,17 +1,38 @@
 package com.ie.pacman.engine;
 
+import java.io.BufferedReader;
 import java.io.Console;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOError;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+import com.ie.pacman.metrics.Heatmap;
+import com.ie.pacman.metrics.PacmanMetrics;
 import com.ie.pacman.model.Pacman;
 import com.ie.pacman.model.Grid;
 import com.ie.pacman.model.Pacman.Direction;
+import com.ie.pacman.model.Pellets;
+import com.ie.pacman.model.Report;
+import com.ie.pacman.model.ReportEncoder;
 
 /**
  * The Pacman engine that simulates Pacman moving on a grid. <br>
- * Supported commands within the dimensions of the 5x5 grid:
+ * Supported commands within the dimensions of the grid, 5x5 by default, and
+ * around its blocked cells if any:
  * <ul>
  * <li>PLACE X,Y,F - places Pacman at the given X,Y coordinates facing NORTH,
  * EAST, SOUTH, or WEST.<br>
@@ -19,7 +40,17 @@ import com.ie.pacman.model.Pacman.Direction;
  * <li>MOVE - moves one position in the current direction
  * <li>LEFT - turns 90 degrees to the left from the current direction
  * <li>RIGHT - turns 90 degrees to the right from the current direction
+ * <li>GOTO X,Y - moves to the given X,Y coordinates with the fewest MOVE,
+ * LEFT and RIGHT commands, if they can be reached<br>
+ * E.g.: GOTO 4,1
  * <li>REPORT - displays the current position and direction
+ * <li>SCORE - displays the points scored and the number of pellets left, if
+ * there are pellets
+ * <li>DEFINE name { command; command; ... } - defines a macro run by a line
+ * made of its name<br>
+ * E.g.: DEFINE square { MOVE; RIGHT; MOVE; RIGHT; MOVE; RIGHT; MOVE; RIGHT }
+ * <li>REPEAT n { command; command; ... } - runs the commands n times<br>
+ * E.g.: REPEAT 1000000 { square; REPORT }
  * <li>QUIT - to exit the simulation
  * </ul>
  * Notes:
@@ -31,7 +62,18 @@ import com.ie.pacman.model.Pacman.Direction;
  * <li>Commands are not case sensitive.
  * </ul>
  * 
- * @see #getInstance() to get the engine instance
+ * An engine holds a single Pacman and is not thread safe, see
+ * {@link PacmanSessionRegistry} to run many engines concurrently. The commands
+ * it processes can be recorded in {@link PacmanMetrics}, and the cells
+ * Pacman visits in a {@link Heatmap}. With {@link Pellets}, Pacman eats the
+ * pellets of the cells it enters, and SCORE reports the points scored.
+ * Macros and repeated blocks are compiled once, see {@link Macros}; their
+ * output is written by the ByteBuffer based methods in as many
+ * {@link #drainOutput(ByteBuffer)} calls as it takes. Scripts of any length
+ * are processed lazily by {@link #processInstructions(Iterator)}.
+ * 
+ * @see #getInstance() to get the shared console engine instance
+ * @see #PacmanEngine(Grid) to create an engine for a given grid
  * @see #run() to start the simulation
  * @see #reset() to reset the grid
  */
@@ -41,56 +83,81 @@ public class PacmanEngine {
 	private static final String CONSOLE_MSG_INSTRUCTION = "Please enter your commands or 'quit' to end the simulation.\r\n";
 	private static final String CONSOLE_MSG_WELCOME = "Welcome to the Pacman simulation!\r\n";
 	private static final String CONSOLE_PROMPT = "> ";
-	private static final String CMD_QUIT = "QUIT";
-	private static final String CMD_REPORT = "REPORT";
-	private static final String CMD_LEFT = "LEFT";
-	private static final String CMD_RIGHT = "RIGHT";
-	private static final String CMD_MOVE = "MOVE";
-	private static final String CMD_PLACE_REGEX = "^\\s*PLACE\\s*(\\d+)\\s*,\\s*(\\d+)\\s*,\\s*(NORTH|EAST|SOUTH|WEST)\\s*$";
-	private static final Pattern CMD_PLACE_PATTERN = Pattern.compile(CMD_PLACE_REGEX, Pattern.CASE_INSENSITIVE);
+	private static final int DEFAULT_UNITS = 5;
 
 	private static PacmanEngine theEngine;
 
 	private static Console console = System.console();
 	private Pacman thePacman;
 	private Grid theGrid;
+	private final CommandParser parser = new CommandParser();
+	private PacmanMetrics metrics;
+	private ReportEncoder encoder;
+	private PacmanListener listener;
+	private Heatmap heatmap;
+	private Pellets pellets;
+	private PathPlanner planner;
+	// created by the first DEFINE or REPEAT
+	private Macros macros;
+	// output of the macros not drained yet, and of the commands after them
+	private MacroOutput pending;
+	private ByteBuffer pendingScratch;
 
 	static {
 		theEngine = new PacmanEngine();
 	}
 
-	private PacmanEngine() {
-		theGrid = new Grid(5, 5);
+	/**
+	 * Create an engine with its own 5x5 grid
+	 */
+	public PacmanEngine() {
+		this(new Grid(DEFAULT_UNITS, DEFAULT_UNITS));
+	}
+
+	/**
+	 * Create an engine moving Pacman on the given grid
+	 * 
+	 * @param grid
+	 */
+	public PacmanEngine(Grid grid) {
+		if (grid == null) {
+			throw new IllegalArgumentException("grid must not be null");
+		}
+		theGrid = grid;
 		reset(); // initialise
 	}
 
 	/**
-	 * @return the {@link PacmanEngine} instance
+	 * @return the shared {@link PacmanEngine} instance used by the console
 	 */
 	public static PacmanEngine getInstance() {
 		return theEngine;
 	}
 
 	/**
-	 * Introduces the simulation and listens to the user input commands.
+	 * Introduces the simulation and listens to the user input commands. The
+	 * results are written to the standard output by an {@link OutputRing}, so
+	 * that a slow terminal does not hold the commands up. The ring is flushed
+	 * before each prompt, so that the results are shown before it.
 	 */
 	public void run() {
 		console.printf(CONSOLE_MSG_WELCOME);
 		console.printf(CONSOLE_MSG_INSTRUCTION);
 
-		try {
+		try (OutputRing out = new OutputRing(new FileOutputStream(FileDescriptor.out).getChannel())) {
 			String instr = null;
 			String result = null;
 			do {
-				// keep reading lines
+				// keep reading lines, once the results so far are shown
+				out.flush();
 				instr = console.readLine(CONSOLE_PROMPT);
 				result = processInstruction(instr);
 				if (result != null && !result.trim().isEmpty()) {
 					// display if any info was returned
-					console.printf(CONSOLE_PROMPT + result);
+					out.write(ByteBuffer.wrap((CONSOLE_PROMPT + result).getBytes(StandardCharsets.US_ASCII)));
 				}
 			} while (result != null);
-		} catch (IOError e) {
+		} catch (IOError | IOException e) {
 			System.err.println(e.getMessage());
 		}
 
@@ -98,10 +165,136 @@ public class PacmanEngine {
 	}
 
 	/**
-	 * reset the grid, with no Pacman placed yet
+	 * Records the commands processed by this engine, and their latency, in the
+	 * given metrics. Metrics can be shared by many engines.
+	 * 
+	 * @param metrics to record to, or null to stop recording
+	 */
+	public void setMetrics(PacmanMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @return the metrics this engine records to, or null if there are none
+	 */
+	public PacmanMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Notifies the given listener of every change of Pacman, whether it comes
+	 * from an instruction or from a direct call to this engine. With a
+	 * listener, every iteration of a REPEAT is run, its cycles are not skipped.
+	 * 
+	 * @param listener to notify, or null to stop notifying
+	 * @see TrajectoryRecorder
+	 */
+	public void setListener(PacmanListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * @return the listener of this engine, or null if there is none
+	 */
+	public PacmanListener getListener() {
+		return listener;
+	}
+
+	/**
+	 * Counts the cells Pacman enters, and the moves rejected from them, in the
+	 * given heatmap. A heatmap can be shared by many engines. With a heatmap,
+	 * every iteration of a REPEAT is run, its cycles are not skipped.
+	 * 
+	 * @param heatmap to count in, or null to stop counting
+	 */
+	public void setHeatmap(Heatmap heatmap) {
+		this.heatmap = heatmap;
+	}
+
+	/**
+	 * @return the heatmap this engine counts in, or null if there is none
+	 */
+	public Heatmap getHeatmap() {
+		return heatmap;
+	}
+
+	/**
+	 * Lets Pacman eat the given pellets, put back by {@link #reset()}
+	 * 
+	 * @param pellets of the size of the grid of this engine, or null to play
+	 *                without pellets
+	 */
+	public void setPellets(Pellets pellets) {
+		if (pellets != null
+				&& (pellets.getUnitsX() != theGrid.getUnitsX() || pellets.getUnitsY() != theGrid.getUnitsY())) {
+			throw new IllegalArgumentException("pellets must have the size of the grid of the engine");
+		}
+		this.pellets = pellets;
+	}
+
+	/**
+	 * @return the pellets Pacman eats, or null if there are none
+	 */
+	public Pellets getPellets() {
+		return pellets;
+	}
+
+	/**
+	 * Plans the GOTO commands with the given planner, which can be shared by
+	 * the engines of the same grid
+	 * 
+	 * @param planner of the grid of this engine
+	 */
+	public void setPathPlanner(PathPlanner planner) {
+		if (planner == null || planner.getGrid() != theGrid) {
+			throw new IllegalArgumentException("planner must plan on the grid of the engine");
+		}
+		this.planner = planner;
+	}
+
+	/**
+	 * @return the planner of the GOTO commands, created on first use
+	 */
+	public PathPlanner getPathPlanner() {
+		if (planner == null) {
+			planner = new PathPlanner(theGrid);
+		}
+		return planner;
+	}
+
+	/**
+	 * @return the grid Pacman moves on
+	 */
+	public Grid getGrid() {
+		return theGrid;
+	}
+
+	/**
+	 * @return the current Pacman, or null if it is not placed yet
+	 */
+	Pacman getPacman() {
+		return thePacman;
+	}
+
+	/**
+	 * @return the current position and direction of Pacman, or null if it is
+	 *         not placed yet
+	 */
+	public Report getPosition() {
+		return thePacman == null ? null : Report.of(thePacman);
+	}
+
+	/**
+	 * reset the grid, with no Pacman placed yet and all the pellets put back
 	 */
 	public void reset() {
 		thePacman = null;
+		if (pellets != null) {
+			pellets.reset();
+		}
+		if (listener != null) {
+			listener.onReset();
+		}
 	}
 
 	/**
@@ -111,33 +304,316 @@ public class PacmanEngine {
 	 * @return result of the command or null if no more commands are to be accepted
 	 */
 	public String processInstruction(String cmd) {
-		if (cmd == null || cmd.equalsIgnoreCase(CMD_QUIT)) {
+		if (cmd == null) {
 			return null;
 		}
+		long start = metrics == null ? 0 : System.nanoTime();
+		Command command = parser.parse(cmd);
+		if (isMacroLine(command)) {
+			return executeMacro(cmd, start);
+		}
+		return execute(command, start);
+	}
 
-		// handle place
-		Matcher m = CMD_PLACE_PATTERN.matcher(cmd);
-		if (m.matches()) {
-			place(Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2)), m.group(3));
-			return "";
+	/**
+	 * Process an instruction encoded as ASCII bytes and return the result.
+	 * 
+	 * @param buf    holding the line of instruction
+	 * @param offset of the line in the buffer
+	 * @param length of the line, without the line terminator
+	 * @return result of the command or null if no more commands are to be accepted
+	 * @see #processInstruction(String)
+	 */
+	public String processInstruction(byte[] buf, int offset, int length) {
+		long start = metrics == null ? 0 : System.nanoTime();
+		Command command = parser.parse(buf, offset, length);
+		if (isMacroLine(command)) {
+			return executeMacro(new String(buf, offset, length, StandardCharsets.US_ASCII), start);
 		}
+		return execute(command, start);
+	}
 
-		// handle known moves
-		switch (cmd.trim().toUpperCase()) {
-		case CMD_MOVE:
-			move();
-			break;
-		case CMD_RIGHT:
+	/**
+	 * Process an instruction encoded as ASCII bytes and write the report or the
+	 * score, if any, to the given buffer without creating any object. Unlike
+	 * {@link #processInstruction(String)}, nothing is written for a REPORT while
+	 * Pacman is not placed, nor for a SCORE without pellets. <br>
+	 * The output of a DEFINE or REPEAT, and of every command after it until it
+	 * is drained, is kept to be written by {@link #drainOutput(ByteBuffer)}.
+	 * 
+	 * @param buf    holding the line of instruction
+	 * @param offset of the line in the buffer
+	 * @param length of the line, without the line terminator
+	 * @param out    where a report or a score is written to, with at least
+	 *               {@link ReportEncoder#MAX_LENGTH} bytes remaining
+	 * @return false if no more commands are to be accepted
+	 * @see #report(ByteBuffer)
+	 * @see #score(ByteBuffer)
+	 */
+	public boolean processInstruction(byte[] buf, int offset, int length, ByteBuffer out) {
+		long start = metrics == null ? 0 : System.nanoTime();
+		Command command = parser.parse(buf, offset, length);
+		if (isMacroLine(command)) {
+			MacroOutput output = pending == null ? new MacroOutput() : pending;
+			command = macros().execute(new String(buf, offset, length, StandardCharsets.US_ASCII), this, output,
+					false);
+			if (!output.isEmpty()) {
+				pending = output;
+			}
+			record(command, true, start);
+			return true;
+		}
+		boolean done = apply(command, parser.getX(), parser.getY(), parser.getDirection());
+		output(command, out);
+		record(command, done, start);
+		return command != Command.QUIT;
+	}
+
+	/**
+	 * Process a command already decoded, e.g. from a {@link BinaryLog}, and
+	 * write the report or the score, if any, to the given buffer without
+	 * creating any object.
+	 * 
+	 * @param command   to process
+	 * @param x         of a PLACE or GOTO, ignored otherwise
+	 * @param y         of a PLACE or GOTO, ignored otherwise
+	 * @param direction of a PLACE, ignored otherwise
+	 * @param out       where a report or a score is written to, with at least
+	 *                  {@link ReportEncoder#MAX_LENGTH} bytes remaining
+	 * @return false if no more commands are to be accepted
+	 * @see #processInstruction(byte[], int, int, ByteBuffer)
+	 */
+	public boolean processCommand(Command command, int x, int y, Direction direction, ByteBuffer out) {
+		long start = metrics == null ? 0 : System.nanoTime();
+		boolean done = apply(command, x, y, direction);
+		output(command, out);
+		record(command, done, start);
+		return command != Command.QUIT;
+	}
+
+	/**
+	 * @return whether some output of a DEFINE or REPEAT command is left to be
+	 *         drained
+	 * @see #processInstruction(byte[], int, int, ByteBuffer)
+	 */
+	public boolean hasPendingOutput() {
+		return pending != null;
+	}
+
+	/**
+	 * Writes as much of the output left by a DEFINE or REPEAT command as fits in
+	 * the given buffer
+	 * 
+	 * @param out where the output is written to
+	 * @return true if some output is left, to be drained once the buffer is
+	 *         flushed
+	 */
+	public boolean drainOutput(ByteBuffer out) {
+		if (pending == null) {
+			return false;
+		}
+		if (pending.drainTo(out)) {
+			return true;
+		}
+		pending = null;
+		return false;
+	}
+
+	/**
+	 * @return the DEFINE lines defining the macros of this engine when run in
+	 *         order by another engine, e.g. to restore or move a session
+	 */
+	public List<String> getDefinitions() {
+		return macros == null ? Collections.emptyList() : macros.getDefinitions();
+	}
+
+	/**
+	 * Writes what a session needs to go on with another engine: the position of
+	 * Pacman, the pellets eaten, the macros defined and the output left to
+	 * drain, see {@link #readState(DataInput)}. Nothing is drained.
+	 * 
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeState(DataOutput out) throws IOException {
+		if (thePacman == null) {
+			out.writeByte(-1);
+			out.writeInt(0);
+			out.writeInt(0);
+		} else {
+			out.writeByte(thePacman.getDirection().ordinal());
+			out.writeInt(thePacman.getX());
+			out.writeInt(thePacman.getY());
+		}
+		out.writeBoolean(pellets != null);
+		if (pellets != null) {
+			pellets.writeEaten(out);
+		}
+		List<String> definitions = getDefinitions();
+		out.writeInt(definitions.size());
+		for (String line : definitions) {
+			byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+		out.writeBoolean(pending != null);
+		if (pending != null) {
+			pending.writeTo(out);
+		}
+	}
+
+	/**
+	 * Reads the state written by {@link #writeState(DataOutput)} into an engine
+	 * just created on a grid of the same size. Pellets eaten by the other engine
+	 * are ignored if this one has none.
+	 * 
+	 * @param in
+	 * @throws IOException if the state is corrupted or of another grid size
+	 */
+	public void readState(DataInput in) throws IOException {
+		byte direction = in.readByte();
+		int x = in.readInt();
+		int y = in.readInt();
+		if (direction < -1 || direction >= Direction.values().length) {
+			throw new IOException("corrupted state, bad direction: " + direction);
+		}
+		if (direction >= 0) {
+			place(x, y, Direction.values()[direction]);
+		}
+		if (in.readBoolean()) {
+			(pellets == null ? new Pellets(theGrid.getUnitsX(), theGrid.getUnitsY()) : pellets).readEaten(in);
+		}
+		int definitions = in.readInt();
+		for (int i = 0; i < definitions; i++) {
+			int length = in.readInt();
+			if (length < 0) {
+				throw new IOException("corrupted state, bad length: " + length);
+			}
+			byte[] line = new byte[length];
+			in.readFully(line);
+			macros().execute(new String(line, StandardCharsets.UTF_8), this, new MacroOutput(), false);
+		}
+		if (in.readBoolean()) {
+			MacroOutput output = MacroOutput.readFrom(in);
+			pending = output.isEmpty() ? null : output;
+		}
+	}
+
+	/**
+	 * @return whether a macro was defined or a block repeated
+	 */
+	boolean hasMacros() {
+		return macros != null;
+	}
+
+	/**
+	 * @return whether the line is run by the macros rather than by the parser:
+	 *         a DEFINE, a REPEAT, or possibly the name of a macro
+	 */
+	private boolean isMacroLine(Command command) {
+		return command == Command.DEFINE || command == Command.REPEAT
+				|| command == Command.UNKNOWN && macros != null;
+	}
+
+	private Macros macros() {
+		if (macros == null) {
+			macros = new Macros();
+		}
+		return macros;
+	}
+
+	private String executeMacro(String line, long start) {
+		MacroOutput output = new MacroOutput();
+		Command command = macros().execute(line, this, output, true);
+		record(command, true, start);
+		return output.drainToString();
+	}
+
+	/**
+	 * Writes the report or the score, if any, after the output left to drain
+	 */
+	private void output(Command command, ByteBuffer out) {
+		if (command != Command.REPORT && command != Command.SCORE) {
+			return;
+		}
+		ByteBuffer target = out;
+		if (pending != null) {
+			if (pendingScratch == null) {
+				pendingScratch = ByteBuffer.allocate(ReportEncoder.MAX_LENGTH);
+			}
+			target = pendingScratch;
+			target.clear();
+		}
+		boolean written = command == Command.REPORT ? report(target) : score(target);
+		if (written && target != out) {
+			pending.append(target.array(), 0, target.position());
+		}
+	}
+
+	private String execute(Command command, long start) {
+		boolean done = apply(command, parser.getX(), parser.getY(), parser.getDirection());
+		String result = "";
+		if (command == Command.QUIT) {
+			result = null;
+		} else if (command == Command.REPORT) {
+			result = isPlaced() ? thePacman.report() + "\n" : "\n";
+		} else if (command == Command.SCORE && pellets != null) {
+			result = score() + "\n";
+		}
+		record(command, done, start);
+		return result;
+	}
+
+	/**
+	 * @return false if a PLACE or MOVE command was rejected
+	 */
+	private boolean apply(Command command, int x, int y, Direction direction) {
+		switch (command) {
+		case PLACE:
+			return place(x, y, direction);
+		case MOVE:
+			return move();
+		case GOTO:
+			return goTo(x, y);
+		case RIGHT:
 			turnRight();
 			break;
-		case CMD_LEFT:
+		case LEFT:
 			turnLeft();
 			break;
-		case CMD_REPORT:
-			return String.format("%s\n", report());
+		default:
+			break; // no effect on Pacman, malformed commands are ignored
 		}
+		return true;
+	}
 
-		return "";
+	private void record(Command command, boolean done, long start) {
+		PacmanMetrics m = metrics;
+		if (m == null) {
+			return;
+		}
+		m.recordCommand(command);
+		switch (command) {
+		case PLACE:
+			if (!done) {
+				m.recordRejectedPlacement();
+			}
+			break;
+		case MOVE:
+		case GOTO:
+		case LEFT:
+		case RIGHT:
+		case REPORT:
+			if (!isPlaced()) {
+				m.recordIgnoredUnplaced();
+			} else if (!done) {
+				m.recordRejectedMove();
+			}
+			break;
+		default:
+			break;
+		}
+		m.recordLatency(System.nanoTime() - start);
 	}
 
 	/**
@@ -148,15 +624,112 @@ public class PacmanEngine {
 	 *         if no valid report commands were issued.
 	 */
 	public String processInstructions(String[] instructions) {
-		StringBuffer results = new StringBuffer();
-		String result = "";
+		StringBuilder results = new StringBuilder();
 		for (String string : instructions) {
-			result = processInstruction(string);
+			String result = processInstruction(string);
 			if (result != null) {
 				results.append(result);
 			}
 		}
-		return results.toString().trim();
+		return trim(results);
+	}
+
+	/**
+	 * Process instructions lazily: an instruction is only read once the results
+	 * of the previous ones are consumed, so that the first results are available
+	 * before all the instructions are read, and the memory used does not depend
+	 * on their number. The results are those of
+	 * {@link #processInstructions(String[])}, one per element without its line
+	 * feed, except that a REPORT while Pacman is not placed has no result. QUIT
+	 * commands are ignored as well.
+	 * 
+	 * @param instructions read as the results are consumed
+	 * @return the REPORT and SCORE results
+	 */
+	public Stream<String> processInstructions(Iterator<String> instructions) {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(new ResultIterator(this, instructions),
+				Spliterator.ORDERED | Spliterator.NONNULL), false);
+	}
+
+	/**
+	 * Process instructions lazily, closing them when the results are closed
+	 * 
+	 * @param instructions read as the results are consumed
+	 * @return the REPORT and SCORE results
+	 * @see #processInstructions(Iterator)
+	 */
+	public Stream<String> processInstructions(Stream<String> instructions) {
+		return processInstructions(instructions.iterator()).onClose(instructions::close);
+	}
+
+	/**
+	 * Process the lines of a reader lazily. The reader is not closed.
+	 * 
+	 * @param reader of the instructions, read as the results are consumed
+	 * @return the REPORT and SCORE results, failing with an
+	 *         {@link java.io.UncheckedIOException} if the reader fails
+	 * @see #processInstructions(Iterator)
+	 */
+	public Stream<String> processInstructions(BufferedReader reader) {
+		return processInstructions(reader.lines());
+	}
+
+	/**
+	 * Process instructions one at a time, handing every result to the consumer
+	 * as soon as it is known
+	 * 
+	 * @param instructions read one at a time
+	 * @param results      receiving the REPORT and SCORE results
+	 * @see #processInstructions(Iterator)
+	 */
+	public void processInstructions(Iterator<String> instructions, Consumer<String> results) {
+		new ResultIterator(this, instructions).forEachRemaining(results);
+	}
+
+	/**
+	 * Process an instruction and add its report or score, if any, to the
+	 * results. As with {@link #processInstruction(byte[], int, int, ByteBuffer)},
+	 * nothing is added for a REPORT while Pacman is not placed.
+	 * 
+	 * @param cmd     line of instruction, ignored if null
+	 * @param results where a report or a score is added
+	 * @return the output of a DEFINE or REPEAT, to be drained, or null
+	 */
+	MacroOutput processInstruction(String cmd, Collection<String> results) {
+		if (cmd == null) {
+			return null;
+		}
+		long start = metrics == null ? 0 : System.nanoTime();
+		Command command = parser.parse(cmd);
+		if (isMacroLine(command)) {
+			MacroOutput output = new MacroOutput();
+			record(macros().execute(cmd, this, output, false), true, start);
+			return output.isEmpty() ? null : output;
+		}
+		boolean done = apply(command, parser.getX(), parser.getY(), parser.getDirection());
+		if (command == Command.REPORT && isPlaced()) {
+			results.add(thePacman.report());
+		} else if (command == Command.SCORE && pellets != null) {
+			results.add(score());
+		}
+		record(command, done, start);
+		return null;
+	}
+
+	/**
+	 * @return the content of the builder without its leading and trailing white
+	 *         spaces, as {@link String#trim()} but with a single copy
+	 */
+	static String trim(StringBuilder results) {
+		int start = 0;
+		int end = results.length();
+		while (start < end && results.charAt(start) <= ' ') {
+			start++;
+		}
+		while (end > start && results.charAt(end - 1) <= ' ') {
+			end--;
+		}
+		return results.substring(start, end);
 	}
 
 	/**
@@ -196,6 +769,7 @@ public class PacmanEngine {
 		} else {
 			this.thePacman.place(x, y, direction);
 		}
+		changed(Command.PLACE);
 		return true;
 	}
 
@@ -213,6 +787,7 @@ public class PacmanEngine {
 	public void turnLeft() {
 		if (isPlaced()) {
 			this.thePacman.turnLeft();
+			changed(Command.LEFT);
 		}
 	}
 
@@ -223,6 +798,7 @@ public class PacmanEngine {
 	public void turnRight() {
 		if (isPlaced()) {
 			this.thePacman.turnRight();
+			changed(Command.RIGHT);
 		}
 	}
 
@@ -233,25 +809,112 @@ public class PacmanEngine {
 	 */
 	public boolean move() {
 		if (!canMove()) {
+			if (heatmap != null && isPlaced()) {
+				heatmap.recordRejectedMoves(thePacman.getX(), thePacman.getY(), 1);
+			}
 			return false;
 		}
 		this.thePacman.move();
+		changed(Command.MOVE);
 		return true;
 	}
 
+	/**
+	 * moves up to the given number of units in the current direction, stopping
+	 * at the bounds, as the same number of {@link #move()} would do.
+	 * 
+	 * @param units number of units to move
+	 * @return the number of units actually moved
+	 */
+	public int move(int units) {
+		if (!isPlaced() || units <= 0) {
+			return 0;
+		}
+		int moved = theGrid.freeUnits(thePacman.getX(), thePacman.getY(), thePacman.getDirection(), units);
+		if (listener == null && heatmap == null) {
+			if (pellets != null) {
+				pellets.eatLine(thePacman.getX(), thePacman.getY(), thePacman.getDirection(), moved);
+			}
+			this.thePacman.move(moved);
+			return moved;
+		}
+		for (int i = 0; i < moved; i++) {
+			this.thePacman.move(); // one change per unit
+			changed(Command.MOVE);
+		}
+		if (heatmap != null && moved < units) {
+			heatmap.recordRejectedMoves(thePacman.getX(), thePacman.getY(), units - moved);
+		}
+		return moved;
+	}
+
+	/**
+	 * moves Pacman to the given coordinates with the fewest MOVE, LEFT and
+	 * RIGHT commands, executed one by one.
+	 * 
+	 * @param x
+	 * @param y
+	 * @return true if Pacman reached the coordinates, false if it is not placed
+	 *         or they cannot be reached, or if a cell of the path was blocked
+	 *         during the walk, which then stops
+	 * @see PathPlanner
+	 */
+	public boolean goTo(int x, int y) {
+		if (!isPlaced()) {
+			return false;
+		}
+		PathPlanner.DistanceField field = getPathPlanner().distances(x, y);
+		if (field == null || field.distance(thePacman.getX(), thePacman.getY(), thePacman.getDirection()) < 0) {
+			return false;
+		}
+		Command step;
+		while ((step = field.nextStep(thePacman.getX(), thePacman.getY(), thePacman.getDirection())) != null) {
+			switch (step) {
+			case MOVE:
+				if (!move()) {
+					return false; // the field is stale, it would keep asking for this MOVE
+				}
+				break;
+			case LEFT:
+				turnLeft();
+				break;
+			default:
+				turnRight();
+				break;
+			}
+		}
+		return true;
+	}
+
+	private void changed(Command command) {
+		if (command == Command.PLACE || command == Command.MOVE) {
+			if (heatmap != null) {
+				heatmap.recordVisit(thePacman.getX(), thePacman.getY());
+			}
+			if (pellets != null) {
+				pellets.eat(thePacman.getX(), thePacman.getY());
+			}
+		}
+		if (listener != null) {
+			listener.onChange(command, thePacman.getX(), thePacman.getY(), thePacman.getDirection());
+		}
+	}
+
 	private boolean canMove() {
 		if (!isPlaced()) {
 			return false;
 		}
+		int x = thePacman.getX();
+		int y = thePacman.getY();
 		switch (thePacman.getDirection()) {
 		case NORTH:
-			return theGrid.isValidY(thePacman.getY() + 1);
+			return theGrid.isValidXY(x, y + 1);
 		case EAST:
-			return theGrid.isValidX(thePacman.getX() + 1);
+			return theGrid.isValidXY(x + 1, y);
 		case SOUTH:
-			return theGrid.isValidY(thePacman.getY() - 1);
+			return theGrid.isValidXY(x, y - 1);
 		case WEST:
-			return theGrid.isValidX(thePacman.getX() - 1);
+			return theGrid.isValidXY(x - 1, y);
 		}
 		return false;
 	}
@@ -267,4 +930,68 @@ public class PacmanEngine {
 		}
 		return "";
 	}
+
+	/**
+	 * Writes the current position and direction of Pacman, followed by a line
+	 * feed, to the given buffer without creating any object.<br>
+	 * Example: "0,0,NORTH\n" or "2,3,EAST\n"
+	 * 
+	 * @param out where the report is written to, with at least
+	 *            {@link ReportEncoder#MAX_LENGTH} bytes remaining
+	 * @return true if the report was written, false if Pacman is not yet placed
+	 */
+	public boolean report(ByteBuffer out) {
+		if (!isPlaced()) {
+			return false;
+		}
+		if (encoder == null) {
+			encoder = ReportEncoder.of(theGrid.getUnitsX(), theGrid.getUnitsY());
+		}
+		encoder.encode(thePacman, out);
+		return true;
+	}
+
+	/**
+	 * @return the points scored and the number of pellets left X,Y<br>
+	 *         Example: "30,12" or empty string "" if there are no pellets.
+	 */
+	public String score() {
+		if (pellets == null) {
+			return "";
+		}
+		return pellets.getScore() + "," + pellets.getRemaining();
+	}
+
+	/**
+	 * Writes the points scored and the number of pellets left, followed by a
+	 * line feed, to the given buffer without creating any object.<br>
+	 * Example: "30,12\n"
+	 * 
+	 * @param out where the score is written to, with at least
+	 *            {@link ReportEncoder#MAX_LENGTH} bytes remaining
+	 * @return true if the score was written, false if there are no pellets
+	 */
+	public boolean score(ByteBuffer out) {
+		if (pellets == null) {
+			return false;
+		}
+		putDigits(pellets.getScore(), out);
+		out.put((byte) ',');
+		putDigits(pellets.getRemaining(), out);
+		out.put((byte) '\n');
+		return true;
+	}
+
+	private static void putDigits(long value, ByteBuffer out) {
+		int length = 1;
+		for (long v = value / 10; v != 0; v /= 10) {
+			length++;
+		}
+		int end = out.position() + length;
+		for (int i = end - 1; i >= out.position(); i--) {
+			out.put(i, (byte) ('0' + value % 10));
+			value /= 10;
+		}
+		out.position(end);
+	}
 }
@@ -0,0 +1,39 @@
+package com.ie.pacman.engine;
+
+import com.ie.pacman.model.Pacman.Direction;
+
+/**
+ * Receives the changes of the state of the Pacman of an engine, e.g. to
+ * journal or to trace them. It is called by the thread changing the state,
+ * right after the change, and must not call back into the engine.
+ *
+ * @see PacmanEngine#setListener(PacmanListener)
+ */
+public interface PacmanListener {
+
+	/**
+	 * Pacman was placed, moved one unit or turned
+	 *
+	 * @param command   {@link Command#PLACE}, {@link Command#MOVE},
+	 *                  {@link Command#LEFT} or {@link Command#RIGHT}
+	 * @param x         new coordinate of Pacman
+	 * @param y         new coordinate of Pacman
+	 * @param direction new direction of Pacman
+	 */
+	void onChange(Command command, int x, int y, Direction direction);
+
+	/**
+	 * The engine was reset, Pacman is no longer placed
+	 */
+	default void onReset() {
+	}
+
+	/**
+	 * A macro was defined
+	 *
+	 * @param line the DEFINE line, defining the same macro when run again
+	 * @see PacmanEngine#getDefinitions()
+	 */
+	default void onDefine(String line) {
+	}
+}
@@ -0,0 +1,191 @@
+package com.ie.pacman.engine;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+
+import com.ie.pacman.model.Pacman.Direction;
+import com.ie.pacman.model.Report;
+
+/**
+ * A reactive adapter of a {@link PacmanEngine}: subscribes to a publisher of
+ * command lines and publishes a {@link Report} for every REPORT of a placed
+ * Pacman, including the REPORTs run by a macro or a REPEAT, whose output is
+ * drained from the engine a buffer at a time. SCORE results are not
+ * published. <br>
+ * Commands are requested upstream in batches, the next batch being requested
+ * once half of the previous one has been processed, so at most
+ * {@code batchSize} commands wait upstream of the engine. Reports are
+ * buffered for every subscriber up to {@code maxBufferCapacity}. When a
+ * subscriber falls that far behind, publishing blocks the thread delivering
+ * the commands, which then stops requesting more of them: the demand of the
+ * slowest subscriber bounds the memory used, whatever the rate of the
+ * producer. <br>
+ * QUIT cancels the upstream subscription and completes the subscribers, as do
+ * the end of the commands. An upstream error is passed on to the subscribers.
+ * The engine must not be used by anyone else while subscribed.
+ *
+ * @see SubmissionPublisher
+ */
+public class PacmanProcessor extends SubmissionPublisher<Report> implements Flow.Processor<String, Report> {
+
+	/** Default number of commands requested upstream at once */
+	public static final int DEFAULT_BATCH_SIZE = 256;
+
+	private static final int OUTPUT_BUFFER_SIZE = 1 << 13;
+	private static final Direction[] DIRECTIONS = Direction.values();
+
+	private final PacmanEngine engine;
+	private final int batchSize;
+	// commands requested again once processed
+	private final int refill;
+
+	private Flow.Subscription upstream;
+	// commands received since the last request
+	private int received;
+	// output of the engine, with a partial line left by the last drain
+	private final ByteBuffer output = ByteBuffer.allocate(OUTPUT_BUFFER_SIZE);
+
+	/**
+	 * Create a processor delivering its reports on the common fork join pool
+	 * with default buffer and batch sizes
+	 *
+	 * @param engine processing the commands
+	 */
+	public PacmanProcessor(PacmanEngine engine) {
+		this(engine, ForkJoinPool.commonPool(), Flow.defaultBufferSize(), DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * Create a processor
+	 *
+	 * @param engine            processing the commands
+	 * @param executor          delivering the reports to the subscribers
+	 * @param maxBufferCapacity number of reports buffered per subscriber
+	 * @param batchSize         number of commands requested upstream at once
+	 */
+	public PacmanProcessor(PacmanEngine engine, Executor executor, int maxBufferCapacity, int batchSize) {
+		super(executor, maxBufferCapacity);
+		if (engine == null) {
+			throw new IllegalArgumentException("engine must not be null");
+		}
+		if (batchSize <= 0) {
+			throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+		}
+		this.engine = engine;
+		this.batchSize = batchSize;
+		this.refill = (batchSize + 1) / 2;
+	}
+
+	/**
+	 * @return the engine processing the commands
+	 */
+	public PacmanEngine getEngine() {
+		return engine;
+	}
+
+	@Override
+	public void onSubscribe(Flow.Subscription subscription) {
+		if (upstream != null || isClosed()) {
+			subscription.cancel(); // a single upstream
+			return;
+		}
+		upstream = subscription;
+		received = 0;
+		subscription.request(batchSize);
+	}
+
+	@Override
+	public void onNext(String command) {
+		if (isClosed()) {
+			return;
+		}
+		byte[] line = command.getBytes(StandardCharsets.US_ASCII);
+		boolean more = engine.processInstruction(line, 0, line.length, output);
+		publish();
+		while (engine.drainOutput(output)) {
+			publish(); // the output of a REPEAT
+		}
+		publish();
+		if (!more) {
+			upstream.cancel();
+			close();
+			return;
+		}
+		if (++received == refill) {
+			received = 0;
+			upstream.request(refill);
+		}
+	}
+
+	/**
+	 * Publishes a report for every complete REPORT line of the output, keeping
+	 * a partial line for the next drain
+	 */
+	private void publish() {
+		byte[] buf = output.array();
+		int start = 0;
+		for (int i = 0; i < output.position(); i++) {
+			if (buf[i] == '\n') {
+				Report report = parse(buf, start, i);
+				if (report != null) {
+					// blocks while a subscriber buffer is full
+					submit(report);
+				}
+				start = i + 1;
+			}
+		}
+		output.flip();
+		output.position(start);
+		output.compact();
+	}
+
+	/**
+	 * @return the report of a line "X,Y,DIRECTION", or null for a SCORE line
+	 *         "SCORE,REMAINING"
+	 */
+	private static Report parse(byte[] buf, int from, int to) {
+		int comma1 = indexOf(buf, from, to, (byte) ',');
+		int comma2 = comma1 < 0 ? -1 : indexOf(buf, comma1 + 1, to, (byte) ',');
+		if (comma2 < 0) {
+			return null;
+		}
+		String direction = new String(buf, comma2 + 1, to - comma2 - 1, StandardCharsets.US_ASCII);
+		for (Direction d : DIRECTIONS) {
+			if (d.name().equals(direction)) {
+				return new Report(parseInt(buf, from, comma1), parseInt(buf, comma1 + 1, comma2), d);
+			}
+		}
+		return null;
+	}
+
+	private static int indexOf(byte[] buf, int from, int to, byte b) {
+		for (int i = from; i < to; i++) {
+			if (buf[i] == b) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static int parseInt(byte[] buf, int from, int to) {
+		int value = 0;
+		for (int i = from; i < to; i++) {
+			value = value * 10 + (buf[i] - '0');
+		}
+		return value;
+	}
+
+	@Override
+	public void onError(Throwable throwable) {
+		closeExceptionally(throwable);
+	}
+
+	@Override
+	public void onComplete() {
+		close();
+	}
+}
@@ -0,0 +1,145 @@
+package com.ie.pacman.engine;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * A session owning its own {@link PacmanEngine}. The commands of a session can
+ * be submitted from many threads, they are processed one at a time in the
+ * order the session lock is acquired. Every command refreshes the time of the
+ * last access, so that a session in use is not evicted by its registry.
+ *
+ * @see PacmanSessionRegistry
+ */
+public class PacmanSession {
+
+	private final String id;
+	private final PacmanEngine engine;
+	private final LongSupplier clock;
+	private volatile long lastAccess;
+
+	PacmanSession(String id, PacmanEngine engine, LongSupplier clock) {
+		this.id = id;
+		this.engine = engine;
+		this.clock = clock;
+		this.lastAccess = clock.getAsLong();
+	}
+
+	/**
+	 * @return the session identifier
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * The engine of this session. Callers using it directly must synchronize on
+	 * the session.
+	 *
+	 * @return the engine of this session
+	 */
+	public PacmanEngine getEngine() {
+		return engine;
+	}
+
+	/**
+	 * Process an instruction and return the result.
+	 *
+	 * @param cmd line of instruction
+	 * @return result of the command or null if no more commands are to be accepted
+	 * @see PacmanEngine#processInstruction(String)
+	 */
+	public synchronized String processInstruction(String cmd) {
+		touch();
+		return engine.processInstruction(cmd);
+	}
+
+	/**
+	 * Process an instruction encoded as ASCII bytes and return the result.
+	 *
+	 * @param buf    holding the line of instruction
+	 * @param offset of the line in the buffer
+	 * @param length of the line, without the line terminator
+	 * @return result of the command or null if no more commands are to be accepted
+	 * @see PacmanEngine#processInstruction(byte[], int, int)
+	 */
+	public synchronized String processInstruction(byte[] buf, int offset, int length) {
+		touch();
+		return engine.processInstruction(buf, offset, length);
+	}
+
+	/**
+	 * Process an instruction encoded as ASCII bytes and write the report, if
+	 * any, to the given buffer.
+	 *
+	 * @param buf    holding the line of instruction
+	 * @param offset of the line in the buffer
+	 * @param length of the line, without the line terminator
+	 * @param out    where a report is written to
+	 * @return false if no more commands are to be accepted
+	 * @see PacmanEngine#processInstruction(byte[], int, int, ByteBuffer)
+	 */
+	public synchronized boolean processInstruction(byte[] buf, int offset, int length, ByteBuffer out) {
+		touch();
+		return engine.processInstruction(buf, offset, length, out);
+	}
+
+	/**
+	 * @return whether some output of a DEFINE or REPEAT command is left to be
+	 *         drained
+	 * @see PacmanEngine#hasPendingOutput()
+	 */
+	public synchronized boolean hasPendingOutput() {
+		return engine.hasPendingOutput();
+	}
+
+	/**
+	 * Writes as much of the output left by a DEFINE or REPEAT command as fits in
+	 * the given buffer
+	 *
+	 * @param out where the output is written to
+	 * @return true if some output is left
+	 * @see PacmanEngine#drainOutput(ByteBuffer)
+	 */
+	public synchronized boolean drainOutput(ByteBuffer out) {
+		return engine.drainOutput(out);
+	}
+
+	/**
+	 * Process a set of instructions atomically and return the results
+	 *
+	 * @param instructions
+	 * @return the results of executing the given instructions
+	 * @see PacmanEngine#processInstructions(String[])
+	 */
+	public synchronized String processInstructions(String[] instructions) {
+		touch();
+		return engine.processInstructions(instructions);
+	}
+
+	/**
+	 * Process instructions atomically, one at a time, handing every result to
+	 * the consumer as soon as it is known
+	 *
+	 * @param instructions read one at a time
+	 * @param results      receiving the REPORT and SCORE results
+	 * @see PacmanEngine#processInstructions(Iterator, Consumer)
+	 */
+	public synchronized void processInstructions(Iterator<String> instructions, Consumer<String> results) {
+		touch();
+		engine.processInstructions(instructions, results);
+	}
+
+	/**
+	 * @return the time of the last access, as given by the registry clock
+	 */
+	long getLastAccess() {
+		return lastAccess;
+	}
+
+	void touch() {
+		lastAccess = clock.getAsLong();
+	}
+}
@@ -0,0 +1,343 @@
+package com.ie.pacman.engine;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import com.ie.pacman.metrics.Heatmap;
+import com.ie.pacman.metrics.PacmanMetrics;
+import com.ie.pacman.model.Grid;
+import com.ie.pacman.model.Pellets;
+
+/**
+ * A concurrent registry of {@link PacmanSession}s, each with its own engine
+ * and grid. <br>
+ * Sessions are spread over a fixed number of shards by the hash of their
+ * identifier, and every shard is guarded by its own lock, so threads working
+ * on different sessions rarely contend. Sessions that have not been used for a
+ * while can be removed with {@link #evictIdle(long, TimeUnit)}. <br>
+ * The sessions created on the same grid share a single {@link PathPlanner},
+ * so that the distance fields of popular GOTO targets are computed once, and
+ * copy the same {@link Pellets}, so that the grid is scanned once.
+ *
+ * @see #getOrCreate(String, int, int)
+ * @see #processInstruction(String, String)
+ */
+public class PacmanSessionRegistry {
+
+	/** Default number of shards, enough for a few hundred threads */
+	public static final int DEFAULT_SHARDS = 64;
+
+	private static final class Shard {
+		final Map<String, PacmanSession> sessions = new HashMap<>();
+	}
+
+	/**
+	 * The pellets on every open cell of a version of a grid, copied by the
+	 * sessions of the grid
+	 */
+	private static final class PelletsTemplate {
+		final int version;
+		final Pellets pellets;
+
+		PelletsTemplate(int version, Pellets pellets) {
+			this.version = version;
+			this.pellets = pellets;
+		}
+	}
+
+	private final Shard[] shards;
+	private final int mask;
+	private final LongSupplier clock;
+	// of the grids given to create(String, Grid), kept as long as the registry
+	private final Map<Grid, PathPlanner> planners = new ConcurrentHashMap<>();
+	private final Map<Grid, PelletsTemplate> pelletTemplates = new ConcurrentHashMap<>();
+	private volatile PacmanMetrics metrics;
+	private volatile Heatmap heatmap;
+	private volatile boolean pellets;
+
+	/**
+	 * Create a registry with the default number of shards
+	 */
+	public PacmanSessionRegistry() {
+		this(DEFAULT_SHARDS);
+	}
+
+	/**
+	 * Create a registry
+	 *
+	 * @param shards minimum number of shards, rounded up to a power of two
+	 */
+	public PacmanSessionRegistry(int shards) {
+		this(shards, System::nanoTime);
+	}
+
+	PacmanSessionRegistry(int shards, LongSupplier clock) {
+		if (shards <= 0) {
+			throw new IllegalArgumentException("shards must be positive: " + shards);
+		}
+		int n = Integer.highestOneBit(shards);
+		if (n < shards) {
+			n <<= 1;
+		}
+		this.shards = new Shard[n];
+		for (int i = 0; i < n; i++) {
+			this.shards[i] = new Shard();
+		}
+		this.mask = n - 1;
+		this.clock = clock;
+	}
+
+	/**
+	 * Records the commands of the sessions created from now on in the given
+	 * metrics, shared by all of them
+	 *
+	 * @param metrics to record to, or null to stop recording in new sessions
+	 */
+	public void setMetrics(PacmanMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @return the metrics of new sessions, or null if there are none
+	 */
+	public PacmanMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Counts the cells visited by the sessions created from now on in the given
+	 * heatmap, shared by all of them
+	 *
+	 * @param heatmap to count in, or null to stop counting in new sessions
+	 */
+	public void setHeatmap(Heatmap heatmap) {
+		this.heatmap = heatmap;
+	}
+
+	/**
+	 * @return the heatmap of new sessions, or null if there is none
+	 */
+	public Heatmap getHeatmap() {
+		return heatmap;
+	}
+
+	/**
+	 * Starts the sessions created from now on with a pellet on every open cell
+	 * of their grid
+	 *
+	 * @param pellets whether new sessions eat pellets
+	 * @see Pellets#of(Grid)
+	 */
+	public void setPellets(boolean pellets) {
+		this.pellets = pellets;
+	}
+
+	/**
+	 * @return whether new sessions eat pellets
+	 */
+	public boolean hasPellets() {
+		return pellets;
+	}
+
+	/**
+	 * Creates a new session with its own grid
+	 *
+	 * @param id     of the session
+	 * @param unitsX of the session grid
+	 * @param unitsY of the session grid
+	 * @return the new session
+	 * @throws IllegalStateException if a session with this id already exists
+	 */
+	public PacmanSession create(String id, int unitsX, int unitsY) {
+		return create(id, new Grid(unitsX, unitsY), null);
+	}
+
+	/**
+	 * Creates a new session on the given grid. A grid can be shared by many
+	 * sessions as long as its blocked cells are not changed while they run, and
+	 * so is the planner of their GOTO commands.
+	 *
+	 * @param id   of the session
+	 * @param grid of the session
+	 * @return the new session
+	 * @throws IllegalStateException if a session with this id already exists
+	 */
+	public PacmanSession create(String id, Grid grid) {
+		if (grid == null) {
+			throw new IllegalArgumentException("grid must not be null");
+		}
+		return create(id, grid, planners.computeIfAbsent(grid, PathPlanner::new));
+	}
+
+	private PacmanSession create(String id, Grid grid, PathPlanner planner) {
+		Shard shard = shardOf(id);
+		PacmanSession session = newSession(id, grid, planner);
+		synchronized (shard) {
+			if (shard.sessions.containsKey(id)) {
+				throw new IllegalStateException("session already exists: " + id);
+			}
+			shard.sessions.put(id, session);
+			return session;
+		}
+	}
+
+	/**
+	 * Returns the session with the given id, creating it if needed
+	 *
+	 * @param id     of the session
+	 * @param unitsX of the session grid, when the session is created
+	 * @param unitsY of the session grid, when the session is created
+	 * @return the existing or new session
+	 */
+	public PacmanSession getOrCreate(String id, int unitsX, int unitsY) {
+		Shard shard = shardOf(id);
+		synchronized (shard) {
+			PacmanSession session = shard.sessions.get(id);
+			if (session != null) {
+				session.touch();
+				return session;
+			}
+		}
+		// built without the lock, unless another thread created it meanwhile
+		PacmanSession created = newSession(id, new Grid(unitsX, unitsY), null);
+		synchronized (shard) {
+			PacmanSession session = shard.sessions.putIfAbsent(id, created);
+			if (session != null) {
+				session.touch();
+				return session;
+			}
+			return created;
+		}
+	}
+
+	/**
+	 * @param id of the session
+	 * @return the session with the given id, or null if there is none
+	 */
+	public PacmanSession get(String id) {
+		Shard shard = shardOf(id);
+		synchronized (shard) {
+			PacmanSession session = shard.sessions.get(id);
+			if (session != null) {
+				session.touch();
+			}
+			return session;
+		}
+	}
+
+	/**
+	 * Removes a session
+	 *
+	 * @param id of the session
+	 * @return the removed session, or null if there was none
+	 */
+	public PacmanSession remove(String id) {
+		Shard shard = shardOf(id);
+		synchronized (shard) {
+			return shard.sessions.remove(id);
+		}
+	}
+
+	/**
+	 * Process an instruction for a session and return the result.
+	 *
+	 * @param id  of the session
+	 * @param cmd line of instruction
+	 * @return result of the command or null if no more commands are to be accepted
+	 * @throws IllegalArgumentException if there is no such session
+	 * @see PacmanSession#processInstruction(String)
+	 */
+	public String processInstruction(String id, String cmd) {
+		PacmanSession session = get(id);
+		if (session == null) {
+			throw new IllegalArgumentException("unknown session: " + id);
+		}
+		return session.processInstruction(cmd);
+	}
+
+	/**
+	 * Removes the sessions that have neither been accessed through this registry
+	 * nor run a command for at least the given time. A caller still holding an
+	 * evicted session can keep using it, but it can no longer be found in the
+	 * registry.
+	 *
+	 * @param maxIdle
+	 * @param unit
+	 * @return the number of evicted sessions
+	 */
+	public int evictIdle(long maxIdle, TimeUnit unit) {
+		long idleNanos = unit.toNanos(maxIdle);
+		int evicted = 0;
+		for (Shard shard : shards) {
+			synchronized (shard) {
+				long now = clock.getAsLong();
+				Iterator<PacmanSession> it = shard.sessions.values().iterator();
+				while (it.hasNext()) {
+					if (now - it.next().getLastAccess() >= idleNanos) {
+						it.remove();
+						evicted++;
+					}
+				}
+			}
+		}
+		return evicted;
+	}
+
+	/**
+	 * @return the number of live sessions
+	 */
+	public int size() {
+		int size = 0;
+		for (Shard shard : shards) {
+			synchronized (shard) {
+				size += shard.sessions.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Builds a session, without holding the lock of its shard
+	 *
+	 * @param planner shared by the sessions of the grid, or null for a grid of
+	 *                the session only
+	 */
+	private PacmanSession newSession(String id, Grid grid, PathPlanner planner) {
+		PacmanEngine engine = new PacmanEngine(grid);
+		if (planner != null) {
+			engine.setPathPlanner(planner);
+		}
+		engine.setMetrics(metrics);
+		engine.setHeatmap(heatmap);
+		if (pellets) {
+			engine.setPellets(planner == null ? Pellets.of(grid) : new Pellets(pelletsTemplateOf(grid)));
+		}
+		return new PacmanSession(id, engine, clock);
+	}
+
+	/**
+	 * @return the pellets on every open cell of a shared grid, built again
+	 *         when its blocked cells change
+	 */
+	private Pellets pelletsTemplateOf(Grid grid) {
+		int version = grid.getVersion();
+		PelletsTemplate template = pelletTemplates.get(grid);
+		if (template == null || template.version != version) {
+			template = new PelletsTemplate(version, Pellets.of(grid));
+			pelletTemplates.put(grid, template);
+		}
+		return template.pellets;
+	}
+
+	private Shard shardOf(String id) {
+		if (id == null) {
+			throw new IllegalArgumentException("session id must not be null");
+		}
+		int h = id.hashCode();
+		return shards[(h ^ (h >>> 16)) & mask];
+	}
+}
@@ -0,0 +1,565 @@
+package com.ie.pacman.engine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import com.ie.pacman.engine.LineScanner.LineHandler;
+import com.ie.pacman.metrics.Heatmap;
+import com.ie.pacman.metrics.PacmanMetrics;
+import com.ie.pacman.model.Grid;
+import com.ie.pacman.model.Pacman;
+import com.ie.pacman.model.Pacman.Direction;
+import com.ie.pacman.model.PacmanFleet;
+import com.ie.pacman.model.ReportEncoder;
+
+/**
+ * Replays a large command log on all cores, with the same final state and
+ * REPORT output as {@link PacmanEngine#processInstructions(String[])} over the
+ * lines of the log. <br>
+ * The state of Pacman on a grid is finite: either not placed, or one of X x Y x
+ * 4 positions and directions. A segment of commands is therefore a function
+ * from state to state, and these functions compose. The log is memory mapped
+ * and split into segments at line boundaries, then:
+ * <ol>
+ * <li>the transition function of every segment is computed in parallel. The
+ * commands are applied to every possible start state at once with a
+ * {@link PacmanFleet}, merging start states as soon as they converge. The
+ * first valid PLACE makes the rest of the segment independent of its start
+ * state, so from there on a single Pacman is simulated.
+ * <li>the functions are composed in order to find the start state of every
+ * segment.
+ * <li>the segments are replayed again in parallel from their start state, and
+ * their REPORT output is written in order.
+ * </ol>
+ * Grids with more than {@code maxTableStates} states are not tabulated: their
+ * segments without a valid PLACE are run sequentially during the composition.
+ * <br>
+ * As with {@link PacmanEngine#processInstructions(String[])}, QUIT commands are
+ * ignored. The commands are recorded once, during the output pass, in the
+ * metrics and the heatmap of the given engine if it has any. Its listener is
+ * not notified, not even of the final state set on the engine. <br>
+ * The pellets eaten by a segment depend on all the segments before it, so a
+ * log is replayed sequentially on the given engine if it has pellets. So is a
+ * log with DEFINE or REPEAT commands, or replayed by an engine with macros,
+ * as a line may run a macro defined in any segment before it.
+ *
+ * @see #replay(Path, PacmanEngine, WritableByteChannel)
+ */
+public class ParallelReplayer {
+
+	/** Default size of a segment in bytes */
+	public static final int DEFAULT_SEGMENT_SIZE = 16 << 20;
+	/** Default maximum number of states for which transition tables are built */
+	public static final int DEFAULT_MAX_TABLE_STATES = 1 << 12;
+
+	private static final Direction[] DIRECTIONS = Direction.values();
+	private static final int SCAN_BUFFER_SIZE = 1 << 16;
+	private static final int REPORT_BUFFER_SIZE = 1 << 14;
+	private static final int PROBE_SIZE = 4096;
+	// number of commands between two merges of converged start states
+	private static final int COMPACT_INTERVAL = 64;
+	private static final long NOT_PLACED = 0;
+
+	private final ForkJoinPool pool;
+	private final int segmentSize;
+	private final int maxTableStates;
+
+	/**
+	 * Create a replayer running on the common fork join pool with default
+	 * settings
+	 */
+	public ParallelReplayer() {
+		this(ForkJoinPool.commonPool(), DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_TABLE_STATES);
+	}
+
+	/**
+	 * Create a replayer
+	 *
+	 * @param pool           running the segments
+	 * @param segmentSize    approximate size of a segment in bytes
+	 * @param maxTableStates maximum number of grid states for which transition
+	 *                       tables are built
+	 */
+	public ParallelReplayer(ForkJoinPool pool, int segmentSize, int maxTableStates) {
+		if (pool == null) {
+			throw new IllegalArgumentException("pool must not be null");
+		}
+		if (segmentSize <= 0) {
+			throw new IllegalArgumentException("segmentSize must be positive: " + segmentSize);
+		}
+		this.pool = pool;
+		this.segmentSize = segmentSize;
+		this.maxTableStates = maxTableStates;
+	}
+
+	/**
+	 * Replays a command log, starting from the current state of the engine and
+	 * leaving the engine in the final state.
+	 *
+	 * @param log    path of the command log, one command per line
+	 * @param engine providing the grid and the start state, updated with the
+	 *               final state
+	 * @param sink   where the REPORT results are written to, one per line
+	 * @throws IOException
+	 */
+	public void replay(Path log, PacmanEngine engine, WritableByteChannel sink) throws IOException {
+		Grid grid = engine.getGrid();
+		PacmanMetrics metrics = engine.getMetrics();
+		Heatmap heatmap = engine.getHeatmap();
+		PathPlanner planner = engine.getPathPlanner();
+		try (FileChannel channel = FileChannel.open(log, StandardOpenOption.READ)) {
+			long[] bounds = split(channel);
+			int segments = bounds.length - 1;
+			if (engine.getPellets() != null || engine.hasMacros()) {
+				replaySequentially(channel, bounds, engine, sink);
+				return;
+			}
+
+			// 1. transition function of every segment
+			List<ForkJoinTask<Transition>> transitions = new ArrayList<>(segments);
+			for (int i = 0; i < segments; i++) {
+				long from = bounds[i];
+				long to = bounds[i + 1];
+				transitions.add(pool.submit(() -> transitionOf(map(channel, from, to), planner)));
+			}
+
+			// 2. composition
+			long state = stateOf(engine);
+			long[] starts = new long[segments];
+			for (int i = 0; i < segments; i++) {
+				starts[i] = state;
+				Transition t = await(transitions.get(i));
+				transitions.set(i, null);
+				if (t.macros) {
+					for (ForkJoinTask<Transition> task : transitions) {
+						if (task != null) {
+							task.cancel(false);
+						}
+					}
+					replaySequentially(channel, bounds, engine, sink);
+					return;
+				}
+				state = t.apply(state);
+				if (state < 0) {
+					state = run(map(channel, bounds[i], bounds[i + 1]), planner, starts[i], null, null, null);
+				}
+			}
+
+			// 3. output, with a bounded number of segments in flight
+			int window = Math.max(2, pool.getParallelism() * 2);
+			Deque<ForkJoinTask<byte[]>> inFlight = new ArrayDeque<>(window);
+			for (int i = 0; i < segments; i++) {
+				long from = bounds[i];
+				long to = bounds[i + 1];
+				long start = starts[i];
+				inFlight.add(pool.submit(() -> {
+					ByteArrayOutputStream out = new ByteArrayOutputStream();
+					run(map(channel, from, to), planner, start, out, metrics, heatmap);
+					return out.toByteArray();
+				}));
+				if (inFlight.size() >= window) {
+					write(await(inFlight.poll()), sink);
+				}
+			}
+			while (!inFlight.isEmpty()) {
+				write(await(inFlight.poll()), sink);
+			}
+
+			// the final state is already counted by the output pass, and is not a
+			// move of the listener
+			PacmanListener listener = engine.getListener();
+			engine.setHeatmap(null);
+			engine.setListener(null);
+			try {
+				setState(engine, state);
+			} finally {
+				engine.setHeatmap(heatmap);
+				engine.setListener(listener);
+			}
+		}
+	}
+
+	/**
+	 * Replays all the segments on the given engine, one after the other
+	 */
+	private static void replaySequentially(FileChannel channel, long[] bounds, PacmanEngine engine,
+			WritableByteChannel sink) throws IOException {
+		for (int i = 0; i < bounds.length - 1; i++) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			run(map(channel, bounds[i], bounds[i + 1]), engine, out);
+			write(out.toByteArray(), sink);
+		}
+	}
+
+	/**
+	 * @return the offsets of the segments, each of them ending with a line feed
+	 *         except possibly the last one
+	 */
+	private long[] split(FileChannel channel) throws IOException {
+		long size = channel.size();
+		List<Long> bounds = new ArrayList<>();
+		bounds.add(0L);
+		ByteBuffer probe = ByteBuffer.allocate(PROBE_SIZE);
+		long pos = 0;
+		while (size - pos > segmentSize) {
+			long end = -1;
+			long p = pos + segmentSize - 1;
+			while (end < 0 && p < size) {
+				probe.clear();
+				int n = channel.read(probe, p);
+				if (n <= 0) {
+					break;
+				}
+				for (int i = 0; i < n; i++) {
+					if (probe.get(i) == '\n') {
+						end = p + i + 1;
+						break;
+					}
+				}
+				p += n;
+			}
+			if (end < 0) {
+				break; // no more line feeds
+			}
+			bounds.add(end);
+			pos = end;
+		}
+		if (pos < size) {
+			bounds.add(size);
+		}
+		long[] result = new long[bounds.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = bounds.get(i);
+		}
+		return result;
+	}
+
+	private static ByteBuffer map(FileChannel channel, long from, long to) throws IOException {
+		if (to - from > Integer.MAX_VALUE) {
+			throw new IOException("segment too large to be mapped, starting at offset " + from);
+		}
+		return channel.map(MapMode.READ_ONLY, from, to - from);
+	}
+
+	/**
+	 * Computes the transition function of a segment
+	 */
+	private Transition transitionOf(ByteBuffer segment, PathPlanner planner) throws IOException {
+		boolean tabulate = stateCount(planner.getGrid()) <= maxTableStates;
+		TransitionBuilder builder = new TransitionBuilder(planner, tabulate);
+		new LineScanner(SCAN_BUFFER_SIZE).scan(segment, builder);
+		return builder.build();
+	}
+
+	/**
+	 * Runs a segment from the given state
+	 *
+	 * @param planner of the GOTO commands, shared by all the segments
+	 * @param out     where the REPORT results are written to, may be null
+	 * @param metrics where the commands are recorded to, may be null
+	 * @param heatmap where the visited cells are counted, may be null
+	 * @return the final state
+	 */
+	private static long run(ByteBuffer segment, PathPlanner planner, long start, ByteArrayOutputStream out,
+			PacmanMetrics metrics, Heatmap heatmap) throws IOException {
+		PacmanEngine engine = new PacmanEngine(planner.getGrid());
+		engine.setMetrics(metrics);
+		engine.setPathPlanner(planner);
+		setState(engine, start);
+		engine.setHeatmap(heatmap); // the start state is not a visit
+		run(segment, engine, out);
+		return stateOf(engine);
+	}
+
+	/**
+	 * Runs a segment on an engine
+	 *
+	 * @param out where the REPORT results are written to, may be null
+	 */
+	private static void run(ByteBuffer segment, PacmanEngine engine, ByteArrayOutputStream out)
+			throws IOException {
+		ByteBuffer reports = ByteBuffer.allocate(REPORT_BUFFER_SIZE);
+		new LineScanner(SCAN_BUFFER_SIZE).scan(segment, (buf, offset, length) -> {
+			if (reports.remaining() < ReportEncoder.MAX_LENGTH) {
+				drain(reports, out);
+			}
+			engine.processInstruction(buf, offset, length, reports);
+			while (engine.drainOutput(reports)) {
+				drain(reports, out); // the output of a REPEAT
+			}
+			return true; // QUIT is ignored, as in processInstructions
+		});
+		drain(reports, out);
+	}
+
+	private static void drain(ByteBuffer reports, ByteArrayOutputStream out) {
+		if (out != null) {
+			out.write(reports.array(), 0, reports.position());
+		}
+		reports.clear();
+	}
+
+	private static void write(byte[] bytes, WritableByteChannel sink) throws IOException {
+		ByteBuffer buf = ByteBuffer.wrap(bytes);
+		while (buf.hasRemaining()) {
+			sink.write(buf);
+		}
+	}
+
+	private static <T> T await(ForkJoinTask<T> task) throws IOException {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("replay interrupted", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	// states: 0 when not placed, 1 + (cell * 4 + direction) otherwise
+
+	private static long stateCount(Grid grid) {
+		return 1 + 4L * grid.getUnitsX() * grid.getUnitsY();
+	}
+
+	private static long state(Grid grid, int x, int y, Direction direction) {
+		return 1 + ((((long) y * grid.getUnitsX() + x) << 2) | direction.ordinal());
+	}
+
+	private static long stateOf(PacmanEngine engine) {
+		Pacman p = engine.getPacman();
+		return p == null ? NOT_PLACED : state(engine.getGrid(), p.getX(), p.getY(), p.getDirection());
+	}
+
+	private static void setState(PacmanEngine engine, long state) {
+		if (state == NOT_PLACED) {
+			engine.reset();
+			return;
+		}
+		long cell = (state - 1) >>> 2;
+		int unitsX = engine.getGrid().getUnitsX();
+		engine.place((int) (cell % unitsX), (int) (cell / unitsX), DIRECTIONS[(int) ((state - 1) & 3)]);
+	}
+
+	/**
+	 * Transition function of a segment
+	 */
+	private static final class Transition {
+		// end state for every start state, null if not tabulated
+		final int[] table;
+		// end state when the segment has a valid PLACE, whatever the start state
+		final long placedEnd;
+		// whether the segment has DEFINE or REPEAT commands, not simulated
+		final boolean macros;
+
+		Transition(int[] table, long placedEnd, boolean macros) {
+			this.table = table;
+			this.placedEnd = placedEnd;
+			this.macros = macros;
+		}
+
+		/**
+		 * @return the end state, or -1 if the segment must be run to find it
+		 */
+		long apply(long start) {
+			if (placedEnd >= 0) {
+				return placedEnd;
+			}
+			return table == null ? -1 : table[(int) start];
+		}
+	}
+
+	/**
+	 * Applies the commands of a segment to every possible start state at once.
+	 */
+	private static final class TransitionBuilder implements LineHandler {
+
+		private final Grid grid;
+		private final PathPlanner planner;
+		private final CommandParser parser = new CommandParser();
+
+		// one agent per distinct current state
+		private PacmanFleet fleet;
+		// start state -> agent of the fleet
+		private int[] agentOf;
+		// scratch index used when merging agents, all -1 between merges
+		private int[] agentOfState;
+		private int sinceCompact;
+		private boolean macros;
+
+		// a single Pacman once a valid PLACE has been seen
+		private PacmanEngine placed;
+		// follows the path of every agent of the fleet on GOTO
+		private PacmanEngine walker;
+
+		TransitionBuilder(PathPlanner planner, boolean tabulate) {
+			this.grid = planner.getGrid();
+			this.planner = planner;
+			if (tabulate) {
+				int states = (int) stateCount(grid);
+				fleet = new PacmanFleet(grid, states);
+				agentOf = new int[states];
+				agentOfState = new int[states];
+				Arrays.fill(agentOfState, -1);
+				for (int s = 1; s < states; s++) {
+					agentOf[s] = s;
+					int cell = (s - 1) >>> 2;
+					fleet.place(s, cell % grid.getUnitsX(), cell / grid.getUnitsX(), DIRECTIONS[(s - 1) & 3]);
+				}
+			}
+		}
+
+		@Override
+		public boolean onLine(byte[] buf, int offset, int length) {
+			switch (parser.parse(buf, offset, length)) {
+			case PLACE:
+				if (placed != null) {
+					placed.place(parser.getX(), parser.getY(), parser.getDirection());
+				} else if (grid.isValidXY(parser.getX(), parser.getY())) {
+					placed = new PacmanEngine(grid);
+					placed.setPathPlanner(planner);
+					placed.place(parser.getX(), parser.getY(), parser.getDirection());
+					fleet = null;
+				}
+				return true;
+			case MOVE:
+				if (placed != null) {
+					placed.move();
+				} else if (fleet != null) {
+					fleet.moveAll();
+				}
+				break;
+			case GOTO:
+				if (placed != null) {
+					placed.goTo(parser.getX(), parser.getY());
+				} else if (fleet != null) {
+					goToAll(parser.getX(), parser.getY());
+				}
+				break;
+			case LEFT:
+				if (placed != null) {
+					placed.turnLeft();
+				} else if (fleet != null) {
+					fleet.turnLeftAll();
+				}
+				break;
+			case RIGHT:
+				if (placed != null) {
+					placed.turnRight();
+				} else if (fleet != null) {
+					fleet.turnRightAll();
+				}
+				break;
+			case DEFINE:
+			case REPEAT:
+				macros = true;
+				return false; // the segment is replayed sequentially
+			default:
+				return true;
+			}
+			if (fleet != null && ++sinceCompact == COMPACT_INTERVAL) {
+				compact();
+			}
+			return true;
+		}
+
+		Transition build() {
+			if (macros) {
+				return new Transition(null, -1, true);
+			}
+			if (placed != null) {
+				return new Transition(null, stateOf(placed), false);
+			}
+			if (fleet == null) {
+				return new Transition(null, -1, false);
+			}
+			int[] table = new int[agentOf.length];
+			for (int s = 0; s < table.length; s++) {
+				table[s] = (int) stateOfAgent(agentOf[s]);
+			}
+			return new Transition(table, -1, false);
+		}
+
+		/**
+		 * Moves every agent of the fleet to its end of the path to the target, the
+		 * agents that cannot reach it staying where they are
+		 */
+		private void goToAll(int x, int y) {
+			if (planner.distances(x, y) == null) {
+				return;
+			}
+			if (walker == null) {
+				walker = new PacmanEngine(grid);
+				walker.setPathPlanner(planner);
+			}
+			for (int a = 0; a < fleet.size(); a++) {
+				if (fleet.isPlaced(a)) {
+					walker.place(fleet.getX(a), fleet.getY(a), fleet.getDirection(a));
+					if (walker.goTo(x, y)) {
+						Pacman p = walker.getPacman();
+						fleet.place(a, p.getX(), p.getY(), p.getDirection());
+					}
+				}
+			}
+		}
+
+		/**
+		 * Merges the agents that reached the same state, shrinking the fleet when
+		 * enough start states have converged.
+		 */
+		private void compact() {
+			sinceCompact = 0;
+			int agents = fleet.size();
+			int[] merged = new int[agents];
+			int distinct = 0;
+			for (int a = 0; a < agents; a++) {
+				int state = (int) stateOfAgent(a);
+				if (agentOfState[state] < 0) {
+					agentOfState[state] = distinct++;
+				}
+				merged[a] = agentOfState[state];
+			}
+			for (int a = 0; a < agents; a++) {
+				agentOfState[(int) stateOfAgent(a)] = -1;
+			}
+			if (distinct * 2 > agents) {
+				return; // not worth rebuilding yet
+			}
+			PacmanFleet smaller = new PacmanFleet(grid, distinct);
+			for (int a = 0; a < agents; a++) {
+				if (fleet.isPlaced(a)) {
+					smaller.place(merged[a], fleet.getX(a), fleet.getY(a), fleet.getDirection(a));
+				}
+			}
+			for (int s = 0; s < agentOf.length; s++) {
+				agentOf[s] = merged[agentOf[s]];
+			}
+			fleet = smaller;
+		}
+
+		private long stateOfAgent(int agent) {
+			if (!fleet.isPlaced(agent)) {
+				return NOT_PLACED;
+			}
+			return state(grid, fleet.getX(agent), fleet.getY(agent), fleet.getDirection(agent));
+		}
+	}
+}
@@ -0,0 +1,249 @@
+package com.ie.pacman.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.ie.pacman.model.Grid;
+import com.ie.pacman.model.Pacman.Direction;
+
+/**
+ * Plans the shortest sequence of MOVE, LEFT and RIGHT commands taking Pacman
+ * from its position and direction to a target cell, around the blocked cells
+ * of the grid. <br>
+ * For every target, a breadth first search backwards from the target over all
+ * the X x Y x 4 positions and directions gives the number of commands needed
+ * from each of them: a {@link DistanceField}. Following the field from any
+ * start is then a matter of picking, at every step, the command that lowers
+ * the distance by one, in O(path length). The fields of the most recent
+ * targets are cached, and discarded when the version of the grid changes. <br>
+ * A planner is thread safe and can be shared by the engines of a grid. Grids
+ * of more than {@code maxStates} states are not planned for.
+ *
+ * @see #distances(int, int)
+ * @see #plan(int, int, Direction, int, int)
+ */
+public class PathPlanner {
+
+	/** Default number of cached distance fields */
+	public static final int DEFAULT_CACHE_SIZE = 16;
+	/** Default maximum number of states, 4 per cell, of a grid to plan for */
+	public static final int DEFAULT_MAX_STATES = 1 << 22;
+
+	private static final Direction[] DIRECTIONS = Direction.values();
+	// unit moves by direction ordinal: NORTH, EAST, SOUTH, WEST
+	private static final int[] DX = { 0, 1, 0, -1 };
+	private static final int[] DY = { 1, 0, -1, 0 };
+
+	private final Grid grid;
+	private final int maxStates;
+	private final Map<Integer, DistanceField> cache;
+
+	/**
+	 * Create a planner with default settings
+	 *
+	 * @param grid to plan on
+	 */
+	public PathPlanner(Grid grid) {
+		this(grid, DEFAULT_CACHE_SIZE, DEFAULT_MAX_STATES);
+	}
+
+	/**
+	 * Create a planner
+	 *
+	 * @param grid      to plan on
+	 * @param cacheSize number of distance fields kept, the least recently used
+	 *                  being discarded first
+	 * @param maxStates maximum number of states of a grid to plan for
+	 */
+	public PathPlanner(Grid grid, int cacheSize, int maxStates) {
+		if (grid == null) {
+			throw new IllegalArgumentException("grid must not be null");
+		}
+		if (cacheSize <= 0) {
+			throw new IllegalArgumentException("cacheSize must be positive: " + cacheSize);
+		}
+		this.grid = grid;
+		this.maxStates = maxStates;
+		this.cache = new LinkedHashMap<Integer, DistanceField>(cacheSize * 2, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, DistanceField> eldest) {
+				return size() > cacheSize;
+			}
+		};
+	}
+
+	/**
+	 * @return the grid this planner plans on
+	 */
+	public Grid getGrid() {
+		return grid;
+	}
+
+	/**
+	 * Returns the distance field of a target, from the cache if the grid has not
+	 * changed since it was computed
+	 *
+	 * @param x of the target
+	 * @param y of the target
+	 * @return the distance field, or null if the target is not a valid cell or
+	 *         the grid is too large
+	 */
+	public DistanceField distances(int x, int y) {
+		if (!grid.isValidXY(x, y) || (long) grid.getUnitsX() * grid.getUnitsY() * 4 > maxStates) {
+			return null;
+		}
+		int target = y * grid.getUnitsX() + x;
+		int version = grid.getVersion();
+		synchronized (cache) {
+			DistanceField field = cache.get(target);
+			if (field != null && field.version == version) {
+				return field;
+			}
+		}
+		// computed outside the lock, two threads may compute the same field
+		DistanceField field = new DistanceField(grid, x, y, version);
+		synchronized (cache) {
+			cache.put(target, field);
+		}
+		return field;
+	}
+
+	/**
+	 * Plans the commands from a position and direction to a target cell
+	 *
+	 * @return the commands, empty if Pacman is already on the target, or null if
+	 *         the target cannot be reached
+	 */
+	public List<Command> plan(int fromX, int fromY, Direction direction, int toX, int toY) {
+		DistanceField field = distances(toX, toY);
+		if (field == null || !grid.isValidXY(fromX, fromY) || field.distance(fromX, fromY, direction) < 0) {
+			return null;
+		}
+		List<Command> commands = new ArrayList<>(field.distance(fromX, fromY, direction));
+		int x = fromX;
+		int y = fromY;
+		int d = direction.ordinal();
+		Command step;
+		while ((step = field.nextStep(x, y, DIRECTIONS[d])) != null) {
+			commands.add(step);
+			switch (step) {
+			case MOVE:
+				x += DX[d];
+				y += DY[d];
+				break;
+			case LEFT:
+				d = (d + 3) & 3;
+				break;
+			default:
+				d = (d + 1) & 3;
+				break;
+			}
+		}
+		return commands;
+	}
+
+	/**
+	 * The number of commands needed to reach a target from every position and
+	 * direction of a grid. It is immutable, but only valid for the version of
+	 * the grid it was computed for.
+	 */
+	public static final class DistanceField {
+
+		private final int unitsX;
+		private final int unitsY;
+		private final int version;
+		// by (y * unitsX + x) * 4 + direction, -1 if the target cannot be reached
+		private final int[] distances;
+
+		DistanceField(Grid grid, int targetX, int targetY, int version) {
+			this.unitsX = grid.getUnitsX();
+			this.unitsY = grid.getUnitsY();
+			this.version = version;
+			this.distances = new int[unitsX * unitsY * 4];
+			Arrays.fill(distances, -1);
+
+			// breadth first, backwards from the target
+			int[] queue = new int[distances.length];
+			int head = 0;
+			int tail = 0;
+			int target = (targetY * unitsX + targetX) * 4;
+			for (int d = 0; d < 4; d++) {
+				distances[target + d] = 0;
+				queue[tail++] = target + d;
+			}
+			while (head < tail) {
+				int state = queue[head++];
+				int next = distances[state] + 1;
+				int cell = state >>> 2;
+				int d = state & 3;
+				int x = cell % unitsX;
+				int y = cell / unitsX;
+				// a LEFT from the direction on the right, a RIGHT from the one on the left
+				int left = (cell << 2) | ((d + 1) & 3);
+				if (distances[left] < 0) {
+					distances[left] = next;
+					queue[tail++] = left;
+				}
+				int right = (cell << 2) | ((d + 3) & 3);
+				if (distances[right] < 0) {
+					distances[right] = next;
+					queue[tail++] = right;
+				}
+				// a MOVE from the cell behind
+				int px = x - DX[d];
+				int py = y - DY[d];
+				if (grid.isValidXY(px, py)) {
+					int moved = ((py * unitsX + px) << 2) | d;
+					if (distances[moved] < 0) {
+						distances[moved] = next;
+						queue[tail++] = moved;
+					}
+				}
+			}
+		}
+
+		/**
+		 * @param x
+		 * @param y
+		 * @param direction
+		 * @return the number of commands needed to reach the target, 0 on the
+		 *         target, or -1 if it cannot be reached
+		 */
+		public int distance(int x, int y, Direction direction) {
+			if (x < 0 || x >= unitsX || y < 0 || y >= unitsY) {
+				return -1;
+			}
+			return distances[((y * unitsX + x) << 2) | direction.ordinal()];
+		}
+
+		/**
+		 * @param x
+		 * @param y
+		 * @param direction
+		 * @return the first command of a shortest path to the target, or null if
+		 *         on the target or if it cannot be reached
+		 */
+		public Command nextStep(int x, int y, Direction direction) {
+			int distance = distance(x, y, direction);
+			if (distance <= 0) {
+				return null;
+			}
+			int d = direction.ordinal();
+			int mx = x + DX[d];
+			int my = y + DY[d];
+			if (mx >= 0 && mx < unitsX && my >= 0 && my < unitsY
+					&& distances[((my * unitsX + mx) << 2) | d] == distance - 1) {
+				return Command.MOVE;
+			}
+			if (distances[((y * unitsX + x) << 2) | ((d + 3) & 3)] == distance - 1) {
+				return Command.LEFT;
+			}
+			return Command.RIGHT;
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package com.ie.pacman.engine;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The results of instructions read one at a time, as the results are
+ * requested: an instruction is only read once the results of the previous
+ * ones are consumed. The output of a REPEAT is expanded a chunk at a time, so
+ * that the memory used does not depend on the number of instructions nor on
+ * the number of results. <br>
+ * Used by a single thread, as its engine.
+ *
+ * @see PacmanEngine#processInstructions(Iterator)
+ */
+final class ResultIterator implements Iterator<String> {
+
+	private static final int CHUNK_SIZE = 1 << 13;
+
+	private final PacmanEngine engine;
+	private final Iterator<String> instructions;
+	// results of the last instruction, or of the last chunk drained
+	private final Deque<String> ready = new ArrayDeque<>();
+	// output of a DEFINE or REPEAT being drained, and a result split across
+	// two chunks
+	private MacroOutput draining;
+	private ByteBuffer chunk;
+	private final StringBuilder carry = new StringBuilder();
+
+	ResultIterator(PacmanEngine engine, Iterator<String> instructions) {
+		this.engine = engine;
+		this.instructions = instructions;
+	}
+
+	@Override
+	public boolean hasNext() {
+		while (ready.isEmpty()) {
+			if (draining != null) {
+				drainChunk();
+			} else if (instructions.hasNext()) {
+				draining = engine.processInstruction(instructions.next(), ready);
+			} else {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return ready.poll();
+	}
+
+	private void drainChunk() {
+		if (chunk == null) {
+			chunk = ByteBuffer.allocate(CHUNK_SIZE);
+		}
+		chunk.clear();
+		if (!draining.drainTo(chunk)) {
+			draining = null;
+		}
+		byte[] bytes = chunk.array();
+		int start = 0;
+		for (int i = 0; i < chunk.position(); i++) {
+			if (bytes[i] != '\n') {
+				continue;
+			}
+			String line = new String(bytes, start, i - start, StandardCharsets.US_ASCII);
+			if (carry.length() > 0) {
+				line = carry.append(line).toString();
+				carry.setLength(0);
+			}
+			ready.add(line);
+			start = i + 1;
+		}
+		carry.append(new String(bytes, start, chunk.position() - start, StandardCharsets.US_ASCII));
+	}
+}
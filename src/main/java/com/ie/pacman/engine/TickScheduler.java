@@ -0,0 +1,333 @@
+package com.ie.pacman.engine;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import com.ie.pacman.metrics.TickMetrics;
+
+/**
+ * Applies the commands of many sessions at a fixed rate, in ticks, instead of
+ * the moment they are submitted. <br>
+ * Every session has its own bounded queue. A tick takes the commands queued
+ * in every session when it starts, and applies them in submission order, the
+ * sessions being partitioned over a fork join pool. The next tick only starts
+ * once all of them have been applied, so a command submitted during a tick is
+ * applied by the next one. Sessions do not share any state, so the results
+ * are the same whatever the partitioning. <br>
+ * Ticks are scheduled every period from {@link #start()}. A tick that runs
+ * late is followed by the next ones back to back until the schedule is caught
+ * up again; the lag is reported by the {@link #getMetrics() metrics}, with the
+ * tick rate and the number of queued commands.
+ *
+ * @see #submit(PacmanSession, String)
+ */
+public class TickScheduler implements Closeable {
+
+	/** Default number of commands a session can queue between two ticks */
+	public static final int DEFAULT_MAX_QUEUE_DEPTH = 1024;
+
+	// number of sessions applied by a single task
+	private static final int SESSIONS_PER_TASK = 16;
+
+	private final ForkJoinPool pool;
+	private final long periodNanos;
+	private final int maxQueueDepth;
+	private final TickMetrics metrics = new TickMetrics();
+	private final ConcurrentMap<PacmanSession, Lane> lanes = new ConcurrentHashMap<>();
+	// sessions with commands waiting for a tick
+	private final Queue<Lane> ready = new ConcurrentLinkedQueue<>();
+	private final Object tickLock = new Object();
+
+	private Thread ticker;
+	private volatile boolean running;
+
+	/**
+	 * A command waiting for a tick
+	 */
+	private static final class Pending {
+		final String command;
+		final CompletableFuture<String> result = new CompletableFuture<>();
+
+		Pending(String command) {
+			this.command = command;
+		}
+	}
+
+	/**
+	 * The queue of a session
+	 */
+	private static final class Lane {
+		final PacmanSession session;
+		final Queue<Pending> queue = new ConcurrentLinkedQueue<>();
+		final AtomicInteger depth = new AtomicInteger();
+		// whether the lane is in the ready queue
+		final AtomicBoolean scheduled = new AtomicBoolean();
+		// guarded by the lane
+		boolean removed;
+
+		Lane(PacmanSession session) {
+			this.session = session;
+		}
+	}
+
+	/**
+	 * Create a scheduler running on the common fork join pool
+	 *
+	 * @param period between two ticks
+	 * @param unit   of the period
+	 */
+	public TickScheduler(long period, TimeUnit unit) {
+		this(ForkJoinPool.commonPool(), period, unit, DEFAULT_MAX_QUEUE_DEPTH);
+	}
+
+	/**
+	 * Create a scheduler
+	 *
+	 * @param pool          applying the commands of the sessions
+	 * @param period        between two ticks
+	 * @param unit          of the period
+	 * @param maxQueueDepth number of commands a session can queue between two
+	 *                      ticks
+	 */
+	public TickScheduler(ForkJoinPool pool, long period, TimeUnit unit, int maxQueueDepth) {
+		if (pool == null || unit == null) {
+			throw new IllegalArgumentException("pool and unit must not be null");
+		}
+		if (period <= 0) {
+			throw new IllegalArgumentException("period must be positive: " + period);
+		}
+		if (maxQueueDepth <= 0) {
+			throw new IllegalArgumentException("maxQueueDepth must be positive: " + maxQueueDepth);
+		}
+		this.pool = pool;
+		this.periodNanos = unit.toNanos(period);
+		this.maxQueueDepth = maxQueueDepth;
+	}
+
+	/**
+	 * @return the metrics of this scheduler
+	 */
+	public TickMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Queues a command of a session until the next tick
+	 *
+	 * @param session the command is addressed to
+	 * @param cmd     line of instruction
+	 * @return the result of the command, completed by the tick applying it, on
+	 *         one of the threads of the pool
+	 * @throws RejectedExecutionException if the queue of the session is full
+	 * @see PacmanSession#processInstruction(String)
+	 */
+	public CompletableFuture<String> submit(PacmanSession session, String cmd) {
+		if (session == null) {
+			throw new IllegalArgumentException("session must not be null");
+		}
+		Pending pending = new Pending(cmd);
+		while (true) {
+			Lane lane = lanes.computeIfAbsent(session, Lane::new);
+			synchronized (lane) {
+				if (lane.removed) {
+					continue; // removed meanwhile, a new one is created
+				}
+				if (lane.depth.get() >= maxQueueDepth) {
+					metrics.recordRejected();
+					throw new RejectedExecutionException("queue of session " + session.getId() + " is full");
+				}
+				lane.queue.add(pending);
+				lane.depth.incrementAndGet();
+			}
+			metrics.recordQueued();
+			if (lane.scheduled.compareAndSet(false, true)) {
+				ready.add(lane);
+			}
+			return pending.result;
+		}
+	}
+
+	/**
+	 * Drops the queued commands of a session, their results being cancelled
+	 *
+	 * @param session
+	 * @return the number of dropped commands
+	 */
+	public int remove(PacmanSession session) {
+		Lane lane = lanes.remove(session);
+		if (lane == null) {
+			return 0;
+		}
+		int dropped = 0;
+		synchronized (lane) {
+			lane.removed = true;
+			Pending pending;
+			while ((pending = lane.queue.poll()) != null) {
+				pending.result.completeExceptionally(new CancellationException("session removed"));
+				dropped++;
+			}
+			lane.depth.addAndGet(-dropped);
+		}
+		metrics.recordDropped(dropped);
+		return dropped;
+	}
+
+	/**
+	 * Starts running the ticks, every period, on a thread of its own
+	 */
+	public synchronized void start() {
+		if (running) {
+			throw new IllegalStateException("scheduler already started");
+		}
+		running = true;
+		ticker = new Thread(this::run, "pacman-ticker");
+		ticker.setDaemon(true);
+		ticker.start();
+	}
+
+	/**
+	 * Stops running the ticks. The commands still queued are kept, they can be
+	 * applied with {@link #tick()}.
+	 */
+	@Override
+	public synchronized void close() {
+		if (!running) {
+			return;
+		}
+		running = false;
+		LockSupport.unpark(ticker);
+		try {
+			ticker.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Runs a tick now, applying the commands queued so far. Ticks never overlap,
+	 * this waits for the running one if any.
+	 *
+	 * @return the number of applied commands
+	 */
+	public int tick() {
+		return tick(System.nanoTime());
+	}
+
+	private void run() {
+		long next = System.nanoTime();
+		while (running) {
+			long now = System.nanoTime();
+			if (now - next < 0) {
+				LockSupport.parkNanos(next - now);
+				continue;
+			}
+			tick(next);
+			next += periodNanos;
+		}
+	}
+
+	/**
+	 * @param scheduled time the tick was due, to measure its lag
+	 */
+	private int tick(long scheduled) {
+		synchronized (tickLock) {
+			long start = System.nanoTime();
+			List<Lane> batch = new ArrayList<>();
+			Lane lane;
+			while ((lane = ready.poll()) != null) {
+				batch.add(lane);
+			}
+			// the commands of the tick, later ones wait for the next tick
+			int[] counts = new int[batch.size()];
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] = batch.get(i).depth.get();
+			}
+			if (!batch.isEmpty()) {
+				pool.invoke(new Apply(batch, counts, 0, counts.length));
+			}
+			for (Lane l : batch) {
+				reschedule(l);
+			}
+			long end = System.nanoTime();
+			metrics.recordTick(start, end - start, Math.max(0, start - scheduled));
+			int applied = 0;
+			for (int count : counts) {
+				applied += count;
+			}
+			return applied;
+		}
+	}
+
+	/**
+	 * Puts a lane back in the ready queue if it has commands left
+	 */
+	private void reschedule(Lane lane) {
+		lane.scheduled.set(false);
+		if (lane.depth.get() > 0 && lane.scheduled.compareAndSet(false, true)) {
+			ready.add(lane);
+		}
+	}
+
+	/**
+	 * Applies the commands of a range of lanes, splitting it over the pool
+	 */
+	private final class Apply extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<Lane> batch;
+		// number of commands to apply, updated with the number actually applied
+		private final int[] counts;
+		private final int from;
+		private final int to;
+
+		Apply(List<Lane> batch, int[] counts, int from, int to) {
+			this.batch = batch;
+			this.counts = counts;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > SESSIONS_PER_TASK) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new Apply(batch, counts, from, mid), new Apply(batch, counts, mid, to));
+				return;
+			}
+			for (int i = from; i < to; i++) {
+				counts[i] = apply(batch.get(i), counts[i]);
+			}
+		}
+
+		private int apply(Lane lane, int count) {
+			int applied = 0;
+			Pending pending;
+			while (applied < count && (pending = lane.queue.poll()) != null) {
+				applied++;
+				try {
+					pending.result.complete(lane.session.processInstruction(pending.command));
+				} catch (RuntimeException e) {
+					pending.result.completeExceptionally(e);
+				}
+			}
+			lane.depth.addAndGet(-applied);
+			metrics.recordApplied(applied);
+			return applied;
+		}
+	}
+}
@@ -0,0 +1,294 @@
+package com.ie.pacman.engine;
+
+import java.util.Arrays;
+
+import com.ie.pacman.model.Pacman.Direction;
+import com.ie.pacman.model.Report;
+
+/**
+ * Records the trajectory of the Pacman of an engine, step by step, to find
+ * out afterwards where it was at any step, or when it first reached a cell,
+ * without replaying the commands. <br>
+ * A step is a change of Pacman: a PLACE, a MOVE of one unit, a LEFT, a RIGHT
+ * or a reset, numbered from 1. Rejected commands are not steps. Every step is
+ * stored in 2 bits, as MOVE, LEFT or RIGHT relative to the previous state, or
+ * as a mark of a checkpoint holding the full state. A checkpoint is taken at
+ * every PLACE and reset, and every {@code checkpointInterval} steps, so that
+ * the state at any step is found by a binary search of the checkpoints and the
+ * replay of at most {@code checkpointInterval} steps. The bounding box of the
+ * cells visited between two checkpoints lets the search for a cell skip most
+ * of them. <br>
+ * A recorder is attached as the listener of an engine and is not thread safe:
+ * it must be queried by the thread running the engine, or once it has
+ * stopped.
+ *
+ * @see PacmanEngine#setListener(PacmanListener)
+ * @see #getPosition(long)
+ * @see #findFirstVisit(int, int, long)
+ */
+public class TrajectoryRecorder implements PacmanListener {
+
+	/** Default number of steps between two checkpoints */
+	public static final int DEFAULT_CHECKPOINT_INTERVAL = 4096;
+
+	private static final Direction[] DIRECTIONS = Direction.values();
+	// unit moves by direction ordinal: NORTH, EAST, SOUTH, WEST
+	private static final int[] DX = { 0, 1, 0, -1 };
+	private static final int[] DY = { 1, 0, -1, 0 };
+
+	// 2 bit codes of the steps
+	private static final int CODE_MOVE = 0;
+	private static final int CODE_LEFT = 1;
+	private static final int CODE_RIGHT = 2;
+	private static final int CODE_CHECKPOINT = 3;
+
+	// 32 steps per long, 2^17 steps per page
+	private static final int PAGE_SHIFT = 17;
+	private static final int PAGE_STEPS = 1 << PAGE_SHIFT;
+	private static final int NOT_PLACED = -1;
+
+	private final int checkpointInterval;
+
+	// step codes, pages allocated as needed
+	private long[][] pages = new long[16][];
+	private long steps;
+
+	// checkpoints: step, state after the step, and bounding box of the cells
+	// visited from this checkpoint to the next one
+	private int checkpoints;
+	private long[] checkpointSteps = new long[64];
+	private int[] checkpointX = new int[64];
+	private int[] checkpointY = new int[64];
+	private byte[] checkpointDirections = new byte[64];
+	private int[] minX = new int[64];
+	private int[] minY = new int[64];
+	private int[] maxX = new int[64];
+	private int[] maxY = new int[64];
+
+	// current state
+	private int x;
+	private int y;
+	private int direction = NOT_PLACED;
+
+	/**
+	 * Create a recorder with the default checkpoint interval
+	 */
+	public TrajectoryRecorder() {
+		this(DEFAULT_CHECKPOINT_INTERVAL);
+	}
+
+	/**
+	 * Create a recorder
+	 *
+	 * @param checkpointInterval maximum number of steps between two
+	 *                           checkpoints
+	 */
+	public TrajectoryRecorder(int checkpointInterval) {
+		if (checkpointInterval <= 0) {
+			throw new IllegalArgumentException("checkpointInterval must be positive: " + checkpointInterval);
+		}
+		this.checkpointInterval = checkpointInterval;
+		checkpoint(); // step 0, not placed
+	}
+
+	@Override
+	public void onChange(Command command, int x, int y, Direction direction) {
+		int code;
+		if (command == Command.PLACE || this.direction == NOT_PLACED) {
+			code = CODE_CHECKPOINT;
+		} else if (command == Command.MOVE) {
+			code = CODE_MOVE;
+		} else if (command == Command.LEFT) {
+			code = CODE_LEFT;
+		} else {
+			code = CODE_RIGHT;
+		}
+		this.x = x;
+		this.y = y;
+		this.direction = direction.ordinal();
+		step(code);
+	}
+
+	@Override
+	public void onReset() {
+		if (direction == NOT_PLACED) {
+			return; // no change
+		}
+		direction = NOT_PLACED;
+		step(CODE_CHECKPOINT);
+	}
+
+	/**
+	 * @return the number of recorded steps
+	 */
+	public long getStepCount() {
+		return steps;
+	}
+
+	/**
+	 * @return the number of checkpoints, including the one of step 0
+	 */
+	public int getCheckpointCount() {
+		return checkpoints;
+	}
+
+	/**
+	 * @param step from 0, before the first step, to {@link #getStepCount()}
+	 * @return the position and direction of Pacman right after the step, or
+	 *         null if it was not placed
+	 */
+	public Report getPosition(long step) {
+		if (step < 0 || step > steps) {
+			throw new IllegalArgumentException("step out of range [0, " + steps + "]: " + step);
+		}
+		int c = checkpointOf(step);
+		if (checkpointDirections[c] == NOT_PLACED) {
+			return null;
+		}
+		int px = checkpointX[c];
+		int py = checkpointY[c];
+		int d = checkpointDirections[c];
+		for (long s = checkpointSteps[c] + 1; s <= step; s++) {
+			switch (code(s)) {
+			case CODE_MOVE:
+				px += DX[d];
+				py += DY[d];
+				break;
+			case CODE_LEFT:
+				d = (d + 3) & 3;
+				break;
+			default:
+				d = (d + 1) & 3;
+				break;
+			}
+		}
+		return new Report(px, py, DIRECTIONS[d]);
+	}
+
+	/**
+	 * @param x
+	 * @param y
+	 * @return the first step after which Pacman was on the cell, or -1 if it
+	 *         never was
+	 * @see #findFirstVisit(int, int, long)
+	 */
+	public long findFirstVisit(int x, int y) {
+		return findFirstVisit(x, y, 0);
+	}
+
+	/**
+	 * @param x
+	 * @param y
+	 * @param fromStep first step to look at
+	 * @return the first step, from the given one, after which Pacman was on the
+	 *         cell, or -1 if it never was
+	 */
+	public long findFirstVisit(int x, int y, long fromStep) {
+		if (fromStep < 0 || fromStep > steps) {
+			return -1;
+		}
+		for (int c = checkpointOf(fromStep); c < checkpoints; c++) {
+			if (x < minX[c] || x > maxX[c] || y < minY[c] || y > maxY[c]) {
+				continue; // not visited in this segment
+			}
+			int px = checkpointX[c];
+			int py = checkpointY[c];
+			int d = checkpointDirections[c];
+			long s = checkpointSteps[c];
+			long end = c + 1 < checkpoints ? checkpointSteps[c + 1] : steps + 1;
+			while (true) {
+				if (s >= fromStep && px == x && py == y) {
+					return s;
+				}
+				if (++s == end) {
+					break;
+				}
+				switch (code(s)) {
+				case CODE_MOVE:
+					px += DX[d];
+					py += DY[d];
+					break;
+				case CODE_LEFT:
+					d = (d + 3) & 3;
+					break;
+				default:
+					d = (d + 1) & 3;
+					break;
+				}
+			}
+		}
+		return -1;
+	}
+
+	private void step(int code) {
+		long step = ++steps;
+		long index = step - 1;
+		int page = (int) (index >>> PAGE_SHIFT);
+		if (page == pages.length) {
+			pages = Arrays.copyOf(pages, page * 2);
+		}
+		if (pages[page] == null) {
+			pages[page] = new long[PAGE_STEPS >>> 5];
+		}
+		int offset = (int) (index & (PAGE_STEPS - 1));
+		pages[page][offset >>> 5] |= (long) code << ((offset & 31) << 1);
+
+		if (code == CODE_CHECKPOINT || step - checkpointSteps[checkpoints - 1] >= checkpointInterval) {
+			checkpoint();
+		} else {
+			int c = checkpoints - 1;
+			minX[c] = Math.min(minX[c], x);
+			minY[c] = Math.min(minY[c], y);
+			maxX[c] = Math.max(maxX[c], x);
+			maxY[c] = Math.max(maxY[c], y);
+		}
+	}
+
+	/**
+	 * Takes a checkpoint of the current state after the last step
+	 */
+	private void checkpoint() {
+		int c = checkpoints++;
+		if (c == checkpointSteps.length) {
+			int n = c * 2;
+			checkpointSteps = Arrays.copyOf(checkpointSteps, n);
+			checkpointX = Arrays.copyOf(checkpointX, n);
+			checkpointY = Arrays.copyOf(checkpointY, n);
+			checkpointDirections = Arrays.copyOf(checkpointDirections, n);
+			minX = Arrays.copyOf(minX, n);
+			minY = Arrays.copyOf(minY, n);
+			maxX = Arrays.copyOf(maxX, n);
+			maxY = Arrays.copyOf(maxY, n);
+		}
+		checkpointSteps[c] = steps;
+		checkpointX[c] = x;
+		checkpointY[c] = y;
+		checkpointDirections[c] = (byte) direction;
+		if (direction == NOT_PLACED) {
+			// an empty box, no cell is visited until the next PLACE
+			minX[c] = Integer.MAX_VALUE;
+			minY[c] = Integer.MAX_VALUE;
+			maxX[c] = Integer.MIN_VALUE;
+			maxY[c] = Integer.MIN_VALUE;
+		} else {
+			minX[c] = x;
+			minY[c] = y;
+			maxX[c] = x;
+			maxY[c] = y;
+		}
+	}
+
+	/**
+	 * @return the index of the last checkpoint at or before the step
+	 */
+	private int checkpointOf(long step) {
+		int c = Arrays.binarySearch(checkpointSteps, 0, checkpoints, step);
+		return c >= 0 ? c : -c - 2;
+	}
+
+	private int code(long step) {
+		long index = step - 1;
+		int offset = (int) (index & (PAGE_STEPS - 1));
+		return (int) (pages[(int) (index >>> PAGE_SHIFT)][offset >>> 5] >>> ((offset & 31) << 1)) & 3;
+	}
+}
@@ -0,0 +1,285 @@
+package com.ie.pacman.journal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of records, split into segment files named after the
+ * sequence number of their first record. Every record is framed by its length
+ * and followed by its CRC32, so that a record torn by a crash is detected and
+ * dropped on recovery. <br>
+ * Appending only copies the record into a buffer and assigns it a sequence
+ * number. {@link #commit(long)} makes the records durable with group commit:
+ * the first thread to commit writes and forces everything appended so far,
+ * while the threads arriving meanwhile wait for it and are then usually
+ * covered by its batch or by a single next one. A single fsync thus covers the
+ * records of many sessions.
+ */
+final class Journal implements Closeable {
+
+	/**
+	 * Receives the records of a replay. The buffer is only valid during the call.
+	 */
+	interface RecordHandler {
+		void onRecord(long seq, ByteBuffer record) throws IOException;
+	}
+
+	static final String SEGMENT_PREFIX = "journal-";
+	static final String SEGMENT_SUFFIX = ".log";
+
+	private static final int INITIAL_BUFFER_SIZE = 1 << 16;
+	// length before and checksum after every record
+	private static final int FRAME_OVERHEAD = 8;
+
+	private final Path dir;
+	private final boolean force;
+	private final Object commitLock = new Object();
+	private final CRC32 crc = new CRC32();
+
+	// guarded by this
+	private FileChannel channel;
+	private ByteBuffer pending = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+	private long nextSeq;
+	// guarded by commitLock
+	private ByteBuffer spare = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+	private IOException failure;
+
+	private volatile long durableSeq;
+
+	/**
+	 * Opens a new segment for the records from the given sequence number on
+	 *
+	 * @param dir     of the segments
+	 * @param nextSeq sequence number of the next record
+	 * @param force   whether commits are forced to the storage device
+	 */
+	Journal(Path dir, long nextSeq, boolean force) throws IOException {
+		this.dir = dir;
+		this.force = force;
+		this.nextSeq = nextSeq;
+		this.durableSeq = nextSeq - 1;
+		this.channel = openSegment(nextSeq);
+	}
+
+	/**
+	 * Appends a record, not durable until committed
+	 *
+	 * @return the sequence number of the record
+	 */
+	synchronized long append(byte[] record, int offset, int length) {
+		if (pending.remaining() < length + FRAME_OVERHEAD) {
+			ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + length
+					+ FRAME_OVERHEAD));
+			pending.flip();
+			larger.put(pending);
+			pending = larger;
+		}
+		crc.reset();
+		crc.update(record, offset, length);
+		pending.putInt(length);
+		pending.put(record, offset, length);
+		pending.putInt((int) crc.getValue());
+		return nextSeq++;
+	}
+
+	/**
+	 * Waits until the given record, and all the records before it, are durable
+	 *
+	 * @param seq sequence number of the record
+	 * @throws IOException if the records cannot be written
+	 */
+	void commit(long seq) throws IOException {
+		if (durableSeq >= seq) {
+			return;
+		}
+		synchronized (commitLock) {
+			if (durableSeq >= seq) {
+				return; // committed by the batch of another thread
+			}
+			if (failure != null) {
+				throw new IOException("journal failed", failure);
+			}
+			ByteBuffer batch;
+			long last;
+			FileChannel ch;
+			synchronized (this) {
+				batch = pending;
+				pending = spare;
+				spare = batch;
+				last = nextSeq - 1;
+				ch = channel;
+			}
+			try {
+				write(batch, ch);
+			} catch (IOException e) {
+				failure = e;
+				throw e;
+			}
+			durableSeq = last;
+		}
+	}
+
+	/**
+	 * Commits all the records and starts a new segment
+	 *
+	 * @return the sequence number of the first record of the new segment
+	 */
+	long rotate() throws IOException {
+		synchronized (commitLock) {
+			synchronized (this) {
+				if (failure != null) {
+					throw new IOException("journal failed", failure);
+				}
+				write(pending, channel);
+				channel.close();
+				channel = openSegment(nextSeq);
+				durableSeq = nextSeq - 1;
+				return nextSeq;
+			}
+		}
+	}
+
+	/**
+	 * Deletes the segments holding only records before the given sequence number
+	 */
+	void deleteBefore(long seq) throws IOException {
+		List<Long> segments = segments(dir);
+		for (int i = 0; i + 1 < segments.size() && segments.get(i + 1) <= seq; i++) {
+			Files.deleteIfExists(segmentPath(dir, segments.get(i)));
+		}
+	}
+
+	/**
+	 * Commits all the records and closes the journal
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (commitLock) {
+			synchronized (this) {
+				try {
+					if (failure == null) {
+						write(pending, channel);
+					}
+				} finally {
+					channel.close();
+				}
+			}
+		}
+	}
+
+	private void write(ByteBuffer batch, FileChannel ch) throws IOException {
+		batch.flip();
+		boolean written = batch.hasRemaining();
+		while (batch.hasRemaining()) {
+			ch.write(batch);
+		}
+		batch.clear();
+		if (written && force) {
+			ch.force(false);
+		}
+	}
+
+	private FileChannel openSegment(long firstSeq) throws IOException {
+		return FileChannel.open(segmentPath(dir, firstSeq), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	/**
+	 * Hands the records from the given sequence number on to the handler. A
+	 * torn record at the end of the last segment is truncated, along with
+	 * anything after it.
+	 *
+	 * @param dir     of the segments
+	 * @param fromSeq sequence number of the first record to hand over
+	 * @param handler
+	 * @return the sequence number following the last record
+	 * @throws IOException if a record is missing or corrupt
+	 */
+	static long replay(Path dir, long fromSeq, RecordHandler handler) throws IOException {
+		List<Long> segments = segments(dir);
+		long seq = fromSeq;
+		for (int i = 0; i < segments.size(); i++) {
+			long first = segments.get(i);
+			boolean last = i + 1 == segments.size();
+			if (!last && segments.get(i + 1) <= fromSeq) {
+				continue; // covered by the snapshot
+			}
+			if (first > seq) {
+				throw new IOException("missing journal records " + seq + " to " + (first - 1));
+			}
+			Path path = segmentPath(dir, first);
+			ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(path));
+			seq = first;
+			CRC32 crc = new CRC32();
+			while (buf.hasRemaining()) {
+				int start = buf.position();
+				ByteBuffer record = nextRecord(buf, crc);
+				if (record == null) {
+					if (!last) {
+						throw new IOException("corrupt journal segment " + path + " at " + start);
+					}
+					try (FileChannel ch = FileChannel.open(path, StandardOpenOption.WRITE)) {
+						ch.truncate(start); // torn by a crash
+					}
+					break;
+				}
+				if (seq >= fromSeq) {
+					handler.onRecord(seq, record);
+				}
+				seq++;
+			}
+		}
+		return Math.max(seq, fromSeq);
+	}
+
+	/**
+	 * @return the next record, or null if it is torn
+	 */
+	private static ByteBuffer nextRecord(ByteBuffer buf, CRC32 crc) {
+		if (buf.remaining() < FRAME_OVERHEAD) {
+			return null;
+		}
+		int length = buf.getInt();
+		if (length < 0 || length > buf.remaining() - 4) {
+			return null;
+		}
+		crc.reset();
+		crc.update(buf.array(), buf.position(), length);
+		ByteBuffer record = ByteBuffer.wrap(buf.array(), buf.position(), length).slice();
+		buf.position(buf.position() + length);
+		if (buf.getInt() != (int) crc.getValue()) {
+			return null;
+		}
+		return record;
+	}
+
+	static Path segmentPath(Path dir, long firstSeq) {
+		return dir.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstSeq, SEGMENT_SUFFIX));
+	}
+
+	/**
+	 * @return the first sequence numbers of the segments, in order
+	 */
+	static List<Long> segments(Path dir) throws IOException {
+		List<Long> segments = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				segments.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length()
+						- SEGMENT_SUFFIX.length())));
+			}
+		}
+		Collections.sort(segments);
+		return segments;
+	}
+}
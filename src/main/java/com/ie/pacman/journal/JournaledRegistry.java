@@ -0,0 +1,714 @@
+package com.ie.pacman.journal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import com.ie.pacman.engine.Command;
+import com.ie.pacman.engine.PacmanEngine;
+import com.ie.pacman.engine.PacmanListener;
+import com.ie.pacman.engine.PacmanSession;
+import com.ie.pacman.engine.PacmanSessionRegistry;
+import com.ie.pacman.model.Grid;
+import com.ie.pacman.model.Pacman.Direction;
+import com.ie.pacman.model.Pellets;
+
+/**
+ * Crash safe sessions: a {@link PacmanSessionRegistry} whose sessions are
+ * written ahead to a {@link Journal} in a directory, and restored from it when
+ * the registry is opened again. <br>
+ * Only the changes of Pacman are journaled, as compact binary records: a PLACE
+ * with its coordinates, or a single byte for a MOVE or a turn, and the lines
+ * of the DEFINE commands. Reports and rejected or malformed commands are not
+ * journaled. The pellets a session eats are eaten again as its moves are
+ * replayed, and written with its state to the snapshots. A command processed
+ * through {@link #processInstruction(String, String)} returns once its changes
+ * are durable, the fsyncs being shared by all the sessions committing at the
+ * same time. <br>
+ * Every {@code snapshotInterval} records, the state of all the sessions, grids
+ * included, is written to a snapshot and the journal segments it covers are
+ * deleted. Recovery loads the latest snapshot and replays only the journal
+ * records that follow it, so the restart time is bounded by the snapshot
+ * interval rather than by the age of the sessions. <br>
+ * Sessions must be created and removed through this class. Changes to the
+ * blocked cells of a grid after a session is created on it are not journaled.
+ *
+ * @see #open(Path, PacmanSessionRegistry, long)
+ */
+public class JournaledRegistry implements Closeable {
+
+	/** Default number of journal records between two snapshots */
+	public static final long DEFAULT_SNAPSHOT_INTERVAL = 1 << 20;
+
+	static final String SNAPSHOT_PREFIX = "snapshot-";
+	static final String SNAPSHOT_SUFFIX = ".snap";
+	private static final String TMP_SUFFIX = ".tmp";
+	private static final int SNAPSHOT_MAGIC = 0x50414353;
+	private static final int SNAPSHOT_VERSION = 3;
+	// snapshot versions without the pellets of the sessions, and without their
+	// macros either
+	private static final int SNAPSHOT_VERSION_2 = 2;
+	private static final int SNAPSHOT_VERSION_1 = 1;
+
+	private static final byte OP_GRID = 1;
+	private static final byte OP_OPEN = 2;
+	private static final byte OP_CLOSE = 3;
+	private static final byte OP_PLACE = 4;
+	private static final byte OP_MOVE = 5;
+	private static final byte OP_LEFT = 6;
+	private static final byte OP_RIGHT = 7;
+	private static final byte OP_RESET = 8;
+	private static final byte OP_DEFINE = 9;
+	private static final byte NOT_PLACED = -1;
+	private static final Direction[] DIRECTIONS = Direction.values();
+
+	private final Path dir;
+	private final PacmanSessionRegistry registry;
+	private final long snapshotInterval;
+	private final Map<String, Tracked> tracked = new ConcurrentHashMap<>();
+	// grids defined in the current journal segment
+	private final Map<Grid, Integer> gridHandles = new IdentityHashMap<>();
+	private final AtomicInteger nextHandle = new AtomicInteger();
+	private final AtomicInteger nextGridHandle = new AtomicInteger();
+	// creations and removals are atomic with respect to a rotation
+	private final ReentrantReadWriteLock rotation = new ReentrantReadWriteLock();
+	private final ReentrantLock snapshotLock = new ReentrantLock();
+
+	// null while recovering
+	private Journal journal;
+	private volatile long snapshotSeq;
+
+	private JournaledRegistry(Path dir, PacmanSessionRegistry registry, long snapshotInterval) {
+		this.dir = dir;
+		this.registry = registry;
+		this.snapshotInterval = snapshotInterval;
+	}
+
+	/**
+	 * Opens the journal in the given directory with a new registry and default
+	 * settings, restoring the sessions it holds
+	 *
+	 * @param dir of the journal, created if needed
+	 * @return the registry of the restored sessions
+	 * @throws IOException
+	 */
+	public static JournaledRegistry open(Path dir) throws IOException {
+		return open(dir, new PacmanSessionRegistry(), DEFAULT_SNAPSHOT_INTERVAL);
+	}
+
+	/**
+	 * Opens the journal in the given directory, restoring the sessions it holds
+	 * into the given registry
+	 *
+	 * @param dir              of the journal, created if needed
+	 * @param registry         where the sessions are restored and created
+	 * @param snapshotInterval number of journal records between two snapshots,
+	 *                         or 0 to only take them on {@link #snapshot()}
+	 * @return the registry of the restored sessions
+	 * @throws IOException if the journal cannot be read
+	 */
+	public static JournaledRegistry open(Path dir, PacmanSessionRegistry registry, long snapshotInterval)
+			throws IOException {
+		if (registry == null) {
+			throw new IllegalArgumentException("registry must not be null");
+		}
+		if (snapshotInterval < 0) {
+			throw new IllegalArgumentException("snapshotInterval must not be negative: " + snapshotInterval);
+		}
+		Files.createDirectories(dir);
+		JournaledRegistry journaled = new JournaledRegistry(dir, registry, snapshotInterval);
+		journaled.recover();
+		return journaled;
+	}
+
+	/**
+	 * @return the registry holding the sessions
+	 */
+	public PacmanSessionRegistry getRegistry() {
+		return registry;
+	}
+
+	/**
+	 * Creates a new journaled session with its own grid
+	 *
+	 * @see #create(String, Grid)
+	 */
+	public PacmanSession create(String id, int unitsX, int unitsY) throws IOException {
+		return create(id, new Grid(unitsX, unitsY));
+	}
+
+	/**
+	 * Creates a new journaled session on the given grid, and waits until its
+	 * creation is durable
+	 *
+	 * @param id   of the session
+	 * @param grid of the session
+	 * @return the new session
+	 * @throws IllegalStateException if a session with this id already exists
+	 * @throws IOException           if the journal cannot be written
+	 */
+	public PacmanSession create(String id, Grid grid) throws IOException {
+		Tracked t;
+		rotation.readLock().lock();
+		try {
+			t = new Tracked(nextHandle.getAndIncrement(), registry.create(id, grid));
+			synchronized (t.session) {
+				int gridHandle = gridHandle(grid);
+				byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+				ByteBuffer record = ByteBuffer.allocate(9 + idBytes.length);
+				record.put(OP_OPEN).putInt(t.handle).putInt(gridHandle).put(idBytes);
+				t.lastSeq = journal.append(record.array(), 0, record.position());
+				tracked.put(id, t);
+				t.session.getEngine().setListener(t);
+			}
+		} finally {
+			rotation.readLock().unlock();
+		}
+		journal.commit(t.lastSeq);
+		return t.session;
+	}
+
+	/**
+	 * @param id of the session
+	 * @return the session with the given id, or null if there is none
+	 */
+	public PacmanSession get(String id) {
+		return registry.get(id);
+	}
+
+	/**
+	 * Removes a session, and waits until its removal is durable
+	 *
+	 * @param id of the session
+	 * @return false if there was no such session
+	 * @throws IOException if the journal cannot be written
+	 */
+	public boolean remove(String id) throws IOException {
+		long seq;
+		rotation.readLock().lock();
+		try {
+			Tracked t = tracked.remove(id);
+			if (t == null) {
+				return false;
+			}
+			registry.remove(id);
+			synchronized (t.session) {
+				t.session.getEngine().setListener(null);
+				t.record(OP_CLOSE);
+				seq = t.lastSeq;
+			}
+		} finally {
+			rotation.readLock().unlock();
+		}
+		journal.commit(seq);
+		return true;
+	}
+
+	/**
+	 * Process an instruction for a session and return the result once the
+	 * changes it made are durable.
+	 *
+	 * @param id  of the session
+	 * @param cmd line of instruction
+	 * @return result of the command or null if no more commands are to be accepted
+	 * @throws IllegalArgumentException if there is no such session
+	 * @throws IOException              if the journal cannot be written
+	 * @see PacmanSession#processInstruction(String)
+	 */
+	public String processInstruction(String id, String cmd) throws IOException {
+		PacmanSession session = registry.get(id);
+		Tracked t = tracked.get(id);
+		if (session == null || t == null) {
+			throw new IllegalArgumentException("unknown session: " + id);
+		}
+		String result;
+		long seq;
+		synchronized (session) {
+			result = session.processInstruction(cmd);
+			seq = t.lastSeq;
+		}
+		journal.commit(seq);
+		if (snapshotInterval > 0 && seq - snapshotSeq >= snapshotInterval && snapshotLock.tryLock()) {
+			try {
+				if (seq - snapshotSeq >= snapshotInterval) {
+					takeSnapshot();
+				}
+			} finally {
+				snapshotLock.unlock();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Writes a snapshot of all the sessions and deletes the journal segments it
+	 * covers
+	 *
+	 * @throws IOException
+	 */
+	public void snapshot() throws IOException {
+		snapshotLock.lock();
+		try {
+			takeSnapshot();
+		} finally {
+			snapshotLock.unlock();
+		}
+	}
+
+	/**
+	 * Commits the journal and closes it. The sessions are left in the registry
+	 * but are no longer journaled.
+	 */
+	@Override
+	public void close() throws IOException {
+		rotation.writeLock().lock();
+		try {
+			for (Tracked t : tracked.values()) {
+				synchronized (t.session) {
+					t.session.getEngine().setListener(null);
+				}
+			}
+			journal.close();
+		} finally {
+			rotation.writeLock().unlock();
+		}
+	}
+
+	private int gridHandle(Grid grid) {
+		synchronized (gridHandles) {
+			Integer handle = gridHandles.get(grid);
+			if (handle == null) {
+				handle = nextGridHandle.getAndIncrement();
+				long[] words = blockedWords(grid);
+				ByteBuffer record = ByteBuffer.allocate(17 + words.length * 8);
+				record.put(OP_GRID).putInt(handle).putInt(grid.getUnitsX()).putInt(grid.getUnitsY())
+						.putInt(words.length);
+				for (long word : words) {
+					record.putLong(word);
+				}
+				journal.append(record.array(), 0, record.position());
+				gridHandles.put(grid, handle);
+			}
+			return handle;
+		}
+	}
+
+	private void takeSnapshot() throws IOException {
+		long seq;
+		rotation.writeLock().lock();
+		try {
+			seq = journal.rotate();
+			synchronized (gridHandles) {
+				gridHandles.clear(); // defined again in the new segment when used
+			}
+		} finally {
+			rotation.writeLock().unlock();
+		}
+
+		Path tmp = dir.resolve(SNAPSHOT_PREFIX + seq + TMP_SUFFIX);
+		try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			CheckedOutputStream checked = new CheckedOutputStream(
+					new BufferedOutputStream(Channels.newOutputStream(channel)), new CRC32());
+			DataOutputStream out = new DataOutputStream(checked);
+			writeSnapshot(seq, out);
+			out.flush();
+			out.writeLong(checked.getChecksum().getValue());
+			out.flush();
+			channel.force(true);
+		}
+		Files.move(tmp, snapshotPath(seq), StandardCopyOption.ATOMIC_MOVE);
+		snapshotSeq = seq;
+
+		for (long older : snapshots()) {
+			if (older < seq) {
+				Files.deleteIfExists(snapshotPath(older));
+			}
+		}
+		journal.deleteBefore(seq);
+	}
+
+	private void writeSnapshot(long seq, DataOutputStream out) throws IOException {
+		out.writeInt(SNAPSHOT_MAGIC);
+		out.writeInt(SNAPSHOT_VERSION);
+		out.writeLong(seq);
+		out.writeInt(nextHandle.get());
+		out.writeInt(nextGridHandle.get());
+
+		Map<Grid, Integer> grids = new IdentityHashMap<>();
+		List<Tracked> sessions = new ArrayList<>(tracked.values());
+		int[] gridIndexes = new int[sessions.size()];
+		for (int i = 0; i < sessions.size(); i++) {
+			Grid grid = sessions.get(i).session.getEngine().getGrid();
+			Integer index = grids.get(grid);
+			if (index == null) {
+				index = grids.size();
+				grids.put(grid, index);
+			}
+			gridIndexes[i] = index;
+		}
+		Grid[] ordered = new Grid[grids.size()];
+		for (Map.Entry<Grid, Integer> e : grids.entrySet()) {
+			ordered[e.getValue()] = e.getKey();
+		}
+		out.writeInt(ordered.length);
+		for (Grid grid : ordered) {
+			out.writeInt(grid.getUnitsX());
+			out.writeInt(grid.getUnitsY());
+			long[] words = blockedWords(grid);
+			out.writeInt(words.length);
+			for (long word : words) {
+				out.writeLong(word);
+			}
+		}
+
+		out.writeInt(sessions.size());
+		for (int i = 0; i < sessions.size(); i++) {
+			Tracked t = sessions.get(i);
+			long lastSeq;
+			byte direction;
+			int x;
+			int y;
+			List<String> definitions;
+			ByteArrayOutputStream eaten = new ByteArrayOutputStream();
+			synchronized (t.session) {
+				lastSeq = t.lastSeq;
+				direction = t.placed ? (byte) t.direction.ordinal() : NOT_PLACED;
+				x = t.x;
+				y = t.y;
+				definitions = t.session.getEngine().getDefinitions();
+				Pellets pellets = t.session.getEngine().getPellets();
+				if (pellets != null) {
+					pellets.writeEaten(new DataOutputStream(eaten));
+				}
+			}
+			out.writeInt(t.handle);
+			out.writeUTF(t.session.getId());
+			out.writeInt(gridIndexes[i]);
+			out.writeLong(lastSeq);
+			out.writeByte(direction);
+			out.writeInt(x);
+			out.writeInt(y);
+			out.writeInt(definitions.size());
+			for (String line : definitions) {
+				byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+			out.writeBoolean(eaten.size() > 0);
+			eaten.writeTo(out);
+		}
+	}
+
+	private void recover() throws IOException {
+		Map<Integer, Tracked> byHandle = new HashMap<>();
+		Map<Integer, Grid> grids = new HashMap<>();
+		long latest = -1;
+		for (long seq : snapshots()) {
+			latest = Math.max(latest, seq);
+		}
+		if (latest >= 0) {
+			readSnapshot(snapshotPath(latest), byHandle);
+			snapshotSeq = latest;
+		}
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, SNAPSHOT_PREFIX + "*" + TMP_SUFFIX)) {
+			for (Path file : files) {
+				Files.delete(file); // interrupted snapshot
+			}
+		}
+
+		long nextSeq = Journal.replay(dir, snapshotSeq, (seq, record) -> {
+			byte op = record.get();
+			if (op == OP_GRID) {
+				int gridHandle = record.getInt();
+				int unitsX = record.getInt();
+				int unitsY = record.getInt();
+				long[] words = new long[record.getInt()];
+				for (int i = 0; i < words.length; i++) {
+					words[i] = record.getLong();
+				}
+				grids.put(gridHandle, newGrid(unitsX, unitsY, words));
+				nextGridHandle.set(Math.max(nextGridHandle.get(), gridHandle + 1));
+				return;
+			}
+			int handle = record.getInt();
+			Tracked t = byHandle.get(handle);
+			if (op == OP_OPEN) {
+				if (t == null) {
+					Grid grid = grids.get(record.getInt());
+					String id = new String(record.array(), record.arrayOffset() + record.position(),
+							record.remaining(), StandardCharsets.UTF_8);
+					if (grid == null) {
+						throw new IOException("unknown grid of session " + id + " in journal record " + seq);
+					}
+					t = restore(handle, id, grid, seq);
+					byHandle.put(handle, t);
+				}
+				return;
+			}
+			if (t == null || seq <= t.lastSeq) {
+				return; // removed, or already in the snapshot
+			}
+			t.lastSeq = seq;
+			PacmanEngine engine = t.session.getEngine();
+			switch (op) {
+			case OP_CLOSE:
+				byHandle.remove(handle);
+				tracked.remove(t.session.getId());
+				registry.remove(t.session.getId());
+				break;
+			case OP_PLACE:
+				engine.place(record.getInt(), record.getInt(), DIRECTIONS[record.get()]);
+				break;
+			case OP_MOVE:
+				engine.move();
+				break;
+			case OP_LEFT:
+				engine.turnLeft();
+				break;
+			case OP_RIGHT:
+				engine.turnRight();
+				break;
+			case OP_RESET:
+				engine.reset();
+				break;
+			case OP_DEFINE:
+				engine.processInstruction(new String(record.array(), record.arrayOffset() + record.position(),
+						record.remaining(), StandardCharsets.UTF_8));
+				break;
+			default:
+				throw new IOException("unknown journal record " + op + " at " + seq);
+			}
+		});
+
+		// the restored state is journaled from now on
+		journal = new Journal(dir, nextSeq, true);
+	}
+
+	private void readSnapshot(Path path, Map<Integer, Tracked> byHandle) throws IOException {
+		try (CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(Files.newInputStream(path)),
+				new CRC32())) {
+			DataInputStream in = new DataInputStream(checked);
+			if (in.readInt() != SNAPSHOT_MAGIC) {
+				throw new IOException("not a snapshot: " + path);
+			}
+			int version = in.readInt();
+			if (version != SNAPSHOT_VERSION && version != SNAPSHOT_VERSION_2 && version != SNAPSHOT_VERSION_1) {
+				throw new IOException("unknown snapshot version " + version + ": " + path);
+			}
+			in.readLong();
+			nextHandle.set(in.readInt());
+			nextGridHandle.set(in.readInt());
+			Grid[] grids = new Grid[in.readInt()];
+			for (int i = 0; i < grids.length; i++) {
+				int unitsX = in.readInt();
+				int unitsY = in.readInt();
+				long[] words = new long[in.readInt()];
+				for (int w = 0; w < words.length; w++) {
+					words[w] = in.readLong();
+				}
+				grids[i] = newGrid(unitsX, unitsY, words);
+			}
+			int sessions = in.readInt();
+			for (int i = 0; i < sessions; i++) {
+				int handle = in.readInt();
+				String id = in.readUTF();
+				Grid grid = grids[in.readInt()];
+				long lastSeq = in.readLong();
+				byte direction = in.readByte();
+				int x = in.readInt();
+				int y = in.readInt();
+				Tracked t = restore(handle, id, grid, lastSeq);
+				if (direction != NOT_PLACED) {
+					t.session.getEngine().place(x, y, DIRECTIONS[direction]);
+				}
+				int definitions = version == SNAPSHOT_VERSION_1 ? 0 : in.readInt();
+				for (int d = 0; d < definitions; d++) {
+					byte[] line = new byte[in.readInt()];
+					in.readFully(line);
+					t.session.getEngine().processInstruction(new String(line, StandardCharsets.UTF_8));
+				}
+				if (version == SNAPSHOT_VERSION && in.readBoolean()) {
+					Pellets pellets = t.session.getEngine().getPellets();
+					if (pellets == null) {
+						// restored into a registry without pellets
+						pellets = new Pellets(grid.getUnitsX(), grid.getUnitsY());
+					}
+					pellets.readEaten(in);
+				}
+				byHandle.put(handle, t);
+			}
+			long checksum = checked.getChecksum().getValue();
+			if (in.readLong() != checksum) {
+				throw new IOException("corrupt snapshot: " + path);
+			}
+		}
+	}
+
+	private Tracked restore(int handle, String id, Grid grid, long seq) {
+		Tracked t = new Tracked(handle, registry.create(id, grid));
+		t.lastSeq = seq;
+		t.session.getEngine().setListener(t);
+		tracked.put(id, t);
+		nextHandle.set(Math.max(nextHandle.get(), handle + 1));
+		return t;
+	}
+
+	private List<Long> snapshots() throws IOException {
+		List<Long> snapshots = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, SNAPSHOT_PREFIX + "*" + SNAPSHOT_SUFFIX)) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				snapshots.add(Long.parseLong(name.substring(SNAPSHOT_PREFIX.length(), name.length()
+						- SNAPSHOT_SUFFIX.length())));
+			}
+		}
+		return snapshots;
+	}
+
+	private Path snapshotPath(long seq) {
+		return dir.resolve(SNAPSHOT_PREFIX + seq + SNAPSHOT_SUFFIX);
+	}
+
+	/**
+	 * @return the blocked cells of the grid as a row major bitset, empty if there
+	 *         are none
+	 */
+	private static long[] blockedWords(Grid grid) {
+		if (!grid.hasObstacles()) {
+			return new long[0];
+		}
+		int unitsX = grid.getUnitsX();
+		long cells = (long) unitsX * grid.getUnitsY();
+		long[] words = new long[(int) ((cells + 63) >>> 6)];
+		for (long cell = 0; cell < cells; cell++) {
+			if (grid.isBlocked((int) (cell % unitsX), (int) (cell / unitsX))) {
+				words[(int) (cell >>> 6)] |= 1L << cell;
+			}
+		}
+		return words;
+	}
+
+	private static Grid newGrid(int unitsX, int unitsY, long[] words) {
+		Grid grid = new Grid(unitsX, unitsY);
+		for (int w = 0; w < words.length; w++) {
+			for (long bits = words[w]; bits != 0; bits &= bits - 1) {
+				long cell = ((long) w << 6) + Long.numberOfTrailingZeros(bits);
+				grid.block((int) (cell % unitsX), (int) (cell / unitsX));
+			}
+		}
+		return grid;
+	}
+
+	/**
+	 * The journaled state of a session, guarded by the session lock
+	 */
+	private final class Tracked implements PacmanListener {
+
+		final int handle;
+		final PacmanSession session;
+		final byte[] scratch = new byte[14];
+		long lastSeq = -1;
+		boolean placed;
+		int x;
+		int y;
+		Direction direction;
+
+		Tracked(int handle, PacmanSession session) {
+			this.handle = handle;
+			this.session = session;
+		}
+
+		@Override
+		public void onChange(Command command, int x, int y, Direction direction) {
+			this.placed = true;
+			this.x = x;
+			this.y = y;
+			this.direction = direction;
+			switch (command) {
+			case PLACE:
+				header(OP_PLACE);
+				putInt(5, x);
+				putInt(9, y);
+				scratch[13] = (byte) direction.ordinal();
+				append(14);
+				break;
+			case MOVE:
+				record(OP_MOVE);
+				break;
+			case LEFT:
+				record(OP_LEFT);
+				break;
+			case RIGHT:
+				record(OP_RIGHT);
+				break;
+			default:
+				break;
+			}
+		}
+
+		@Override
+		public void onReset() {
+			placed = false;
+			record(OP_RESET);
+		}
+
+		@Override
+		public void onDefine(String line) {
+			if (journal != null) {
+				byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+				ByteBuffer record = ByteBuffer.allocate(5 + bytes.length);
+				record.put(OP_DEFINE).putInt(handle).put(bytes);
+				lastSeq = journal.append(record.array(), 0, record.position());
+			}
+		}
+
+		void record(byte op) {
+			header(op);
+			append(5);
+		}
+
+		private void header(byte op) {
+			scratch[0] = op;
+			putInt(1, handle);
+		}
+
+		private void putInt(int offset, int value) {
+			scratch[offset] = (byte) (value >>> 24);
+			scratch[offset + 1] = (byte) (value >>> 16);
+			scratch[offset + 2] = (byte) (value >>> 8);
+			scratch[offset + 3] = (byte) value;
+		}
+
+		private void append(int length) {
+			if (journal != null) { // changes replayed while recovering are already journaled
+				lastSeq = journal.append(scratch, 0, length);
+			}
+		}
+	}
+}
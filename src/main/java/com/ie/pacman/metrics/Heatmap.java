@@ -0,0 +1,303 @@
+package com.ie.pacman.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts, for every cell of a grid, how many times Pacman entered it, by a
+ * PLACE or a MOVE, and how many moves were rejected from it, off the grid or
+ * into a blocked cell. A heatmap can be shared by all the engines of a grid.
+ * <br>
+ * The counters are striped over a few arrays chosen by the recording thread,
+ * so that threads recording at the same time rarely write to the same counters.
+ * Recording does not allocate and does not lock. A {@link #snapshot()} sums
+ * the stripes without stopping the recording threads, so it may miss the
+ * counts recorded meanwhile, but never counts anything twice. Every stripe
+ * holds 2 longs per cell, so there are at most {@value #MAX_STRIPES} of them
+ * whatever the number of processors. <br>
+ * Cells outside of the heatmap are ignored.
+ *
+ * @see com.ie.pacman.engine.PacmanEngine#setHeatmap(Heatmap)
+ */
+public final class Heatmap {
+
+	/** Maximum number of stripes of a heatmap */
+	public static final int MAX_STRIPES = 8;
+
+	private static final byte[] MAGIC = { 'P', 'A', 'C', 'H' };
+	private static final String CSV_HEADER = "x,y,visits,rejected\n";
+
+	private final int unitsX;
+	private final int unitsY;
+	// visits and rejected moves by (y * unitsX + x) * 2
+	private final AtomicLongArray[] stripes;
+	private final int mask;
+
+	/**
+	 * Create a heatmap with a stripe per processor, up to {@value #MAX_STRIPES}
+	 *
+	 * @param unitsX width of the grid
+	 * @param unitsY height of the grid
+	 */
+	public Heatmap(int unitsX, int unitsY) {
+		this(unitsX, unitsY, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Create a heatmap
+	 *
+	 * @param unitsX  width of the grid
+	 * @param unitsY  height of the grid
+	 * @param stripes minimum number of stripes, rounded up to a power of two,
+	 *                and bounded by {@value #MAX_STRIPES}
+	 */
+	public Heatmap(int unitsX, int unitsY, int stripes) {
+		if (unitsX <= 0 || unitsY <= 0 || (long) unitsX * unitsY > Integer.MAX_VALUE / 2) {
+			throw new IllegalArgumentException("bad heatmap size: " + unitsX + "x" + unitsY);
+		}
+		if (stripes <= 0) {
+			throw new IllegalArgumentException("stripes must be positive: " + stripes);
+		}
+		int n = Integer.highestOneBit(Math.min(stripes, MAX_STRIPES));
+		if (n < stripes && n < MAX_STRIPES) {
+			n <<= 1;
+		}
+		this.unitsX = unitsX;
+		this.unitsY = unitsY;
+		this.stripes = new AtomicLongArray[n];
+		for (int i = 0; i < n; i++) {
+			this.stripes[i] = new AtomicLongArray(unitsX * unitsY * 2);
+		}
+		this.mask = n - 1;
+	}
+
+	/**
+	 * @return width of the grid
+	 */
+	public int getUnitsX() {
+		return unitsX;
+	}
+
+	/**
+	 * @return height of the grid
+	 */
+	public int getUnitsY() {
+		return unitsY;
+	}
+
+	/**
+	 * @return the number of stripes of the counters
+	 */
+	int getStripeCount() {
+		return stripes.length;
+	}
+
+	/**
+	 * Records that Pacman entered a cell
+	 *
+	 * @param x
+	 * @param y
+	 */
+	public void recordVisit(int x, int y) {
+		if (x >= 0 && x < unitsX && y >= 0 && y < unitsY) {
+			stripe().incrementAndGet((y * unitsX + x) << 1);
+		}
+	}
+
+	/**
+	 * Records moves rejected from a cell
+	 *
+	 * @param x
+	 * @param y
+	 * @param count of rejected moves
+	 */
+	public void recordRejectedMoves(int x, int y, int count) {
+		if (x >= 0 && x < unitsX && y >= 0 && y < unitsY) {
+			stripe().addAndGet(((y * unitsX + x) << 1) + 1, count);
+		}
+	}
+
+	/**
+	 * Clears all the counters. Counts recorded during the reset may or may not
+	 * be kept.
+	 */
+	public void reset() {
+		for (AtomicLongArray stripe : stripes) {
+			for (int i = 0; i < stripe.length(); i++) {
+				stripe.set(i, 0);
+			}
+		}
+	}
+
+	/**
+	 * @return a copy of the counters, not affected by later recordings
+	 */
+	public Snapshot snapshot() {
+		long[] counts = new long[unitsX * unitsY * 2];
+		for (AtomicLongArray stripe : stripes) {
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] += stripe.get(i);
+			}
+		}
+		return new Snapshot(unitsX, unitsY, counts);
+	}
+
+	private AtomicLongArray stripe() {
+		long id = Thread.currentThread().getId();
+		return stripes[(int) ((id * 0x9E3779B97F4A7C15L) >>> 40) & mask];
+	}
+
+	/**
+	 * An immutable copy of a heatmap
+	 */
+	public static final class Snapshot {
+
+		private final int unitsX;
+		private final int unitsY;
+		private final long[] counts;
+
+		Snapshot(int unitsX, int unitsY, long[] counts) {
+			this.unitsX = unitsX;
+			this.unitsY = unitsY;
+			this.counts = counts;
+		}
+
+		/**
+		 * @return width of the grid
+		 */
+		public int getUnitsX() {
+			return unitsX;
+		}
+
+		/**
+		 * @return height of the grid
+		 */
+		public int getUnitsY() {
+			return unitsY;
+		}
+
+		/**
+		 * @param x
+		 * @param y
+		 * @return the number of times Pacman entered the cell
+		 */
+		public long getVisits(int x, int y) {
+			return counts[index(x, y)];
+		}
+
+		/**
+		 * @param x
+		 * @param y
+		 * @return the number of moves rejected from the cell
+		 */
+		public long getRejectedMoves(int x, int y) {
+			return counts[index(x, y) + 1];
+		}
+
+		private int index(int x, int y) {
+			if (x < 0 || x >= unitsX || y < 0 || y >= unitsY) {
+				throw new IllegalArgumentException("cell out of the heatmap: " + x + "," + y);
+			}
+			return (y * unitsX + x) << 1;
+		}
+
+		/**
+		 * Writes the cells with any count as CSV lines "x,y,visits,rejected",
+		 * after a header line, row by row from 0,0
+		 *
+		 * @param out
+		 * @throws IOException
+		 */
+		public void writeCsv(Writer out) throws IOException {
+			out.write(CSV_HEADER);
+			StringBuilder line = new StringBuilder();
+			for (int i = 0; i < counts.length; i += 2) {
+				if (counts[i] == 0 && counts[i + 1] == 0) {
+					continue;
+				}
+				int cell = i >>> 1;
+				line.setLength(0);
+				line.append(cell % unitsX).append(',').append(cell / unitsX).append(',').append(counts[i])
+						.append(',').append(counts[i + 1]).append('\n');
+				out.append(line);
+			}
+			out.flush();
+		}
+
+		/**
+		 * Writes the snapshot as the 4 bytes "PACH", the width and the height as
+		 * ints, then the visits and the rejected moves of every cell as longs,
+		 * row by row from 0,0, all big endian.
+		 *
+		 * @param out not closed
+		 * @throws IOException
+		 * @see #readBinary(ReadableByteChannel)
+		 */
+		public void writeBinary(WritableByteChannel out) throws IOException {
+			ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+			buffer.put(MAGIC).putInt(unitsX).putInt(unitsY);
+			for (long count : counts) {
+				if (buffer.remaining() < Long.BYTES) {
+					drain(buffer, out);
+				}
+				buffer.putLong(count);
+			}
+			drain(buffer, out);
+		}
+
+		/**
+		 * Reads a snapshot written by {@link #writeBinary(WritableByteChannel)}
+		 *
+		 * @param in not closed
+		 * @return the snapshot
+		 * @throws IOException if it is not a heatmap or it is truncated
+		 */
+		public static Snapshot readBinary(ReadableByteChannel in) throws IOException {
+			ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 2 * Integer.BYTES);
+			fill(header, in);
+			for (byte b : MAGIC) {
+				if (header.get() != b) {
+					throw new IOException("not a heatmap: bad magic");
+				}
+			}
+			int unitsX = header.getInt();
+			int unitsY = header.getInt();
+			if (unitsX <= 0 || unitsY <= 0 || (long) unitsX * unitsY > Integer.MAX_VALUE / 2) {
+				throw new IOException("not a heatmap: bad size " + unitsX + "x" + unitsY);
+			}
+			long[] counts = new long[unitsX * unitsY * 2];
+			ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+			int i = 0;
+			while (i < counts.length) {
+				buffer.clear();
+				buffer.limit(Math.min(buffer.capacity(), (counts.length - i) * Long.BYTES));
+				fill(buffer, in);
+				while (buffer.hasRemaining()) {
+					counts[i++] = buffer.getLong();
+				}
+			}
+			return new Snapshot(unitsX, unitsY, counts);
+		}
+
+		private static void fill(ByteBuffer buffer, ReadableByteChannel in) throws IOException {
+			while (buffer.hasRemaining()) {
+				if (in.read(buffer) < 0) {
+					throw new IOException("truncated heatmap");
+				}
+			}
+			buffer.flip();
+		}
+
+		private static void drain(ByteBuffer buffer, WritableByteChannel out) throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				out.write(buffer);
+			}
+			buffer.clear();
+		}
+	}
+}
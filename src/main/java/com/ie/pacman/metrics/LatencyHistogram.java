@@ -0,0 +1,194 @@
+package com.ie.pacman.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A concurrent histogram of latencies in nanoseconds, with log-linear buckets
+ * in the manner of HdrHistogram: every power of two is split into 32 buckets,
+ * so a recorded value is known within about 3%. <br>
+ * The buckets are striped over a few arrays chosen by the recording thread, so
+ * that threads recording at the same time rarely write to the same counters.
+ * Recording does not allocate and does not lock. Values above about a minute
+ * fall in the last bucket, but the maximum is tracked exactly.
+ *
+ * @see #record(long)
+ * @see #snapshot()
+ */
+public final class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	// largest magnitude with its own buckets, 2^36 ns is about 68 seconds
+	private static final int MAX_MAGNITUDE = 36;
+	static final int BUCKETS = (MAX_MAGNITUDE - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+	private final AtomicLongArray[] stripes;
+	private final int mask;
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * Create a histogram with a stripe per processor
+	 */
+	public LatencyHistogram() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Create a histogram
+	 *
+	 * @param stripes minimum number of stripes, rounded up to a power of two
+	 */
+	public LatencyHistogram(int stripes) {
+		if (stripes <= 0) {
+			throw new IllegalArgumentException("stripes must be positive: " + stripes);
+		}
+		int n = Integer.highestOneBit(stripes);
+		if (n < stripes) {
+			n <<= 1;
+		}
+		this.stripes = new AtomicLongArray[n];
+		for (int i = 0; i < n; i++) {
+			this.stripes[i] = new AtomicLongArray(BUCKETS);
+		}
+		this.mask = n - 1;
+	}
+
+	/**
+	 * Records a latency
+	 *
+	 * @param nanos latency in nanoseconds, negative values are recorded as 0
+	 */
+	public void record(long nanos) {
+		long value = Math.max(nanos, 0);
+		stripe().incrementAndGet(indexOf(value));
+		sum.add(value);
+		max.accumulate(value);
+	}
+
+	/**
+	 * Clears all the recorded values. Values recorded during the reset may or
+	 * may not be kept.
+	 */
+	public void reset() {
+		for (AtomicLongArray stripe : stripes) {
+			for (int i = 0; i < BUCKETS; i++) {
+				stripe.set(i, 0);
+			}
+		}
+		sum.reset();
+		max.reset();
+	}
+
+	/**
+	 * @return a copy of the recorded values, not affected by later recordings
+	 */
+	public Snapshot snapshot() {
+		long[] counts = new long[BUCKETS];
+		for (AtomicLongArray stripe : stripes) {
+			for (int i = 0; i < BUCKETS; i++) {
+				counts[i] += stripe.get(i);
+			}
+		}
+		return new Snapshot(counts, sum.sum(), max.get());
+	}
+
+	private AtomicLongArray stripe() {
+		long id = Thread.currentThread().getId();
+		return stripes[(int) ((id * 0x9E3779B97F4A7C15L) >>> 40) & mask];
+	}
+
+	static int indexOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int magnitude = 63 - Long.numberOfLeadingZeros(value);
+		if (magnitude > MAX_MAGNITUDE) {
+			return BUCKETS - 1;
+		}
+		int shift = magnitude - SUB_BUCKET_BITS;
+		int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+		return (shift + 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * @return the highest value falling in the given bucket
+	 */
+	static long highestOf(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+	/**
+	 * An immutable copy of a histogram
+	 */
+	public static final class Snapshot {
+
+		private final long[] counts;
+		private final long count;
+		private final long sum;
+		private final long max;
+
+		Snapshot(long[] counts, long sum, long max) {
+			long total = 0;
+			for (long c : counts) {
+				total += c;
+			}
+			this.counts = counts;
+			this.count = total;
+			this.sum = sum;
+			this.max = max;
+		}
+
+		/**
+		 * @return the number of recorded values
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * @return the highest recorded value, or 0 if there is none
+		 */
+		public long getMax() {
+			return max;
+		}
+
+		/**
+		 * @return the mean of the recorded values, or 0 if there is none
+		 */
+		public double getMean() {
+			return count == 0 ? 0 : (double) sum / count;
+		}
+
+		/**
+		 * @param percentile between 0 and 100
+		 * @return the value that the given percentage of the recorded values are
+		 *         lower than or equal to, within the precision of the buckets, or 0
+		 *         if there is none
+		 */
+		public long getValueAtPercentile(double percentile) {
+			if (percentile < 0 || percentile > 100) {
+				throw new IllegalArgumentException("percentile must be between 0 and 100: " + percentile);
+			}
+			if (count == 0) {
+				return 0;
+			}
+			long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank) {
+					return Math.min(highestOf(i), max);
+				}
+			}
+			return max;
+		}
+	}
+}
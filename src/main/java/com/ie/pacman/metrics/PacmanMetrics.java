@@ -0,0 +1,257 @@
+package com.ie.pacman.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import com.ie.pacman.engine.Command;
+
+/**
+ * Counters and latencies of the commands processed by one or more engines:
+ * <ul>
+ * <li>the number of commands of every type, malformed ones being counted as
+ * {@link Command#UNKNOWN}
+ * <li>the number of PLACE commands rejected for being off the grid or on a
+ * blocked cell
+ * <li>the number of MOVE commands rejected for leaving the grid or running
+ * into a blocked cell, and of GOTO commands to cells that cannot be reached
+ * <li>the number of MOVE, GOTO, LEFT, RIGHT and REPORT commands ignored
+ * because Pacman is not placed yet
+ * <li>the latency of every processed instruction
+ * </ul>
+ * All the counters are striped, so a single instance can be shared by engines
+ * running on many threads, e.g. all the sessions of a
+ * {@link com.ie.pacman.engine.PacmanSessionRegistry}. Recording does not
+ * allocate once the stripes are created. <br>
+ * The metrics can be read directly, or through JMX once {@link #register(String)
+ * registered}.
+ *
+ * @see com.ie.pacman.engine.PacmanEngine#setMetrics(PacmanMetrics)
+ */
+public class PacmanMetrics implements PacmanMetricsMXBean {
+
+	/** Domain of the JMX object names */
+	public static final String JMX_DOMAIN = "com.ie.pacman";
+
+	private static final Command[] COMMANDS = Command.values();
+
+	private final LongAdder[] commands = new LongAdder[COMMANDS.length];
+	private final LongAdder rejectedPlacements = new LongAdder();
+	private final LongAdder rejectedMoves = new LongAdder();
+	private final LongAdder ignoredUnplaced = new LongAdder();
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	private ObjectName objectName;
+
+	/**
+	 * Create empty metrics
+	 */
+	public PacmanMetrics() {
+		for (int i = 0; i < commands.length; i++) {
+			commands[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Records a processed command
+	 *
+	 * @param command the type of the command
+	 */
+	public void recordCommand(Command command) {
+		commands[command.ordinal()].increment();
+	}
+
+	/**
+	 * Records a PLACE command rejected for invalid coordinates
+	 */
+	public void recordRejectedPlacement() {
+		rejectedPlacements.increment();
+	}
+
+	/**
+	 * Records a MOVE command rejected for leaving the grid or running into a
+	 * blocked cell
+	 */
+	public void recordRejectedMove() {
+		rejectedMoves.increment();
+	}
+
+	/**
+	 * Records a command ignored because Pacman is not placed yet
+	 */
+	public void recordIgnoredUnplaced() {
+		ignoredUnplaced.increment();
+	}
+
+	/**
+	 * Records the time spent processing an instruction
+	 *
+	 * @param nanos
+	 */
+	public void recordLatency(long nanos) {
+		latency.record(nanos);
+	}
+
+	/**
+	 * @param command the type of the command
+	 * @return the number of processed commands of this type
+	 */
+	public long getCommandCount(Command command) {
+		return commands[command.ordinal()].sum();
+	}
+
+	/**
+	 * @return a copy of the recorded instruction latencies
+	 */
+	public LatencyHistogram.Snapshot getLatency() {
+		return latency.snapshot();
+	}
+
+	@Override
+	public long getPlaceCount() {
+		return getCommandCount(Command.PLACE);
+	}
+
+	@Override
+	public long getMoveCount() {
+		return getCommandCount(Command.MOVE);
+	}
+
+	@Override
+	public long getLeftCount() {
+		return getCommandCount(Command.LEFT);
+	}
+
+	@Override
+	public long getRightCount() {
+		return getCommandCount(Command.RIGHT);
+	}
+
+	@Override
+	public long getGotoCount() {
+		return getCommandCount(Command.GOTO);
+	}
+
+	@Override
+	public long getReportCount() {
+		return getCommandCount(Command.REPORT);
+	}
+
+	@Override
+	public long getScoreCount() {
+		return getCommandCount(Command.SCORE);
+	}
+
+	@Override
+	public long getDefineCount() {
+		return getCommandCount(Command.DEFINE);
+	}
+
+	@Override
+	public long getRepeatCount() {
+		return getCommandCount(Command.REPEAT);
+	}
+
+	@Override
+	public long getQuitCount() {
+		return getCommandCount(Command.QUIT);
+	}
+
+	@Override
+	public long getMalformedCount() {
+		return getCommandCount(Command.UNKNOWN);
+	}
+
+	@Override
+	public long getRejectedPlacementCount() {
+		return rejectedPlacements.sum();
+	}
+
+	@Override
+	public long getRejectedMoveCount() {
+		return rejectedMoves.sum();
+	}
+
+	@Override
+	public long getIgnoredUnplacedCount() {
+		return ignoredUnplaced.sum();
+	}
+
+	@Override
+	public long getLatencyCount() {
+		return latency.snapshot().getCount();
+	}
+
+	@Override
+	public double getLatencyMean() {
+		return latency.snapshot().getMean();
+	}
+
+	@Override
+	public long getLatencyMedian() {
+		return latency.snapshot().getValueAtPercentile(50);
+	}
+
+	@Override
+	public long getLatency99thPercentile() {
+		return latency.snapshot().getValueAtPercentile(99);
+	}
+
+	@Override
+	public long getLatency999thPercentile() {
+		return latency.snapshot().getValueAtPercentile(99.9);
+	}
+
+	@Override
+	public long getLatencyMax() {
+		return latency.snapshot().getMax();
+	}
+
+	@Override
+	public void reset() {
+		for (LongAdder adder : commands) {
+			adder.reset();
+		}
+		rejectedPlacements.reset();
+		rejectedMoves.reset();
+		ignoredUnplaced.reset();
+		latency.reset();
+	}
+
+	/**
+	 * Registers these metrics with the platform MBean server, as
+	 * {@code com.ie.pacman:type=PacmanMetrics,name=<name>}
+	 *
+	 * @param name of the metrics, unique within the JVM
+	 * @throws IllegalStateException if the metrics cannot be registered
+	 */
+	public synchronized void register(String name) {
+		if (objectName != null) {
+			throw new IllegalStateException("metrics already registered as " + objectName);
+		}
+		try {
+			ObjectName on = new ObjectName(JMX_DOMAIN + ":type=PacmanMetrics,name=" + ObjectName.quote(name));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+			objectName = on;
+		} catch (JMException e) {
+			throw new IllegalStateException("cannot register metrics " + name, e);
+		}
+	}
+
+	/**
+	 * Unregisters these metrics from the platform MBean server, if registered
+	 */
+	public synchronized void unregister() {
+		if (objectName == null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+		} catch (JMException e) {
+			// already unregistered
+		}
+		objectName = null;
+	}
+}
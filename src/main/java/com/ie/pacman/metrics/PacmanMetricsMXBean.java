@@ -0,0 +1,52 @@
+package com.ie.pacman.metrics;
+
+/**
+ * The JMX view of {@link PacmanMetrics}. Latencies are in nanoseconds.
+ */
+public interface PacmanMetricsMXBean {
+
+	long getPlaceCount();
+
+	long getMoveCount();
+
+	long getLeftCount();
+
+	long getRightCount();
+
+	long getGotoCount();
+
+	long getReportCount();
+
+	long getScoreCount();
+
+	long getDefineCount();
+
+	long getRepeatCount();
+
+	long getQuitCount();
+
+	long getMalformedCount();
+
+	long getRejectedPlacementCount();
+
+	long getRejectedMoveCount();
+
+	long getIgnoredUnplacedCount();
+
+	long getLatencyCount();
+
+	double getLatencyMean();
+
+	long getLatencyMedian();
+
+	long getLatency99thPercentile();
+
+	long getLatency999thPercentile();
+
+	long getLatencyMax();
+
+	/**
+	 * Clears all the counters and latencies
+	 */
+	void reset();
+}
@@ -0,0 +1,200 @@
+package com.ie.pacman.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters and timings of a tick scheduler:
+ * <ul>
+ * <li>the number of ticks and the rate at which they actually run
+ * <li>the number of commands applied, waiting for the next tick, and rejected
+ * because a queue was full
+ * <li>the lag of the last tick behind its schedule, and the largest one
+ * <li>the distribution of the tick durations
+ * </ul>
+ * The metrics can be read directly, or through JMX once {@link #register(String)
+ * registered}.
+ *
+ * @see com.ie.pacman.engine.TickScheduler#getMetrics()
+ */
+public class TickMetrics implements TickMetricsMXBean {
+
+	// weight of the last interval in the tick rate
+	private static final double RATE_WEIGHT = 0.1;
+
+	private final LongAdder ticks = new LongAdder();
+	private final LongAdder commands = new LongAdder();
+	private final LongAdder queued = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	private final LatencyHistogram durations = new LatencyHistogram(1);
+
+	// only written by the thread running the ticks
+	private volatile long lag;
+	private volatile long maxLag;
+	private volatile double interval;
+	private long lastStart = -1;
+
+	private ObjectName objectName;
+
+	/**
+	 * Records a finished tick
+	 *
+	 * @param start    time the tick started at, in nanoseconds
+	 * @param duration of the tick in nanoseconds
+	 * @param lag      behind the time the tick was scheduled at, in nanoseconds
+	 */
+	public void recordTick(long start, long duration, long lag) {
+		ticks.increment();
+		durations.record(duration);
+		this.lag = lag;
+		if (lag > maxLag) {
+			maxLag = lag;
+		}
+		if (lastStart >= 0) {
+			long last = start - lastStart;
+			interval = interval == 0 ? last : interval + RATE_WEIGHT * (last - interval);
+		}
+		lastStart = start;
+	}
+
+	/**
+	 * Records a command waiting for the next tick
+	 */
+	public void recordQueued() {
+		queued.increment();
+	}
+
+	/**
+	 * Records commands applied by a tick, no longer waiting
+	 *
+	 * @param count of commands
+	 */
+	public void recordApplied(int count) {
+		commands.add(count);
+		queued.add(-count);
+	}
+
+	/**
+	 * Records a command rejected because its queue was full
+	 */
+	public void recordRejected() {
+		rejected.increment();
+	}
+
+	/**
+	 * Records commands dropped from the queues without being applied
+	 *
+	 * @param count of commands
+	 */
+	public void recordDropped(int count) {
+		queued.add(-count);
+	}
+
+	@Override
+	public long getTickCount() {
+		return ticks.sum();
+	}
+
+	/**
+	 * @return the number of ticks per second, averaged over the last ticks
+	 */
+	@Override
+	public double getTickRate() {
+		double i = interval;
+		return i == 0 ? 0 : 1e9 / i;
+	}
+
+	@Override
+	public long getCommandCount() {
+		return commands.sum();
+	}
+
+	@Override
+	public long getQueueDepth() {
+		return queued.sum();
+	}
+
+	@Override
+	public long getRejectedCount() {
+		return rejected.sum();
+	}
+
+	@Override
+	public long getLag() {
+		return lag;
+	}
+
+	@Override
+	public long getMaxLag() {
+		return maxLag;
+	}
+
+	@Override
+	public double getTickDurationMean() {
+		return durations.snapshot().getMean();
+	}
+
+	@Override
+	public long getTickDuration99thPercentile() {
+		return durations.snapshot().getValueAtPercentile(99);
+	}
+
+	@Override
+	public long getTickDurationMax() {
+		return durations.snapshot().getMax();
+	}
+
+	/**
+	 * Resets the counters and timings, but not the queue depth which reflects
+	 * the commands still waiting
+	 */
+	@Override
+	public void reset() {
+		ticks.reset();
+		commands.reset();
+		rejected.reset();
+		durations.reset();
+		lag = 0;
+		maxLag = 0;
+		interval = 0;
+	}
+
+	/**
+	 * Registers these metrics with the platform MBean server, as
+	 * {@code com.ie.pacman:type=TickMetrics,name=<name>}
+	 *
+	 * @param name of the metrics, unique within the JVM
+	 * @throws IllegalStateException if the metrics cannot be registered
+	 */
+	public synchronized void register(String name) {
+		if (objectName != null) {
+			throw new IllegalStateException("metrics already registered as " + objectName);
+		}
+		try {
+			ObjectName on = new ObjectName(
+					PacmanMetrics.JMX_DOMAIN + ":type=TickMetrics,name=" + ObjectName.quote(name));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+			objectName = on;
+		} catch (JMException e) {
+			throw new IllegalStateException("cannot register metrics " + name, e);
+		}
+	}
+
+	/**
+	 * Unregisters these metrics from the platform MBean server, if registered
+	 */
+	public synchronized void unregister() {
+		if (objectName == null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+		} catch (JMException e) {
+			// already unregistered
+		}
+		objectName = null;
+	}
+}
@@ -0,0 +1,29 @@
+package com.ie.pacman.metrics;
+
+/**
+ * The JMX view of {@link TickMetrics}. Durations and lags are in nanoseconds.
+ */
+public interface TickMetricsMXBean {
+
+	long getTickCount();
+
+	double getTickRate();
+
+	long getCommandCount();
+
+	long getQueueDepth();
+
+	long getRejectedCount();
+
+	long getLag();
+
+	long getMaxLag();
+
+	double getTickDurationMean();
+
+	long getTickDuration99thPercentile();
+
+	long getTickDurationMax();
+
+	void reset();
+}
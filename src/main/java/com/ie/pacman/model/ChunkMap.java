@@ -0,0 +1,137 @@
+package com.ie.pacman.model;
+
+/**
+ * An open addressing hash map from the coordinates of a chunk to the chunk,
+ * for {@link SparseWorld}. <br>
+ * Keys are kept in two arrays of primitive longs and probed linearly, so that
+ * a lookup neither boxes its key nor follows a pointer before the key matches.
+ * Removal shifts the following entries of the probe sequence back, so there
+ * are no tombstones. The table is kept at most half full.
+ */
+final class ChunkMap {
+
+	private static final int MIN_CAPACITY = 16;
+
+	private long[] xs;
+	private long[] ys;
+	private SparseWorld.Chunk[] values;
+	private int mask;
+	private int size;
+
+	ChunkMap() {
+		allocate(MIN_CAPACITY);
+	}
+
+	/**
+	 * @return the number of chunks
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @return the chunk at the given chunk coordinates, or null if there is none
+	 */
+	SparseWorld.Chunk get(long chunkX, long chunkY) {
+		int i = hash(chunkX, chunkY) & mask;
+		SparseWorld.Chunk value;
+		while ((value = values[i]) != null) {
+			if (xs[i] == chunkX && ys[i] == chunkY) {
+				return value;
+			}
+			i = (i + 1) & mask;
+		}
+		return null;
+	}
+
+	/**
+	 * Maps a chunk to its coordinates, replacing any chunk already there
+	 */
+	void put(SparseWorld.Chunk chunk) {
+		if ((size + 1) * 2 > values.length) {
+			resize(values.length * 2);
+		}
+		int i = hash(chunk.x, chunk.y) & mask;
+		while (values[i] != null) {
+			if (xs[i] == chunk.x && ys[i] == chunk.y) {
+				values[i] = chunk;
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+		xs[i] = chunk.x;
+		ys[i] = chunk.y;
+		values[i] = chunk;
+		size++;
+	}
+
+	/**
+	 * Removes the chunk at the given chunk coordinates, if any
+	 */
+	void remove(long chunkX, long chunkY) {
+		int i = hash(chunkX, chunkY) & mask;
+		while (values[i] != null) {
+			if (xs[i] == chunkX && ys[i] == chunkY) {
+				shiftBack(i);
+				size--;
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+	}
+
+	/**
+	 * Fills the hole at the given slot with the following entries of its probe
+	 * sequence that can move to it
+	 */
+	private void shiftBack(int hole) {
+		int i = hole;
+		while (true) {
+			i = (i + 1) & mask;
+			SparseWorld.Chunk value = values[i];
+			if (value == null) {
+				break;
+			}
+			int home = hash(xs[i], ys[i]) & mask;
+			// the entry can move to the hole unless its home is in (hole, i]
+			if (((i - home) & mask) >= ((i - hole) & mask)) {
+				xs[hole] = xs[i];
+				ys[hole] = ys[i];
+				values[hole] = value;
+				hole = i;
+			}
+		}
+		values[hole] = null;
+	}
+
+	private void resize(int capacity) {
+		long[] oldXs = xs;
+		long[] oldYs = ys;
+		SparseWorld.Chunk[] oldValues = values;
+		allocate(capacity);
+		for (int j = 0; j < oldValues.length; j++) {
+			if (oldValues[j] != null) {
+				int i = hash(oldXs[j], oldYs[j]) & mask;
+				while (values[i] != null) {
+					i = (i + 1) & mask;
+				}
+				xs[i] = oldXs[j];
+				ys[i] = oldYs[j];
+				values[i] = oldValues[j];
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		xs = new long[capacity];
+		ys = new long[capacity];
+		values = new SparseWorld.Chunk[capacity];
+		mask = capacity - 1;
+	}
+
+	private static int hash(long chunkX, long chunkY) {
+		long h = chunkX * 0x9E3779B97F4A7C15L + chunkY;
+		h = (h ^ (h >>> 32)) * 0xD6E8FEB86659FD93L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
@@ -1,22 +1,50 @@
 package com.ie.pacman.model;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ie.pacman.model.Pacman.Direction;
+
 /**
- * A grid model than can hold its X and Y dimensions.
- * 
+ * A grid model than can hold its X and Y dimensions, and optionally blocked
+ * cells that Pacman cannot enter. <br>
+ * Blocked cells are kept in a bitset of one bit per cell, allocated when the
+ * first cell is blocked, so that a grid of 100k x 100k units takes 1.25 GB and
+ * a grid without obstacles takes nothing.
+ *
  * @see #isValidX(int)
  * @see #isValidY(int)
  * @see #isValidXY(int, int)
+ * @see #load(Path)
  *
  */
 public class Grid {
 
+	/** Character of a blocked cell in a map file */
+	public static final char MAP_BLOCKED = '#';
+	/** Character of an open cell in a map file */
+	public static final char MAP_OPEN = '.';
+
+	// largest array the JVM can allocate
+	private static final long MAX_WORDS = Integer.MAX_VALUE - 8;
+
 	// Boundaries of the grid
 	private int unitsX;
 	private int unitsY;
 
+	// one bit per cell, row by row from the SOUTH WEST corner, null if no obstacle
+	private long[] blocked;
+	// incremented whenever a cell is blocked or opened
+	private int version;
+
 	/**
 	 * Create a new Grid with X and Y number of units to move between
-	 * 
+	 *
 	 * @param unitsX
 	 * @param unitsY
 	 */
@@ -25,6 +53,53 @@ public class Grid {
 		this.unitsY = unitsY;
 	}
 
+	/**
+	 * Loads a grid from a map file. Each line of the file is a row of the grid,
+	 * the first line being the NORTH most row. {@value #MAP_BLOCKED} marks a
+	 * blocked cell and {@value #MAP_OPEN} an open one. The width of the grid is
+	 * the length of the longest line, shorter lines are padded with open cells.
+	 *
+	 * @param map path of the map file
+	 * @return the grid
+	 * @throws IOException if the file cannot be read or holds other characters
+	 */
+	public static Grid load(Path map) throws IOException {
+		try (BufferedReader reader = Files.newBufferedReader(map, StandardCharsets.US_ASCII)) {
+			return read(reader);
+		}
+	}
+
+	/**
+	 * Reads a grid from a map, see {@link #load(Path)}
+	 *
+	 * @param reader of the map
+	 * @return the grid
+	 * @throws IOException if the map cannot be read or holds other characters
+	 */
+	public static Grid read(BufferedReader reader) throws IOException {
+		List<String> rows = new ArrayList<>();
+		int width = 0;
+		String line;
+		while ((line = reader.readLine()) != null) {
+			rows.add(line);
+			width = Math.max(width, line.length());
+		}
+		Grid grid = new Grid(width, rows.size());
+		for (int r = 0; r < rows.size(); r++) {
+			String row = rows.get(r);
+			int y = rows.size() - 1 - r;
+			for (int x = 0; x < row.length(); x++) {
+				char c = row.charAt(x);
+				if (c == MAP_BLOCKED) {
+					grid.block(x, y);
+				} else if (c != MAP_OPEN) {
+					throw new IOException("Unexpected character '" + c + "' in map at line " + (r + 1));
+				}
+			}
+		}
+		return grid;
+	}
+
 	/**
 	 * @return number of units on X axis
 	 */
@@ -49,8 +124,183 @@ public class Grid {
 		return (y >= 0 && y < unitsY);
 	}
 
-	/** checks if given x, y coordinates are within the boundaries */
+	/**
+	 * checks if given x, y coordinates are within the boundaries and not blocked
+	 */
 	public boolean isValidXY(int x, int y) {
-		return isValidX(x) && isValidY(y);
+		// a single unsigned comparison per axis checks both bounds
+		return Integer.compareUnsigned(x, unitsX) < 0 && Integer.compareUnsigned(y, unitsY) < 0
+				&& (blocked == null || !isSet(index(x, y)));
+	}
+
+	/**
+	 * @return a number that changes whenever a cell is blocked or opened, so
+	 *         that data derived from the grid can be invalidated
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return whether the grid has at least one blocked cell
+	 */
+	public boolean hasObstacles() {
+		return blocked != null;
+	}
+
+	/**
+	 * checks if a cell within the boundaries is blocked
+	 *
+	 * @param x
+	 * @param y
+	 * @return true if the cell is blocked
+	 */
+	public boolean isBlocked(int x, int y) {
+		checkBounds(x, y);
+		return blocked != null && isSet(index(x, y));
+	}
+
+	/**
+	 * Blocks a cell so that Pacman cannot be placed or move on it
+	 *
+	 * @param x
+	 * @param y
+	 * @throws IllegalArgumentException if the grid has too many cells for a
+	 *                                  bitset
+	 */
+	public void block(int x, int y) {
+		checkBounds(x, y);
+		if (blocked == null) {
+			long words = (((long) unitsX * unitsY) + 63) >>> 6;
+			if (words > MAX_WORDS) {
+				throw new IllegalArgumentException(
+						"Grid of " + unitsX + "x" + unitsY + " units is too large to block cells");
+			}
+			blocked = new long[(int) words];
+		}
+		long i = index(x, y);
+		blocked[(int) (i >>> 6)] |= 1L << i;
+		version++;
+	}
+
+	/**
+	 * Opens a blocked cell again
+	 *
+	 * @param x
+	 * @param y
+	 */
+	public void unblock(int x, int y) {
+		checkBounds(x, y);
+		if (blocked != null) {
+			long i = index(x, y);
+			blocked[(int) (i >>> 6)] &= ~(1L << i);
+			version++;
+		}
+	}
+
+	/**
+	 * Counts how many units can be travelled from valid x, y coordinates in the
+	 * given direction before reaching the boundaries or a blocked cell.
+	 *
+	 * @param x
+	 * @param y
+	 * @param direction
+	 * @param max       number of units wanted
+	 * @return the number of units that can be travelled, at most max
+	 */
+	public int freeUnits(int x, int y, Direction direction, int max) {
+		int free;
+		switch (direction) {
+		case NORTH:
+			free = unitsY - 1 - y;
+			break;
+		case EAST:
+			free = unitsX - 1 - x;
+			break;
+		case SOUTH:
+			free = y;
+			break;
+		default:
+			free = x;
+			break;
+		}
+		free = Math.max(0, Math.min(free, max));
+		if (blocked == null || free == 0) {
+			return free;
+		}
+
+		long start = index(x, y);
+		switch (direction) {
+		case EAST:
+			// cells of a row are contiguous, scan whole words at a time
+			return (int) (nextSet(start + 1, start + free + 1) - start - 1);
+		case WEST:
+			return (int) (start - previousSet(start - 1, start - free - 1) - 1);
+		default:
+			long stride = direction == Direction.NORTH ? unitsX : -unitsX;
+			for (int n = 0; n < free; n++) {
+				start += stride;
+				if (isSet(start)) {
+					return n;
+				}
+			}
+			return free;
+		}
+	}
+
+	/**
+	 * @return the bitset of the blocked cells, not copied, or null if there is
+	 *         no obstacle
+	 */
+	long[] getBlockedWords() {
+		return blocked;
+	}
+
+	private long index(int x, int y) {
+		return (long) y * unitsX + x;
+	}
+
+	private boolean isSet(long i) {
+		return (blocked[(int) (i >>> 6)] & (1L << i)) != 0;
+	}
+
+	/**
+	 * @return the first set bit in [from, to), or to if there is none
+	 */
+	private long nextSet(long from, long to) {
+		int w = (int) (from >>> 6);
+		long word = blocked[w] & (-1L << from);
+		while (true) {
+			if (word != 0) {
+				return Math.min(to, ((long) w << 6) + Long.numberOfTrailingZeros(word));
+			}
+			if (((long) ++w << 6) >= to) {
+				return to;
+			}
+			word = blocked[w];
+		}
+	}
+
+	/**
+	 * @return the last set bit in (to, from], or to if there is none
+	 */
+	private long previousSet(long from, long to) {
+		int w = (int) (from >>> 6);
+		long word = blocked[w] & (-1L >>> (63 - (from & 63)));
+		while (true) {
+			if (word != 0) {
+				return Math.max(to, ((long) w << 6) + 63 - Long.numberOfLeadingZeros(word));
+			}
+			if (((long) w << 6) <= to + 1 || w == 0) {
+				return to;
+			}
+			word = blocked[--w];
+		}
+	}
+
+	private void checkBounds(int x, int y) {
+		if (!isValidX(x) || !isValidY(y)) {
+			throw new IndexOutOfBoundsException("Cell " + x + "," + y + " is outside of the grid");
+		}
 	}
 }
@@ -0,0 +1,105 @@
+package com.ie.pacman.model;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A concurrent index of the cells of a grid occupied by agents, so that no two
+ * agents share a cell. <br>
+ * Every cell holds the positive identifier of its agent, or 0 when free, and
+ * is updated with a compare and set: agents on different cells never wait for
+ * each other, and of two agents entering the same cell at the same time only
+ * one succeeds. An agent entering a cell keeps its previous cell until it is
+ * in the new one, so a cell is never seen free while its agent moves out.
+ */
+public final class OccupancyIndex {
+
+	/** Identifier of a free cell */
+	public static final int FREE = 0;
+
+	private final int unitsX;
+	private final int unitsY;
+	private final AtomicIntegerArray cells;
+
+	/**
+	 * Create an index with all the cells of the grid free
+	 *
+	 * @param grid
+	 */
+	public OccupancyIndex(Grid grid) {
+		this.unitsX = grid.getUnitsX();
+		this.unitsY = grid.getUnitsY();
+		long size = (long) unitsX * unitsY;
+		if (size > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("grid too large for an occupancy index: " + unitsX + "x" + unitsY);
+		}
+		this.cells = new AtomicIntegerArray((int) size);
+	}
+
+	/**
+	 * @param x
+	 * @param y
+	 * @return the agent on the cell, or {@link #FREE}
+	 */
+	public int get(int x, int y) {
+		return cells.get(index(x, y));
+	}
+
+	/**
+	 * Occupies a free cell
+	 *
+	 * @param x
+	 * @param y
+	 * @param agent positive identifier of the agent
+	 * @return true if the agent is on the cell, false if another agent is
+	 */
+	public boolean occupy(int x, int y, int agent) {
+		int i = index(x, y);
+		return cells.compareAndSet(i, FREE, checked(agent)) || cells.get(i) == agent;
+	}
+
+	/**
+	 * Moves an agent from one cell to a free cell
+	 *
+	 * @param fromX
+	 * @param fromY
+	 * @param toX
+	 * @param toY
+	 * @param agent positive identifier of the agent
+	 * @return true if the agent moved, false if the target cell is occupied
+	 */
+	public boolean move(int fromX, int fromY, int toX, int toY, int agent) {
+		if (!occupy(toX, toY, agent)) {
+			return false;
+		}
+		if (fromX != toX || fromY != toY) {
+			release(fromX, fromY, agent);
+		}
+		return true;
+	}
+
+	/**
+	 * Frees a cell, if it is occupied by the given agent
+	 *
+	 * @param x
+	 * @param y
+	 * @param agent positive identifier of the agent
+	 * @return false if the cell was not occupied by the agent
+	 */
+	public boolean release(int x, int y, int agent) {
+		return cells.compareAndSet(index(x, y), checked(agent), FREE);
+	}
+
+	private int index(int x, int y) {
+		if (x < 0 || x >= unitsX || y < 0 || y >= unitsY) {
+			throw new IndexOutOfBoundsException("cell outside the grid: " + x + "," + y);
+		}
+		return y * unitsX + x;
+	}
+
+	private static int checked(int agent) {
+		if (agent <= FREE) {
+			throw new IllegalArgumentException("agent must be positive: " + agent);
+		}
+		return agent;
+	}
+}
@@ -177,11 +177,35 @@ public class Pacman {
 		}
 	}
 
+	/**
+	 * moves the given number of units in the current direction.
+	 * 
+	 * @param units
+	 */
+	public void move(int units) {
+		switch (direction) {
+		case NORTH:
+			y += units;
+			break;
+		case EAST:
+			x += units;
+			break;
+		case SOUTH:
+			y -= units;
+			break;
+		case WEST:
+			x -= units;
+			break;
+		}
+	}
+
 	/**
 	 * @return the current position and direction of Pacman X,Y,Direction<br>
 	 *         Example: "0,0,NORTH" or "2,3,EAST"
+	 * @see ReportEncoder to write it without creating a String
 	 */
 	public String report() {
-		return String.format("%d,%d,%s", getX(), getY(), getDirection());
+		return new StringBuilder(ReportEncoder.MAX_LENGTH).append(x).append(',').append(y).append(',')
+				.append(direction).toString();
 	}
 }
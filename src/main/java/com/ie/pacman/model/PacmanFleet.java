@@ -0,0 +1,245 @@
+package com.ie.pacman.model;
+
+import java.util.Arrays;
+
+import com.ie.pacman.model.Pacman.Direction;
+
+/**
+ * A fleet of independent Pacmen moving on the same grid, stored as a struct of
+ * primitive arrays rather than one {@link Pacman} object per agent. Each agent
+ * takes 9 bytes: its X and Y coordinates and its direction ordinal, or -1 when
+ * the agent is not placed yet. <br>
+ * Agents follow the same rules as a single Pacman driven by the engine: they
+ * must be placed within the {@link Grid} before they can move or turn, and a
+ * move that would leave the grid or enter a blocked cell is ignored. <br>
+ * Commands can be applied to every agent, or to a selection of agents, in
+ * tight loops over the arrays.
+ *
+ * @see #moveAll()
+ * @see #move(int[], int)
+ */
+public class PacmanFleet {
+
+	private static final Direction[] DIRECTIONS = Direction.values();
+	private static final byte NOT_PLACED = -1;
+
+	private final Grid grid;
+	private final int[] xs;
+	private final int[] ys;
+	private final byte[] directions;
+
+	/**
+	 * Create a fleet with the given number of agents, none of them placed
+	 *
+	 * @param grid the agents move on
+	 * @param size number of agents
+	 */
+	public PacmanFleet(Grid grid, int size) {
+		if (grid == null) {
+			throw new IllegalArgumentException("grid must not be null");
+		}
+		this.grid = grid;
+		this.xs = new int[size];
+		this.ys = new int[size];
+		this.directions = new byte[size];
+		Arrays.fill(directions, NOT_PLACED);
+	}
+
+	/**
+	 * @return the number of agents
+	 */
+	public int size() {
+		return directions.length;
+	}
+
+	/**
+	 * @return the grid the agents move on
+	 */
+	public Grid getGrid() {
+		return grid;
+	}
+
+	/**
+	 * Places an agent on the grid at the given coordinates
+	 *
+	 * @param agent index of the agent
+	 * @param x
+	 * @param y
+	 * @param direction
+	 * @return true if the placement was successful when all coordinates are valid,
+	 *         false otherwise.
+	 */
+	public boolean place(int agent, int x, int y, Direction direction) {
+		if (direction == null || !grid.isValidXY(x, y)) {
+			return false;
+		}
+		xs[agent] = x;
+		ys[agent] = y;
+		directions[agent] = (byte) direction.ordinal();
+		return true;
+	}
+
+	/**
+	 * Places every agent on the grid at the given coordinates
+	 *
+	 * @param x
+	 * @param y
+	 * @param direction
+	 * @return true if the placement was successful when all coordinates are valid,
+	 *         false otherwise.
+	 */
+	public boolean placeAll(int x, int y, Direction direction) {
+		if (direction == null || !grid.isValidXY(x, y)) {
+			return false;
+		}
+		Arrays.fill(xs, x);
+		Arrays.fill(ys, y);
+		Arrays.fill(directions, (byte) direction.ordinal());
+		return true;
+	}
+
+	/**
+	 * @param agent index of the agent
+	 * @return whether the agent is currently placed on valid coordinate
+	 */
+	public boolean isPlaced(int agent) {
+		return directions[agent] != NOT_PLACED;
+	}
+
+	/**
+	 * @param agent index of the agent
+	 * @return the current X coordinate of the agent
+	 */
+	public int getX(int agent) {
+		return xs[agent];
+	}
+
+	/**
+	 * @param agent index of the agent
+	 * @return the current Y coordinate of the agent
+	 */
+	public int getY(int agent) {
+		return ys[agent];
+	}
+
+	/**
+	 * @param agent index of the agent
+	 * @return the current direction of the agent, or null if it is not placed
+	 */
+	public Direction getDirection(int agent) {
+		byte d = directions[agent];
+		return d == NOT_PLACED ? null : DIRECTIONS[d];
+	}
+
+	/**
+	 * Moves every placed agent one unit in its current direction, unless the move
+	 * would leave the grid or enter a blocked cell.
+	 */
+	public void moveAll() {
+		int unitsX = grid.getUnitsX();
+		int unitsY = grid.getUnitsY();
+		boolean obstacles = grid.hasObstacles();
+		for (int i = 0; i < directions.length; i++) {
+			moveAgent(i, unitsX, unitsY, obstacles);
+		}
+	}
+
+	/**
+	 * Moves the selected agents, see {@link #moveAll()}
+	 *
+	 * @param agents indexes of the agents
+	 * @param count  number of indexes to read from the array
+	 */
+	public void move(int[] agents, int count) {
+		int unitsX = grid.getUnitsX();
+		int unitsY = grid.getUnitsY();
+		boolean obstacles = grid.hasObstacles();
+		for (int i = 0; i < count; i++) {
+			moveAgent(agents[i], unitsX, unitsY, obstacles);
+		}
+	}
+
+	/**
+	 * turns every placed agent to the left of its current direction.
+	 */
+	public void turnLeftAll() {
+		for (int i = 0; i < directions.length; i++) {
+			directions[i] = leftOf(directions[i]);
+		}
+	}
+
+	/**
+	 * turns the selected agents to the left of their current direction.
+	 *
+	 * @param agents indexes of the agents
+	 * @param count  number of indexes to read from the array
+	 */
+	public void turnLeft(int[] agents, int count) {
+		for (int i = 0; i < count; i++) {
+			int a = agents[i];
+			directions[a] = leftOf(directions[a]);
+		}
+	}
+
+	/**
+	 * turns every placed agent to the right of its current direction.
+	 */
+	public void turnRightAll() {
+		for (int i = 0; i < directions.length; i++) {
+			directions[i] = rightOf(directions[i]);
+		}
+	}
+
+	/**
+	 * turns the selected agents to the right of their current direction.
+	 *
+	 * @param agents indexes of the agents
+	 * @param count  number of indexes to read from the array
+	 */
+	public void turnRight(int[] agents, int count) {
+		for (int i = 0; i < count; i++) {
+			int a = agents[i];
+			directions[a] = rightOf(directions[a]);
+		}
+	}
+
+	/**
+	 * @param agent index of the agent
+	 * @return the current position and direction of the agent X,Y,Direction, or
+	 *         empty string "" if the agent is not yet placed.
+	 * @see Pacman#report()
+	 */
+	public String report(int agent) {
+		if (!isPlaced(agent)) {
+			return "";
+		}
+		return xs[agent] + "," + ys[agent] + "," + DIRECTIONS[directions[agent]];
+	}
+
+	private void moveAgent(int i, int unitsX, int unitsY, boolean obstacles) {
+		int d = directions[i];
+		// 1 for a placed agent, 0 otherwise, so that unplaced agents never move
+		int placed = ~d >>> 31;
+		int sign = 1 - (d & 2); // +1 for NORTH and EAST, -1 for SOUTH and WEST
+		int dx = (d & 1) * sign * placed;
+		int dy = (1 - (d & 1)) * sign * placed;
+		int nx = xs[i] + dx;
+		int ny = ys[i] + dy;
+		// a single unsigned comparison per axis checks both bounds
+		boolean valid = Integer.compareUnsigned(nx, unitsX) < 0 & Integer.compareUnsigned(ny, unitsY) < 0;
+		if (obstacles && valid) {
+			valid = grid.isValidXY(nx, ny);
+		}
+		xs[i] = valid ? nx : xs[i];
+		ys[i] = valid ? ny : ys[i];
+	}
+
+	private static byte leftOf(byte d) {
+		// unplaced agents keep all bits set
+		return (byte) (((d + 3) & 3) | (d >> 7));
+	}
+
+	private static byte rightOf(byte d) {
+		return (byte) (((d + 1) & 3) | (d >> 7));
+	}
+}
@@ -0,0 +1,356 @@
+package com.ie.pacman.model;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.ie.pacman.model.Pacman.Direction;
+
+/**
+ * The pellets of a grid, eaten by Pacman when it enters their cell, each of
+ * them scoring {@value #POINTS} points. <br>
+ * Pellets are kept in a bitset of one bit per cell, row by row from the SOUTH
+ * WEST corner as the blocked cells of a {@link Grid}, with the number of
+ * pellets left, so that eating a pellet, the score and the number of pellets
+ * left take a single word, and a move along a row eats a whole word of cells
+ * at a time. The initial layout is kept in a second bitset, copied back in
+ * bulk by {@link #reset()}; it is shared by the copies of the pellets until one
+ * of them changes it. <br>
+ * Pellets belong to a single engine and are not thread safe.
+ *
+ * @see #of(Grid)
+ * @see com.ie.pacman.engine.PacmanEngine#setPellets(Pellets)
+ */
+public final class Pellets {
+
+	/** Points scored by a pellet */
+	public static final int POINTS = 10;
+
+	private final int unitsX;
+	private final int unitsY;
+
+	// initial layout, copied before being changed if shared
+	private long[] layout;
+	private long layoutCount;
+	private boolean sharedLayout;
+
+	// pellets left
+	private final long[] current;
+	private long remaining;
+	private long eaten;
+
+	/**
+	 * Create a grid of pellets with no pellet, see {@link #put(int, int)}
+	 *
+	 * @param unitsX width of the grid
+	 * @param unitsY height of the grid
+	 */
+	public Pellets(int unitsX, int unitsY) {
+		if (unitsX <= 0 || unitsY <= 0 || (long) unitsX * unitsY > (long) Integer.MAX_VALUE << 6) {
+			throw new IllegalArgumentException("bad pellets size: " + unitsX + "x" + unitsY);
+		}
+		this.unitsX = unitsX;
+		this.unitsY = unitsY;
+		int words = (int) ((((long) unitsX * unitsY) + 63) >>> 6);
+		this.layout = new long[words];
+		this.current = new long[words];
+	}
+
+	/**
+	 * Create a copy of the given pellets, sharing their layout until either of
+	 * them changes it
+	 *
+	 * @param other pellets to copy, with the pellets already eaten
+	 */
+	public Pellets(Pellets other) {
+		this.unitsX = other.unitsX;
+		this.unitsY = other.unitsY;
+		this.layout = other.layout;
+		this.layoutCount = other.layoutCount;
+		this.sharedLayout = true;
+		other.sharedLayout = true;
+		this.current = other.current.clone();
+		this.remaining = other.remaining;
+		this.eaten = other.eaten;
+	}
+
+	/**
+	 * @param grid
+	 * @return pellets on every open cell of the grid
+	 */
+	public static Pellets of(Grid grid) {
+		Pellets pellets = new Pellets(grid.getUnitsX(), grid.getUnitsY());
+		long cells = (long) grid.getUnitsX() * grid.getUnitsY();
+		long[] layout = pellets.layout;
+		Arrays.fill(layout, -1L);
+		if ((cells & 63) != 0) {
+			layout[layout.length - 1] = -1L >>> (64 - (cells & 63));
+		}
+		long[] blocked = grid.getBlockedWords();
+		long count = 0;
+		for (int w = 0; w < layout.length; w++) {
+			if (blocked != null) {
+				layout[w] &= ~blocked[w];
+			}
+			count += Long.bitCount(layout[w]);
+		}
+		pellets.layoutCount = count;
+		pellets.reset();
+		return pellets;
+	}
+
+	/**
+	 * @return width of the grid
+	 */
+	public int getUnitsX() {
+		return unitsX;
+	}
+
+	/**
+	 * @return height of the grid
+	 */
+	public int getUnitsY() {
+		return unitsY;
+	}
+
+	/**
+	 * Adds a pellet to a cell, in the initial layout too
+	 *
+	 * @param x
+	 * @param y
+	 */
+	public void put(int x, int y) {
+		long i = index(x, y);
+		int w = (int) (i >>> 6);
+		long bit = 1L << i;
+		if ((layout[w] & bit) == 0) {
+			ownLayout();
+			layout[w] |= bit;
+			layoutCount++;
+		}
+		if ((current[w] & bit) == 0) {
+			current[w] |= bit;
+			remaining++;
+		}
+	}
+
+	/**
+	 * Removes the pellet of a cell, if any, from the initial layout too. It is
+	 * not eaten, and does not score.
+	 *
+	 * @param x
+	 * @param y
+	 */
+	public void remove(int x, int y) {
+		long i = index(x, y);
+		int w = (int) (i >>> 6);
+		long bit = 1L << i;
+		if ((layout[w] & bit) != 0) {
+			ownLayout();
+			layout[w] &= ~bit;
+			layoutCount--;
+		}
+		if ((current[w] & bit) != 0) {
+			current[w] &= ~bit;
+			remaining--;
+		}
+	}
+
+	/**
+	 * @param x
+	 * @param y
+	 * @return whether a pellet is left on the cell
+	 */
+	public boolean hasPellet(int x, int y) {
+		long i = index(x, y);
+		return (current[(int) (i >>> 6)] & (1L << i)) != 0;
+	}
+
+	/**
+	 * Eats the pellet of a cell, if any
+	 *
+	 * @param x
+	 * @param y
+	 * @return true if there was a pellet
+	 */
+	public boolean eat(int x, int y) {
+		return eat(index(x, y));
+	}
+
+	/**
+	 * Eats the pellets of the cells Pacman enters by moving from x, y in the
+	 * given direction, the start cell excluded
+	 *
+	 * @param x         start cell
+	 * @param y         start cell
+	 * @param direction of the move
+	 * @param units     number of units moved, all within the grid
+	 * @return the number of pellets eaten
+	 */
+	public int eatLine(int x, int y, Direction direction, int units) {
+		if (units <= 0) {
+			return 0;
+		}
+		long start = index(x, y);
+		switch (direction) {
+		case EAST:
+			// cells of a row are contiguous, eat whole words at a time
+			return eatRange(start + 1, start + units + 1);
+		case WEST:
+			return eatRange(start - units, start);
+		default:
+			long stride = direction == Direction.NORTH ? unitsX : -unitsX;
+			int n = 0;
+			for (int u = 0; u < units; u++) {
+				start += stride;
+				if (eat(start)) {
+					n++;
+				}
+			}
+			return n;
+		}
+	}
+
+	/**
+	 * @return the number of pellets left
+	 */
+	public long getRemaining() {
+		return remaining;
+	}
+
+	/**
+	 * @return the number of pellets eaten since the last reset
+	 */
+	public long getEaten() {
+		return eaten;
+	}
+
+	/**
+	 * @return the points scored since the last reset
+	 */
+	public long getScore() {
+		return eaten * POINTS;
+	}
+
+	/**
+	 * @return whether all the pellets have been eaten
+	 */
+	public boolean isCleared() {
+		return remaining == 0;
+	}
+
+	/**
+	 * Puts back the initial layout, with a score of 0
+	 */
+	public void reset() {
+		System.arraycopy(layout, 0, current, 0, current.length);
+		remaining = layoutCount;
+		eaten = 0;
+	}
+
+	/**
+	 * Writes the pellets eaten since the last reset, as the words of the bitset
+	 * where some pellet of the initial layout is missing, so that a session can
+	 * go on with pellets of the same layout, see {@link #readEaten(DataInput)}
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeEaten(DataOutput out) throws IOException {
+		out.writeInt(unitsX);
+		out.writeInt(unitsY);
+		out.writeLong(eaten);
+		int words = 0;
+		for (int w = 0; w < current.length; w++) {
+			if ((layout[w] & ~current[w]) != 0) {
+				words++;
+			}
+		}
+		out.writeInt(words);
+		for (int w = 0; w < current.length; w++) {
+			long missing = layout[w] & ~current[w];
+			if (missing != 0) {
+				out.writeInt(w);
+				out.writeLong(missing);
+			}
+		}
+	}
+
+	/**
+	 * Puts back the initial layout, then eats the pellets written by
+	 * {@link #writeEaten(DataOutput)}
+	 *
+	 * @param in
+	 * @throws IOException if the pellets were written for another grid size
+	 */
+	public void readEaten(DataInput in) throws IOException {
+		int x = in.readInt();
+		int y = in.readInt();
+		if (x != unitsX || y != unitsY) {
+			throw new IOException("pellets of a " + x + "x" + y + " grid, not " + unitsX + "x" + unitsY);
+		}
+		long count = in.readLong();
+		int words = in.readInt();
+		if (count < 0 || words < 0 || words > current.length) {
+			throw new IOException("corrupted pellets, " + count + " eaten in " + words + " words");
+		}
+		reset();
+		for (int i = 0; i < words; i++) {
+			int w = in.readInt();
+			long missing = in.readLong();
+			if (w < 0 || w >= current.length) {
+				throw new IOException("corrupted pellets, bad word: " + w);
+			}
+			remaining -= Long.bitCount(current[w] & missing);
+			current[w] &= ~missing;
+		}
+		eaten = count;
+	}
+
+	private boolean eat(long i) {
+		int w = (int) (i >>> 6);
+		long word = current[w];
+		long bit = 1L << i;
+		if ((word & bit) == 0) {
+			return false;
+		}
+		current[w] = word & ~bit;
+		remaining--;
+		eaten++;
+		return true;
+	}
+
+	/**
+	 * Eats the pellets of the cells [from, to)
+	 */
+	private int eatRange(long from, long to) {
+		int n = 0;
+		while (from < to) {
+			int w = (int) (from >>> 6);
+			long wordEnd = ((long) w + 1) << 6;
+			long end = Math.min(to, wordEnd);
+			long mask = (-1L << from) & (-1L >>> (wordEnd - end));
+			n += Long.bitCount(current[w] & mask);
+			current[w] &= ~mask;
+			from = end;
+		}
+		remaining -= n;
+		eaten += n;
+		return n;
+	}
+
+	private void ownLayout() {
+		if (sharedLayout) {
+			layout = layout.clone();
+			sharedLayout = false;
+		}
+	}
+
+	private long index(int x, int y) {
+		if (x < 0 || x >= unitsX || y < 0 || y >= unitsY) {
+			throw new IndexOutOfBoundsException("Cell " + x + "," + y + " is outside of the grid");
+		}
+		return (long) y * unitsX + x;
+	}
+}
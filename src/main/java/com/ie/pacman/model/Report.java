@@ -0,0 +1,87 @@
+package com.ie.pacman.model;
+
+import java.util.Objects;
+
+import com.ie.pacman.model.Pacman.Direction;
+
+/**
+ * The immutable result of a REPORT: the position and direction of Pacman when
+ * it was reported.
+ *
+ * @see Pacman#report()
+ */
+public final class Report {
+
+	private final int x;
+	private final int y;
+	private final Direction direction;
+
+	/**
+	 * @param x
+	 * @param y
+	 * @param direction
+	 */
+	public Report(int x, int y, Direction direction) {
+		if (direction == null) {
+			throw new IllegalArgumentException("direction must not be null");
+		}
+		this.x = x;
+		this.y = y;
+		this.direction = direction;
+	}
+
+	/**
+	 * @param pacman to report
+	 * @return the current position and direction of Pacman
+	 */
+	public static Report of(Pacman pacman) {
+		return new Report(pacman.getX(), pacman.getY(), pacman.getDirection());
+	}
+
+	/**
+	 * @return the reported X coordinate (0 indexed)
+	 */
+	public int getX() {
+		return x;
+	}
+
+	/**
+	 * @return the reported Y coordinate (0 indexed)
+	 */
+	public int getY() {
+		return y;
+	}
+
+	/**
+	 * @return the reported direction
+	 */
+	public Direction getDirection() {
+		return direction;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof Report)) {
+			return false;
+		}
+		Report other = (Report) o;
+		return x == other.x && y == other.y && direction == other.direction;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(x, y, direction);
+	}
+
+	/**
+	 * @return X,Y,Direction as {@link Pacman#report()}
+	 */
+	@Override
+	public String toString() {
+		return new StringBuilder(ReportEncoder.MAX_LENGTH).append(x).append(',').append(y).append(',')
+				.append(direction).toString();
+	}
+}
@@ -0,0 +1,138 @@
+package com.ie.pacman.model;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.ie.pacman.model.Pacman.Direction;
+
+/**
+ * Writes the report of a Pacman, as given by {@link Pacman#report()} and
+ * followed by a line feed, straight into a byte buffer without creating any
+ * object. <br>
+ * For grids of at most {@code MAX_TABLE_STATES} positions and directions, the
+ * bytes of every report are computed once and shared by all the encoders of
+ * grids of the same size, so that a report is a single copy. Positions outside
+ * the table, or larger grids, are encoded digit by digit.
+ *
+ * @see #of(int, int)
+ */
+public final class ReportEncoder {
+
+	/** Maximum length of an encoded report, line feed included */
+	public static final int MAX_LENGTH = 30;
+
+	static final int MAX_TABLE_STATES = 1 << 12;
+
+	private static final Direction[] DIRECTIONS = Direction.values();
+	private static final byte[][] DIRECTION_NAMES = new byte[DIRECTIONS.length][];
+	private static final ConcurrentMap<Long, ReportEncoder> TABLES = new ConcurrentHashMap<>();
+	private static final ReportEncoder UNTABULATED = new ReportEncoder(0, 0);
+
+	static {
+		for (Direction d : DIRECTIONS) {
+			DIRECTION_NAMES[d.ordinal()] = d.name().getBytes(StandardCharsets.US_ASCII);
+		}
+	}
+
+	private final int unitsX;
+	private final int unitsY;
+	// reports of all the states, at a fixed stride, and their lengths
+	private final byte[] table;
+	private final byte[] lengths;
+	private final int stride;
+
+	private ReportEncoder(int unitsX, int unitsY) {
+		this.unitsX = unitsX;
+		this.unitsY = unitsY;
+		int states = unitsX * unitsY * DIRECTIONS.length;
+		this.stride = digits(unitsX - 1) + digits(unitsY - 1) + 2 + "NORTH".length() + 1;
+		this.table = new byte[states * stride];
+		this.lengths = new byte[states];
+		ByteBuffer out = ByteBuffer.wrap(table);
+		for (int state = 0; state < states; state++) {
+			out.position(state * stride);
+			int cell = state / DIRECTIONS.length;
+			encodeDigits(cell % unitsX, cell / unitsX, DIRECTIONS[state % DIRECTIONS.length], out);
+			lengths[state] = (byte) (out.position() - state * stride);
+		}
+	}
+
+	/**
+	 * @param unitsX of the grid
+	 * @param unitsY of the grid
+	 * @return an encoder for grids of the given size
+	 */
+	public static ReportEncoder of(int unitsX, int unitsY) {
+		if (unitsX <= 0 || unitsY <= 0 || (long) unitsX * unitsY * DIRECTIONS.length > MAX_TABLE_STATES) {
+			return UNTABULATED;
+		}
+		long key = (long) unitsX << 32 | unitsY;
+		return TABLES.computeIfAbsent(key, k -> new ReportEncoder(unitsX, unitsY));
+	}
+
+	/**
+	 * Writes the report of the given Pacman
+	 *
+	 * @param pacman
+	 * @param out    with at least {@link #MAX_LENGTH} bytes remaining
+	 */
+	public void encode(Pacman pacman, ByteBuffer out) {
+		encode(pacman.getX(), pacman.getY(), pacman.getDirection(), out);
+	}
+
+	/**
+	 * Writes the report of the given position and direction, e.g. "2,3,EAST\n"
+	 *
+	 * @param x
+	 * @param y
+	 * @param direction
+	 * @param out       with at least {@link #MAX_LENGTH} bytes remaining
+	 */
+	public void encode(int x, int y, Direction direction, ByteBuffer out) {
+		if (x >= 0 && x < unitsX && y >= 0 && y < unitsY) {
+			int state = (y * unitsX + x) * DIRECTIONS.length + direction.ordinal();
+			out.put(table, state * stride, lengths[state]);
+		} else {
+			encodeDigits(x, y, direction, out);
+		}
+	}
+
+	private static void encodeDigits(int x, int y, Direction direction, ByteBuffer out) {
+		putInt(x, out);
+		out.put((byte) ',');
+		putInt(y, out);
+		out.put((byte) ',');
+		out.put(DIRECTION_NAMES[direction.ordinal()]);
+		out.put((byte) '\n');
+	}
+
+	private static void putInt(int value, ByteBuffer out) {
+		long v = value;
+		if (v < 0) {
+			out.put((byte) '-');
+			v = -v;
+		}
+		int n = digits(v);
+		if (out.remaining() < n) {
+			throw new BufferOverflowException();
+		}
+		int end = out.position() + n;
+		for (int i = end - 1; i >= end - n; i--) {
+			out.put(i, (byte) ('0' + v % 10));
+			v /= 10;
+		}
+		out.position(end);
+	}
+
+	private static int digits(long v) {
+		int n = 1;
+		while (v >= 10) {
+			v /= 10;
+			n++;
+		}
+		return n;
+	}
+}
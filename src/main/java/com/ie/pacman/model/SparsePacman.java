@@ -0,0 +1,178 @@
+package com.ie.pacman.model;
+
+import com.ie.pacman.model.Pacman.Direction;
+
+/**
+ * A Pacman moving in a {@link SparseWorld}, with 64 bit coordinates. It
+ * follows the rules of a Pacman driven by the engine: it must be placed on an
+ * open cell before it can move or turn, and a move into a blocked cell or off
+ * the end of the world is ignored. Checking a move is one chunk lookup and a
+ * bit test.
+ */
+public final class SparsePacman {
+
+	private final SparseWorld world;
+	private long x;
+	private long y;
+	// null while not placed
+	private Direction direction;
+
+	/**
+	 * Create a Pacman not placed yet
+	 *
+	 * @param world it moves in
+	 */
+	public SparsePacman(SparseWorld world) {
+		if (world == null) {
+			throw new IllegalArgumentException("world must not be null");
+		}
+		this.world = world;
+	}
+
+	/**
+	 * @return the world Pacman moves in
+	 */
+	public SparseWorld getWorld() {
+		return world;
+	}
+
+	/**
+	 * Places Pacman at the given coordinates
+	 *
+	 * @param x
+	 * @param y
+	 * @param direction
+	 * @return true if the placement was successful, false if the direction is
+	 *         null or the cell is blocked
+	 */
+	public boolean place(long x, long y, Direction direction) {
+		if (direction == null || world.isBlocked(x, y)) {
+			return false;
+		}
+		this.x = x;
+		this.y = y;
+		this.direction = direction;
+		return true;
+	}
+
+	/**
+	 * @return whether Pacman is placed
+	 */
+	public boolean isPlaced() {
+		return direction != null;
+	}
+
+	/**
+	 * @return the current X coordinate
+	 */
+	public long getX() {
+		return x;
+	}
+
+	/**
+	 * @return the current Y coordinate
+	 */
+	public long getY() {
+		return y;
+	}
+
+	/**
+	 * @return the current direction, or null if Pacman is not placed
+	 */
+	public Direction getDirection() {
+		return direction;
+	}
+
+	/**
+	 * moves one unit in the current direction if the cell is open
+	 *
+	 * @return true if the move was successful, false otherwise
+	 */
+	public boolean move() {
+		if (direction == null) {
+			return false;
+		}
+		switch (direction) {
+		case NORTH:
+			if (y == Long.MAX_VALUE || world.isBlocked(x, y + 1)) {
+				return false;
+			}
+			y++;
+			return true;
+		case EAST:
+			if (x == Long.MAX_VALUE || world.isBlocked(x + 1, y)) {
+				return false;
+			}
+			x++;
+			return true;
+		case SOUTH:
+			if (y == Long.MIN_VALUE || world.isBlocked(x, y - 1)) {
+				return false;
+			}
+			y--;
+			return true;
+		default:
+			if (x == Long.MIN_VALUE || world.isBlocked(x - 1, y)) {
+				return false;
+			}
+			x--;
+			return true;
+		}
+	}
+
+	/**
+	 * moves up to the given number of units in the current direction, stopping
+	 * at the first blocked cell, as the same number of {@link #move()} would do
+	 *
+	 * @param units number of units to move
+	 * @return the number of units actually moved
+	 */
+	public long move(long units) {
+		if (direction == null) {
+			return 0;
+		}
+		long moved = world.freeUnits(x, y, direction, units);
+		switch (direction) {
+		case NORTH:
+			y += moved;
+			break;
+		case EAST:
+			x += moved;
+			break;
+		case SOUTH:
+			y -= moved;
+			break;
+		default:
+			x -= moved;
+			break;
+		}
+		return moved;
+	}
+
+	/**
+	 * turns the direction to the left of the current one, if Pacman is placed
+	 */
+	public void turnLeft() {
+		if (direction != null) {
+			direction = direction.leftOf();
+		}
+	}
+
+	/**
+	 * turns the direction to the right of the current one, if Pacman is placed
+	 */
+	public void turnRight() {
+		if (direction != null) {
+			direction = direction.rightOf();
+		}
+	}
+
+	/**
+	 * @return the current position and direction of Pacman X,Y,Direction<br>
+	 *         Example: "-3,70000000000,NORTH" or empty string "" if Pacman is
+	 *         not yet placed.
+	 */
+	public String report() {
+		return direction == null ? "" : x + "," + y + "," + direction;
+	}
+}
@@ -0,0 +1,486 @@
+package com.ie.pacman.model;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+import com.ie.pacman.model.Pacman.Direction;
+
+/**
+ * An unbounded world of 64 bit coordinates, for simulations that outgrow any
+ * {@link Grid} that can be allocated densely. Every cell is open but the
+ * blocked ones, and the world only ends at the range of a long. <br>
+ * Cells are kept in chunks of {@value #CHUNK_SIZE}x{@value #CHUNK_SIZE}, one
+ * bitset word per row, allocated when first needed and found by their chunk
+ * coordinates in a primitive keyed hash map. Checking a cell is therefore one
+ * chunk lookup and a bit test, and the chunk of the last lookup is remembered
+ * so that the cells around Pacman take the bit test only. A move along a row
+ * checks a whole word of cells at a time, and a chunk lookup per chunk
+ * crossed, a move along a column a bit per cell. Without a terrain, a move
+ * crosses the chunks without obstacle up to the next edited chunk of its row
+ * or column in a single step, so that a move of any length returns at once.
+ * <br>
+ * The obstacles of a chunk come from a {@link Terrain}, generating the chunk
+ * when it is first looked up. At most {@code maxResidentChunks} generated
+ * chunks are kept, the least recently used one being dropped and generated
+ * again when needed. The chunks changed by {@link #block(long, long)} or
+ * {@link #unblock(long, long)} cannot be generated again and are always kept.
+ * Without a terrain, only the chunks with a blocked cell are allocated. <br>
+ * A world is not thread safe.
+ *
+ * @see SparsePacman
+ */
+public final class SparseWorld {
+
+	/** Number of cells on each side of a chunk */
+	public static final int CHUNK_SIZE = 64;
+	/** Default maximum number of generated chunks kept, 8 MB of cells */
+	public static final int DEFAULT_MAX_RESIDENT_CHUNKS = 1 << 14;
+
+	private static final int CHUNK_BITS = 6;
+	private static final int CELL_MASK = CHUNK_SIZE - 1;
+	// rows of the chunks without obstacle, shared and never written
+	private static final long[] OPEN = new long[CHUNK_SIZE];
+
+	/**
+	 * Generates the obstacles of the chunks of a world
+	 */
+	@FunctionalInterface
+	public interface Terrain {
+
+		/**
+		 * Sets the bits of the blocked cells of a chunk, the same ones every time
+		 * the chunk is generated
+		 *
+		 * @param chunkX X coordinate of the chunk, whose cells start at X
+		 *               chunkX * {@value SparseWorld#CHUNK_SIZE}
+		 * @param chunkY Y coordinate of the chunk, whose cells start at Y
+		 *               chunkY * {@value SparseWorld#CHUNK_SIZE}
+		 * @param rows   the rows of the chunk from the SOUTH, all open, bit c of a
+		 *               row being the cell c units EAST of the start of the
+		 *               chunk
+		 */
+		void generate(long chunkX, long chunkY, long[] rows);
+	}
+
+	/**
+	 * The cells of a chunk, and its place in the least recently used list
+	 */
+	static final class Chunk {
+		final long x;
+		final long y;
+		long[] rows;
+		// changed since generated, never dropped
+		boolean edited;
+		Chunk newer;
+		Chunk older;
+
+		Chunk(long x, long y, long[] rows) {
+			this.x = x;
+			this.y = y;
+			this.rows = rows;
+		}
+	}
+
+	private final Terrain terrain;
+	private final int maxResidentChunks;
+	private final ChunkMap chunks = new ChunkMap();
+	// X of the edited chunks by their Y, and Y of the edited chunks by their X
+	private final Map<Long, TreeSet<Long>> editedRows = new HashMap<>();
+	private final Map<Long, TreeSet<Long>> editedColumns = new HashMap<>();
+
+	// generated chunks not edited, from the most recently used
+	private Chunk newest;
+	private Chunk oldest;
+	private int resident;
+	private long generated;
+
+	// the chunk of the last lookup, null if none
+	private long lastX;
+	private long lastY;
+	private long[] lastRows;
+
+	/**
+	 * Create a world without obstacle, see {@link #block(long, long)}
+	 */
+	public SparseWorld() {
+		this(null, DEFAULT_MAX_RESIDENT_CHUNKS);
+	}
+
+	/**
+	 * Create a world with the obstacles of the given terrain
+	 *
+	 * @param terrain           generating the obstacles of the chunks, or null
+	 *                          for a world without obstacle
+	 * @param maxResidentChunks maximum number of generated chunks kept
+	 */
+	public SparseWorld(Terrain terrain, int maxResidentChunks) {
+		if (maxResidentChunks <= 0) {
+			throw new IllegalArgumentException("maxResidentChunks must be positive: " + maxResidentChunks);
+		}
+		this.terrain = terrain;
+		this.maxResidentChunks = maxResidentChunks;
+	}
+
+	/**
+	 * @param x
+	 * @param y
+	 * @return true if the cell is not blocked
+	 */
+	public boolean isOpen(long x, long y) {
+		return (rows(x >> CHUNK_BITS, y >> CHUNK_BITS)[(int) y & CELL_MASK] & (1L << x)) == 0;
+	}
+
+	/**
+	 * @param x
+	 * @param y
+	 * @return true if the cell is blocked
+	 */
+	public boolean isBlocked(long x, long y) {
+		return !isOpen(x, y);
+	}
+
+	/**
+	 * Blocks a cell so that Pacman cannot be placed or move on it
+	 *
+	 * @param x
+	 * @param y
+	 */
+	public void block(long x, long y) {
+		if (isOpen(x, y)) {
+			edit(x >> CHUNK_BITS, y >> CHUNK_BITS)[(int) y & CELL_MASK] |= 1L << x;
+		}
+	}
+
+	/**
+	 * Opens a blocked cell, whether it was blocked by the terrain or by
+	 * {@link #block(long, long)}
+	 *
+	 * @param x
+	 * @param y
+	 */
+	public void unblock(long x, long y) {
+		if (!isOpen(x, y)) {
+			edit(x >> CHUNK_BITS, y >> CHUNK_BITS)[(int) y & CELL_MASK] &= ~(1L << x);
+		}
+	}
+
+	/**
+	 * Counts how many units can be travelled from the given cell in the given
+	 * direction before reaching a blocked cell or the end of the world.
+	 *
+	 * @param x
+	 * @param y
+	 * @param direction
+	 * @param max       number of units wanted
+	 * @return the number of units that can be travelled, at most max
+	 */
+	public long freeUnits(long x, long y, Direction direction, long max) {
+		if (max <= 0) {
+			return 0;
+		}
+		long free;
+		switch (direction) {
+		case EAST:
+			free = x > Long.MAX_VALUE - max ? Long.MAX_VALUE - x : max;
+			return free == 0 ? 0 : freeEast(x + 1, y, free);
+		case WEST:
+			free = x < Long.MIN_VALUE + max ? x - Long.MIN_VALUE : max;
+			return free == 0 ? 0 : freeWest(x - 1, y, free);
+		case NORTH:
+			free = y > Long.MAX_VALUE - max ? Long.MAX_VALUE - y : max;
+			return free == 0 ? 0 : freeNorth(x, y + 1, free);
+		default:
+			free = y < Long.MIN_VALUE + max ? y - Long.MIN_VALUE : max;
+			return free == 0 ? 0 : freeSouth(x, y - 1, free);
+		}
+	}
+
+	/**
+	 * @return the number of generated chunks kept, the edited ones excluded
+	 */
+	public int getResidentChunks() {
+		return resident;
+	}
+
+	/**
+	 * @return the number of chunks changed by {@link #block(long, long)} or
+	 *         {@link #unblock(long, long)}
+	 */
+	public int getEditedChunks() {
+		return chunks.size() - resident;
+	}
+
+	/**
+	 * @return the number of times a chunk was generated by the terrain, again
+	 *         when it had been dropped
+	 */
+	public long getGeneratedCount() {
+		return generated;
+	}
+
+	/**
+	 * @return the number of open cells from the given cell EAST wards, at most
+	 *         max, scanning a row word at a time
+	 */
+	private long freeEast(long from, long y, long max) {
+		int row = (int) y & CELL_MASK;
+		long chunkY = y >> CHUNK_BITS;
+		long free = 0;
+		while (true) {
+			long chunkX = from >> CHUNK_BITS;
+			long[] rows = rows(chunkX, chunkY);
+			long n;
+			if (rows == OPEN && terrain == null) {
+				Long next = next(editedRows, chunkY, chunkX, true);
+				if (next == null) {
+					return max;
+				}
+				// negative if it overflows, farther than max anyway
+				n = (next << CHUNK_BITS) - from;
+			} else {
+				int bit = (int) from & CELL_MASK;
+				long blocked = rows[row] & (-1L << bit);
+				if (blocked != 0) {
+					return Math.min(max, free + Long.numberOfTrailingZeros(blocked) - bit);
+				}
+				n = CHUNK_SIZE - bit;
+			}
+			if (n < 0 || n >= max - free) {
+				return max;
+			}
+			free += n;
+			from += n;
+		}
+	}
+
+	/**
+	 * @return the number of open cells from the given cell WEST wards, at most
+	 *         max, scanning a row word at a time
+	 */
+	private long freeWest(long from, long y, long max) {
+		int row = (int) y & CELL_MASK;
+		long chunkY = y >> CHUNK_BITS;
+		long free = 0;
+		while (true) {
+			long chunkX = from >> CHUNK_BITS;
+			long[] rows = rows(chunkX, chunkY);
+			long n;
+			if (rows == OPEN && terrain == null) {
+				Long next = next(editedRows, chunkY, chunkX, false);
+				if (next == null) {
+					return max;
+				}
+				n = from - (next << CHUNK_BITS) - CELL_MASK;
+			} else {
+				int bit = (int) from & CELL_MASK;
+				long blocked = rows[row] & (-1L >>> (CELL_MASK - bit));
+				if (blocked != 0) {
+					return Math.min(max, free + bit - (CELL_MASK - Long.numberOfLeadingZeros(blocked)));
+				}
+				n = bit + 1;
+			}
+			if (n < 0 || n >= max - free) {
+				return max;
+			}
+			free += n;
+			from -= n;
+		}
+	}
+
+	/**
+	 * @return the number of open cells from the given cell NORTH wards, at most
+	 *         max, testing a bit per cell of the chunks with obstacles
+	 */
+	private long freeNorth(long x, long from, long max) {
+		long chunkX = x >> CHUNK_BITS;
+		long bit = 1L << x;
+		long free = 0;
+		while (true) {
+			long chunkY = from >> CHUNK_BITS;
+			long[] rows = rows(chunkX, chunkY);
+			int row = (int) from & CELL_MASK;
+			long n;
+			if (rows == OPEN && terrain == null) {
+				Long next = next(editedColumns, chunkX, chunkY, true);
+				if (next == null) {
+					return max;
+				}
+				n = (next << CHUNK_BITS) - from;
+			} else {
+				int r = row;
+				while (r < CHUNK_SIZE && (rows[r] & bit) == 0) {
+					r++;
+				}
+				n = r - row;
+				if (r < CHUNK_SIZE) {
+					return Math.min(max, free + n);
+				}
+			}
+			if (n < 0 || n >= max - free) {
+				return max;
+			}
+			free += n;
+			from += n;
+		}
+	}
+
+	/**
+	 * @return the number of open cells from the given cell SOUTH wards, at most
+	 *         max, testing a bit per cell of the chunks with obstacles
+	 */
+	private long freeSouth(long x, long from, long max) {
+		long chunkX = x >> CHUNK_BITS;
+		long bit = 1L << x;
+		long free = 0;
+		while (true) {
+			long chunkY = from >> CHUNK_BITS;
+			long[] rows = rows(chunkX, chunkY);
+			int row = (int) from & CELL_MASK;
+			long n;
+			if (rows == OPEN && terrain == null) {
+				Long next = next(editedColumns, chunkX, chunkY, false);
+				if (next == null) {
+					return max;
+				}
+				n = from - (next << CHUNK_BITS) - CELL_MASK;
+			} else {
+				int r = row;
+				while (r >= 0 && (rows[r] & bit) == 0) {
+					r--;
+				}
+				n = row - r;
+				if (r >= 0) {
+					return Math.min(max, free + n);
+				}
+			}
+			if (n < 0 || n >= max - free) {
+				return max;
+			}
+			free += n;
+			from -= n;
+		}
+	}
+
+	/**
+	 * @return the coordinate of the nearest edited chunk after the given one on
+	 *         a row or a column, or before it, or null if there is none
+	 */
+	private static Long next(Map<Long, TreeSet<Long>> edited, long line, long chunk, boolean after) {
+		TreeSet<Long> chunks = edited.get(line);
+		if (chunks == null) {
+			return null;
+		}
+		return after ? chunks.higher(chunk) : chunks.lower(chunk);
+	}
+
+	/**
+	 * @return the rows of a chunk, generated if needed
+	 */
+	private long[] rows(long chunkX, long chunkY) {
+		if (lastRows != null && chunkX == lastX && chunkY == lastY) {
+			return lastRows;
+		}
+		Chunk chunk = chunks.get(chunkX, chunkY);
+		long[] rows;
+		if (chunk != null) {
+			if (!chunk.edited && chunk != newest) {
+				unlink(chunk);
+				link(chunk);
+			}
+			rows = chunk.rows;
+		} else if (terrain == null) {
+			rows = OPEN;
+		} else {
+			rows = generate(chunkX, chunkY).rows;
+		}
+		lastX = chunkX;
+		lastY = chunkY;
+		lastRows = rows;
+		return rows;
+	}
+
+	/**
+	 * @return the rows of a chunk to change, which is kept from now on
+	 */
+	private long[] edit(long chunkX, long chunkY) {
+		Chunk chunk = chunks.get(chunkX, chunkY);
+		if (chunk == null) {
+			chunk = new Chunk(chunkX, chunkY, OPEN);
+			chunks.put(chunk);
+		} else if (!chunk.edited) {
+			unlink(chunk);
+			resident--;
+		}
+		if (!chunk.edited) {
+			chunk.edited = true;
+			if (chunk.rows == OPEN) {
+				chunk.rows = new long[CHUNK_SIZE];
+			}
+			editedRows.computeIfAbsent(chunkY, k -> new TreeSet<>()).add(chunkX);
+			editedColumns.computeIfAbsent(chunkX, k -> new TreeSet<>()).add(chunkY);
+		}
+		lastX = chunkX;
+		lastY = chunkY;
+		lastRows = chunk.rows;
+		return chunk.rows;
+	}
+
+	/**
+	 * Generates a chunk, dropping the least recently used one if too many are
+	 * kept
+	 */
+	private Chunk generate(long chunkX, long chunkY) {
+		long[] rows = new long[CHUNK_SIZE];
+		terrain.generate(chunkX, chunkY, rows);
+		generated++;
+		Chunk chunk = new Chunk(chunkX, chunkY, isOpen(rows) ? OPEN : rows);
+		chunks.put(chunk);
+		link(chunk);
+		if (++resident > maxResidentChunks) {
+			Chunk dropped = oldest;
+			unlink(dropped);
+			chunks.remove(dropped.x, dropped.y);
+			resident--;
+		}
+		return chunk;
+	}
+
+	private static boolean isOpen(long[] rows) {
+		for (long row : rows) {
+			if (row != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Inserts a chunk as the most recently used one
+	 */
+	private void link(Chunk chunk) {
+		chunk.older = newest;
+		chunk.newer = null;
+		if (newest != null) {
+			newest.newer = chunk;
+		} else {
+			oldest = chunk;
+		}
+		newest = chunk;
+	}
+
+	private void unlink(Chunk chunk) {
+		if (chunk.newer != null) {
+			chunk.newer.older = chunk.older;
+		} else {
+			newest = chunk.older;
+		}
+		if (chunk.older != null) {
+			chunk.older.newer = chunk.newer;
+		} else {
+			oldest = chunk.newer;
+		}
+		chunk.newer = null;
+		chunk.older = null;
+	}
+}
@@ -0,0 +1,331 @@
+package com.ie.pacman.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ie.pacman.engine.LineScanner;
+import com.ie.pacman.engine.PacmanSession;
+import com.ie.pacman.engine.PacmanSessionRegistry;
+import com.ie.pacman.model.Grid;
+import com.ie.pacman.model.ReportEncoder;
+
+/**
+ * A non blocking TCP front end speaking the engine line protocol: PLACE, MOVE,
+ * LEFT, RIGHT, GOTO, REPORT, SCORE, DEFINE, REPEAT and QUIT, one command per
+ * line. <br>
+ * Every connection gets its own session in a {@link PacmanSessionRegistry},
+ * removed when the connection closes. Only the REPORT and SCORE results are
+ * sent back, one per line, so that clients can pipeline any number of
+ * commands without waiting for a reply. QUIT sends the pending results and
+ * closes the connection. <br>
+ * Connections are spread over a few event loops, each with its own selector
+ * and thread. A connection stops being read while more than
+ * {@code maxPendingOutput} bytes of results wait to be sent, so that a client
+ * that does not read its results cannot exhaust the memory of the server. The
+ * output of a REPEAT is drained from the session as it is sent, and the
+ * connection is not read until it is all sent. A line longer than
+ * {@link LineScanner#DEFAULT_MAX_LINE_LENGTH} bytes is dropped.
+ *
+ * @see #start(InetSocketAddress)
+ */
+public class PacmanServer implements Closeable {
+
+	/** Default number of bytes of results buffered per connection */
+	public static final int DEFAULT_MAX_PENDING_OUTPUT = 1 << 20;
+
+	private static final int READ_BUFFER_SIZE = 1 << 16;
+	private static final int OUTPUT_BUFFER_SIZE = 256;
+	private static final String SESSION_PREFIX = "conn-";
+
+	private final PacmanSessionRegistry registry;
+	private final Grid grid;
+	private final int maxPendingOutput;
+	private final EventLoop[] loops;
+	private final AtomicLong connectionIds = new AtomicLong();
+	private final AtomicInteger connections = new AtomicInteger();
+
+	private ServerSocketChannel server;
+	private int nextLoop;
+	private volatile boolean running;
+
+	/**
+	 * Create a server with one event loop per processor
+	 *
+	 * @param registry where the sessions of the connections are created
+	 * @param grid     shared by the sessions
+	 */
+	public PacmanServer(PacmanSessionRegistry registry, Grid grid) {
+		this(registry, grid, Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_PENDING_OUTPUT);
+	}
+
+	/**
+	 * Create a server
+	 *
+	 * @param registry         where the sessions of the connections are created
+	 * @param grid             shared by the sessions
+	 * @param eventLoops       number of selector threads
+	 * @param maxPendingOutput number of bytes of results buffered per connection
+	 *                         before it stops being read
+	 */
+	public PacmanServer(PacmanSessionRegistry registry, Grid grid, int eventLoops, int maxPendingOutput) {
+		if (registry == null || grid == null) {
+			throw new IllegalArgumentException("registry and grid must not be null");
+		}
+		if (eventLoops <= 0) {
+			throw new IllegalArgumentException("eventLoops must be positive: " + eventLoops);
+		}
+		this.registry = registry;
+		this.grid = grid;
+		this.maxPendingOutput = maxPendingOutput;
+		this.loops = new EventLoop[eventLoops];
+	}
+
+	/**
+	 * Binds the server and starts accepting connections
+	 *
+	 * @param address to listen to, with port 0 for any free port
+	 * @throws IOException
+	 */
+	public synchronized void start(InetSocketAddress address) throws IOException {
+		if (running) {
+			throw new IllegalStateException("server already started");
+		}
+		server = ServerSocketChannel.open();
+		server.bind(address);
+		server.configureBlocking(false);
+		for (int i = 0; i < loops.length; i++) {
+			loops[i] = new EventLoop(Selector.open());
+		}
+		server.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+		running = true;
+		for (int i = 0; i < loops.length; i++) {
+			Thread thread = new Thread(loops[i], "pacman-server-" + i);
+			loops[i].thread = thread;
+			thread.start();
+		}
+	}
+
+	/**
+	 * @return the port the server listens to
+	 * @throws IOException
+	 */
+	public int getPort() throws IOException {
+		return ((InetSocketAddress) server.getLocalAddress()).getPort();
+	}
+
+	/**
+	 * @return the number of open connections
+	 */
+	public int getConnectionCount() {
+		return connections.get();
+	}
+
+	/**
+	 * Stops the server and closes all its connections
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (!running) {
+			return;
+		}
+		running = false;
+		for (EventLoop loop : loops) {
+			loop.selector.wakeup();
+		}
+		for (EventLoop loop : loops) {
+			try {
+				loop.thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		server.close();
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel;
+		while ((channel = server.accept()) != null) {
+			channel.configureBlocking(false);
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			EventLoop loop = loops[nextLoop];
+			nextLoop = (nextLoop + 1) % loops.length;
+			loop.pending.add(channel);
+			if (loop != loops[0]) {
+				loop.selector.wakeup();
+			}
+		}
+	}
+
+	/**
+	 * A selector and its thread, serving a share of the connections
+	 */
+	private final class EventLoop implements Runnable {
+
+		final Selector selector;
+		final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+		final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		Thread thread;
+
+		EventLoop(Selector selector) {
+			this.selector = selector;
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (running) {
+					selector.select();
+					registerPending();
+					Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+					while (keys.hasNext()) {
+						SelectionKey key = keys.next();
+						keys.remove();
+						if (!key.isValid()) {
+							continue;
+						}
+						if (key.isAcceptable()) {
+							accept();
+							registerPending();
+							continue;
+						}
+						Connection connection = (Connection) key.attachment();
+						try {
+							if (key.isReadable()) {
+								connection.read(readBuffer);
+							}
+							if (key.isValid() && key.isWritable()) {
+								connection.write();
+							}
+						} catch (IOException e) {
+							connection.close();
+						}
+					}
+				}
+			} catch (IOException | ClosedSelectorException e) {
+				System.err.println(e.getMessage());
+			} finally {
+				closeAll();
+			}
+		}
+
+		private void registerPending() throws IOException {
+			SocketChannel channel;
+			while ((channel = pending.poll()) != null) {
+				String id = SESSION_PREFIX + connectionIds.incrementAndGet();
+				Connection connection = new Connection(channel, registry.create(id, grid));
+				connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+				connections.incrementAndGet();
+			}
+		}
+
+		private void closeAll() {
+			for (SelectionKey key : selector.keys()) {
+				if (key.attachment() instanceof Connection) {
+					((Connection) key.attachment()).close();
+				}
+			}
+			try {
+				selector.close();
+			} catch (IOException e) {
+				System.err.println(e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * A client connection and its session
+	 */
+	private final class Connection {
+
+		final SocketChannel channel;
+		final PacmanSession session;
+		// only used to split lines, the event loop does the reads
+		final LineScanner scanner = new LineScanner(1, LineScanner.DEFAULT_MAX_LINE_LENGTH);
+		SelectionKey key;
+		ByteBuffer out = ByteBuffer.allocate(OUTPUT_BUFFER_SIZE);
+		boolean quit;
+		boolean closed;
+
+		Connection(SocketChannel channel, PacmanSession session) {
+			this.channel = channel;
+			this.session = session;
+		}
+
+		void read(ByteBuffer buffer) throws IOException {
+			buffer.clear();
+			int n = channel.read(buffer);
+			if (n < 0) {
+				close();
+				return;
+			}
+			quit = !scanner.feed(buffer.array(), 0, n, this::processLine);
+			write();
+		}
+
+		private boolean processLine(byte[] buf, int offset, int length) {
+			if (out.remaining() < ReportEncoder.MAX_LENGTH) {
+				ByteBuffer larger = ByteBuffer.allocate(out.capacity() * 2);
+				out.flip();
+				larger.put(out);
+				out = larger;
+			}
+			// false on QUIT, the rest of the input is then discarded
+			return session.processInstruction(buf, offset, length, out);
+		}
+
+		void write() throws IOException {
+			if (!key.isValid()) {
+				return;
+			}
+			// the output left by a REPEAT, as much as fits
+			session.drainOutput(out);
+			out.flip();
+			channel.write(out);
+			out.compact();
+			boolean draining = session.hasPendingOutput();
+			boolean pending = out.position() > 0 || draining;
+			if (!pending && quit) {
+				close();
+				return;
+			}
+			int ops = pending ? SelectionKey.OP_WRITE : 0;
+			if (!quit && !draining && out.position() <= maxPendingOutput) {
+				ops |= SelectionKey.OP_READ;
+			}
+			if (!pending && out.capacity() > OUTPUT_BUFFER_SIZE) {
+				out = ByteBuffer.allocate(OUTPUT_BUFFER_SIZE); // release the memory of a burst
+			}
+			key.interestOps(ops);
+		}
+
+		void close() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			if (key != null) {
+				key.cancel();
+			}
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// already closed
+			}
+			registry.remove(session.getId());
+			connections.decrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package com.ie.pacman.cluster;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.jupiter.api.Test;
+
+class HashRingTest {
+
+	private static final int SESSIONS = 100_000;
+
+	@Test
+	void testOwnerOf_Empty() {
+		Assert.assertNull(new HashRing(HashRing.DEFAULT_VIRTUAL_NODES).ownerOf("conn-1"));
+	}
+
+	@Test
+	void testOwnerOf_Balanced() {
+		HashRing ring = new HashRing(HashRing.DEFAULT_VIRTUAL_NODES).with("a").with("b").with("c").with("d");
+		Map<String, Integer> counts = new HashMap<>();
+		for (int i = 0; i < SESSIONS; i++) {
+			counts.merge(ring.ownerOf("conn-" + i), 1, Integer::sum);
+		}
+		Assert.assertEquals(4, counts.size());
+		for (int count : counts.values()) {
+			// within 25% of a fair share
+			Assert.assertTrue(String.valueOf(count), Math.abs(count - SESSIONS / 4) < SESSIONS / 16);
+		}
+	}
+
+	@Test
+	void testWith_MovesOnlyToTheNewWorker() {
+		HashRing ring = new HashRing(HashRing.DEFAULT_VIRTUAL_NODES).with("a").with("b").with("c");
+		HashRing next = ring.with("d");
+		int moved = 0;
+		for (int i = 0; i < SESSIONS; i++) {
+			String before = ring.ownerOf("conn-" + i);
+			String after = next.ownerOf("conn-" + i);
+			if (!before.equals(after)) {
+				Assert.assertEquals("d", after);
+				moved++;
+			}
+		}
+		Assert.assertTrue(String.valueOf(moved), moved > SESSIONS / 6 && moved < SESSIONS / 3);
+		// removing it again moves the same sessions back
+		HashRing back = next.without("d");
+		for (int i = 0; i < SESSIONS; i++) {
+			Assert.assertEquals(ring.ownerOf("conn-" + i), back.ownerOf("conn-" + i));
+		}
+	}
+
+	@Test
+	void testWith_Invalid() {
+		HashRing ring = new HashRing(HashRing.DEFAULT_VIRTUAL_NODES).with("a");
+		try {
+			ring.with("a");
+			Assert.fail("A worker must not be added twice.");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			ring.without("b");
+			Assert.fail("Removing an unknown worker must fail.");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
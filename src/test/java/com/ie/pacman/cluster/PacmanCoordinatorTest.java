@@ -0,0 +1,391 @@
+package com.ie.pacman.cluster;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.ie.pacman.engine.LineScanner;
+import com.ie.pacman.engine.PacmanEngine;
+import com.ie.pacman.engine.PacmanSession;
+import com.ie.pacman.engine.PacmanSessionRegistry;
+import com.ie.pacman.model.Grid;
+import com.ie.pacman.model.Pellets;
+
+class PacmanCoordinatorTest {
+
+	private static final int SESSIONS = 200;
+
+	private final List<PacmanWorker> workers = new ArrayList<>();
+	private final PacmanCoordinator coordinator = new PacmanCoordinator();
+
+	@AfterEach
+	void tearDown() throws IOException {
+		coordinator.close();
+		for (PacmanWorker worker : workers) {
+			worker.close();
+		}
+	}
+
+	/**
+	 * Starts a worker in this JVM and adds it to the coordinator
+	 */
+	private PacmanWorker addWorker(String name) throws IOException {
+		PacmanWorker worker = new PacmanWorker(new PacmanSessionRegistry(), new Grid(100, 100));
+		worker.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		workers.add(worker);
+		coordinator.addWorker(name, new InetSocketAddress(InetAddress.getLoopbackAddress(), worker.getPort()));
+		return worker;
+	}
+
+	private void placeAll() throws IOException {
+		for (int i = 0; i < SESSIONS; i++) {
+			Assert.assertEquals("", coordinator.processInstructions("s" + i,
+					new String[] { "PLACE " + (i % 100) + "," + (i / 100) + ",NORTH", "MOVE" }));
+		}
+	}
+
+	private void assertAllMoved() throws IOException {
+		for (int i = 0; i < SESSIONS; i++) {
+			Assert.assertEquals((i % 100) + "," + (i / 100 + 2) + ",NORTH\n",
+					coordinator.processInstructions("s" + i, new String[] { "MOVE", "REPORT" }));
+		}
+	}
+
+	@Test
+	void testProcessInstructions() throws IOException {
+		addWorker("a");
+		Assert.assertEquals("3,3,NORTH\n", coordinator.processInstructions("s",
+				new String[] { "PLACE 1,2,EAST", "MOVE", "MOVE", "LEFT", "MOVE", "REPORT" }));
+		Assert.assertEquals("3,4,NORTH\n", coordinator.processInstructions("s", new String[] { "MOVE", "REPORT" }));
+		Assert.assertEquals(1, coordinator.getSessionCount());
+		coordinator.closeSession("s");
+		Assert.assertEquals(0, coordinator.getSessionCount());
+		Assert.assertEquals(0, workers.get(0).getRegistry().size());
+	}
+
+	@Test
+	void testProcessInstructions_NoWorker() throws IOException {
+		try {
+			coordinator.processInstructions("s", new String[] { "REPORT" });
+			Assert.fail("Commands must fail without a worker.");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	void testAddWorker_MovesSessions() throws IOException {
+		PacmanWorker a = addWorker("a");
+		placeAll();
+		Assert.assertEquals(SESSIONS, a.getRegistry().size());
+
+		PacmanWorker b = addWorker("b");
+		Assert.assertTrue(b.getRegistry().size() > 0);
+		Assert.assertEquals(SESSIONS, a.getRegistry().size() + b.getRegistry().size());
+		for (int i = 0; i < SESSIONS; i++) {
+			PacmanWorker owner = "a".equals(coordinator.getWorkerOf("s" + i)) ? a : b;
+			Assert.assertNotNull(owner.getRegistry().get("s" + i));
+		}
+		assertAllMoved();
+	}
+
+	@Test
+	void testAddWorker_MovesPelletsAndMacros() throws IOException {
+		PacmanSessionRegistry registry = new PacmanSessionRegistry();
+		registry.setPellets(true);
+		PacmanWorker a = new PacmanWorker(registry, new Grid(100, 100));
+		a.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		workers.add(a);
+		coordinator.addWorker("a", new InetSocketAddress(InetAddress.getLoopbackAddress(), a.getPort()));
+		String[] setup = { "PLACE 0,0,NORTH", "DEFINE lap { MOVE; MOVE; RIGHT; MOVE; LEFT }", "lap", "lap" };
+		String[] after = { "lap", "SCORE", "REPORT" };
+		PacmanEngine expected = new PacmanEngine(new Grid(100, 100));
+		expected.setPellets(Pellets.of(new Grid(100, 100)));
+		expected.processInstructions(setup);
+		String output = expected.processInstructions(after) + "\n";
+		for (int i = 0; i < SESSIONS; i++) {
+			coordinator.processInstructions("s" + i, setup);
+		}
+
+		registry = new PacmanSessionRegistry();
+		registry.setPellets(true);
+		PacmanWorker b = new PacmanWorker(registry, new Grid(100, 100));
+		b.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		workers.add(b);
+		coordinator.addWorker("b", new InetSocketAddress(InetAddress.getLoopbackAddress(), b.getPort()));
+		Assert.assertTrue(b.getRegistry().size() > 0);
+		for (int i = 0; i < SESSIONS; i++) {
+			Assert.assertEquals(output, coordinator.processInstructions("s" + i, after));
+		}
+	}
+
+	@Test
+	void testAddWorker_ImportFails() throws IOException {
+		PacmanWorker a = addWorker("a");
+		placeAll();
+		PacmanSessionRegistry registry = new PacmanSessionRegistry() {
+			@Override
+			public PacmanSession create(String id, Grid grid) {
+				if (size() == 10) {
+					throw new IllegalStateException("full");
+				}
+				return super.create(id, grid);
+			}
+		};
+		PacmanWorker b = new PacmanWorker(registry, new Grid(100, 100));
+		b.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		workers.add(b);
+		try {
+			coordinator.addWorker("b", new InetSocketAddress(InetAddress.getLoopbackAddress(), b.getPort()));
+			Assert.fail("A worker must not be added when its sessions cannot be moved to it.");
+		} catch (IOException e) {
+			Assert.assertEquals("worker b failed a request: java.lang.IllegalStateException: full", e.getMessage());
+		}
+		// the sessions are left on the first worker, and the copies removed
+		Assert.assertEquals(Collections.singletonList("a"), coordinator.getWorkers());
+		Assert.assertEquals(SESSIONS, a.getRegistry().size());
+		Assert.assertEquals(0, b.getRegistry().size());
+		assertAllMoved();
+	}
+
+	@Test
+	void testRemoveWorker_MovesSessions() throws IOException {
+		addWorker("a");
+		addWorker("b");
+		PacmanWorker c = addWorker("c");
+		placeAll();
+
+		coordinator.removeWorker("a");
+		Assert.assertEquals(Arrays.asList("b", "c"), coordinator.getWorkers());
+		coordinator.removeWorker("b");
+		Assert.assertEquals(SESSIONS, c.getRegistry().size());
+		assertAllMoved();
+		try {
+			coordinator.removeWorker("c");
+			Assert.fail("The last worker of open sessions must not be removed.");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	void testRemoveWorker_Unreachable() throws IOException {
+		PacmanWorker a = addWorker("a");
+		addWorker("b");
+		placeAll();
+		a.close();
+
+		coordinator.removeWorker("a");
+		Assert.assertEquals(a.getRegistry().size(), coordinator.getLostSessionCount());
+		for (int i = 0; i < SESSIONS; i++) {
+			// the sessions of the lost worker start again unplaced
+			String expected = "a".equals(new HashRing(HashRing.DEFAULT_VIRTUAL_NODES).with("a").with("b")
+					.ownerOf("s" + i)) ? "" : (i % 100) + "," + (i / 100 + 1) + ",NORTH\n";
+			Assert.assertEquals(expected, coordinator.processInstructions("s" + i, new String[] { "REPORT" }));
+		}
+	}
+
+	@Test
+	void testDeadWorker_Dropped() throws IOException {
+		PacmanWorker a = addWorker("a");
+		PacmanWorker b = addWorker("b");
+		placeAll();
+		a.close();
+		String lost = "s0";
+		for (int i = 1; !"a".equals(coordinator.getWorkerOf(lost)); i++) {
+			lost = "s" + i;
+		}
+		try {
+			coordinator.processInstructions(lost, new String[] { "REPORT" });
+			Assert.fail("Commands must fail once the worker is gone.");
+		} catch (IOException e) {
+			Assert.assertEquals("worker a closed the connection", e.getMessage());
+		}
+		// its sessions start again unplaced on the other worker, the others go on
+		Assert.assertEquals(Collections.singletonList("b"), coordinator.getWorkers());
+		Assert.assertEquals(SESSIONS, b.getRegistry().size());
+		Assert.assertEquals("", coordinator.processInstructions(lost, new String[] { "REPORT" }));
+		Assert.assertEquals(a.getRegistry().size(), coordinator.getLostSessionCount());
+	}
+
+	@Test
+	void testStuckWorker_Dropped() throws IOException {
+		coordinator.setResponseTimeout(200);
+		addWorker("a");
+		try (ServerSocketChannel stuck = ServerSocketChannel.open()) {
+			// accepts connections, and never answers
+			stuck.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			coordinator.addWorker("stuck", (InetSocketAddress) stuck.getLocalAddress());
+			String session = "s0";
+			for (int i = 1; !"stuck".equals(coordinator.getWorkerOf(session)); i++) {
+				session = "s" + i;
+			}
+			try {
+				coordinator.processInstructions(session, new String[] { "REPORT" });
+				Assert.fail("Commands must fail once their worker stops answering.");
+			} catch (IOException e) {
+				Assert.assertEquals("worker stuck did not answer within 200 ms", e.getMessage());
+			}
+			Assert.assertEquals(Collections.singletonList("a"), coordinator.getWorkers());
+			Assert.assertEquals("0,0,NORTH\n",
+					coordinator.processInstructions(session, new String[] { "PLACE 0,0,NORTH", "REPORT" }));
+		}
+	}
+
+	@Test
+	void testFailedRequest() throws IOException {
+		PacmanSessionRegistry registry = new PacmanSessionRegistry() {
+			@Override
+			public PacmanSession create(String id, Grid grid) {
+				if ("bad".equals(id)) {
+					throw new IllegalStateException("no room for " + id);
+				}
+				return super.create(id, grid);
+			}
+		};
+		PacmanWorker worker = new PacmanWorker(registry, new Grid(5, 5));
+		worker.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		workers.add(worker);
+		coordinator.addWorker("a", new InetSocketAddress(InetAddress.getLoopbackAddress(), worker.getPort()));
+		try {
+			coordinator.processInstructions("bad", new String[] { "PLACE 0,0,NORTH", "REPORT" });
+			Assert.fail("Commands must fail when their worker fails them.");
+		} catch (IOException e) {
+			Assert.assertEquals("worker a failed a request: java.lang.IllegalStateException: no room for bad",
+					e.getMessage());
+		}
+		// the worker is kept, and its other sessions go on
+		Assert.assertEquals(Collections.singletonList("a"), coordinator.getWorkers());
+		Assert.assertEquals("0,0,NORTH\n",
+				coordinator.processInstructions("good", new String[] { "PLACE 0,0,NORTH", "REPORT" }));
+	}
+
+	@Test
+	void testProcessInstructions_LongRepeat() throws IOException {
+		addWorker("a");
+		// drained from the worker a chunk at a time
+		String output = coordinator.processInstructions("s",
+				new String[] { "PLACE 1,2,EAST", "REPEAT 100000 { REPORT }", "MOVE", "REPORT" });
+		String[] lines = output.split("\n");
+		Assert.assertEquals(100001, lines.length);
+		Assert.assertEquals("1,2,EAST", lines[99999]);
+		Assert.assertEquals("2,2,EAST", lines[100000]);
+	}
+
+	@Test
+	void testConcurrentSessions() throws Exception {
+		addWorker("a");
+		addWorker("b");
+		int threads = 8;
+		List<Thread> list = new ArrayList<>();
+		List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+		for (int t = 0; t < threads; t++) {
+			String session = "t" + t;
+			Thread thread = new Thread(() -> {
+				try {
+					coordinator.processInstructions(session, new String[] { "PLACE 0,0,EAST" });
+					for (int i = 1; i < 100; i++) {
+						Assert.assertEquals(i + ",0,EAST\n",
+								coordinator.processInstructions(session, new String[] { "MOVE", "REPORT" }));
+					}
+				} catch (Throwable e) {
+					failures.add(e);
+				}
+			});
+			list.add(thread);
+			thread.start();
+		}
+		// moves sessions while they run
+		addWorker("c");
+		coordinator.removeWorker("a");
+		for (Thread thread : list) {
+			thread.join();
+		}
+		Assert.assertEquals(Collections.emptyList(), failures);
+	}
+
+	@Test
+	void testServe() throws IOException {
+		addWorker("a");
+		addWorker("b");
+		coordinator.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		try (Socket first = new Socket(InetAddress.getLoopbackAddress(), coordinator.getPort());
+				Socket second = new Socket(InetAddress.getLoopbackAddress(), coordinator.getPort())) {
+			send(first, "PLACE 1,2,EAST\r\nMOVE\r\nMOVE\r\nLEFT\r\nMOVE\r\nREPORT\r\n");
+			send(second, "PLACE 4,4,WEST\nREPORT\nQUIT\nREPORT\n");
+			Assert.assertEquals("3,3,NORTH", reader(first).readLine());
+			BufferedReader reader = reader(second);
+			Assert.assertEquals("4,4,WEST", reader.readLine());
+			// closed after QUIT, the last REPORT is discarded
+			Assert.assertNull(reader.readLine());
+		}
+	}
+
+	@Test
+	void testServe_LongLineDropped() throws IOException {
+		addWorker("a");
+		coordinator.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), coordinator.getPort())) {
+			char[] line = new char[3 * LineScanner.DEFAULT_MAX_LINE_LENGTH];
+			Arrays.fill(line, 'X');
+			send(socket, "PLACE 1,2,EAST\n");
+			send(socket, new String(line));
+			send(socket, new String(line) + "\nMOVE\nREPORT\n");
+			Assert.assertEquals("2,2,EAST", reader(socket).readLine());
+		}
+	}
+
+	@Test
+	void testServe_LongRepeat() throws IOException {
+		addWorker("a");
+		coordinator.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), coordinator.getPort())) {
+			send(socket, "PLACE 1,2,EAST\nREPEAT 100000 { REPORT }\nMOVE\nREPORT\nQUIT\n");
+			BufferedReader reader = reader(socket);
+			for (int i = 0; i < 100000; i++) {
+				Assert.assertEquals("1,2,EAST", reader.readLine());
+			}
+			Assert.assertEquals("2,2,EAST", reader.readLine());
+			Assert.assertNull(reader.readLine());
+		}
+	}
+
+	@Test
+	void testSpawnWorker() throws IOException {
+		coordinator.spawnWorker("a");
+		coordinator.spawnWorker("b");
+		// on the default 5x5 grid of a worker process
+		for (int i = 0; i < 5; i++) {
+			coordinator.processInstructions("s" + i, new String[] { "PLACE " + i + ",0,NORTH", "MOVE" });
+		}
+		coordinator.removeWorker("a");
+		Assert.assertEquals(Collections.singletonList("b"), coordinator.getWorkers());
+		for (int i = 0; i < 5; i++) {
+			Assert.assertEquals(i + ",1,NORTH\n", coordinator.processInstructions("s" + i, new String[] { "REPORT" }));
+		}
+	}
+
+	private static void send(Socket socket, String commands) throws IOException {
+		OutputStream out = socket.getOutputStream();
+		out.write(commands.getBytes(StandardCharsets.US_ASCII));
+		out.flush();
+	}
+
+	private static BufferedReader reader(Socket socket) throws IOException {
+		return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+	}
+}
@@ -0,0 +1,104 @@
+package com.ie.pacman.engine;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.jupiter.api.Test;
+
+class BinaryLogTest {
+
+	private static final String[] COMMANDS = { "MOVE", "MOVE", "LEFT", "RIGHT", "REPORT", "SCORE", "PLACE 1,2,EAST",
+			"GOTO 4,0", "PLACE 300,70000,SOUTH" };
+
+	private static ReadableByteChannel channel(byte[] bytes) {
+		return Channels.newChannel(new ByteArrayInputStream(bytes));
+	}
+
+	private static byte[] toBinary(String text) throws IOException {
+		ByteArrayOutputStream binary = new ByteArrayOutputStream();
+		BinaryLog.toBinary(channel(text.getBytes(StandardCharsets.US_ASCII)), Channels.newChannel(binary));
+		return binary.toByteArray();
+	}
+
+	private static String toText(byte[] binary) throws IOException {
+		ByteArrayOutputStream text = new ByteArrayOutputStream();
+		BinaryLog.toText(channel(binary), Channels.newChannel(text));
+		return text.toString(StandardCharsets.US_ASCII.name());
+	}
+
+	private static String script(int length) {
+		Random random = new Random(length);
+		StringBuilder script = new StringBuilder();
+		for (int i = 0; i < length; i++) {
+			script.append(COMMANDS[random.nextInt(COMMANDS.length)]).append('\n');
+		}
+		return script.toString();
+	}
+
+	@Test
+	void testRoundTrip() throws IOException {
+		String text = " place 1 , 2 , east\r\nmove\nBLAH\nGOTO 3,4\nLEFT\nREPORT\nQUIT\nRIGHT";
+		Assert.assertEquals("PLACE 1,2,EAST\nMOVE\nGOTO 3,4\nLEFT\nREPORT\nQUIT\nRIGHT\n", toText(toBinary(text)));
+
+		String longer = script(20_000);
+		Assert.assertEquals(longer, toText(toBinary(longer)));
+	}
+
+	@Test
+	void testLongRuns() throws IOException {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 3 * BinaryLog.MAX_RUN + 3; i++) {
+			text.append(i % 5 == 0 ? "REPORT\n" : "MOVE\n");
+		}
+		byte[] binary = toBinary(text.toString());
+		Assert.assertEquals(text.toString(), toText(binary));
+		// 6 bytes per MOVE line become 2 bits
+		Assert.assertTrue(binary.length * 20 < text.length());
+	}
+
+	@Test
+	void testRunBinary_SameAsText() throws IOException {
+		String text = script(5_000) + "QUIT\nPLACE 0,0,NORTH\nREPORT\n";
+		PacmanEngine textEngine = new PacmanEngine();
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		long lines = new PacmanBatchRunner(textEngine, 64).run(new ByteArrayInputStream(text.getBytes(StandardCharsets.US_ASCII)),
+				expected);
+
+		PacmanEngine binaryEngine = new PacmanEngine();
+		ByteArrayOutputStream actual = new ByteArrayOutputStream();
+		long commands = new PacmanBatchRunner(binaryEngine, 64).runBinary(channel(toBinary(text)),
+				Channels.newChannel(actual));
+
+		Assert.assertEquals(5_001, lines);
+		Assert.assertEquals(lines, commands);
+		Assert.assertEquals(expected.toString(StandardCharsets.US_ASCII.name()),
+				actual.toString(StandardCharsets.US_ASCII.name()));
+		Assert.assertEquals(textEngine.report(), binaryEngine.report());
+	}
+
+	@Test
+	void testRead_Corrupted() throws IOException {
+		byte[] binary = toBinary("PLACE 1,2,EAST\nMOVE\nMOVE\n");
+		String[] corruptions = { "too short", "bad magic", "truncated", "version" };
+		byte[][] samples = { Arrays.copyOf(binary, 3), "PACX\1".getBytes(StandardCharsets.US_ASCII),
+				Arrays.copyOf(binary, binary.length - 1), binary.clone() };
+		samples[3][4] = 9;
+		for (int i = 0; i < samples.length; i++) {
+			try {
+				toText(samples[i]);
+				Assert.fail("A corrupted log must be rejected: " + corruptions[i]);
+			} catch (IOException e) {
+				// expected
+			}
+		}
+		// an empty log is valid
+		Assert.assertEquals("", toText(Arrays.copyOf(binary, 5)));
+	}
+}
@@ -0,0 +1,135 @@
+package com.ie.pacman.engine;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.jupiter.api.Test;
+
+import com.ie.pacman.model.Pacman;
+
+class CommandParserTest {
+
+	private CommandParser parser = new CommandParser();
+
+	@Test
+	void testParse_Verbs() {
+		Assert.assertEquals(Command.MOVE, parser.parse("MOVE"));
+		Assert.assertEquals(Command.LEFT, parser.parse("left"));
+		Assert.assertEquals(Command.RIGHT, parser.parse(" Right\t"));
+		Assert.assertEquals(Command.REPORT, parser.parse("\r\nreport  "));
+		Assert.assertEquals(Command.UNKNOWN, parser.parse("MOVES"));
+		Assert.assertEquals(Command.UNKNOWN, parser.parse("MO VE"));
+		Assert.assertEquals(Command.UNKNOWN, parser.parse(""));
+		Assert.assertEquals(Command.UNKNOWN, parser.parse("   "));
+	}
+
+	@Test
+	void testParse_Quit() {
+		Assert.assertEquals(Command.QUIT, parser.parse("QUIT"));
+		Assert.assertEquals(Command.QUIT, parser.parse("quit"));
+		// only an exact QUIT ends the simulation
+		Assert.assertEquals(Command.UNKNOWN, parser.parse(" QUIT"));
+		Assert.assertEquals(Command.UNKNOWN, parser.parse("QUIT "));
+	}
+
+	@Test
+	void testParse_Place() {
+		Assert.assertEquals(Command.PLACE, parser.parse("PLACE 1,2,EAST"));
+		Assert.assertEquals(1, parser.getX());
+		Assert.assertEquals(2, parser.getY());
+		Assert.assertEquals(Pacman.Direction.EAST, parser.getDirection());
+
+		Assert.assertEquals(Command.PLACE, parser.parse(" place  30 , 004 ,  west  "));
+		Assert.assertEquals(30, parser.getX());
+		Assert.assertEquals(4, parser.getY());
+		Assert.assertEquals(Pacman.Direction.WEST, parser.getDirection());
+
+		Assert.assertEquals(Command.PLACE, parser.parse("PLACE0,0,north"));
+		Assert.assertEquals(Pacman.Direction.NORTH, parser.getDirection());
+	}
+
+	@Test
+	void testParse_PlaceMalformed() {
+		Assert.assertEquals(Command.UNKNOWN, parser.parse("PLACE"));
+		Assert.assertEquals(Command.UNKNOWN, parser.parse("PLACE 1,2"));
+		Assert.assertEquals(Command.UNKNOWN, parser.parse("PLACE 1,2,"));
+		Assert.assertEquals(Command.UNKNOWN, parser.parse("PLACE 1,2,UP"));
+		Assert.assertEquals(Command.UNKNOWN, parser.parse("PLACE 1,2,NORTHEAST"));
+		Assert.assertEquals(Command.UNKNOWN, parser.parse("PLACE -1,2,NORTH"));
+		Assert.assertEquals(Command.UNKNOWN, parser.parse("PLACE 1;2;NORTH"));
+		Assert.assertEquals(Command.UNKNOWN, parser.parse("PLACE 1,2,NORTH MOVE"));
+		Assert.assertEquals(Command.UNKNOWN, parser.parse("PLACE 99999999999,2,NORTH"));
+	}
+
+	@Test
+	void testParse_Bytes() {
+		byte[] buf = "xxPLACE 3,4,SOUTH\nMOVE".getBytes(StandardCharsets.US_ASCII);
+		Assert.assertEquals(Command.PLACE, parser.parse(buf, 2, 15));
+		Assert.assertEquals(3, parser.getX());
+		Assert.assertEquals(4, parser.getY());
+		Assert.assertEquals(Pacman.Direction.SOUTH, parser.getDirection());
+		Assert.assertEquals(Command.MOVE, parser.parse(buf, 18, 4));
+	}
+
+	@Test
+	void testParse_Goto() {
+		Assert.assertEquals(Command.GOTO, parser.parse("GOTO 4,1"));
+		Assert.assertEquals(4, parser.getX());
+		Assert.assertEquals(1, parser.getY());
+		Assert.assertEquals(Command.GOTO, parser.parse(" goto 0 , 3 "));
+		Assert.assertEquals(0, parser.getX());
+		Assert.assertEquals(3, parser.getY());
+		Assert.assertEquals(Command.UNKNOWN, parser.parse("GOTO 4"));
+		Assert.assertEquals(Command.UNKNOWN, parser.parse("GOTO 4,1,EAST"));
+		Assert.assertEquals(Command.UNKNOWN, parser.parse("GOTO -1,1"));
+		Assert.assertEquals(Command.UNKNOWN, parser.parse("GOTO"));
+	}
+
+	@Test
+	void testParse_Score() {
+		Assert.assertEquals(Command.SCORE, parser.parse("SCORE"));
+		Assert.assertEquals(Command.SCORE, parser.parse(" score "));
+		Assert.assertEquals(Command.UNKNOWN, parser.parse("SCORES"));
+	}
+
+	@Test
+	void testParse_Blocks() {
+		Assert.assertEquals(Command.DEFINE, parser.parse("DEFINE lap { MOVE; RIGHT }"));
+		Assert.assertEquals(Command.REPEAT, parser.parse(" repeat 3{MOVE}"));
+		Assert.assertEquals(Command.REPEAT, parser.parse("REPEAT x"));
+		Assert.assertEquals(Command.UNKNOWN, parser.parse("REPEAT"));
+		Assert.assertEquals(Command.UNKNOWN, parser.parse("REPEATED 3 { MOVE }"));
+		Assert.assertEquals(Command.UNKNOWN, new CommandParser(true).parse("REPEAT 3 { MOVE }"));
+	}
+
+	@Test
+	void testParse_Agents() {
+		CommandParser named = new CommandParser(true);
+		Assert.assertEquals(Command.PLACE, named.parse("PLACE 1,2,EAST AS p7"));
+		Assert.assertEquals("p7", named.getAgent());
+		Assert.assertEquals(1, named.getX());
+		Assert.assertEquals(Command.PLACE, named.parse(" place 1 , 2 ,east  as  Agent_7-b "));
+		Assert.assertEquals("Agent_7-b", named.getAgent());
+		Assert.assertEquals(Command.PLACE, named.parse("PLACE 1,2,EAST"));
+		Assert.assertNull(named.getAgent());
+		Assert.assertEquals(Command.MOVE, named.parse("MOVE p7"));
+		Assert.assertEquals("p7", named.getAgent());
+		Assert.assertEquals(Command.REPORT, named.parse(" report\tp7 "));
+		Assert.assertEquals("p7", named.getAgent());
+		Assert.assertEquals(Command.LEFT, named.parse("LEFT"));
+		Assert.assertNull(named.getAgent());
+
+		Assert.assertEquals(Command.UNKNOWN, named.parse("PLACE 1,2,EASTAS p7"));
+		Assert.assertEquals(Command.UNKNOWN, named.parse("PLACE 1,2,EAST AS"));
+		Assert.assertEquals(Command.UNKNOWN, named.parse("PLACE 1,2,EAST ASp7"));
+		Assert.assertEquals(Command.UNKNOWN, named.parse("PLACE 1,2,EAST AS p7 p8"));
+		Assert.assertEquals(Command.UNKNOWN, named.parse("MOVE p7 p8"));
+		Assert.assertEquals(Command.UNKNOWN, named.parse("MOVE p.7"));
+		Assert.assertNull(named.getAgent());
+		Assert.assertEquals(Command.UNKNOWN, named.parse("QUIT p7"));
+
+		// names are not accepted by default
+		Assert.assertEquals(Command.UNKNOWN, parser.parse("PLACE 1,2,EAST AS p7"));
+		Assert.assertEquals(Command.UNKNOWN, parser.parse("MOVE p7"));
+	}
+}
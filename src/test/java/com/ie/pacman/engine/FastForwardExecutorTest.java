@@ -0,0 +1,85 @@
+package com.ie.pacman.engine;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.jupiter.api.Test;
+
+import com.ie.pacman.model.Grid;
+
+class FastForwardExecutorTest {
+
+	private static final String[] DIRECTIONS = { "NORTH", "EAST", "SOUTH", "WEST" };
+
+	private void assertSameAsEngine(String[] instructions, Grid grid) {
+		PacmanEngine expected = new PacmanEngine(grid);
+		PacmanEngine actual = new PacmanEngine(grid);
+		Assert.assertEquals(expected.processInstructions(instructions),
+				new FastForwardExecutor(actual).processInstructions(instructions));
+		Assert.assertEquals(expected.report(), actual.report());
+	}
+
+	@Test
+	void testExamples() {
+		assertSameAsEngine(new String[] { "PLACE 0,0,NORTH", "MOVE", "REPORT" }, new Grid(5, 5));
+		assertSameAsEngine(new String[] { "PLACE 0,0,NORTH", "LEFT", "REPORT" }, new Grid(5, 5));
+		assertSameAsEngine(new String[] { "PLACE 1,2,EAST", "MOVE", "MOVE", "LEFT", "MOVE", "REPORT" },
+				new Grid(5, 5));
+	}
+
+	@Test
+	void testLongRuns() {
+		String[] instructions = new String[100_003];
+		instructions[0] = "PLACE 2,2,EAST";
+		for (int i = 1; i <= 50_000; i++) {
+			instructions[i] = "MOVE";
+		}
+		instructions[50_001] = "REPORT";
+		for (int i = 50_002; i < 100_002; i++) {
+			instructions[i] = i % 7 == 0 ? "BLAH" : "RIGHT";
+		}
+		instructions[100_002] = "REPORT";
+		assertSameAsEngine(instructions, new Grid(5, 5));
+	}
+
+	@Test
+	void testRandomRuns() {
+		Random random = new Random(3);
+		for (int round = 0; round < 20; round++) {
+			String[] instructions = new String[2_000];
+			for (int i = 0; i < instructions.length;) {
+				int run = 1 + random.nextInt(12);
+				String cmd;
+				switch (random.nextInt(7)) {
+				case 0:
+					cmd = "PLACE " + random.nextInt(8) + "," + random.nextInt(8) + "," + DIRECTIONS[random.nextInt(4)];
+					run = 1;
+					break;
+				case 1:
+					cmd = "LEFT";
+					break;
+				case 2:
+					cmd = "RIGHT";
+					break;
+				case 3:
+					cmd = "REPORT";
+					break;
+				case 4:
+					cmd = random.nextBoolean() ? "QUIT" : null;
+					break;
+				default:
+					cmd = "MOVE";
+				}
+				for (int j = 0; j < run && i < instructions.length; j++) {
+					instructions[i++] = cmd;
+				}
+			}
+			assertSameAsEngine(instructions, new Grid(7, 4));
+			Grid blocked = new Grid(7, 4);
+			blocked.block(3, 1);
+			blocked.block(5, 3);
+			blocked.block(1, 2);
+			assertSameAsEngine(instructions, blocked);
+		}
+	}
+}
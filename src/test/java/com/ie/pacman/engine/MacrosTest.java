@@ -0,0 +1,320 @@
+package com.ie.pacman.engine;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.jupiter.api.Test;
+
+import com.ie.pacman.metrics.PacmanMetrics;
+import com.ie.pacman.model.Grid;
+import com.ie.pacman.model.Pellets;
+import com.ie.pacman.model.ReportEncoder;
+
+class MacrosTest {
+
+	private static String[] repeat(int times, String... lines) {
+		String[] result = new String[times * lines.length];
+		for (int i = 0; i < times; i++) {
+			System.arraycopy(lines, 0, result, i * lines.length, lines.length);
+		}
+		return result;
+	}
+
+	private static String[] concat(String[] first, String... second) {
+		String[] result = new String[first.length + second.length];
+		System.arraycopy(first, 0, result, 0, first.length);
+		System.arraycopy(second, 0, result, first.length, second.length);
+		return result;
+	}
+
+	@Test
+	void testRepeat_SameAsExpanded() {
+		String[] body = { "MOVE", "MOVE", "RIGHT", "REPORT", "MOVE", "LEFT", "LEFT", "REPORT" };
+		for (int times = 0; times < 40; times++) {
+			String expected = new PacmanEngine()
+					.processInstructions(concat(new String[] { "PLACE 1,2,EAST" }, repeat(times, body)));
+			String actual = new PacmanEngine().processInstructions(new String[] { "PLACE 1,2,EAST",
+					"REPEAT " + times + " { MOVE; MOVE; RIGHT; REPORT; MOVE; LEFT; LEFT; REPORT }" });
+			Assert.assertEquals("times " + times, expected, actual);
+		}
+	}
+
+	@Test
+	void testRepeat_SkipsCycles() {
+		PacmanEngine engine = new PacmanEngine(new Grid(1000, 1000));
+		Assert.assertEquals("", engine.processInstruction("PLACE 0,0,NORTH"));
+		// a cycle of 4 iterations, run a thousand billion times
+		Assert.assertEquals("", engine.processInstruction("REPEAT 1000000000000 { MOVE; RIGHT }"));
+		Assert.assertEquals("0,0,NORTH", engine.report());
+		// its output is only expanded as it is drained
+		byte[] repeat = "REPEAT 1000000000002 { MOVE; RIGHT; REPEAT 2 { REPORT } }".getBytes(StandardCharsets.US_ASCII);
+		ByteBuffer out = ByteBuffer.allocate(38);
+		Assert.assertTrue(engine.processInstruction(repeat, 0, repeat.length, out));
+		Assert.assertEquals("1,1,SOUTH", engine.report());
+		Assert.assertTrue(engine.drainOutput(out));
+		Assert.assertEquals("0,1,EAST\n0,1,EAST\n1,1,SOUTH\n1,1,SOUTH\n",
+				new String(out.array(), 0, out.position(), StandardCharsets.US_ASCII));
+	}
+
+	@Test
+	void testRepeat_SkipsLateCycles() {
+		PacmanEngine engine = new PacmanEngine(new Grid(100000, 1));
+		Assert.assertEquals("", engine.processInstruction("PLACE 0,0,EAST"));
+		// a cycle of 1 iteration, once the wall is reached after 99999 ones
+		Assert.assertEquals("", engine.processInstruction("REPEAT 1000000000000 { MOVE }"));
+		Assert.assertEquals("99999,0,EAST", engine.report());
+	}
+
+	@Test
+	void testListener_SeesEveryTurn() {
+		String[] body = { "LEFT", "RIGHT", "LEFT", "LEFT", "MOVE", "RIGHT", "RIGHT", "RIGHT", "RIGHT", "RIGHT" };
+		StringBuilder flat = new StringBuilder();
+		PacmanEngine expected = new PacmanEngine();
+		expected.setListener((command, x, y, direction) -> flat.append(command).append(' ').append(direction)
+				.append(';'));
+		expected.processInstructions(concat(new String[] { "PLACE 2,2,NORTH" }, repeat(2, body)));
+
+		StringBuilder macro = new StringBuilder();
+		PacmanEngine engine = new PacmanEngine();
+		engine.setListener((command, x, y, direction) -> macro.append(command).append(' ').append(direction)
+				.append(';'));
+		engine.processInstruction("PLACE 2,2,NORTH");
+		engine.processInstruction("DEFINE turns { " + String.join("; ", body) + " }");
+		engine.processInstruction("REPEAT 2 { turns }");
+		Assert.assertEquals(flat.toString(), macro.toString());
+
+		// merged without a listener, to the same state
+		PacmanEngine merged = new PacmanEngine();
+		merged.processInstruction("PLACE 2,2,NORTH");
+		merged.processInstruction("REPEAT 2 { " + String.join("; ", body) + " }");
+		Assert.assertEquals(expected.report(), merged.report());
+	}
+
+	@Test
+	void testRepeat_Nested() {
+		PacmanEngine engine = new PacmanEngine();
+		String result = engine.processInstructions(
+				new String[] { "PLACE 0,0,NORTH", "REPEAT 2 { REPEAT 2 { MOVE }; RIGHT; REPORT }", "REPORT" });
+		Assert.assertEquals("0,2,EAST\n2,2,SOUTH\n2,2,SOUTH", result);
+	}
+
+	@Test
+	void testRepeat_Unplaced() {
+		PacmanEngine engine = new PacmanEngine();
+		Assert.assertEquals("\n\n", engine.processInstruction("REPEAT 2 { MOVE; REPORT }"));
+		Assert.assertFalse(engine.isPlaced());
+	}
+
+	@Test
+	void testDefine() {
+		PacmanEngine engine = new PacmanEngine();
+		Assert.assertEquals("", engine.processInstruction("DEFINE corner { MOVE; MOVE; RIGHT }"));
+		Assert.assertEquals("", engine.processInstruction("define square {corner;corner;corner;corner}"));
+		Assert.assertEquals("0,0,NORTH\n0,2,EAST\n0,0,NORTH\n0,2,EAST\n",
+				engine.processInstruction("REPEAT 2 { PLACE 0,0,NORTH; REPORT; corner; REPORT; PLACE 3,3,WEST }"));
+		engine.processInstruction("PLACE 1,1,NORTH");
+		Assert.assertEquals("", engine.processInstruction("square"));
+		Assert.assertEquals("1,1,NORTH", engine.report());
+		Assert.assertEquals("", engine.processInstruction(" corner "));
+		Assert.assertEquals("1,3,EAST", engine.report());
+		// redefined
+		engine.processInstruction("DEFINE corner { LEFT }");
+		engine.processInstruction("corner");
+		Assert.assertEquals("1,3,NORTH", engine.report());
+		// the first corner is still called by square
+		Assert.assertEquals(Arrays.asList("DEFINE corner { MOVE; MOVE; RIGHT }",
+				"define square {corner;corner;corner;corner}", "DEFINE corner { LEFT }"), engine.getDefinitions());
+		engine.processInstruction("DEFINE square { MOVE }");
+		Assert.assertEquals(Arrays.asList("DEFINE corner { LEFT }", "DEFINE square { MOVE }"),
+				engine.getDefinitions());
+	}
+
+	@Test
+	void testDefine_NestedCalls() {
+		// m_k runs m0 2^k times
+		String[] lines = new String[62];
+		lines[0] = "DEFINE m0 { LEFT; MOVE; RIGHT; MOVE; REPORT }";
+		for (int k = 1; k < lines.length; k++) {
+			lines[k] = "DEFINE m" + k + " { m" + (k - 1) + "; m" + (k - 1) + " }";
+		}
+		PacmanEngine engine = new PacmanEngine();
+		engine.processInstructions(lines);
+		engine.processInstruction("PLACE 2,0,NORTH");
+		// a listener sees every step, as written out flat
+		PacmanEngine flat = new PacmanEngine();
+		flat.setListener((command, x, y, direction) -> {
+		});
+		flat.processInstructions(lines);
+		flat.processInstruction("PLACE 2,0,NORTH");
+		Assert.assertEquals(flat.processInstruction("m6"), engine.processInstruction("m6"));
+		Assert.assertEquals("0,4,NORTH", engine.report());
+		// the same effect from the same state is reused rather than run again
+		byte[] call = "m61".getBytes(StandardCharsets.US_ASCII);
+		ByteBuffer out = ByteBuffer.allocate(64);
+		Assert.assertTrue(engine.processInstruction(call, 0, call.length, out));
+		Assert.assertTrue(engine.hasPendingOutput());
+		Assert.assertEquals("0,4,NORTH", engine.report());
+	}
+
+	@Test
+	void testRepeat_Budget() {
+		PacmanEngine engine = new PacmanEngine(new Grid(4000000, 1));
+		PacmanMetrics metrics = new PacmanMetrics();
+		engine.setMetrics(metrics);
+		engine.processInstruction("PLACE 0,0,EAST");
+		// no cycle before the wall, stopped once it has run too many steps
+		Assert.assertEquals("", engine.processInstruction("REPEAT 1000000000000 { MOVE }"));
+		Assert.assertTrue(engine.getPosition().getX() <= Macros.MAX_STEPS);
+		Assert.assertEquals(1, metrics.getMalformedCount());
+	}
+
+	@Test
+	void testMalformed() {
+		PacmanEngine engine = new PacmanEngine();
+		PacmanMetrics metrics = new PacmanMetrics();
+		engine.setMetrics(metrics);
+		engine.processInstruction("PLACE 1,1,NORTH");
+		String[] malformed = { "REPEAT x { MOVE }", "REPEAT 2 { JUMP }", "REPEAT 2 { MOVE", "REPEAT 2 MOVE",
+				"REPEAT 2 { MOVE } MOVE", "REPEAT 2 { QUIT }", "REPEAT 2 { DEFINE a { MOVE } }",
+				"REPEAT 99999999999999999999 { MOVE }", "DEFINE MOVE { LEFT }", "DEFINE REPEAT { LEFT }",
+				"DEFINE { LEFT }", "DEFINE a b { LEFT }", "DEFINE a { undefined }", "undefined" };
+		for (String line : malformed) {
+			Assert.assertEquals(line, "", engine.processInstruction(line));
+			Assert.assertEquals(line, "1,1,NORTH", engine.report());
+		}
+		Assert.assertEquals(malformed.length, metrics.getMalformedCount());
+		Assert.assertEquals(0, metrics.getDefineCount());
+		Assert.assertEquals(0, metrics.getRepeatCount());
+	}
+
+	@Test
+	void testRepeat_Pellets() {
+		Grid grid = new Grid(7, 5);
+		String[] body = { "MOVE", "MOVE", "RIGHT", "MOVE", "SCORE" };
+		PacmanEngine expanded = new PacmanEngine(grid);
+		expanded.setPellets(Pellets.of(grid));
+		String expected = expanded
+				.processInstructions(concat(new String[] { "PLACE 0,0,NORTH" }, repeat(1000, body)));
+
+		PacmanEngine engine = new PacmanEngine(grid);
+		engine.setPellets(Pellets.of(grid));
+		String actual = engine.processInstructions(
+				new String[] { "PLACE 0,0,NORTH", "REPEAT 1000 { MOVE; MOVE; RIGHT; MOVE; SCORE }" });
+		Assert.assertEquals(expected, actual);
+		Assert.assertEquals(expanded.score(), engine.score());
+		Assert.assertEquals(expanded.report(), engine.report());
+	}
+
+	/**
+	 * @return the first 64 KiB left to drain, read a chunk at a time
+	 */
+	private static String drain(PacmanEngine engine, int chunk) {
+		ByteBuffer out = ByteBuffer.allocate(chunk);
+		StringBuilder drained = new StringBuilder();
+		boolean more;
+		do {
+			out.clear();
+			more = engine.drainOutput(out);
+			drained.append(new String(out.array(), 0, out.position(), StandardCharsets.US_ASCII));
+		} while (more && drained.length() < 1 << 16);
+		return drained.substring(0, Math.min(drained.length(), 1 << 16));
+	}
+
+	@Test
+	void testWriteState() throws IOException {
+		Grid grid = new Grid(7, 5);
+		PacmanEngine engine = new PacmanEngine(grid);
+		engine.setPellets(Pellets.of(grid));
+		engine.processInstruction("PLACE 0,0,NORTH");
+		engine.processInstruction("DEFINE step { MOVE; RIGHT; MOVE; LEFT; REPORT }");
+		engine.processInstruction("DEFINE step2 { step; step }");
+		engine.processInstruction("DEFINE step { LEFT }");
+		engine.processInstruction("step2");
+		// the rest of a REPEAT partly drained, cycles skipped included
+		byte[] repeat = "REPEAT 1000000 { step; MOVE; REPORT; REPEAT 3 { RIGHT; REPORT } }"
+				.getBytes(StandardCharsets.US_ASCII);
+		ByteBuffer out = ByteBuffer.allocate(ReportEncoder.MAX_LENGTH);
+		engine.processInstruction(repeat, 0, repeat.length, out);
+		out.clear();
+		Assert.assertTrue(engine.drainOutput(out));
+
+		ByteArrayOutputStream state = new ByteArrayOutputStream();
+		engine.writeState(new DataOutputStream(state));
+		PacmanEngine copy = new PacmanEngine(grid);
+		copy.setPellets(Pellets.of(grid));
+		copy.readState(new DataInputStream(new ByteArrayInputStream(state.toByteArray())));
+		Assert.assertEquals(engine.report(), copy.report());
+		Assert.assertEquals(engine.score(), copy.score());
+		Assert.assertEquals(engine.getDefinitions(), copy.getDefinitions());
+		Assert.assertEquals(drain(engine, 100), drain(copy, 77));
+		Assert.assertEquals(engine.processInstruction("REPEAT 2 { step2; SCORE }"),
+				copy.processInstruction("REPEAT 2 { step2; SCORE }"));
+
+		// unplaced and without pellets
+		PacmanEngine fresh = new PacmanEngine(grid);
+		state.reset();
+		new PacmanEngine(grid).writeState(new DataOutputStream(state));
+		fresh.readState(new DataInputStream(new ByteArrayInputStream(state.toByteArray())));
+		Assert.assertFalse(fresh.isPlaced());
+		Assert.assertFalse(fresh.hasPendingOutput());
+	}
+
+	@Test
+	void testWriteState_SharedOutput() throws IOException {
+		String[] lines = new String[62];
+		lines[0] = "DEFINE m0 { LEFT; MOVE; RIGHT; MOVE; REPORT }";
+		for (int k = 1; k < lines.length; k++) {
+			lines[k] = "DEFINE m" + k + " { m" + (k - 1) + "; m" + (k - 1) + " }";
+		}
+		PacmanEngine engine = new PacmanEngine();
+		engine.processInstructions(lines);
+		engine.processInstruction("PLACE 2,0,NORTH");
+		byte[] call = "m61".getBytes(StandardCharsets.US_ASCII);
+		engine.processInstruction(call, 0, call.length, ByteBuffer.allocate(ReportEncoder.MAX_LENGTH));
+		// the output of every macro is written once, however often it is repeated
+		ByteArrayOutputStream state = new ByteArrayOutputStream();
+		engine.writeState(new DataOutputStream(state));
+		Assert.assertTrue(state.size() < 1 << 16);
+		PacmanEngine copy = new PacmanEngine();
+		copy.readState(new DataInputStream(new ByteArrayInputStream(state.toByteArray())));
+		Assert.assertEquals(drain(engine, 1000), drain(copy, 1000));
+	}
+
+	@Test
+	void testDrainOutput() {
+		PacmanEngine engine = new PacmanEngine();
+		ByteBuffer out = ByteBuffer.allocate(32);
+		byte[] place = "PLACE 0,0,EAST".getBytes(StandardCharsets.US_ASCII);
+		byte[] repeat = "REPEAT 10 { MOVE; REPORT }".getBytes(StandardCharsets.US_ASCII);
+		byte[] report = "REPORT".getBytes(StandardCharsets.US_ASCII);
+		Assert.assertTrue(engine.processInstruction(place, 0, place.length, out));
+		Assert.assertTrue(engine.processInstruction(repeat, 0, repeat.length, out));
+		Assert.assertEquals(0, out.position());
+		Assert.assertTrue(engine.hasPendingOutput());
+		// written after the output of the REPEAT
+		Assert.assertTrue(engine.processInstruction(report, 0, report.length, out));
+		Assert.assertEquals(0, out.position());
+
+		StringBuilder drained = new StringBuilder();
+		boolean more;
+		do {
+			out.clear();
+			more = engine.drainOutput(out);
+			drained.append(new String(out.array(), 0, out.position(), StandardCharsets.US_ASCII));
+		} while (more);
+		Assert.assertFalse(engine.hasPendingOutput());
+		Assert.assertEquals("1,0,EAST\n2,0,EAST\n3,0,EAST\n4,0,EAST\n4,0,EAST\n4,0,EAST\n4,0,EAST\n"
+				+ "4,0,EAST\n4,0,EAST\n4,0,EAST\n4,0,EAST\n", drained.toString());
+
+		out.clear();
+		Assert.assertTrue(engine.processInstruction(report, 0, report.length, out));
+		Assert.assertEquals(9, out.position());
+	}
+}
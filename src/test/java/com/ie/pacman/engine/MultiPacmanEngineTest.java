@@ -0,0 +1,123 @@
+package com.ie.pacman.engine;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.jupiter.api.Test;
+
+import com.ie.pacman.model.Grid;
+import com.ie.pacman.model.OccupancyIndex;
+import com.ie.pacman.model.Pacman.Direction;
+
+class MultiPacmanEngineTest {
+
+	private MultiPacmanEngine engine = new MultiPacmanEngine(new Grid(5, 5));
+
+	@Test
+	void testNamedCommands() {
+		String[] instructions = { "PLACE 0,0,NORTH AS a", "PLACE 1,0,NORTH AS b", "MOVE a", "MOVE a", "RIGHT b",
+				"MOVE b", "REPORT a", "REPORT b", "REPORT c", "PLACE 4,4,WEST", "MOVE", "REPORT" };
+		Assert.assertEquals("0,2,NORTH\n2,0,EAST\n\n3,4,WEST", engine.processInstructions(instructions));
+	}
+
+	@Test
+	void testCollisions() {
+		Assert.assertTrue(engine.place("a", 1, 1, Direction.EAST));
+		Assert.assertFalse("Placing on an occupied cell must fail.", engine.place("b", 1, 1, Direction.EAST));
+		Assert.assertFalse(engine.isPlaced("b"));
+		Assert.assertTrue(engine.place("b", 2, 1, Direction.EAST));
+		Assert.assertFalse("Moving onto an occupied cell must fail.", engine.move("a"));
+		Assert.assertEquals("1,1,EAST", engine.report("a"));
+		Assert.assertTrue(engine.move("b"));
+		Assert.assertTrue(engine.move("a"));
+		Assert.assertEquals("2,1,EAST", engine.report("a"));
+
+		// placing again frees the previous cell
+		Assert.assertTrue(engine.place("a", 0, 0, Direction.EAST));
+		Assert.assertEquals(OccupancyIndex.FREE, engine.getOccupancy().get(2, 1));
+		Assert.assertTrue(engine.place("b", 2, 1, Direction.EAST));
+		Assert.assertTrue(engine.remove("b"));
+		Assert.assertEquals(OccupancyIndex.FREE, engine.getOccupancy().get(2, 1));
+		Assert.assertEquals("", engine.report("b"));
+	}
+
+	@Test
+	void testRejectedPlace() {
+		Assert.assertTrue(engine.place("a", 1, 1, Direction.EAST));
+		for (int i = 0; i < 100; i++) {
+			Assert.assertFalse(engine.place("b" + i, 1, 1, Direction.EAST));
+			Assert.assertFalse(engine.place("c" + i, 9, 9, Direction.EAST));
+		}
+		Assert.assertEquals(1, engine.size());
+		Assert.assertTrue(engine.place("b0", 2, 1, Direction.EAST));
+		Assert.assertEquals(2, engine.size());
+	}
+
+	@Test
+	void testParallelAgents() throws Exception {
+		Grid grid = new Grid(8, 8);
+		grid.block(4, 4);
+		MultiPacmanEngine shared = new MultiPacmanEngine(grid);
+		int threads = 8;
+		int agentsPerThread = 4;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < threads; t++) {
+				int seed = t;
+				futures.add(executor.submit(() -> {
+					Random random = new Random(seed);
+					for (int i = 0; i < 20000; i++) {
+						String name = "p" + (seed * agentsPerThread + random.nextInt(agentsPerThread));
+						switch (random.nextInt(6)) {
+						case 0:
+							shared.processInstruction(
+									"PLACE " + random.nextInt(8) + "," + random.nextInt(8) + ",NORTH AS " + name);
+							break;
+						case 1:
+							shared.processInstruction("LEFT " + name);
+							break;
+						default:
+							shared.processInstruction("MOVE " + name);
+							break;
+						}
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		// every agent is alone on its cell, and the index holds nothing else
+		Set<String> cells = new HashSet<>();
+		for (int a = 0; a < threads * agentsPerThread; a++) {
+			String report = shared.report("p" + a);
+			if (!report.isEmpty()) {
+				String[] parts = report.split(",");
+				Assert.assertTrue("Two agents on " + report, cells.add(parts[0] + "," + parts[1]));
+				Assert.assertNotEquals(OccupancyIndex.FREE,
+						shared.getOccupancy().get(Integer.parseInt(parts[0]), Integer.parseInt(parts[1])));
+			}
+		}
+		int occupied = 0;
+		for (int x = 0; x < 8; x++) {
+			for (int y = 0; y < 8; y++) {
+				if (shared.getOccupancy().get(x, y) != OccupancyIndex.FREE) {
+					occupied++;
+				}
+			}
+		}
+		Assert.assertEquals(cells.size(), occupied);
+		Assert.assertFalse(cells.contains("4,4"));
+	}
+}
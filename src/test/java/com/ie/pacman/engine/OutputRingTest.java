@@ -0,0 +1,226 @@
+package com.ie.pacman.engine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.Assert;
+import org.junit.jupiter.api.Test;
+
+import com.ie.pacman.engine.OutputRing.OverflowPolicy;
+
+class OutputRingTest {
+
+	/**
+	 * A sink holding its writes until released
+	 */
+	private static class GatedSink implements WritableByteChannel {
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final ByteArrayOutputStream written = new ByteArrayOutputStream();
+
+		@Override
+		public synchronized int write(ByteBuffer src) throws IOException {
+			entered.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+			int n = src.remaining();
+			byte[] bytes = new byte[n];
+			src.get(bytes);
+			written.write(bytes, 0, n);
+			return n;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public void close() {
+		}
+
+		synchronized String text() {
+			return new String(written.toByteArray(), StandardCharsets.US_ASCII);
+		}
+	}
+
+	private static void write(OutputRing ring, String line) throws IOException {
+		ring.write(ByteBuffer.wrap(line.getBytes(StandardCharsets.US_ASCII)));
+	}
+
+	private static String lines(int from, int to) {
+		StringBuilder text = new StringBuilder();
+		for (int i = from; i < to; i++) {
+			text.append(i).append(",0,NORTH\n");
+		}
+		return text.toString();
+	}
+
+	@Test
+	void testWrite_Block() throws IOException {
+		GatedSink sink = new GatedSink();
+		sink.release.countDown();
+		try (OutputRing ring = new OutputRing(sink, 64, OverflowPolicy.BLOCK, null)) {
+			for (int i = 0; i < 10000; i++) {
+				write(ring, i + ",0,NORTH\n");
+			}
+			write(ring, lines(0, 100)); // longer than the ring
+			ring.flush();
+			Assert.assertEquals(lines(0, 10000) + lines(0, 100), sink.text());
+			Assert.assertEquals(0, ring.getDroppedCount());
+		}
+	}
+
+	@Test
+	void testWrite_Block_RingSized() throws Exception {
+		GatedSink sink = new GatedSink();
+		sink.release.countDown();
+		String chunk = lines(0, 6) + "0123"; // as large as the ring
+		try (OutputRing ring = new OutputRing(sink, 64, OverflowPolicy.BLOCK, null)) {
+			CompletableFuture<Void> writes = CompletableFuture.runAsync(() -> {
+				try {
+					for (int i = 0; i < 1000; i++) {
+						write(ring, chunk);
+					}
+					ring.flush();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+			writes.get(10, TimeUnit.SECONDS);
+			Assert.assertEquals(chunk.length() * 1000, sink.text().length());
+		}
+	}
+
+	@Test
+	void testWrite_Drop() throws IOException {
+		GatedSink sink = new GatedSink();
+		OutputRing ring = new OutputRing(sink, 64, OverflowPolicy.DROP, null);
+		// the line held by the sink keeps its space until written, 5 more lines
+		// of 10 bytes fit in the ring
+		write(ring, lines(0, 1));
+		waitForWriter(sink);
+		for (int i = 1; i < 20; i++) {
+			write(ring, lines(i, i + 1));
+		}
+		sink.release.countDown();
+		ring.close();
+		Assert.assertEquals(lines(0, 6), sink.text());
+		Assert.assertEquals(14, ring.getDroppedCount());
+	}
+
+	@Test
+	void testWrite_Spill() throws IOException {
+		Path dir = Files.createTempDirectory("spill");
+		GatedSink sink = new GatedSink();
+		OutputRing ring = new OutputRing(sink, 64, OverflowPolicy.SPILL, dir);
+		write(ring, lines(0, 1));
+		waitForWriter(sink);
+		for (int i = 1; i < 1000; i++) {
+			write(ring, lines(i, i + 1));
+		}
+		Assert.assertTrue(ring.getSpilledBytes() > 0);
+		sink.release.countDown();
+		ring.flush();
+		Assert.assertEquals(lines(0, 1000), sink.text());
+		// back to the ring once the spill file is written
+		write(ring, lines(1000, 1001));
+		ring.close();
+		Assert.assertEquals(lines(0, 1001), sink.text());
+		Assert.assertEquals(0, ring.getDroppedCount());
+		try (Stream<Path> files = Files.list(dir)) {
+			Assert.assertEquals(0, files.count()); // spill file deleted
+		}
+	}
+
+	@Test
+	void testWrite_Failure() throws IOException {
+		WritableByteChannel failing = new GatedSink() {
+			@Override
+			public int write(ByteBuffer src) throws IOException {
+				throw new IOException("broken pipe");
+			}
+		};
+		OutputRing ring = new OutputRing(failing, 64, OverflowPolicy.BLOCK, null);
+		write(ring, "0,0,NORTH\n");
+		try {
+			ring.flush();
+			Assert.fail("failure not reported");
+		} catch (IOException e) {
+			Assert.assertTrue(e.getMessage().contains("broken pipe"));
+		}
+		try {
+			ring.close();
+			Assert.fail("failure not reported");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	@Test
+	void testWrite_WriterDied() throws Exception {
+		WritableByteChannel failing = new GatedSink() {
+			@Override
+			public int write(ByteBuffer src) {
+				throw new IllegalStateException("sink gone");
+			}
+		};
+		OutputRing ring = new OutputRing(failing, 64, OverflowPolicy.BLOCK, null);
+		CompletableFuture<Void> writes = CompletableFuture.runAsync(() -> {
+			try {
+				for (int i = 0; i < 100; i++) {
+					write(ring, lines(i, i + 1));
+				}
+				Assert.fail("a dead writer must fail the writes");
+			} catch (IOException e) {
+				// expected
+			}
+		});
+		writes.get(10, TimeUnit.SECONDS);
+		try {
+			ring.close();
+			Assert.fail("failure not reported");
+		} catch (IOException e) {
+			Assert.assertTrue(e.getMessage().contains("sink gone"));
+		}
+	}
+
+	@Test
+	void testWrite_Closed() throws IOException {
+		OutputRing ring = new OutputRing(new GatedSink());
+		ring.close();
+		Assert.assertFalse(ring.isOpen());
+		try {
+			write(ring, "0,0,NORTH\n");
+			Assert.fail("write after close");
+		} catch (ClosedChannelException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Waits until the writer thread has taken everything from the ring, and is
+	 * held by the sink
+	 */
+	private static void waitForWriter(GatedSink sink) throws IOException {
+		try {
+			sink.entered.await();
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package com.ie.pacman.engine;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class PacmanBatchRunnerTest {
+
+	PacmanEngine engine = PacmanEngine.getInstance();
+
+	@BeforeEach
+	void setUp() throws Exception {
+		engine.reset();
+	}
+
+	private String run(String input, int bufferSize) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new PacmanBatchRunner(engine, bufferSize)
+				.run(new ByteArrayInputStream(input.getBytes(StandardCharsets.US_ASCII)), out);
+		return out.toString(StandardCharsets.US_ASCII.name());
+	}
+
+	@Test
+	void testRun_Examples() throws IOException {
+		String input = "PLACE 1,2,EAST\nMOVE\nMOVE\nLEFT\nMOVE\nREPORT\nPLACE 0,0,NORTH\nLEFT\nREPORT\n";
+		Assert.assertEquals("3,3,NORTH\n0,0,WEST\n", run(input, PacmanBatchRunner.DEFAULT_BUFFER_SIZE));
+	}
+
+	@Test
+	void testRun_LinesSplitAcrossReads() throws IOException {
+		String input = "PLACE 1,2,EAST\r\nMOVE\r\nREPORT\r\nPLACE 3,3,WEST\r\nREPORT";
+		// a tiny buffer forces every line to span several reads
+		Assert.assertEquals("2,2,EAST\n3,3,WEST\n", run(input, 3));
+		engine.reset();
+		Assert.assertEquals("2,2,EAST\n3,3,WEST\n", run(input, 4096));
+	}
+
+	@Test
+	void testRun_ReportBeforePlace() throws IOException {
+		Assert.assertEquals("", run("REPORT\nMOVE\n", 16));
+	}
+
+	@Test
+	void testRun_StopsAtQuit() throws IOException {
+		String input = "PLACE 1,1,NORTH\nREPORT\nQUIT\nMOVE\nREPORT\n";
+		Assert.assertEquals("1,1,NORTH\n", run(input, 5));
+		Assert.assertEquals("1,1,NORTH", engine.report());
+	}
+
+	@Test
+	void testRun_Repeat() throws IOException {
+		PacmanEngine engine = new PacmanEngine();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		String input = "PLACE 0,0,NORTH\nREPEAT 1000000 { MOVE; RIGHT; REPORT }\nREPORT\n";
+		new PacmanBatchRunner(engine, 64).run(new ByteArrayInputStream(input.getBytes(StandardCharsets.US_ASCII)),
+				out);
+		String[] lines = out.toString(StandardCharsets.US_ASCII.name()).split("\n");
+		Assert.assertEquals(1_000_001, lines.length);
+		String[] cycle = { "0,1,EAST", "1,1,SOUTH", "1,0,WEST", "0,0,NORTH" };
+		for (int i = 0; i < 1_000_000; i++) {
+			Assert.assertEquals(cycle[i & 3], lines[i]);
+		}
+		Assert.assertEquals("0,0,NORTH", lines[1_000_000]);
+	}
+
+	@Test
+	void testRun_OutputLargerThanBuffer() throws IOException {
+		StringBuilder input = new StringBuilder("PLACE 4,4,SOUTH\n");
+		StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			input.append("REPORT\n");
+			expected.append("4,4,SOUTH\n");
+		}
+		Assert.assertEquals(expected.toString(), run(input.toString(), 8));
+	}
+}
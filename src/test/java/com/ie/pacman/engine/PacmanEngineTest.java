@@ -2,12 +2,27 @@ package com.ie.pacman.engine;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
 import org.junit.Assert;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import com.ie.pacman.engine.PacmanEngine;
+import com.ie.pacman.metrics.Heatmap;
+import com.ie.pacman.model.Grid;
 import com.ie.pacman.model.Pacman;
+import com.ie.pacman.model.Pellets;
+import com.ie.pacman.model.ReportEncoder;
 
 class PacmanEngineTest {
 
@@ -201,4 +216,218 @@ class PacmanEngineTest {
 		Assert.assertEquals("Move after placing must be OK.", true, engine.move());
 		Assert.assertEquals("2,3,NORTH", engine.report());
 	}
+
+	@Test
+	void testMoveUnits() {
+		Assert.assertEquals("Move without placing must fail.", 0, engine.move(3));
+		engine.place(1, 1, Pacman.Direction.NORTH);
+		Assert.assertEquals(2, engine.move(2));
+		Assert.assertEquals("1,3,NORTH", engine.report());
+		// stops at the boundary
+		Assert.assertEquals(1, engine.move(100));
+		Assert.assertEquals("1,4,NORTH", engine.report());
+		Assert.assertEquals(0, engine.move(1));
+		Assert.assertEquals("1,4,NORTH", engine.report());
+	}
+
+	@Test
+	void test_Commands_Obstacles() {
+		Grid grid = new Grid(5, 5);
+		grid.block(2, 2);
+		PacmanEngine blocked = new PacmanEngine(grid);
+		String[] instructions = { "PLACE 2,2,NORTH", "REPORT", "PLACE 0,2,EAST", "MOVE", "MOVE", "REPORT", "LEFT",
+				"MOVE", "RIGHT", "MOVE", "MOVE", "REPORT" };
+		Assert.assertEquals("1,2,EAST\n3,3,EAST", blocked.processInstructions(instructions));
+		Assert.assertEquals(1, blocked.move(3));
+		blocked.place(0, 2, Pacman.Direction.EAST);
+		Assert.assertEquals(1, blocked.move(3));
+		Assert.assertEquals(0, blocked.move(3));
+	}
+
+	@Test
+	void test_Commands_Goto() {
+		Grid grid = new Grid(5, 5);
+		grid.block(1, 0);
+		grid.block(1, 1);
+		grid.block(1, 2);
+		PacmanEngine blocked = new PacmanEngine(grid);
+		String[] instructions = { "GOTO 2,0", "PLACE 0,0,NORTH", "GOTO 2,0", "REPORT", "GOTO 1,1", "GOTO 7,0", "REPORT",
+				"GOTO 2,0", "REPORT" };
+		Assert.assertEquals("2,0,SOUTH\n2,0,SOUTH\n2,0,SOUTH", blocked.processInstructions(instructions));
+
+		// walled in
+		grid.block(3, 0);
+		grid.block(2, 1);
+		Assert.assertFalse(blocked.goTo(0, 0));
+		Assert.assertEquals("2,0,SOUTH", blocked.report());
+	}
+
+	@Test
+	void test_Commands_Goto_BlockedDuringWalk() {
+		Grid grid = new Grid(5, 1);
+		PacmanEngine walking = new PacmanEngine(grid);
+		walking.place(0, 0, Pacman.Direction.EAST);
+		// blocks the path once the walk started, as another user of the grid may
+		walking.setListener((command, x, y, direction) -> grid.block(3, 0));
+		Assert.assertFalse(walking.goTo(4, 0));
+		Assert.assertEquals("2,0,EAST", walking.report());
+	}
+
+	@Test
+	void test_Commands_Score() {
+		Grid grid = new Grid(5, 5);
+		grid.block(2, 2);
+		PacmanEngine eating = new PacmanEngine(grid);
+		Assert.assertEquals("", eating.processInstructions(new String[] { "SCORE" }));
+		eating.setPellets(Pellets.of(grid));
+		String[] instructions = { "SCORE", "PLACE 0,0,NORTH", "MOVE", "MOVE", "SCORE", "RIGHT", "MOVE", "MOVE", "MOVE",
+				"PLACE 0,0,EAST", "SCORE" };
+		Assert.assertEquals("0,24\n30,21\n40,20", eating.processInstructions(instructions));
+
+		// moving several units at once eats as the single moves
+		Assert.assertEquals(4, eating.move(4));
+		Assert.assertEquals("80,16", eating.score());
+		ByteBuffer out = ByteBuffer.allocate(ReportEncoder.MAX_LENGTH);
+		Assert.assertTrue(eating.score(out));
+		Assert.assertEquals("80,16\n", new String(out.array(), 0, out.position(), StandardCharsets.US_ASCII));
+
+		eating.reset();
+		Assert.assertEquals("0,24", eating.score());
+		try {
+			eating.setPellets(new Pellets(4, 5));
+			Assert.fail("pellets of another size");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	void testHeatmap() {
+		Grid grid = new Grid(5, 5);
+		grid.block(2, 2);
+		Heatmap heatmap = new Heatmap(5, 5, 1);
+		PacmanEngine mapped = new PacmanEngine(grid);
+		mapped.setHeatmap(heatmap);
+		mapped.processInstructions(new String[] { "MOVE", "PLACE 0,2,EAST", "MOVE", "MOVE", "LEFT", "MOVE", "MOVE",
+				"MOVE", "MOVE", "PLACE 0,2,EAST" });
+		Assert.assertEquals(1, mapped.move(5));
+
+		Heatmap.Snapshot snapshot = heatmap.snapshot();
+		Assert.assertEquals(2, snapshot.getVisits(0, 2));
+		Assert.assertEquals(2, snapshot.getVisits(1, 2));
+		Assert.assertEquals(5, snapshot.getRejectedMoves(1, 2));
+		Assert.assertEquals(1, snapshot.getVisits(1, 4));
+		Assert.assertEquals(2, snapshot.getRejectedMoves(1, 4));
+		Assert.assertEquals(0, snapshot.getVisits(2, 2));
+
+		// moving several units at once counts as the single moves
+		Heatmap sequential = new Heatmap(5, 5, 1);
+		mapped.setHeatmap(sequential);
+		mapped.place(0, 0, Pacman.Direction.NORTH);
+		for (int i = 0; i < 7; i++) {
+			mapped.move();
+		}
+		heatmap.reset();
+		mapped.setHeatmap(heatmap);
+		mapped.place(0, 0, Pacman.Direction.NORTH);
+		Assert.assertEquals(4, mapped.move(7));
+		for (int y = 0; y < 5; y++) {
+			Assert.assertEquals(sequential.snapshot().getVisits(0, y), heatmap.snapshot().getVisits(0, y));
+			Assert.assertEquals(sequential.snapshot().getRejectedMoves(0, y), heatmap.snapshot().getRejectedMoves(0, y));
+		}
+		Assert.assertEquals(3, heatmap.snapshot().getRejectedMoves(0, 4));
+	}
+
+	@Test
+	void testReportBytes() {
+		ByteBuffer out = ByteBuffer.allocate(64);
+		Assert.assertFalse("Report without placing must fail.", engine.report(out));
+		Assert.assertEquals(0, out.position());
+
+		byte[] line = "PLACE 1,2,EAST".getBytes(StandardCharsets.US_ASCII);
+		Assert.assertTrue(engine.processInstruction(line, 0, line.length, out));
+		line = "report".getBytes(StandardCharsets.US_ASCII);
+		Assert.assertTrue(engine.processInstruction(line, 0, line.length, out));
+		Assert.assertTrue(engine.report(out));
+		line = "QUIT".getBytes(StandardCharsets.US_ASCII);
+		Assert.assertFalse(engine.processInstruction(line, 0, line.length, out));
+		Assert.assertEquals("1,2,EAST\n1,2,EAST\n",
+				new String(out.array(), 0, out.position(), StandardCharsets.US_ASCII));
+	}
+
+	@Test
+	void testTrim() {
+		String[] samples = { "", "\n", "\n\n1,2,EAST\n\n3,4,WEST\n", " a \t", "a" };
+		for (String sample : samples) {
+			Assert.assertEquals(sample.trim(), PacmanEngine.trim(new StringBuilder(sample)));
+		}
+	}
+
+	@Test
+	void testListener() {
+		// an engine of its own, a listener on the shared one would outlive the test
+		PacmanEngine listened = new PacmanEngine();
+		StringBuilder changes = new StringBuilder();
+		listened.setListener(new PacmanListener() {
+			@Override
+			public void onChange(Command command, int x, int y, Pacman.Direction direction) {
+				changes.append(command).append(' ').append(x).append(',').append(y).append(',').append(direction)
+						.append(';');
+			}
+
+			@Override
+			public void onReset() {
+				changes.append("RESET;");
+			}
+		});
+		listened.processInstructions(new String[] { "MOVE", "PLACE 0,3,NORTH", "MOVE", "MOVE", "RIGHT", "REPORT" });
+		listened.move(2);
+		listened.reset();
+		Assert.assertEquals("PLACE 0,3,NORTH;MOVE 0,4,NORTH;RIGHT 0,4,EAST;MOVE 1,4,EAST;MOVE 2,4,EAST;RESET;",
+				changes.toString());
+	}
+
+	@Test
+	void testProcessInstructions_Lazy() {
+		String[] script = { "REPORT", "PLACE 1,2,EAST", "MOVE", "REPORT", "QUIT", "LEFT", "MOVE", "REPORT" };
+		List<String> results = engine.processInstructions(Arrays.asList(script).iterator())
+				.collect(Collectors.toList());
+		Assert.assertEquals(Arrays.asList("2,2,EAST", "2,3,NORTH"), results);
+
+		// same results as the whole script at once
+		engine.reset();
+		Assert.assertEquals(String.join("\n", results), engine.processInstructions(script));
+
+		engine.reset();
+		Assert.assertEquals("0,4,SOUTH;0,3,SOUTH;", engine
+				.processInstructions(new BufferedReader(new StringReader("PLACE 0,4,SOUTH\nREPORT\nMOVE\nREPORT\n")))
+				.map(result -> result + ";").collect(Collectors.joining()));
+	}
+
+	@Test
+	void testProcessInstructions_Unbounded() {
+		// an endless script, only read as far as the results are consumed
+		Iterator<String> script = Stream.iterate(0, i -> i + 1)
+				.map(i -> i == 0 ? "PLACE 0,0,EAST" : i % 2 == 1 ? "RIGHT" : "REPORT").iterator();
+		List<String> results = engine.processInstructions(script).limit(4).collect(Collectors.toList());
+		Assert.assertEquals(Arrays.asList("0,0,SOUTH", "0,0,WEST", "0,0,NORTH", "0,0,EAST"), results);
+		Assert.assertEquals("RIGHT", script.next());
+	}
+
+	@Test
+	void testProcessInstructions_Repeat() {
+		// a billion results are expanded a chunk at a time
+		Iterator<String> script = Arrays.asList("PLACE 0,0,NORTH", "REPEAT 1000000000 { MOVE; RIGHT; REPORT }")
+				.iterator();
+		List<String> results = new ArrayList<>();
+		engine.processInstructions(script).limit(5).forEach(results::add);
+		Assert.assertEquals(Arrays.asList("0,1,EAST", "1,1,SOUTH", "1,0,WEST", "0,0,NORTH", "0,1,EAST"), results);
+
+		engine.reset();
+		StringBuilder callback = new StringBuilder();
+		engine.processInstructions(
+				Arrays.asList("PLACE 0,0,NORTH", "DEFINE spin { LEFT; REPORT }", "REPEAT 3 { spin }", "SCORE").iterator(),
+				result -> callback.append(result).append(';'));
+		Assert.assertEquals("0,0,WEST;0,0,SOUTH;0,0,EAST;", callback.toString());
+	}
 }
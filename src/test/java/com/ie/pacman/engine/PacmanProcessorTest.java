@@ -0,0 +1,192 @@
+package com.ie.pacman.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.ie.pacman.model.Pacman.Direction;
+import com.ie.pacman.model.Pellets;
+import com.ie.pacman.model.Report;
+
+class PacmanProcessorTest {
+
+	private ExecutorService executor = Executors.newFixedThreadPool(4);
+
+	@AfterEach
+	void tearDown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Collects the reports, requesting them one at a time once released
+	 */
+	private static final class Collector implements Flow.Subscriber<Report> {
+		final List<Report> reports = Collections.synchronizedList(new ArrayList<>());
+		final CountDownLatch subscribed = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(1);
+		final boolean release;
+		volatile Flow.Subscription subscription;
+		volatile Throwable error;
+
+		Collector(boolean release) {
+			this.release = release;
+		}
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+			subscribed.countDown();
+			if (release) {
+				subscription.request(1);
+			}
+		}
+
+		@Override
+		public void onNext(Report report) {
+			reports.add(report);
+			subscription.request(1);
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			error = throwable;
+			done.countDown();
+		}
+
+		@Override
+		public void onComplete() {
+			done.countDown();
+		}
+	}
+
+	@Test
+	void testReports() throws InterruptedException {
+		// stands in for a remote feed of commands
+		SubmissionPublisher<String> feed = new SubmissionPublisher<>(executor, 16);
+		PacmanProcessor processor = new PacmanProcessor(new PacmanEngine(), executor, 16, 8);
+		Collector collector = new Collector(true);
+		feed.subscribe(processor);
+		processor.subscribe(collector);
+
+		for (String command : new String[] { "REPORT", "PLACE 1,2,EAST", "MOVE", "REPORT", "BLAH", "LEFT", "MOVE",
+				"REPORT" }) {
+			feed.submit(command);
+		}
+		feed.close();
+		Assert.assertTrue(collector.done.await(10, TimeUnit.SECONDS));
+		Assert.assertNull(collector.error);
+		Assert.assertEquals(2, collector.reports.size());
+		Assert.assertEquals(new Report(2, 2, Direction.EAST), collector.reports.get(0));
+		Assert.assertEquals("2,3,NORTH", collector.reports.get(1).toString());
+	}
+
+	@Test
+	void testScore() throws InterruptedException {
+		SubmissionPublisher<String> feed = new SubmissionPublisher<>(executor, 16);
+		PacmanEngine engine = new PacmanEngine();
+		engine.setPellets(Pellets.of(engine.getGrid()));
+		PacmanProcessor processor = new PacmanProcessor(engine, executor, 16, 8);
+		Collector collector = new Collector(true);
+		feed.subscribe(processor);
+		processor.subscribe(collector);
+
+		for (String command : new String[] { "SCORE", "PLACE 0,0,NORTH", "MOVE", "SCORE", "REPORT" }) {
+			feed.submit(command);
+		}
+		feed.close();
+		Assert.assertTrue(collector.done.await(10, TimeUnit.SECONDS));
+		Assert.assertNull(collector.error);
+		Assert.assertEquals(Collections.singletonList(new Report(0, 1, Direction.NORTH)), collector.reports);
+	}
+
+	@Test
+	void testRepeat() throws InterruptedException {
+		SubmissionPublisher<String> feed = new SubmissionPublisher<>(executor, 16);
+		PacmanProcessor processor = new PacmanProcessor(new PacmanEngine(), executor, 1 << 12, 8);
+		Collector collector = new Collector(true);
+		feed.subscribe(processor);
+		processor.subscribe(collector);
+
+		// more reports than fit in a single drain of the engine output
+		for (String command : new String[] { "PLACE 0,0,NORTH", "REPEAT 3 { MOVE; REPORT }",
+				"DEFINE spin { RIGHT; REPORT; SCORE }", "REPEAT 2000 { spin }", "REPORT" }) {
+			feed.submit(command);
+		}
+		feed.close();
+		Assert.assertTrue(collector.done.await(10, TimeUnit.SECONDS));
+		Assert.assertNull(collector.error);
+		Assert.assertEquals(2004, collector.reports.size());
+		Assert.assertEquals("0,1,NORTH", collector.reports.get(0).toString());
+		Assert.assertEquals("0,3,NORTH", collector.reports.get(2).toString());
+		Assert.assertEquals("0,3,EAST", collector.reports.get(3).toString());
+		Assert.assertEquals("0,3,NORTH", collector.reports.get(2002).toString());
+		Assert.assertEquals("0,3,NORTH", collector.reports.get(2003).toString());
+	}
+
+	@Test
+	void testQuit() throws InterruptedException {
+		SubmissionPublisher<String> feed = new SubmissionPublisher<>(executor, 16);
+		PacmanProcessor processor = new PacmanProcessor(new PacmanEngine(), executor, 16, 4);
+		Collector collector = new Collector(true);
+		feed.subscribe(processor);
+		processor.subscribe(collector);
+
+		for (String command : new String[] { "PLACE 0,0,NORTH", "REPORT", "QUIT", "MOVE", "REPORT" }) {
+			feed.submit(command);
+		}
+		Assert.assertTrue(collector.done.await(10, TimeUnit.SECONDS));
+		Assert.assertEquals(Collections.singletonList(new Report(0, 0, Direction.NORTH)), collector.reports);
+		Assert.assertEquals("0,0,NORTH", processor.getEngine().report());
+		feed.close();
+	}
+
+	@Test
+	void testBackpressure() throws InterruptedException {
+		SubmissionPublisher<String> feed = new SubmissionPublisher<>(executor, 16);
+		PacmanProcessor processor = new PacmanProcessor(new PacmanEngine(), executor, 8, 8);
+		Collector collector = new Collector(false);
+		feed.subscribe(processor);
+		processor.subscribe(collector);
+		Assert.assertTrue(collector.subscribed.await(10, TimeUnit.SECONDS));
+		feed.submit("PLACE 0,0,NORTH");
+
+		// the collector requests nothing, a fast producer soon has to drop
+		int accepted = 0;
+		for (int i = 0; i < 10_000; i++) {
+			if (feed.offer("REPORT", 10, TimeUnit.MILLISECONDS, null) < 0) {
+				break;
+			}
+			accepted++;
+		}
+		Assert.assertTrue("accepted " + accepted, accepted < 100);
+		Assert.assertTrue(collector.reports.isEmpty());
+
+		// once demand comes, the backlog drains
+		collector.subscription.request(1);
+		feed.close();
+		Assert.assertTrue(collector.done.await(10, TimeUnit.SECONDS));
+		Assert.assertEquals(accepted, collector.reports.size());
+	}
+
+	@Test
+	void testError() throws InterruptedException {
+		SubmissionPublisher<String> feed = new SubmissionPublisher<>(executor, 16);
+		PacmanProcessor processor = new PacmanProcessor(new PacmanEngine(), executor, 16, 4);
+		Collector collector = new Collector(true);
+		feed.subscribe(processor);
+		processor.subscribe(collector);
+		feed.closeExceptionally(new IllegalStateException("feed lost"));
+		Assert.assertTrue(collector.done.await(10, TimeUnit.SECONDS));
+		Assert.assertEquals("feed lost", collector.error.getMessage());
+	}
+}
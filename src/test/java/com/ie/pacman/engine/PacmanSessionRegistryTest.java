@@ -0,0 +1,136 @@
+package com.ie.pacman.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.jupiter.api.Test;
+
+import com.ie.pacman.model.Grid;
+
+class PacmanSessionRegistryTest {
+
+	private AtomicLong now = new AtomicLong();
+	private PacmanSessionRegistry registry = new PacmanSessionRegistry(4, now::get);
+
+	@Test
+	void testSessionsAreIndependent() {
+		registry.create("a", 5, 5);
+		registry.create("b", 10, 10);
+		registry.processInstruction("a", "PLACE 4,4,NORTH");
+		registry.processInstruction("b", "PLACE 4,4,NORTH");
+		registry.processInstruction("a", "MOVE");
+		registry.processInstruction("b", "MOVE");
+
+		Assert.assertEquals("4,4,NORTH\n", registry.processInstruction("a", "REPORT"));
+		Assert.assertEquals("4,5,NORTH\n", registry.processInstruction("b", "REPORT"));
+		Assert.assertEquals(2, registry.size());
+	}
+
+	@Test
+	void testCreateTwiceFails() {
+		registry.create("a", 5, 5);
+		try {
+			registry.create("a", 5, 5);
+			Assert.fail("Creating an existing session must fail.");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		Assert.assertSame(registry.get("a"), registry.getOrCreate("a", 1, 1));
+	}
+
+	@Test
+	void testSharedGridSharesPlanner() {
+		Grid grid = new Grid(5, 5);
+		PathPlanner planner = registry.create("a", grid).getEngine().getPathPlanner();
+		Assert.assertSame(planner, registry.create("b", grid).getEngine().getPathPlanner());
+		Assert.assertNotSame(planner, registry.create("c", new Grid(5, 5)).getEngine().getPathPlanner());
+		registry.processInstruction("b", "PLACE 0,0,NORTH");
+		Assert.assertEquals("4,4,EAST", registry.get("b").processInstructions(new String[] { "GOTO 4,4", "REPORT" }));
+	}
+
+	@Test
+	void testSharedGridPellets() {
+		Grid grid = new Grid(5, 5);
+		grid.block(2, 2);
+		registry.setPellets(true);
+		PacmanSession a = registry.create("a", grid);
+		a.processInstructions(new String[] { "PLACE 0,0,NORTH", "MOVE", "MOVE" });
+		Assert.assertEquals(21, a.getEngine().getPellets().getRemaining());
+		Assert.assertEquals(24, registry.create("b", grid).getEngine().getPellets().getRemaining());
+
+		// a template of the grid as it is now
+		grid.block(3, 3);
+		Assert.assertEquals(23, registry.create("c", grid).getEngine().getPellets().getRemaining());
+	}
+
+	@Test
+	void testUnknownSession() {
+		Assert.assertNull(registry.get("nobody"));
+		try {
+			registry.processInstruction("nobody", "MOVE");
+			Assert.fail("Unknown sessions must be rejected.");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	void testEvictIdle() {
+		registry.create("old", 5, 5);
+		now.set(TimeUnit.SECONDS.toNanos(5));
+		registry.create("new", 5, 5);
+		now.set(TimeUnit.SECONDS.toNanos(8));
+
+		Assert.assertEquals(1, registry.evictIdle(6, TimeUnit.SECONDS));
+		Assert.assertNull(registry.get("old"));
+		Assert.assertNotNull(registry.get("new"));
+
+		// the lookup above refreshed the session
+		Assert.assertEquals(0, registry.evictIdle(1, TimeUnit.SECONDS));
+		Assert.assertNotNull(registry.remove("new"));
+		Assert.assertEquals(0, registry.size());
+	}
+
+	@Test
+	void testEvictIdle_CommandsRefresh() {
+		// held by its user, as a server connection holds its session
+		PacmanSession session = registry.create("held", 5, 5);
+		now.set(TimeUnit.SECONDS.toNanos(5));
+		session.processInstruction("PLACE 0,0,NORTH");
+		now.set(TimeUnit.SECONDS.toNanos(8));
+
+		Assert.assertEquals(0, registry.evictIdle(6, TimeUnit.SECONDS));
+		now.set(TimeUnit.SECONDS.toNanos(11));
+		Assert.assertEquals(1, registry.evictIdle(6, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void testConcurrentCommandsOnOneSession() throws Exception {
+		PacmanSession session = registry.create("s", 5, 5);
+		session.processInstruction("PLACE 0,0,NORTH");
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < 4; t++) {
+				futures.add(pool.submit(() -> {
+					for (int i = 0; i < 10_000; i++) {
+						session.processInstruction("RIGHT");
+					}
+				}));
+			}
+			for (Future<?> f : futures) {
+				f.get();
+			}
+		} finally {
+			pool.shutdown();
+		}
+		// 40000 right turns bring Pacman back to north
+		Assert.assertEquals("0,0,NORTH", session.getEngine().report());
+	}
+}
@@ -0,0 +1,199 @@
+package com.ie.pacman.engine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Assert;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.ie.pacman.metrics.Heatmap;
+import com.ie.pacman.model.Grid;
+import com.ie.pacman.model.Pellets;
+import com.ie.pacman.model.Pacman.Direction;
+
+class ParallelReplayerTest {
+
+	private static final String[] COMMANDS = { "MOVE", "MOVE", "MOVE", "LEFT", "RIGHT", "REPORT", "move ", "BLAH",
+			"QUIT", "PLACE 1,2", "GOTO 0,0", "GOTO 4,2", "SCORE" };
+	private static final String[] DIRECTIONS = { "NORTH", "EAST", "SOUTH", "WEST" };
+
+	private ForkJoinPool pool = new ForkJoinPool(4);
+	private Path log;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		log = Files.createTempFile("pacman", ".log");
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		pool.shutdown();
+		Files.deleteIfExists(log);
+	}
+
+	private String[] script(int length, int placeEvery, int unitsX, int unitsY) {
+		Random random = new Random(length);
+		String[] lines = new String[length];
+		for (int i = 0; i < length; i++) {
+			if (random.nextInt(placeEvery) == 0) {
+				// some PLACEs fall outside of the grid
+				lines[i] = "PLACE " + random.nextInt(unitsX + 1) + "," + random.nextInt(unitsY + 1) + ","
+						+ DIRECTIONS[random.nextInt(4)];
+			} else {
+				lines[i] = COMMANDS[random.nextInt(COMMANDS.length)];
+			}
+		}
+		return lines;
+	}
+
+	private void assertSameAsSequential(String[] lines, Grid grid, int segmentSize, int maxTableStates)
+			throws IOException {
+		Files.write(log, String.join("\r\n", lines).getBytes(StandardCharsets.US_ASCII));
+
+		PacmanEngine sequential = new PacmanEngine(grid);
+		String expected = sequential.processInstructions(lines);
+
+		PacmanEngine parallel = new PacmanEngine(grid);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new ParallelReplayer(pool, segmentSize, maxTableStates).replay(log, parallel, Channels.newChannel(out));
+
+		Assert.assertEquals(expected, out.toString(StandardCharsets.US_ASCII.name()).trim());
+		Assert.assertEquals(sequential.report(), parallel.report());
+	}
+
+	@Test
+	void testReplay_Tabulated() throws IOException {
+		assertSameAsSequential(script(20_000, 500, 5, 5), new Grid(5, 5), 256, ParallelReplayer.DEFAULT_MAX_TABLE_STATES);
+	}
+
+	@Test
+	void testReplay_SegmentsWithoutPlace() throws IOException {
+		// PLACEs are much rarer than segments
+		assertSameAsSequential(script(20_000, 5_000, 6, 3), new Grid(6, 3), 4096, ParallelReplayer.DEFAULT_MAX_TABLE_STATES);
+	}
+
+	@Test
+	void testReplay_Obstacles() throws IOException {
+		Grid grid = new Grid(5, 5);
+		grid.block(1, 1);
+		grid.block(3, 2);
+		assertSameAsSequential(script(20_000, 1_000, 5, 5), grid, 1024, ParallelReplayer.DEFAULT_MAX_TABLE_STATES);
+	}
+
+	@Test
+	void testReplay_NotTabulated() throws IOException {
+		assertSameAsSequential(script(20_000, 2_000, 5, 5), new Grid(5, 5), 256, 0);
+	}
+
+	@Test
+	void testReplay_SingleSegment() throws IOException {
+		assertSameAsSequential(new String[] { "PLACE 1,2,EAST", "MOVE", "MOVE", "LEFT", "MOVE", "REPORT" },
+				new Grid(5, 5), ParallelReplayer.DEFAULT_SEGMENT_SIZE, ParallelReplayer.DEFAULT_MAX_TABLE_STATES);
+	}
+
+	@Test
+	void testReplay_Heatmap() throws IOException {
+		String[] lines = script(5_000, 100, 5, 5);
+		Files.write(log, String.join("\n", lines).getBytes(StandardCharsets.US_ASCII));
+		Heatmap expected = new Heatmap(5, 5);
+		PacmanEngine sequential = new PacmanEngine();
+		sequential.setHeatmap(expected);
+		sequential.processInstructions(lines);
+
+		Heatmap actual = new Heatmap(5, 5);
+		PacmanEngine parallel = new PacmanEngine();
+		parallel.setHeatmap(actual);
+		new ParallelReplayer(pool, 512, ParallelReplayer.DEFAULT_MAX_TABLE_STATES).replay(log, parallel,
+				Channels.newChannel(new ByteArrayOutputStream()));
+		for (int x = 0; x < 5; x++) {
+			for (int y = 0; y < 5; y++) {
+				Assert.assertEquals(expected.snapshot().getVisits(x, y), actual.snapshot().getVisits(x, y));
+				Assert.assertEquals(expected.snapshot().getRejectedMoves(x, y),
+						actual.snapshot().getRejectedMoves(x, y));
+			}
+		}
+	}
+
+	@Test
+	void testReplay_ListenerNotNotified() throws IOException {
+		String[] lines = script(5_000, 100, 5, 5);
+		Files.write(log, String.join("\n", lines).getBytes(StandardCharsets.US_ASCII));
+		StringBuilder changes = new StringBuilder();
+		PacmanEngine parallel = new PacmanEngine();
+		PacmanListener listener = new PacmanListener() {
+			@Override
+			public void onChange(Command command, int x, int y, Direction direction) {
+				changes.append(command).append(';');
+			}
+
+			@Override
+			public void onReset() {
+				changes.append("RESET;");
+			}
+		};
+		parallel.setListener(listener);
+		new ParallelReplayer(pool, 512, ParallelReplayer.DEFAULT_MAX_TABLE_STATES).replay(log, parallel,
+				Channels.newChannel(new ByteArrayOutputStream()));
+		Assert.assertEquals("", changes.toString());
+		Assert.assertSame(listener, parallel.getListener());
+		Assert.assertTrue(parallel.isPlaced());
+	}
+
+	@Test
+	void testReplay_Pellets() throws IOException {
+		String[] lines = script(5_000, 100, 5, 5);
+		lines[0] = "PLACE 0,0,NORTH"; // no REPORT before the first PLACE
+		Files.write(log, String.join("\n", lines).getBytes(StandardCharsets.US_ASCII));
+		Grid grid = new Grid(5, 5);
+		PacmanEngine sequential = new PacmanEngine(grid);
+		sequential.setPellets(Pellets.of(grid));
+		String expected = sequential.processInstructions(lines);
+
+		PacmanEngine parallel = new PacmanEngine(grid);
+		parallel.setPellets(Pellets.of(grid));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new ParallelReplayer(pool, 512, ParallelReplayer.DEFAULT_MAX_TABLE_STATES).replay(log, parallel,
+				Channels.newChannel(out));
+		Assert.assertEquals(expected, out.toString(StandardCharsets.US_ASCII.name()).trim());
+		Assert.assertEquals(sequential.score(), parallel.score());
+		Assert.assertEquals(sequential.report(), parallel.report());
+	}
+
+	@Test
+	void testReplay_Macros() throws IOException {
+		String[] lines = script(5_000, 100, 5, 5);
+		lines[0] = "PLACE 0,0,NORTH";
+		lines[1000] = "DEFINE zigzag { MOVE; RIGHT; MOVE; LEFT; REPORT }";
+		lines[3000] = "REPEAT 7 { zigzag; SCORE }";
+		lines[4000] = "zigzag";
+		Files.write(log, String.join("\n", lines).getBytes(StandardCharsets.US_ASCII));
+		PacmanEngine sequential = new PacmanEngine();
+		String expected = sequential.processInstructions(lines);
+
+		PacmanEngine parallel = new PacmanEngine();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new ParallelReplayer(pool, 512, ParallelReplayer.DEFAULT_MAX_TABLE_STATES).replay(log, parallel,
+				Channels.newChannel(out));
+		Assert.assertEquals(expected, out.toString(StandardCharsets.US_ASCII.name()).trim());
+		Assert.assertEquals(sequential.report(), parallel.report());
+	}
+
+	@Test
+	void testReplay_ContinuesFromEngineState() throws IOException {
+		Files.write(log, "MOVE\nREPORT\n".getBytes(StandardCharsets.US_ASCII));
+		PacmanEngine engine = new PacmanEngine();
+		engine.place(0, 0, Direction.NORTH);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new ParallelReplayer(pool, 4, 0).replay(log, engine, Channels.newChannel(out));
+		Assert.assertEquals("0,1,NORTH\n", out.toString(StandardCharsets.US_ASCII.name()));
+		Assert.assertEquals("0,1,NORTH", engine.report());
+	}
+}
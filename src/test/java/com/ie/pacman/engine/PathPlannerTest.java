@@ -0,0 +1,145 @@
+package com.ie.pacman.engine;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.jupiter.api.Test;
+
+import com.ie.pacman.model.Grid;
+import com.ie.pacman.model.Pacman.Direction;
+
+class PathPlannerTest {
+
+	private static final Direction[] DIRECTIONS = Direction.values();
+
+	/**
+	 * Forward breadth first search over the engine itself
+	 *
+	 * @return the number of commands from the start to the target, or -1
+	 */
+	private static int shortest(Grid grid, int x, int y, Direction direction, int toX, int toY) {
+		int[] seen = new int[grid.getUnitsX() * grid.getUnitsY() * 4];
+		Arrays.fill(seen, -1);
+		PacmanEngine engine = new PacmanEngine(grid);
+		Deque<int[]> queue = new ArrayDeque<>();
+		queue.add(new int[] { x, y, direction.ordinal() });
+		seen[(y * grid.getUnitsX() + x) * 4 + direction.ordinal()] = 0;
+		while (!queue.isEmpty()) {
+			int[] s = queue.poll();
+			int distance = seen[(s[1] * grid.getUnitsX() + s[0]) * 4 + s[2]];
+			if (s[0] == toX && s[1] == toY) {
+				return distance;
+			}
+			for (int c = 0; c < 3; c++) {
+				engine.place(s[0], s[1], DIRECTIONS[s[2]]);
+				if (c == 0) {
+					engine.move();
+				} else if (c == 1) {
+					engine.turnLeft();
+				} else {
+					engine.turnRight();
+				}
+				int[] n = { engine.getPacman().getX(), engine.getPacman().getY(),
+						engine.getPacman().getDirection().ordinal() };
+				int index = (n[1] * grid.getUnitsX() + n[0]) * 4 + n[2];
+				if (seen[index] < 0) {
+					seen[index] = distance + 1;
+					queue.add(n);
+				}
+			}
+		}
+		return -1;
+	}
+
+	@Test
+	void testPlan_Shortest() {
+		Random random = new Random(14);
+		Grid grid = new Grid(7, 5);
+		for (int i = 0; i < 8; i++) {
+			grid.block(random.nextInt(7), random.nextInt(5));
+		}
+		PathPlanner planner = new PathPlanner(grid);
+		PacmanEngine engine = new PacmanEngine(grid);
+		for (int i = 0; i < 500; i++) {
+			int x = random.nextInt(7);
+			int y = random.nextInt(5);
+			int toX = random.nextInt(7);
+			int toY = random.nextInt(5);
+			Direction direction = DIRECTIONS[random.nextInt(4)];
+			if (!grid.isValidXY(x, y) || !grid.isValidXY(toX, toY)) {
+				continue;
+			}
+			int expected = shortest(grid, x, y, direction, toX, toY);
+			List<Command> plan = planner.plan(x, y, direction, toX, toY);
+			if (expected < 0) {
+				Assert.assertNull(plan);
+				continue;
+			}
+			Assert.assertEquals(expected, plan.size());
+			engine.place(x, y, direction);
+			for (Command command : plan) {
+				engine.processInstruction(command.name());
+			}
+			Assert.assertEquals(toX, engine.getPacman().getX());
+			Assert.assertEquals(toY, engine.getPacman().getY());
+		}
+	}
+
+	@Test
+	void testPlan_Obstacles() {
+		Grid grid = new Grid(3, 3);
+		grid.block(1, 0);
+		grid.block(1, 1);
+		PathPlanner planner = new PathPlanner(grid);
+		Assert.assertEquals(Arrays.asList(Command.MOVE, Command.MOVE, Command.RIGHT, Command.MOVE, Command.MOVE,
+				Command.RIGHT, Command.MOVE, Command.MOVE), planner.plan(0, 0, Direction.NORTH, 2, 0));
+		Assert.assertTrue(planner.plan(2, 0, Direction.WEST, 2, 0).isEmpty());
+		Assert.assertNull(planner.plan(0, 0, Direction.NORTH, 1, 1));
+		Assert.assertNull(planner.plan(0, 0, Direction.NORTH, 3, 0));
+		Assert.assertNull(planner.distances(-1, 0));
+	}
+
+	@Test
+	void testDistances_Unreachable() {
+		Grid grid = new Grid(3, 3);
+		grid.block(1, 0);
+		grid.block(1, 1);
+		grid.block(1, 2);
+		PathPlanner.DistanceField field = new PathPlanner(grid).distances(2, 0);
+		Assert.assertEquals(-1, field.distance(0, 0, Direction.EAST));
+		Assert.assertNull(field.nextStep(0, 0, Direction.EAST));
+		Assert.assertEquals(1, field.distance(2, 1, Direction.SOUTH));
+		Assert.assertEquals(Command.MOVE, field.nextStep(2, 1, Direction.SOUTH));
+	}
+
+	@Test
+	void testDistances_Cache() {
+		Grid grid = new Grid(5, 5);
+		PathPlanner planner = new PathPlanner(grid, 2, PathPlanner.DEFAULT_MAX_STATES);
+		PathPlanner.DistanceField field = planner.distances(4, 4);
+		Assert.assertSame(field, planner.distances(4, 4));
+		Assert.assertEquals(10, field.distance(0, 0, Direction.WEST));
+
+		// any change of the grid discards the cached fields
+		grid.block(2, 2);
+		PathPlanner.DistanceField changed = planner.distances(4, 4);
+		Assert.assertNotSame(field, changed);
+		Assert.assertSame(changed, planner.distances(4, 4));
+
+		// least recently used first
+		planner.distances(0, 0);
+		planner.distances(1, 1);
+		Assert.assertNotSame(changed, planner.distances(4, 4));
+	}
+
+	@Test
+	void testDistances_TooLarge() {
+		Grid grid = new Grid(10, 10);
+		Assert.assertNull(new PathPlanner(grid, 1, 399).distances(0, 0));
+		Assert.assertNotNull(new PathPlanner(grid, 1, 400).distances(0, 0));
+	}
+}
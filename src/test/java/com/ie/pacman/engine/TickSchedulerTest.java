@@ -0,0 +1,140 @@
+package com.ie.pacman.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Assert;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.ie.pacman.metrics.TickMetrics;
+
+class TickSchedulerTest {
+
+	private static final String[] COMMANDS = { "MOVE", "MOVE", "LEFT", "RIGHT", "REPORT", "PLACE 1,1,EAST", "BLAH" };
+
+	private ForkJoinPool pool = new ForkJoinPool(4);
+	private PacmanSessionRegistry registry = new PacmanSessionRegistry();
+	private TickScheduler scheduler = new TickScheduler(pool, 1, TimeUnit.MILLISECONDS, 4);
+
+	@AfterEach
+	void tearDown() {
+		scheduler.close();
+		pool.shutdown();
+	}
+
+	@Test
+	void testTick_AppliesQueuedCommands() throws Exception {
+		PacmanSession session = registry.create("a", 5, 5);
+		scheduler.submit(session, "PLACE 0,0,NORTH");
+		scheduler.submit(session, "MOVE");
+		CompletableFuture<String> report = scheduler.submit(session, "REPORT");
+		Assert.assertFalse(report.isDone());
+		Assert.assertEquals("", session.processInstruction("REPORT").trim());
+
+		Assert.assertEquals(3, scheduler.tick());
+		Assert.assertEquals("0,1,NORTH\n", report.get());
+		Assert.assertEquals(0, scheduler.tick());
+
+		TickMetrics metrics = scheduler.getMetrics();
+		Assert.assertEquals(2, metrics.getTickCount());
+		Assert.assertEquals(3, metrics.getCommandCount());
+		Assert.assertEquals(0, metrics.getQueueDepth());
+	}
+
+	@Test
+	void testTick_ManySessions() throws Exception {
+		TickScheduler large = new TickScheduler(pool, 1, TimeUnit.MILLISECONDS, 1 << 10);
+		Random random = new Random(15);
+		List<PacmanSession> sessions = new ArrayList<>();
+		List<PacmanEngine> expected = new ArrayList<>();
+		List<List<CompletableFuture<String>>> results = new ArrayList<>();
+		List<List<String>> expectedResults = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			sessions.add(registry.create("s" + i, 5, 5));
+			expected.add(new PacmanEngine());
+			results.add(new ArrayList<>());
+			expectedResults.add(new ArrayList<>());
+		}
+		for (int tick = 0; tick < 10; tick++) {
+			for (int i = 0; i < 1_000; i++) {
+				int s = random.nextInt(sessions.size());
+				String command = COMMANDS[random.nextInt(COMMANDS.length)];
+				results.get(s).add(large.submit(sessions.get(s), command));
+				expectedResults.get(s).add(expected.get(s).processInstruction(command));
+			}
+			large.tick();
+		}
+		for (int s = 0; s < sessions.size(); s++) {
+			for (int i = 0; i < results.get(s).size(); i++) {
+				Assert.assertEquals(expectedResults.get(s).get(i), results.get(s).get(i).get());
+			}
+		}
+		Assert.assertEquals(10_000, large.getMetrics().getCommandCount());
+	}
+
+	@Test
+	void testSubmit_QueueFull() throws Exception {
+		PacmanSession session = registry.create("a", 5, 5);
+		for (int i = 0; i < 4; i++) {
+			scheduler.submit(session, "MOVE");
+		}
+		try {
+			scheduler.submit(session, "MOVE");
+			Assert.fail("A full queue must reject commands.");
+		} catch (RejectedExecutionException e) {
+			// expected
+		}
+		Assert.assertEquals(4, scheduler.getMetrics().getQueueDepth());
+		Assert.assertEquals(1, scheduler.getMetrics().getRejectedCount());
+
+		// other sessions have their own queue
+		scheduler.submit(registry.create("b", 5, 5), "MOVE");
+		Assert.assertEquals(5, scheduler.tick());
+		scheduler.submit(session, "MOVE");
+	}
+
+	@Test
+	void testRemove() throws Exception {
+		PacmanSession session = registry.create("a", 5, 5);
+		CompletableFuture<String> result = scheduler.submit(session, "PLACE 0,0,NORTH");
+		Assert.assertEquals(1, scheduler.remove(session));
+		Assert.assertTrue(result.isCancelled() || result.isCompletedExceptionally());
+		try {
+			result.get();
+			Assert.fail("Dropped commands must not complete.");
+		} catch (CancellationException | ExecutionException e) {
+			// expected
+		}
+		Assert.assertEquals(0, scheduler.getMetrics().getQueueDepth());
+		Assert.assertEquals(0, scheduler.tick());
+
+		// the session can still be used
+		scheduler.submit(session, "PLACE 0,0,NORTH");
+		CompletableFuture<String> report = scheduler.submit(session, "REPORT");
+		Assert.assertEquals(2, scheduler.tick());
+		Assert.assertEquals("0,0,NORTH\n", report.get());
+	}
+
+	@Test
+	void testStart() throws InterruptedException, ExecutionException, TimeoutException {
+		PacmanSession session = registry.create("a", 5, 5);
+		scheduler.start();
+		scheduler.submit(session, "PLACE 2,2,WEST");
+		Assert.assertEquals("2,2,WEST\n", scheduler.submit(session, "REPORT").get(10, TimeUnit.SECONDS));
+		scheduler.close();
+		long ticks = scheduler.getMetrics().getTickCount();
+		Assert.assertTrue(ticks > 0);
+		Thread.sleep(10);
+		Assert.assertEquals(ticks, scheduler.getMetrics().getTickCount());
+		Assert.assertTrue(scheduler.getMetrics().getTickDurationMax() >= 0);
+	}
+}
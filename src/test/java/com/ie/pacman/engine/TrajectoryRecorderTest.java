@@ -0,0 +1,125 @@
+package com.ie.pacman.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.jupiter.api.Test;
+
+import com.ie.pacman.model.Grid;
+import com.ie.pacman.model.Pacman.Direction;
+import com.ie.pacman.model.Report;
+
+class TrajectoryRecorderTest {
+
+	private static final String[] COMMANDS = { "MOVE", "MOVE", "MOVE", "LEFT", "RIGHT", "REPORT", "GOTO 0,0" };
+	private static final String[] DIRECTIONS = { "NORTH", "EAST", "SOUTH", "WEST" };
+
+	/**
+	 * Runs a random script, keeping the state after every step next to the
+	 * recorder
+	 */
+	private static List<Report> record(TrajectoryRecorder recorder, int length) {
+		List<Report> states = new ArrayList<>();
+		states.add(null);
+		Grid grid = new Grid(6, 4);
+		grid.block(2, 1);
+		grid.block(4, 2);
+		PacmanEngine engine = new PacmanEngine(grid);
+		engine.setListener(new PacmanListener() {
+			@Override
+			public void onChange(Command command, int x, int y, Direction direction) {
+				recorder.onChange(command, x, y, direction);
+				states.add(new Report(x, y, direction));
+			}
+
+			@Override
+			public void onReset() {
+				long before = recorder.getStepCount();
+				recorder.onReset();
+				if (recorder.getStepCount() > before) {
+					states.add(null);
+				}
+			}
+		});
+		Random random = new Random(length);
+		for (int i = 0; i < length; i++) {
+			int r = random.nextInt(200);
+			if (r == 0) {
+				engine.reset();
+			} else if (r < 4) {
+				engine.processInstruction("PLACE " + random.nextInt(7) + "," + random.nextInt(5) + ","
+						+ DIRECTIONS[random.nextInt(4)]);
+			} else {
+				engine.processInstruction(COMMANDS[random.nextInt(COMMANDS.length)]);
+			}
+		}
+		return states;
+	}
+
+	private static long firstVisit(List<Report> states, int x, int y, long from) {
+		for (int s = (int) from; s < states.size(); s++) {
+			Report r = states.get(s);
+			if (r != null && r.getX() == x && r.getY() == y) {
+				return s;
+			}
+		}
+		return -1;
+	}
+
+	@Test
+	void testGetPosition() {
+		for (int interval : new int[] { 1, 7, TrajectoryRecorder.DEFAULT_CHECKPOINT_INTERVAL }) {
+			TrajectoryRecorder recorder = new TrajectoryRecorder(interval);
+			List<Report> states = record(recorder, 20_000);
+			Assert.assertEquals(states.size() - 1, recorder.getStepCount());
+			for (int s = 0; s < states.size(); s++) {
+				Assert.assertEquals("step " + s, states.get(s), recorder.getPosition(s));
+			}
+		}
+	}
+
+	@Test
+	void testFindFirstVisit() {
+		TrajectoryRecorder recorder = new TrajectoryRecorder(16);
+		List<Report> states = record(recorder, 5_000);
+		Random random = new Random(18);
+		for (int i = 0; i < 500; i++) {
+			int x = random.nextInt(7);
+			int y = random.nextInt(5);
+			long from = random.nextInt(states.size() + 1);
+			Assert.assertEquals(firstVisit(states, x, y, from), recorder.findFirstVisit(x, y, from));
+		}
+		Assert.assertEquals(firstVisit(states, 0, 0, 0), recorder.findFirstVisit(0, 0));
+		Assert.assertEquals(-1, recorder.findFirstVisit(2, 1));
+	}
+
+	@Test
+	void testCheckpoints() {
+		TrajectoryRecorder recorder = new TrajectoryRecorder(3);
+		PacmanEngine engine = new PacmanEngine();
+		engine.setListener(recorder);
+		engine.processInstructions(new String[] { "MOVE", "PLACE 0,0,NORTH", "MOVE", "MOVE", "MOVE", "MOVE", "MOVE",
+				"RIGHT", "PLACE 4,4,WEST" });
+		// rejected commands are not steps
+		Assert.assertEquals(7, recorder.getStepCount());
+		// step 0, both PLACEs and every 3 steps
+		Assert.assertEquals(4, recorder.getCheckpointCount());
+		Assert.assertNull(recorder.getPosition(0));
+		Assert.assertEquals("0,4,NORTH", recorder.getPosition(5).toString());
+		Assert.assertEquals("0,4,EAST", recorder.getPosition(6).toString());
+		Assert.assertEquals(3, recorder.findFirstVisit(0, 2));
+
+		engine.reset();
+		engine.reset();
+		Assert.assertEquals(8, recorder.getStepCount());
+		Assert.assertNull(recorder.getPosition(8));
+		try {
+			recorder.getPosition(9);
+			Assert.fail("Steps not recorded yet must be rejected.");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
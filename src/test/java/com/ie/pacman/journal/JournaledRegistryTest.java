@@ -0,0 +1,260 @@
+package com.ie.pacman.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import org.junit.Assert;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.ie.pacman.engine.PacmanSessionRegistry;
+import com.ie.pacman.model.Grid;
+
+class JournaledRegistryTest {
+
+	private Path dir;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		dir = Files.createTempDirectory("pacman-journal");
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		try (Stream<Path> files = Files.walk(dir)) {
+			files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+		}
+	}
+
+	@Test
+	void testRecoverFromJournal() throws IOException {
+		try (JournaledRegistry journaled = open(0)) {
+			journaled.create("a", 5, 5);
+			journaled.create("b", 10, 10);
+			journaled.processInstruction("a", "PLACE 1,2,EAST");
+			journaled.processInstruction("a", "MOVE");
+			journaled.processInstruction("a", "LEFT");
+			journaled.processInstruction("a", "MOVE");
+			journaled.processInstruction("a", "MOVE");
+			journaled.processInstruction("a", "MOVE"); // rejected
+			journaled.processInstruction("b", "PLACE 9,9,SOUTH");
+			journaled.processInstruction("b", "RIGHT");
+			journaled.processInstruction("b", "REPORT");
+		}
+		try (JournaledRegistry journaled = open(0)) {
+			Assert.assertEquals(2, journaled.getRegistry().size());
+			Assert.assertEquals("2,4,NORTH\n", journaled.processInstruction("a", "REPORT"));
+			Assert.assertEquals("9,9,WEST\n", journaled.processInstruction("b", "REPORT"));
+			// still journaled after a recovery
+			journaled.processInstruction("b", "MOVE");
+		}
+		try (JournaledRegistry journaled = open(0)) {
+			Assert.assertEquals("8,9,WEST\n", journaled.processInstruction("b", "REPORT"));
+		}
+	}
+
+	@Test
+	void testSnapshots() throws IOException {
+		try (JournaledRegistry journaled = open(100)) {
+			journaled.create("a", 5, 5);
+			journaled.processInstruction("a", "PLACE 0,0,NORTH");
+			for (int i = 0; i < 1000; i++) {
+				journaled.processInstruction("a", i % 8 < 4 ? "MOVE" : "RIGHT");
+			}
+			journaled.create("b", 5, 5);
+			journaled.processInstruction("b", "PLACE 2,2,WEST");
+			journaled.processInstruction("b", "MOVE");
+		}
+		// the journal is truncated at every snapshot
+		Assert.assertTrue(Journal.segments(dir).size() <= 2);
+		Assert.assertTrue(Files.size(Journal.segmentPath(dir, Journal.segments(dir).get(0))) < 100 * 20);
+
+		try (JournaledRegistry journaled = open(100)) {
+			Assert.assertEquals("0,4,NORTH\n", journaled.processInstruction("a", "REPORT"));
+			Assert.assertEquals("1,2,WEST\n", journaled.processInstruction("b", "REPORT"));
+			journaled.snapshot();
+			Assert.assertTrue(journaled.remove("a"));
+			Assert.assertFalse(journaled.remove("a"));
+		}
+		try (JournaledRegistry journaled = open(100)) {
+			Assert.assertNull(journaled.get("a"));
+			Assert.assertEquals("1,2,WEST\n", journaled.processInstruction("b", "REPORT"));
+		}
+	}
+
+	@Test
+	void testMacros() throws IOException {
+		try (JournaledRegistry journaled = open(0)) {
+			journaled.create("a", 5, 5);
+			journaled.processInstruction("a", "PLACE 0,0,NORTH");
+			journaled.processInstruction("a", "DEFINE step { MOVE; RIGHT }");
+			journaled.processInstruction("a", "DEFINE lap { step; step; step; step }");
+			// redefined, lap keeps calling the first one
+			journaled.processInstruction("a", "DEFINE step { LEFT }");
+			// every step would be journaled, rejected before it runs
+			Assert.assertEquals("", journaled.processInstruction("a", "REPEAT 1000000000000 { MOVE; RIGHT }"));
+			Assert.assertEquals("0,0,NORTH\n", journaled.processInstruction("a", "REPORT"));
+		}
+		try (JournaledRegistry journaled = open(0)) {
+			Assert.assertEquals("0,0,NORTH\n", journaled.processInstruction("a", "REPEAT 1 { REPEAT 3 { lap }; REPORT }"));
+			Assert.assertEquals("0,0,WEST\n", journaled.processInstruction("a", "REPEAT 1 { step; REPORT }"));
+			journaled.snapshot();
+		}
+		try (JournaledRegistry journaled = open(0)) {
+			Assert.assertEquals("1,0,WEST\n", journaled.processInstruction("a", "REPEAT 1 { lap; REPORT }"));
+			Assert.assertEquals("1,0,SOUTH\n", journaled.processInstruction("a", "REPEAT 1 { step; REPORT }"));
+		}
+	}
+
+	@Test
+	void testPellets() throws IOException {
+		PacmanSessionRegistry registry = new PacmanSessionRegistry(4);
+		registry.setPellets(true);
+		try (JournaledRegistry journaled = JournaledRegistry.open(dir, registry, 0)) {
+			journaled.create("a", 5, 5);
+			journaled.processInstruction("a", "PLACE 0,0,EAST");
+			journaled.processInstruction("a", "REPEAT 4 { MOVE }");
+			Assert.assertEquals("50,20\n", journaled.processInstruction("a", "SCORE"));
+		}
+		registry = new PacmanSessionRegistry(4);
+		registry.setPellets(true);
+		try (JournaledRegistry journaled = JournaledRegistry.open(dir, registry, 0)) {
+			// eaten again as the moves are replayed
+			Assert.assertEquals("50,20\n", journaled.processInstruction("a", "SCORE"));
+			journaled.processInstruction("a", "LEFT");
+			journaled.processInstruction("a", "MOVE");
+			journaled.snapshot();
+		}
+		registry = new PacmanSessionRegistry(4);
+		registry.setPellets(true);
+		try (JournaledRegistry journaled = JournaledRegistry.open(dir, registry, 0)) {
+			// read back from the snapshot
+			Assert.assertEquals("60,19\n", journaled.processInstruction("a", "SCORE"));
+			journaled.processInstruction("a", "PLACE 0,0,NORTH");
+			Assert.assertEquals("60,19\n", journaled.processInstruction("a", "SCORE"));
+		}
+	}
+
+	@Test
+	void testTornRecord() throws IOException {
+		try (JournaledRegistry journaled = open(0)) {
+			journaled.create("a", 5, 5);
+			journaled.processInstruction("a", "PLACE 1,1,NORTH");
+			journaled.processInstruction("a", "MOVE");
+		}
+		// a crash in the middle of the last write
+		Path segment = Journal.segmentPath(dir, Journal.segments(dir).get(0));
+		try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - 3);
+		}
+		try (JournaledRegistry journaled = open(0)) {
+			Assert.assertEquals("1,1,NORTH\n", journaled.processInstruction("a", "REPORT"));
+			journaled.processInstruction("a", "RIGHT");
+		}
+		try (JournaledRegistry journaled = open(0)) {
+			Assert.assertEquals("1,1,EAST\n", journaled.processInstruction("a", "REPORT"));
+		}
+	}
+
+	@Test
+	void testCorruptSegment() throws IOException {
+		try (JournaledRegistry journaled = open(0)) {
+			journaled.create("a", 5, 5);
+			journaled.processInstruction("a", "PLACE 1,1,NORTH");
+		}
+		try (JournaledRegistry journaled = open(0)) {
+			journaled.processInstruction("a", "MOVE");
+		}
+		Path first = Journal.segmentPath(dir, Journal.segments(dir).get(0));
+		try (FileChannel channel = FileChannel.open(first, StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.wrap(new byte[] { 0x7f }), 6);
+		}
+		try (JournaledRegistry journaled = open(0)) {
+			Assert.fail("A corrupt segment must not be recovered.");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	@Test
+	void testGridsAndReset() throws IOException {
+		Grid grid = new Grid(6, 4);
+		grid.block(3, 0);
+		grid.block(5, 3);
+		try (JournaledRegistry journaled = open(0)) {
+			journaled.create("a", grid);
+			journaled.create("b", grid);
+			journaled.processInstruction("a", "PLACE 0,0,EAST");
+			journaled.processInstruction("b", "PLACE 0,0,EAST");
+			journaled.getRegistry().get("b").getEngine().reset();
+			journaled.processInstruction("b", "REPORT");
+			journaled.snapshot();
+			journaled.create("c", grid);
+		}
+		try (JournaledRegistry journaled = open(0)) {
+			Grid restored = journaled.get("a").getEngine().getGrid();
+			Assert.assertSame(restored, journaled.get("b").getEngine().getGrid());
+			Assert.assertTrue(restored.isBlocked(3, 0));
+			Assert.assertTrue(restored.isBlocked(5, 3));
+			Assert.assertTrue(journaled.get("c").getEngine().getGrid().isBlocked(5, 3));
+			Assert.assertEquals(6, restored.getUnitsX());
+			Assert.assertEquals(4, restored.getUnitsY());
+			Assert.assertEquals("\n", journaled.processInstruction("b", "REPORT"));
+			journaled.processInstruction("a", "MOVE");
+			journaled.processInstruction("a", "MOVE");
+			journaled.processInstruction("a", "MOVE");
+			Assert.assertEquals("2,0,EAST\n", journaled.processInstruction("a", "REPORT"));
+		}
+	}
+
+	@Test
+	void testConcurrentSessions() throws Exception {
+		int threads = 8;
+		int commands = 300;
+		String[] expected = new String[threads];
+		try (JournaledRegistry journaled = open(500)) {
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+			try {
+				List<Future<String>> futures = new ArrayList<>();
+				for (int t = 0; t < threads; t++) {
+					String id = "s" + t;
+					int seed = t;
+					futures.add(executor.submit(() -> {
+						journaled.create(id, 7, 7);
+						journaled.processInstruction(id, "PLACE " + seed % 7 + ",3,NORTH");
+						for (int i = 0; i < commands; i++) {
+							journaled.processInstruction(id, (i + seed) % 5 == 0 ? "LEFT" : "MOVE");
+						}
+						return journaled.processInstruction(id, "REPORT");
+					}));
+				}
+				for (int t = 0; t < threads; t++) {
+					expected[t] = futures.get(t).get();
+				}
+			} finally {
+				executor.shutdown();
+			}
+		}
+		try (JournaledRegistry journaled = open(500)) {
+			for (int t = 0; t < threads; t++) {
+				Assert.assertEquals(expected[t], journaled.processInstruction("s" + t, "REPORT"));
+			}
+		}
+	}
+
+	private JournaledRegistry open(long snapshotInterval) throws IOException {
+		return JournaledRegistry.open(dir, new PacmanSessionRegistry(4), snapshotInterval);
+	}
+}
@@ -0,0 +1,111 @@
+package com.ie.pacman.metrics;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.jupiter.api.Test;
+
+class HeatmapTest {
+
+	@Test
+	void testRecord() {
+		Heatmap heatmap = new Heatmap(3, 2, 1);
+		heatmap.recordVisit(0, 0);
+		heatmap.recordVisit(2, 1);
+		heatmap.recordVisit(2, 1);
+		heatmap.recordRejectedMoves(2, 1, 5);
+		// outside of the heatmap
+		heatmap.recordVisit(3, 0);
+		heatmap.recordRejectedMoves(-1, 0, 1);
+
+		Heatmap.Snapshot snapshot = heatmap.snapshot();
+		Assert.assertEquals(1, snapshot.getVisits(0, 0));
+		Assert.assertEquals(2, snapshot.getVisits(2, 1));
+		Assert.assertEquals(5, snapshot.getRejectedMoves(2, 1));
+		Assert.assertEquals(0, snapshot.getVisits(1, 1));
+
+		heatmap.reset();
+		Assert.assertEquals(2, snapshot.getVisits(2, 1));
+		Assert.assertEquals(0, heatmap.snapshot().getVisits(2, 1));
+	}
+
+	@Test
+	void testStripeCount() {
+		Assert.assertEquals(1, new Heatmap(3, 2, 1).getStripeCount());
+		Assert.assertEquals(4, new Heatmap(3, 2, 3).getStripeCount());
+		Assert.assertEquals(Heatmap.MAX_STRIPES, new Heatmap(3, 2, 1000).getStripeCount());
+		Assert.assertTrue(new Heatmap(3, 2).getStripeCount() <= Heatmap.MAX_STRIPES);
+	}
+
+	@Test
+	void testConcurrentRecording() throws Exception {
+		Heatmap heatmap = new Heatmap(4, 4, 4);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < 8; t++) {
+				futures.add(executor.submit(() -> {
+					for (int i = 0; i < 100_000; i++) {
+						heatmap.recordVisit(i & 3, (i >>> 2) & 3);
+						if ((i & 15) == 0) {
+							heatmap.recordRejectedMoves(0, 0, 1);
+						}
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+		Heatmap.Snapshot snapshot = heatmap.snapshot();
+		for (int x = 0; x < 4; x++) {
+			for (int y = 0; y < 4; y++) {
+				Assert.assertEquals(8 * 100_000 / 16, snapshot.getVisits(x, y));
+			}
+		}
+		Assert.assertEquals(8 * 100_000 / 16, snapshot.getRejectedMoves(0, 0));
+	}
+
+	@Test
+	void testExport() throws IOException {
+		Heatmap heatmap = new Heatmap(300, 200);
+		heatmap.recordVisit(1, 0);
+		heatmap.recordVisit(299, 199);
+		heatmap.recordRejectedMoves(299, 199, 3);
+		Heatmap.Snapshot snapshot = heatmap.snapshot();
+
+		StringWriter csv = new StringWriter();
+		snapshot.writeCsv(csv);
+		Assert.assertEquals("x,y,visits,rejected\n1,0,1,0\n299,199,1,3\n", csv.toString());
+
+		ByteArrayOutputStream binary = new ByteArrayOutputStream();
+		snapshot.writeBinary(Channels.newChannel(binary));
+		Assert.assertEquals(12 + 300 * 200 * 16, binary.size());
+		Heatmap.Snapshot read = Heatmap.Snapshot
+				.readBinary(Channels.newChannel(new ByteArrayInputStream(binary.toByteArray())));
+		Assert.assertEquals(300, read.getUnitsX());
+		Assert.assertEquals(200, read.getUnitsY());
+		Assert.assertEquals(1, read.getVisits(1, 0));
+		Assert.assertEquals(3, read.getRejectedMoves(299, 199));
+
+		byte[] truncated = new byte[binary.size() - 1];
+		System.arraycopy(binary.toByteArray(), 0, truncated, 0, truncated.length);
+		try {
+			Heatmap.Snapshot.readBinary(Channels.newChannel(new ByteArrayInputStream(truncated)));
+			Assert.fail("A truncated heatmap must be rejected.");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package com.ie.pacman.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.jupiter.api.Test;
+
+class LatencyHistogramTest {
+
+	@Test
+	void testBuckets() {
+		long previous = -1;
+		for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+			long highest = LatencyHistogram.highestOf(i);
+			Assert.assertTrue(highest > previous);
+			Assert.assertEquals(i, LatencyHistogram.indexOf(previous + 1));
+			Assert.assertEquals(i, LatencyHistogram.indexOf(highest));
+			previous = highest;
+		}
+		Assert.assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.indexOf(Long.MAX_VALUE));
+	}
+
+	@Test
+	void testPrecision() {
+		for (long v = 1; v < 1L << 36; v = v * 3 + 1) {
+			long highest = LatencyHistogram.highestOf(LatencyHistogram.indexOf(v));
+			Assert.assertTrue(highest >= v);
+			Assert.assertTrue(highest - v <= v / 32);
+		}
+	}
+
+	@Test
+	void testPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram(2);
+		for (int v = 1; v <= 1000; v++) {
+			histogram.record(v);
+		}
+		histogram.record(-5); // recorded as 0
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+		Assert.assertEquals(1001, snapshot.getCount());
+		Assert.assertEquals(1000, snapshot.getMax());
+		Assert.assertEquals(500500 / 1001.0, snapshot.getMean(), 1e-9);
+		Assert.assertEquals(0, snapshot.getValueAtPercentile(0));
+		Assert.assertEquals(1000, snapshot.getValueAtPercentile(100));
+		long median = snapshot.getValueAtPercentile(50);
+		Assert.assertTrue(median >= 500 && median <= 500 + 500 / 32);
+		long p99 = snapshot.getValueAtPercentile(99);
+		Assert.assertTrue(p99 >= 990 && p99 <= 990 + 990 / 32);
+	}
+
+	@Test
+	void testEmptyAndReset() {
+		LatencyHistogram histogram = new LatencyHistogram(1);
+		Assert.assertEquals(0, histogram.snapshot().getValueAtPercentile(99));
+		Assert.assertEquals(0, histogram.snapshot().getMean(), 0);
+
+		histogram.record(123);
+		histogram.reset();
+		Assert.assertEquals(0, histogram.snapshot().getCount());
+		Assert.assertEquals(0, histogram.snapshot().getMax());
+	}
+
+	@Test
+	void testConcurrentRecording() throws Exception {
+		LatencyHistogram histogram = new LatencyHistogram(4);
+		int threads = 8;
+		int values = 100000;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < threads; t++) {
+				futures.add(executor.submit(() -> {
+					for (int v = 0; v < values; v++) {
+						histogram.record(v);
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+		Assert.assertEquals((long) threads * values, histogram.snapshot().getCount());
+		Assert.assertEquals(values - 1, histogram.snapshot().getMax());
+	}
+}
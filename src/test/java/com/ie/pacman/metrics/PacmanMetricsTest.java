@@ -0,0 +1,90 @@
+package com.ie.pacman.metrics;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.jupiter.api.Test;
+
+import com.ie.pacman.engine.Command;
+import com.ie.pacman.engine.PacmanEngine;
+import com.ie.pacman.engine.PacmanSessionRegistry;
+
+class PacmanMetricsTest {
+
+	private PacmanMetrics metrics = new PacmanMetrics();
+
+	@Test
+	void testEngineCounters() {
+		PacmanEngine engine = new PacmanEngine();
+		engine.setMetrics(metrics);
+		engine.processInstructions(new String[] { "MOVE", "REPORT", "PLACE 5,5,NORTH", "PLACE 0,4,NORTH", "MOVE",
+				"LEFT", "MOVE", "RIGHT", "REPORT", "JUMP", "PLACE 1,2", "QUIT" });
+
+		Assert.assertEquals(2, metrics.getPlaceCount());
+		Assert.assertEquals(3, metrics.getMoveCount());
+		Assert.assertEquals(1, metrics.getLeftCount());
+		Assert.assertEquals(1, metrics.getRightCount());
+		Assert.assertEquals(2, metrics.getReportCount());
+		Assert.assertEquals(1, metrics.getQuitCount());
+		Assert.assertEquals(2, metrics.getMalformedCount());
+		Assert.assertEquals(1, metrics.getRejectedPlacementCount());
+		Assert.assertEquals(2, metrics.getRejectedMoveCount());
+		Assert.assertEquals(2, metrics.getIgnoredUnplacedCount());
+		Assert.assertEquals(12, metrics.getLatencyCount());
+		Assert.assertEquals(12, metrics.getLatency().getCount());
+		Assert.assertTrue(metrics.getLatencyMax() >= metrics.getLatencyMedian());
+
+		metrics.reset();
+		Assert.assertEquals(0, metrics.getCommandCount(Command.PLACE));
+		Assert.assertEquals(0, metrics.getLatencyCount());
+	}
+
+	@Test
+	void testNoMetrics() {
+		PacmanEngine engine = new PacmanEngine();
+		engine.setMetrics(metrics);
+		engine.processInstruction("PLACE 0,0,NORTH");
+		engine.setMetrics(null);
+		engine.processInstruction("MOVE");
+		Assert.assertEquals(1, metrics.getLatencyCount());
+		Assert.assertEquals(0, metrics.getMoveCount());
+	}
+
+	@Test
+	void testSharedByRegistry() {
+		PacmanSessionRegistry registry = new PacmanSessionRegistry();
+		registry.setMetrics(metrics);
+		registry.create("a", 5, 5);
+		registry.create("b", 5, 5);
+		registry.processInstruction("a", "PLACE 0,0,SOUTH");
+		registry.processInstruction("b", "PLACE 0,0,SOUTH");
+		registry.processInstruction("b", "MOVE");
+		Assert.assertEquals(2, metrics.getPlaceCount());
+		Assert.assertEquals(1, metrics.getRejectedMoveCount());
+	}
+
+	@Test
+	void testJmx() throws Exception {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName("com.ie.pacman:type=PacmanMetrics,name=\"test\"");
+		metrics.register("test");
+		try {
+			metrics.recordCommand(Command.MOVE);
+			metrics.recordLatency(1000);
+			Assert.assertEquals(1L, server.getAttribute(name, "MoveCount"));
+			Assert.assertEquals(1000L, server.getAttribute(name, "LatencyMax"));
+			try {
+				metrics.register("test");
+				Assert.fail("Registering twice must fail.");
+			} catch (IllegalStateException e) {
+				// expected
+			}
+		} finally {
+			metrics.unregister();
+		}
+		Assert.assertFalse(server.isRegistered(name));
+	}
+}
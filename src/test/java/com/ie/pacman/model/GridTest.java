@@ -1,5 +1,9 @@
 package com.ie.pacman.model;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+
 import org.junit.Assert;
 import org.junit.jupiter.api.Test;
 
@@ -46,4 +50,86 @@ class GridTest {
 
 	}
 
+	@Test
+	void testFreeUnits() {
+		Grid t = new Grid(5, 3);
+
+		Assert.assertEquals(2, t.freeUnits(1, 0, Pacman.Direction.NORTH, 10));
+		Assert.assertEquals(3, t.freeUnits(1, 0, Pacman.Direction.EAST, 10));
+		Assert.assertEquals(2, t.freeUnits(1, 0, Pacman.Direction.EAST, 2));
+		Assert.assertEquals(0, t.freeUnits(1, 0, Pacman.Direction.SOUTH, 10));
+		Assert.assertEquals(1, t.freeUnits(1, 0, Pacman.Direction.WEST, 10));
+		Assert.assertEquals(0, t.freeUnits(1, 0, Pacman.Direction.WEST, 0));
+	}
+
+	@Test
+	void testBlocked() {
+		Grid t = new Grid(5, 5);
+		Assert.assertEquals(false, t.hasObstacles());
+		t.block(2, 3);
+		Assert.assertEquals(true, t.hasObstacles());
+		Assert.assertEquals(true, t.isBlocked(2, 3));
+		Assert.assertEquals(false, t.isValidXY(2, 3));
+		Assert.assertEquals(false, t.isBlocked(3, 2));
+		Assert.assertEquals(true, t.isValidXY(3, 2));
+		// bounds still apply to each axis
+		Assert.assertEquals(true, t.isValidX(2));
+		Assert.assertEquals(true, t.isValidY(3));
+
+		t.unblock(2, 3);
+		Assert.assertEquals(true, t.isValidXY(2, 3));
+	}
+
+	@Test
+	void testFreeUnitsWithObstacles() {
+		// wide enough for rows to span several words of the bitset
+		Grid t = new Grid(200, 200);
+		t.block(150, 10);
+		t.block(3, 10);
+		t.block(20, 120);
+
+		Assert.assertEquals(2, t.freeUnits(0, 10, Pacman.Direction.EAST, 1000));
+		Assert.assertEquals(145, t.freeUnits(4, 10, Pacman.Direction.EAST, 1000));
+		Assert.assertEquals(49, t.freeUnits(100, 10, Pacman.Direction.EAST, 49));
+		Assert.assertEquals(0, t.freeUnits(149, 10, Pacman.Direction.EAST, 5));
+		Assert.assertEquals(49, t.freeUnits(151, 11, Pacman.Direction.WEST, 49));
+		Assert.assertEquals(150, t.freeUnits(150, 11, Pacman.Direction.WEST, 1000));
+		Assert.assertEquals(145, t.freeUnits(149, 10, Pacman.Direction.WEST, 1000));
+		Assert.assertEquals(0, t.freeUnits(4, 10, Pacman.Direction.WEST, 1000));
+		Assert.assertEquals(109, t.freeUnits(20, 10, Pacman.Direction.NORTH, 1000));
+		Assert.assertEquals(78, t.freeUnits(20, 199, Pacman.Direction.SOUTH, 1000));
+		Assert.assertEquals(10, t.freeUnits(21, 10, Pacman.Direction.SOUTH, 1000));
+	}
+
+	@Test
+	void testRead() throws IOException {
+		Grid t = Grid.read(new BufferedReader(new StringReader("..#\n#\n...")));
+		Assert.assertEquals(3, t.getUnitsX());
+		Assert.assertEquals(3, t.getUnitsY());
+		// first line is the NORTH most row
+		Assert.assertEquals(true, t.isBlocked(2, 2));
+		Assert.assertEquals(true, t.isBlocked(0, 1));
+		Assert.assertEquals(false, t.isBlocked(1, 1));
+		Assert.assertEquals(false, t.isBlocked(2, 1));
+		Assert.assertEquals(false, t.isBlocked(0, 0));
+
+		try {
+			Grid.read(new BufferedReader(new StringReader("..x")));
+			Assert.fail("Unknown map characters must be rejected.");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	@Test
+	void testBlock_TooLarge() {
+		Grid t = new Grid(Integer.MAX_VALUE, Integer.MAX_VALUE);
+		try {
+			t.block(0, 0);
+			Assert.fail("A bitset larger than an array must be rejected.");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		Assert.assertEquals(false, t.isBlocked(0, 0));
+	}
 }
@@ -0,0 +1,83 @@
+package com.ie.pacman.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.jupiter.api.Test;
+
+class OccupancyIndexTest {
+
+	private OccupancyIndex index = new OccupancyIndex(new Grid(3, 2));
+
+	@Test
+	void testOccupy() {
+		Assert.assertTrue(index.occupy(0, 0, 1));
+		Assert.assertTrue("Occupying its own cell again must succeed.", index.occupy(0, 0, 1));
+		Assert.assertFalse(index.occupy(0, 0, 2));
+		Assert.assertEquals(1, index.get(0, 0));
+		Assert.assertFalse("Releasing the cell of another agent must fail.", index.release(0, 0, 2));
+		Assert.assertTrue(index.release(0, 0, 1));
+		Assert.assertEquals(OccupancyIndex.FREE, index.get(0, 0));
+	}
+
+	@Test
+	void testMove() {
+		index.occupy(0, 0, 1);
+		index.occupy(1, 0, 2);
+		Assert.assertFalse(index.move(0, 0, 1, 0, 1));
+		Assert.assertTrue(index.move(0, 0, 0, 1, 1));
+		Assert.assertEquals(OccupancyIndex.FREE, index.get(0, 0));
+		Assert.assertEquals(1, index.get(0, 1));
+		Assert.assertTrue(index.move(0, 1, 0, 1, 1));
+		Assert.assertEquals(1, index.get(0, 1));
+	}
+
+	@Test
+	void testInvalid() {
+		try {
+			index.occupy(3, 0, 1);
+			Assert.fail("Occupying a cell outside the grid must fail.");
+		} catch (IndexOutOfBoundsException e) {
+			// expected
+		}
+		try {
+			index.occupy(0, 0, OccupancyIndex.FREE);
+			Assert.fail("Occupying a cell with the free identifier must fail.");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	void testRace() throws Exception {
+		int threads = 8;
+		for (int round = 0; round < 200; round++) {
+			OccupancyIndex shared = new OccupancyIndex(new Grid(2, 2));
+			CountDownLatch start = new CountDownLatch(1);
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+			try {
+				List<Future<Boolean>> futures = new ArrayList<>();
+				for (int t = 1; t <= threads; t++) {
+					int agent = t;
+					futures.add(executor.submit(() -> {
+						start.await();
+						return shared.occupy(1, 1, agent);
+					}));
+				}
+				start.countDown();
+				int winners = 0;
+				for (Future<Boolean> future : futures) {
+					winners += future.get() ? 1 : 0;
+				}
+				Assert.assertEquals(1, winners);
+			} finally {
+				executor.shutdown();
+			}
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package com.ie.pacman.model;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.jupiter.api.Test;
+
+import com.ie.pacman.engine.PacmanEngine;
+import com.ie.pacman.model.Pacman.Direction;
+
+class PacmanFleetTest {
+
+	private Grid grid = new Grid(5, 4);
+	private PacmanFleet fleet = new PacmanFleet(grid, 3);
+
+	@Test
+	void testNotPlaced() {
+		fleet.moveAll();
+		fleet.turnLeftAll();
+		fleet.turnRightAll();
+		Assert.assertEquals(false, fleet.isPlaced(0));
+		Assert.assertNull(fleet.getDirection(0));
+		Assert.assertEquals("", fleet.report(0));
+	}
+
+	@Test
+	void testPlace() {
+		Assert.assertEquals(false, fleet.place(0, 5, 0, Direction.NORTH));
+		Assert.assertEquals(false, fleet.place(0, 0, 4, Direction.NORTH));
+		Assert.assertEquals(false, fleet.place(0, -1, 0, Direction.NORTH));
+		Assert.assertEquals(false, fleet.place(0, 0, 0, null));
+		Assert.assertEquals(true, fleet.place(0, 4, 3, Direction.WEST));
+		Assert.assertEquals("4,3,WEST", fleet.report(0));
+		Assert.assertEquals(false, fleet.isPlaced(1));
+
+		Assert.assertEquals(true, fleet.placeAll(1, 1, Direction.SOUTH));
+		Assert.assertEquals("1,1,SOUTH", fleet.report(2));
+	}
+
+	@Test
+	void testMoveAndTurnSelected() {
+		fleet.placeAll(0, 0, Direction.NORTH);
+		int[] selected = { 2, 0 };
+		fleet.move(selected, 1);
+		fleet.turnRight(selected, 2);
+		fleet.move(selected, 2);
+		fleet.turnLeft(selected, 1);
+		Assert.assertEquals("1,0,EAST", fleet.report(0));
+		Assert.assertEquals("0,0,NORTH", fleet.report(1));
+		Assert.assertEquals("1,1,NORTH", fleet.report(2));
+	}
+
+	@Test
+	void testSameAsEngine() {
+		Random random = new Random(7);
+		int agents = 50;
+		PacmanFleet fleet = new PacmanFleet(grid, agents);
+		PacmanEngine[] engines = new PacmanEngine[agents];
+		for (int i = 0; i < agents; i++) {
+			engines[i] = new PacmanEngine(grid);
+			if (i % 10 != 0) {
+				// leave some agents unplaced
+				int x = random.nextInt(5);
+				int y = random.nextInt(4);
+				Direction d = Direction.values()[random.nextInt(4)];
+				fleet.place(i, x, y, d);
+				engines[i].place(x, y, d);
+			}
+		}
+		for (int step = 0; step < 1000; step++) {
+			switch (random.nextInt(3)) {
+			case 0:
+				fleet.moveAll();
+				for (PacmanEngine e : engines) {
+					e.move();
+				}
+				break;
+			case 1:
+				fleet.turnLeftAll();
+				for (PacmanEngine e : engines) {
+					e.turnLeft();
+				}
+				break;
+			default:
+				fleet.turnRightAll();
+				for (PacmanEngine e : engines) {
+					e.turnRight();
+				}
+			}
+			for (int i = 0; i < agents; i++) {
+				Assert.assertEquals(engines[i].report(), fleet.report(i));
+			}
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package com.ie.pacman.model;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.jupiter.api.Test;
+
+import com.ie.pacman.model.Pacman.Direction;
+
+class PelletsTest {
+
+	@Test
+	void testOf() {
+		Grid grid = new Grid(70, 3);
+		grid.block(1, 0);
+		grid.block(69, 2);
+		Pellets pellets = Pellets.of(grid);
+		Assert.assertEquals(208, pellets.getRemaining());
+		Assert.assertFalse(pellets.hasPellet(1, 0));
+		Assert.assertFalse(pellets.hasPellet(69, 2));
+		Assert.assertTrue(pellets.hasPellet(68, 2));
+		Assert.assertTrue(pellets.hasPellet(0, 0));
+		Assert.assertEquals(0, pellets.getScore());
+		Assert.assertFalse(pellets.isCleared());
+	}
+
+	@Test
+	void testEat() {
+		Pellets pellets = new Pellets(5, 5);
+		pellets.put(2, 3);
+		pellets.put(2, 3);
+		pellets.put(4, 4);
+		Assert.assertEquals(2, pellets.getRemaining());
+		Assert.assertTrue(pellets.eat(2, 3));
+		Assert.assertFalse(pellets.eat(2, 3));
+		Assert.assertFalse(pellets.eat(0, 0));
+		Assert.assertEquals(1, pellets.getRemaining());
+		Assert.assertEquals(Pellets.POINTS, pellets.getScore());
+		pellets.remove(4, 4);
+		Assert.assertTrue(pellets.isCleared());
+		Assert.assertEquals(Pellets.POINTS, pellets.getScore());
+
+		pellets.reset();
+		Assert.assertEquals(1, pellets.getRemaining());
+		Assert.assertTrue(pellets.hasPellet(2, 3));
+		Assert.assertEquals(0, pellets.getScore());
+	}
+
+	@Test
+	void testEatLine() {
+		Grid grid = new Grid(200, 7);
+		Random random = new Random(11);
+		for (int i = 0; i < 300; i++) {
+			grid.block(random.nextInt(200), random.nextInt(7));
+		}
+		Pellets lines = Pellets.of(grid);
+		Pellets cells = Pellets.of(grid);
+		for (int i = 0; i < 1000; i++) {
+			int x = random.nextInt(200);
+			int y = random.nextInt(7);
+			Direction d = Direction.values()[random.nextInt(4)];
+			int units = grid.freeUnits(x, y, d, random.nextInt(150));
+			int eaten = 0;
+			Pacman p = new Pacman(x, y, d);
+			for (int u = 0; u < units; u++) {
+				p.move();
+				if (cells.eat(p.getX(), p.getY())) {
+					eaten++;
+				}
+			}
+			Assert.assertEquals(eaten, lines.eatLine(x, y, d, units));
+			Assert.assertEquals(cells.getRemaining(), lines.getRemaining());
+		}
+		for (int x = 0; x < 200; x++) {
+			for (int y = 0; y < 7; y++) {
+				Assert.assertEquals(cells.hasPellet(x, y), lines.hasPellet(x, y));
+			}
+		}
+	}
+
+	@Test
+	void testCopy() {
+		Pellets layout = new Pellets(5, 5);
+		layout.put(1, 1);
+		Pellets copy = new Pellets(layout);
+		copy.put(3, 3);
+		copy.eat(1, 1);
+		Assert.assertEquals(1, layout.getRemaining());
+		Assert.assertFalse(layout.hasPellet(3, 3));
+		copy.reset();
+		Assert.assertEquals(2, copy.getRemaining());
+		layout.reset();
+		Assert.assertEquals(1, layout.getRemaining());
+	}
+}
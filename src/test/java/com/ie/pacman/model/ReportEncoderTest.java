@@ -0,0 +1,64 @@
+package com.ie.pacman.model;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.jupiter.api.Test;
+
+import com.ie.pacman.model.Pacman.Direction;
+
+class ReportEncoderTest {
+
+	private ByteBuffer out = ByteBuffer.allocate(ReportEncoder.MAX_LENGTH);
+
+	@Test
+	void testTable() {
+		ReportEncoder encoder = ReportEncoder.of(12, 9);
+		Assert.assertSame(encoder, ReportEncoder.of(12, 9));
+		for (int x = -1; x <= 12; x++) {
+			for (int y = -1; y <= 9; y++) {
+				for (Direction d : Direction.values()) {
+					Assert.assertEquals(new Pacman(x, y, d).report() + "\n", encode(encoder, x, y, d));
+				}
+			}
+		}
+	}
+
+	@Test
+	void testLargeGrid() {
+		ReportEncoder encoder = ReportEncoder.of(100000, 100000);
+		Assert.assertEquals("0,0,NORTH\n", encode(encoder, 0, 0, Direction.NORTH));
+		Assert.assertEquals("99999,12345,WEST\n", encode(encoder, 99999, 12345, Direction.WEST));
+		Assert.assertEquals("-2147483648,2147483647,SOUTH\n",
+				encode(encoder, Integer.MIN_VALUE, Integer.MAX_VALUE, Direction.SOUTH));
+		Assert.assertEquals(ReportEncoder.MAX_LENGTH, "-2147483648,-2147483648,SOUTH\n".length());
+	}
+
+	@Test
+	void testAppends() {
+		ReportEncoder encoder = ReportEncoder.of(5, 5);
+		ByteBuffer buffer = ByteBuffer.allocate(64);
+		encoder.encode(new Pacman(1, 2, Direction.EAST), buffer);
+		encoder.encode(new Pacman(3, 4, Direction.NORTH), buffer);
+		Assert.assertEquals("1,2,EAST\n3,4,NORTH\n", new String(buffer.array(), 0, buffer.position(),
+				StandardCharsets.US_ASCII));
+	}
+
+	@Test
+	void testOverflow() {
+		try {
+			ReportEncoder.of(100000, 1).encode(12345, 0, Direction.EAST, ByteBuffer.allocate(3));
+			Assert.fail("Encoding into a full buffer must fail.");
+		} catch (BufferOverflowException e) {
+			// expected
+		}
+	}
+
+	private String encode(ReportEncoder encoder, int x, int y, Direction d) {
+		out.clear();
+		encoder.encode(x, y, d, out);
+		return new String(out.array(), 0, out.position(), StandardCharsets.US_ASCII);
+	}
+}
@@ -0,0 +1,85 @@
+package com.ie.pacman.model;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.jupiter.api.Test;
+
+import com.ie.pacman.model.Pacman.Direction;
+
+class SparsePacmanTest {
+
+	@Test
+	void testMove() {
+		SparseWorld world = new SparseWorld();
+		world.block(-2, 5);
+		SparsePacman p = new SparsePacman(world);
+		Assert.assertFalse(p.move());
+		p.turnLeft();
+		Assert.assertEquals("", p.report());
+		Assert.assertFalse(p.place(-2, 5, Direction.EAST));
+		Assert.assertFalse(p.isPlaced());
+
+		Assert.assertTrue(p.place(-1, 5, Direction.WEST));
+		Assert.assertFalse(p.move());
+		p.turnRight();
+		Assert.assertTrue(p.move());
+		Assert.assertEquals("-1,6,NORTH", p.report());
+		p.turnRight();
+		Assert.assertEquals(70_000_000L, p.move(70_000_000L));
+		Assert.assertEquals("69999999,6,EAST", p.report());
+	}
+
+	@Test
+	void testMove_EndOfWorld() {
+		SparsePacman p = new SparsePacman(new SparseWorld());
+		p.place(Long.MAX_VALUE - 1, Long.MIN_VALUE, Direction.EAST);
+		Assert.assertTrue(p.move());
+		Assert.assertFalse(p.move());
+		p.turnRight();
+		Assert.assertFalse(p.move());
+		Assert.assertEquals(0, p.move(5));
+		Assert.assertEquals(Long.MAX_VALUE, p.getX());
+		Assert.assertEquals(Long.MIN_VALUE, p.getY());
+	}
+
+	@Test
+	void testMove_Units() {
+		Random random = new Random(9);
+		SparseWorld world = new SparseWorld();
+		for (int i = 0; i < 2000; i++) {
+			world.block(random.nextInt(400) - 200, random.nextInt(400) - 200);
+		}
+		SparsePacman steps = new SparsePacman(world);
+		SparsePacman jumps = new SparsePacman(world);
+		world.unblock(0, 0);
+		steps.place(0, 0, Direction.NORTH);
+		jumps.place(0, 0, Direction.NORTH);
+		for (int i = 0; i < 2000; i++) {
+			if (random.nextBoolean()) {
+				steps.turnLeft();
+				jumps.turnLeft();
+			}
+			int units = random.nextInt(100);
+			long moved = 0;
+			while (moved < units && steps.move()) {
+				moved++;
+			}
+			Assert.assertEquals(moved, jumps.move(units));
+			Assert.assertEquals(steps.report(), jumps.report());
+		}
+	}
+
+	@Test
+	void testMove_Far() {
+		SparseWorld world = new SparseWorld();
+		world.block(0, 1L << 40);
+		SparsePacman p = new SparsePacman(world);
+		p.place(0, 0, Direction.NORTH);
+		Assert.assertEquals((1L << 40) - 1, p.move(Long.MAX_VALUE));
+		p.turnRight();
+		Assert.assertEquals(Long.MAX_VALUE, p.move(Long.MAX_VALUE));
+		Assert.assertEquals(Long.MAX_VALUE, p.getX());
+		Assert.assertEquals((1L << 40) - 1, p.getY());
+	}
+}
@@ -0,0 +1,193 @@
+package com.ie.pacman.model;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.jupiter.api.Test;
+
+import com.ie.pacman.model.Pacman.Direction;
+
+class SparseWorldTest {
+
+	/**
+	 * About one cell in eight blocked, at random but the same for every
+	 * generation of a chunk
+	 */
+	private static boolean scattered(long x, long y) {
+		long h = x * 0x9E3779B97F4A7C15L ^ y * 0xC2B2AE3D27D4EB4FL;
+		h ^= h >>> 29;
+		h *= 0xBF58476D1CE4E5B9L;
+		return ((h ^ (h >>> 32)) & 7) == 0;
+	}
+
+	private static final SparseWorld.Terrain SCATTERED = (chunkX, chunkY, rows) -> {
+		for (int r = 0; r < SparseWorld.CHUNK_SIZE; r++) {
+			for (int c = 0; c < SparseWorld.CHUNK_SIZE; c++) {
+				if (scattered(chunkX * SparseWorld.CHUNK_SIZE + c, chunkY * SparseWorld.CHUNK_SIZE + r)) {
+					rows[r] |= 1L << c;
+				}
+			}
+		}
+	};
+
+	@Test
+	void testBlock() {
+		SparseWorld world = new SparseWorld();
+		long far = 3_000_000_000_000L;
+		Assert.assertTrue(world.isOpen(far, -far));
+		Assert.assertEquals(0, world.getEditedChunks());
+
+		world.block(far, -far);
+		world.block(-1, -1);
+		world.block(Long.MAX_VALUE, Long.MIN_VALUE);
+		Assert.assertTrue(world.isBlocked(far, -far));
+		Assert.assertTrue(world.isBlocked(-1, -1));
+		Assert.assertTrue(world.isBlocked(Long.MAX_VALUE, Long.MIN_VALUE));
+		Assert.assertTrue(world.isOpen(far + 1, -far));
+		Assert.assertTrue(world.isOpen(0, 0));
+		Assert.assertTrue(world.isOpen(-1, -2));
+		Assert.assertTrue(world.isOpen(-65, -1));
+		Assert.assertEquals(3, world.getEditedChunks());
+		Assert.assertEquals(0, world.getResidentChunks());
+
+		world.unblock(-1, -1);
+		Assert.assertTrue(world.isOpen(-1, -1));
+	}
+
+	@Test
+	void testTerrain() {
+		SparseWorld world = new SparseWorld(SCATTERED, 16);
+		Random random = new Random(5);
+		for (int i = 0; i < 100_000; i++) {
+			long x = random.nextInt(2000) - 1000 + (i % 3 == 0 ? Long.MAX_VALUE / 2 : 0);
+			long y = random.nextInt(2000) - 1000;
+			Assert.assertEquals(scattered(x, y), world.isBlocked(x, y));
+		}
+		Assert.assertEquals(16, world.getResidentChunks());
+		Assert.assertEquals(0, world.getEditedChunks());
+	}
+
+	@Test
+	void testTerrain_LeastRecentlyUsed() {
+		long[] generated = new long[1];
+		SparseWorld world = new SparseWorld((chunkX, chunkY, rows) -> {
+			generated[0]++;
+			rows[0] = 1; // the SOUTH WEST cell of every chunk
+		}, 2);
+		Assert.assertTrue(world.isBlocked(0, 0));
+		Assert.assertTrue(world.isBlocked(64, 0));
+		Assert.assertTrue(world.isOpen(1, 0));
+		Assert.assertEquals(2, world.getGeneratedCount());
+		// the third chunk drops the least recently used one, 64,0
+		Assert.assertTrue(world.isBlocked(128, 0));
+		Assert.assertEquals(2, world.getResidentChunks());
+		Assert.assertTrue(world.isBlocked(0, 0));
+		Assert.assertEquals(3, world.getGeneratedCount());
+		Assert.assertTrue(world.isBlocked(64, 0));
+		Assert.assertEquals(4, world.getGeneratedCount());
+
+		// an edited chunk is never dropped
+		world.unblock(-64, -64);
+		world.block(-63, -64);
+		for (int i = 0; i < 10; i++) {
+			Assert.assertTrue(world.isBlocked(i * 64, 640));
+		}
+		Assert.assertTrue(world.isOpen(-64, -64));
+		Assert.assertTrue(world.isBlocked(-63, -64));
+		Assert.assertEquals(1, world.getEditedChunks());
+		Assert.assertEquals(2, world.getResidentChunks());
+		Assert.assertEquals(15, world.getGeneratedCount());
+	}
+
+	@Test
+	void testFreeUnits() {
+		SparseWorld world = new SparseWorld(SCATTERED, 64);
+		Random random = new Random(3);
+		long[] origins = { 0, -500, Long.MAX_VALUE - 300, Long.MIN_VALUE + 300 };
+		for (int i = 0; i < 5000; i++) {
+			long x = origins[random.nextInt(4)] + random.nextInt(600) - 300;
+			long y = origins[random.nextInt(4)] + random.nextInt(600) - 300;
+			Direction d = Direction.values()[random.nextInt(4)];
+			long max = random.nextInt(400);
+			long expected = 0;
+			long cx = x;
+			long cy = y;
+			while (expected < max) {
+				if (d == Direction.NORTH && cy == Long.MAX_VALUE || d == Direction.EAST && cx == Long.MAX_VALUE
+						|| d == Direction.SOUTH && cy == Long.MIN_VALUE || d == Direction.WEST && cx == Long.MIN_VALUE) {
+					break;
+				}
+				cx += d == Direction.EAST ? 1 : d == Direction.WEST ? -1 : 0;
+				cy += d == Direction.NORTH ? 1 : d == Direction.SOUTH ? -1 : 0;
+				if (scattered(cx, cy)) {
+					break;
+				}
+				expected++;
+			}
+			Assert.assertEquals(x + "," + y + "," + d + " " + max, expected, world.freeUnits(x, y, d, max));
+		}
+	}
+
+	@Test
+	void testFreeUnits_Open() {
+		SparseWorld world = new SparseWorld();
+		Assert.assertEquals(1_000_000, world.freeUnits(0, 0, Direction.EAST, 1_000_000));
+		Assert.assertEquals(100_000_000, world.freeUnits(0, 0, Direction.WEST, 100_000_000));
+		Assert.assertEquals(0, world.freeUnits(Long.MIN_VALUE, 0, Direction.WEST, 10));
+		Assert.assertEquals(3, world.freeUnits(0, Long.MAX_VALUE - 3, Direction.NORTH, 10));
+		world.block(-100, 7);
+		Assert.assertEquals(99, world.freeUnits(0, 7, Direction.WEST, 1_000_000));
+		Assert.assertEquals(0, world.freeUnits(0, 7, Direction.WEST, 0));
+	}
+
+	@Test
+	void testFreeUnits_Far() {
+		SparseWorld world = new SparseWorld();
+		Assert.assertEquals(Long.MAX_VALUE, world.freeUnits(0, 0, Direction.NORTH, Long.MAX_VALUE));
+		Assert.assertEquals(Long.MAX_VALUE, world.freeUnits(-1, 0, Direction.EAST, Long.MAX_VALUE));
+		Assert.assertEquals(Long.MAX_VALUE, world.freeUnits(0, 5, Direction.WEST, Long.MAX_VALUE));
+		Assert.assertEquals(Long.MAX_VALUE, world.freeUnits(5, -1, Direction.SOUTH, Long.MAX_VALUE));
+		world.block(3_000_000_000_000L, 5);
+		world.block(-3_000_000_000_000L, 5);
+		world.block(5, 3_000_000_000_000L);
+		world.block(5, -3_000_000_000_000L);
+		world.block(1_000, 1_000);
+		Assert.assertEquals(2_999_999_999_999L, world.freeUnits(0, 5, Direction.EAST, Long.MAX_VALUE));
+		Assert.assertEquals(2_999_999_999_999L, world.freeUnits(0, 5, Direction.WEST, Long.MAX_VALUE));
+		Assert.assertEquals(2_999_999_999_999L, world.freeUnits(5, 0, Direction.NORTH, Long.MAX_VALUE));
+		Assert.assertEquals(2_999_999_999_999L, world.freeUnits(5, 0, Direction.SOUTH, Long.MAX_VALUE));
+		Assert.assertEquals(1_000, world.freeUnits(3_000_000_000_000L, 5, Direction.EAST, 1_000));
+		Assert.assertEquals(Long.MAX_VALUE - 6, world.freeUnits(6, 6, Direction.EAST, Long.MAX_VALUE));
+		Assert.assertEquals(Long.MAX_VALUE - 3_000_000_000_000L, world.freeUnits(5, 3_000_000_000_000L, Direction.NORTH,
+				Long.MAX_VALUE));
+		Assert.assertEquals(-3_000_000_000_001L - Long.MIN_VALUE,
+				world.freeUnits(5, -3_000_000_000_001L, Direction.SOUTH, Long.MAX_VALUE));
+	}
+
+	@Test
+	void testFreeUnits_Edited() {
+		SparseWorld world = new SparseWorld();
+		Random random = new Random(5);
+		for (int i = 0; i < 300; i++) {
+			world.block(random.nextInt(2000) - 1000, random.nextInt(2000) - 1000);
+		}
+		for (int i = 0; i < 3000; i++) {
+			long x = random.nextInt(2000) - 1000;
+			long y = random.nextInt(2000) - 1000;
+			Direction d = Direction.values()[random.nextInt(4)];
+			long max = random.nextInt(3000);
+			long expected = 0;
+			long cx = x;
+			long cy = y;
+			while (expected < max) {
+				cx += d == Direction.EAST ? 1 : d == Direction.WEST ? -1 : 0;
+				cy += d == Direction.NORTH ? 1 : d == Direction.SOUTH ? -1 : 0;
+				if (!world.isOpen(cx, cy)) {
+					break;
+				}
+				expected++;
+			}
+			Assert.assertEquals(x + "," + y + "," + d + " " + max, expected, world.freeUnits(x, y, d, max));
+		}
+	}
+}
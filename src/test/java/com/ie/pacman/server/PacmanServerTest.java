@@ -0,0 +1,122 @@
+package com.ie.pacman.server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.ie.pacman.engine.LineScanner;
+import com.ie.pacman.engine.PacmanSessionRegistry;
+import com.ie.pacman.model.Grid;
+
+class PacmanServerTest {
+
+	private PacmanSessionRegistry registry = new PacmanSessionRegistry();
+	private PacmanServer server;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		server = new PacmanServer(registry, new Grid(5, 5), 2, 4096);
+		server.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		server.close();
+	}
+
+	private Socket connect() throws IOException {
+		return new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+	}
+
+	private static void send(Socket socket, String commands) throws IOException {
+		OutputStream out = socket.getOutputStream();
+		out.write(commands.getBytes(StandardCharsets.US_ASCII));
+		out.flush();
+	}
+
+	private static BufferedReader reader(Socket socket) throws IOException {
+		return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+	}
+
+	@Test
+	void testExample() throws IOException {
+		try (Socket socket = connect()) {
+			send(socket, "PLACE 1,2,EAST\r\nMOVE\r\nMOVE\r\nLEFT\r\nMOVE\r\nREPORT\r\n");
+			Assert.assertEquals("3,3,NORTH", reader(socket).readLine());
+		}
+	}
+
+	@Test
+	void testConnectionsHaveTheirOwnSession() throws IOException {
+		try (Socket a = connect(); Socket b = connect()) {
+			send(a, "PLACE 0,0,NORTH\nMOVE\nREPORT\n");
+			send(b, "PLACE 4,4,WEST\nREPORT\n");
+			Assert.assertEquals("0,1,NORTH", reader(a).readLine());
+			Assert.assertEquals("4,4,WEST", reader(b).readLine());
+		}
+	}
+
+	@Test
+	void testPipelining() throws Exception {
+		int reports = 20_000;
+		try (Socket socket = connect()) {
+			// write everything from another thread, results flow back meanwhile
+			Thread writer = new Thread(() -> {
+				try {
+					StringBuilder commands = new StringBuilder("PLACE 0,0,EAST\n");
+					for (int i = 0; i < reports; i++) {
+						commands.append(i % 2 == 0 ? "MOVE\nREPORT\n" : "LEFT\nLEFT\nMOVE\nREPORT\nRIGHT\nRIGHT\n");
+					}
+					send(socket, commands.append("QUIT\nREPORT\n").toString());
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+			});
+			writer.start();
+			BufferedReader in = reader(socket);
+			for (int i = 0; i < reports; i++) {
+				Assert.assertEquals(i % 2 == 0 ? "1,0,EAST" : "0,0,WEST", in.readLine());
+			}
+			// QUIT closes the connection and ignores what follows
+			Assert.assertNull(in.readLine());
+			writer.join();
+		}
+	}
+
+	@Test
+	void testLongLineDropped() throws IOException {
+		try (Socket socket = connect()) {
+			char[] line = new char[3 * LineScanner.DEFAULT_MAX_LINE_LENGTH];
+			Arrays.fill(line, 'X');
+			send(socket, "PLACE 0,0,NORTH\n");
+			send(socket, new String(line));
+			send(socket, new String(line) + "\nMOVE\nREPORT\n");
+			Assert.assertEquals("0,1,NORTH", reader(socket).readLine());
+		}
+	}
+
+	@Test
+	void testSessionRemovedOnClose() throws Exception {
+		try (Socket socket = connect()) {
+			send(socket, "PLACE 0,0,NORTH\nREPORT\n");
+			Assert.assertEquals("0,0,NORTH", reader(socket).readLine());
+			Assert.assertEquals(1, registry.size());
+		}
+		for (int i = 0; i < 100 && server.getConnectionCount() > 0; i++) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(0, server.getConnectionCount());
+		Assert.assertEquals(0, registry.size());
+	}
+}